@@ -0,0 +1,15 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.batch;
+
+/**
+ * BatchedIdentityInsertMySQLTest - Test to check the batched insert of IDENTITY entities on MySQL,
+ * where the batched inserts are rewritten as multi-row inserts
+ *
+ * @author Vlad Mihalcea
+ */
+public class BatchedIdentityInsertMySQLTest extends BatchedIdentityInsertTest {
+
+    @Override
+    protected DataSourceProvider getDataSourceProvider() {
+        return new MySQLDataSourceProvider();
+    }
+}
@@ -0,0 +1,265 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.batch;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.BatchedIdentityInserter;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * BatchedIdentityInsertTest - Test to check the batched insert of IDENTITY entities
+ * and to compare its throughput with the one-by-one IDENTITY inserts
+ *
+ * @author Vlad Mihalcea
+ */
+public class BatchedIdentityInsertTest extends AbstractTest {
+
+    private final BatchedIdentityInserter<Post> postInserter = new BatchedIdentityInserter<>(Post.class);
+
+    private final BatchedIdentityInserter<PostComment> commentInserter = new BatchedIdentityInserter<>(PostComment.class);
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Post.class,
+            PostComment.class,
+            TaggedPost.class
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.jdbc.batch_size", String.valueOf(batchSize()));
+        properties.put("hibernate.cache.use_second_level_cache", Boolean.TRUE.toString());
+        properties.put("hibernate.cache.use_query_cache", Boolean.TRUE.toString());
+        properties.put("hibernate.cache.region.factory_class", "org.hibernate.cache.ehcache.EhCacheRegionFactory");
+        return properties;
+    }
+
+    @Override
+    protected boolean proxyDataSource() {
+        return false;
+    }
+
+    @Test
+    public void testBatchedEntitiesAreManaged() {
+        List<Post> posts = newPosts(10);
+        doInTransaction(session -> {
+            assertTrue(postInserter.persistAll(session, posts));
+            Set<Long> ids = new HashSet<>();
+            for (Post post : posts) {
+                assertTrue(session.contains(post));
+                assertEquals(0, post.getVersion());
+                ids.add(post.getId());
+            }
+            assertEquals(posts.size(), ids.size());
+            posts.get(0).setTitle("Batched");
+        });
+        doInTransaction(session -> {
+            Post post = (Post) session.get(Post.class, posts.get(0).getId());
+            assertEquals("Batched", post.getTitle());
+            assertEquals(1, post.getVersion());
+        });
+    }
+
+    @Test
+    public void testBatchedManyToOne() {
+        doInTransaction(session -> {
+            List<Post> posts = newPosts(3);
+            postInserter.persistAll(session, posts);
+            List<PostComment> comments = new ArrayList<>();
+            for (Post post : posts) {
+                for (int i = 0; i < 5; i++) {
+                    comments.add(new PostComment(post, "Review " + i));
+                }
+            }
+            assertTrue(commentInserter.persistAll(session, comments));
+        });
+        doInTransaction(session -> {
+            List<Object[]> commentCounts = session.createQuery(
+                "select p.title, count(c) from PostComment c join c.post p group by p.title").list();
+            assertEquals(3, commentCounts.size());
+            for (Object[] commentCount : commentCounts) {
+                assertEquals(5L, commentCount[1]);
+            }
+        });
+    }
+
+    @Test
+    public void testQueryCacheInvalidation() {
+        assertEquals(0L, cachedPostCount());
+        getSessionFactory().getStatistics().clear();
+        doInTransaction(session -> {
+            assertTrue(postInserter.persistAll(session, newPosts(10)));
+        });
+        assertEquals(10, getSessionFactory().getStatistics().getEntityInsertCount());
+        assertEquals(10L, cachedPostCount());
+    }
+
+    @Test
+    public void testFallbackToOneByOnePersist() {
+        BatchedIdentityInserter<Post> inserter = new BatchedIdentityInserter<Post>(Post.class) {
+            @Override
+            protected boolean supportsBatchedGeneratedKeys(Connection connection) {
+                return false;
+            }
+        };
+        List<Post> posts = newPosts(10);
+        doInTransaction(session -> {
+            assertFalse(inserter.persistAll(session, posts));
+            for (Post post : posts) {
+                assertTrue(session.contains(post));
+                assertNotNull(post.getId());
+            }
+        });
+    }
+
+    private long cachedPostCount() {
+        return doInTransaction(session -> {
+            return (Long) session.createQuery("select count(p) from Post p")
+                .setCacheable(true)
+                .uniqueResult();
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequiresIdentityEntity() {
+        doInTransaction(session -> {
+            new BatchedIdentityInserter<>(Object.class).persistAll(session, new ArrayList<>());
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsOwnedCollection() {
+        doInTransaction(session -> {
+            new BatchedIdentityInserter<>(TaggedPost.class).persistAll(session, new ArrayList<>());
+        });
+    }
+
+    @Test
+    public void testInsertThroughput() {
+        for (int i = 0; i < 2; i++) {
+            boolean warmUp = i == 0;
+            long startNanos = System.nanoTime();
+            doInTransaction(session -> {
+                for (Post post : newPosts(rowCount())) {
+                    session.persist(post);
+                }
+            });
+            long oneByOneNanos = System.nanoTime() - startNanos;
+
+            startNanos = System.nanoTime();
+            doInTransaction(session -> {
+                postInserter.persistAll(session, newPosts(rowCount()));
+            });
+            long batchedNanos = System.nanoTime() - startNanos;
+            if (!warmUp) {
+                LOGGER.info("{} IDENTITY inserts: one by one {} rows/second, batched by {} {} rows/second",
+                    rowCount(),
+                    rowCount() * TimeUnit.SECONDS.toNanos(1) / oneByOneNanos,
+                    batchSize(),
+                    rowCount() * TimeUnit.SECONDS.toNanos(1) / batchedNanos);
+            }
+        }
+    }
+
+    protected int batchSize() {
+        return 50;
+    }
+
+    protected int rowCount() {
+        return 10_000;
+    }
+
+    private List<Post> newPosts(int count) {
+        List<Post> posts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            posts.add(new Post(String.format("Post no. %d", i)));
+        }
+        return posts;
+    }
+
+    @Entity(name = "Post")
+    public static class Post {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        private Long id;
+
+        private String title;
+
+        @Version
+        private int version;
+
+        public Post() {
+        }
+
+        public Post(String title) {
+            this.title = title;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+    }
+
+    @Entity(name = "PostComment")
+    public static class PostComment {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        private Long id;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Post post;
+
+        private String review;
+
+        public PostComment() {
+        }
+
+        public PostComment(Post post, String review) {
+            this.post = post;
+            this.review = review;
+        }
+
+        public Long getId() {
+            return id;
+        }
+    }
+
+    @Entity(name = "TaggedPost")
+    public static class TaggedPost {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        private Long id;
+
+        private String title;
+
+        @ElementCollection
+        private Set<String> tags = new HashSet<>();
+    }
+}
@@ -0,0 +1,596 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.batch;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.DatabaseCascadeDeleter;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.hibernate.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.persistence.*;
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+/**
+ * DatabaseCascadeDeleteTest - Test to check the database cascade delete keeps the Persistence Context and the
+ * second-level cache consistent, and to compare it with the entity-level cascade delete
+ *
+ * @author Vlad Mihalcea
+ */
+public class DatabaseCascadeDeleteTest extends AbstractTest {
+
+    private final AtomicLong statementCount = new AtomicLong();
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[]{
+            Post.class,
+            PostDetails.class,
+            Comment.class,
+            OnDeletePost.class,
+            OnDeletePostDetails.class,
+            OnDeleteComment.class,
+            OnDeleteAttachment.class
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.cache.use_second_level_cache", Boolean.TRUE.toString());
+        properties.put("hibernate.cache.region.factory_class", "org.hibernate.cache.ehcache.EhCacheRegionFactory");
+        properties.put("hibernate.cache.use_query_cache", Boolean.TRUE.toString());
+        properties.put("hibernate.jdbc.batch_size", "50");
+        properties.put("hibernate.order_inserts", "true");
+        properties.put("hibernate.order_updates", "true");
+        properties.put("hibernate.jdbc.batch_versioned_data", "true");
+        return properties;
+    }
+
+    /**
+     * Count the statements, each batched statement included
+     */
+    @Override
+    protected DataSource newDataSource() {
+        return ProxyDataSourceBuilder
+            .create(getDataSourceProvider().dataSource())
+            .name(getClass().getName())
+            .listener(new QueryExecutionListener() {
+                @Override
+                public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                }
+
+                @Override
+                public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                    statementCount.addAndGet(execInfo.isBatch() ? execInfo.getBatchSize() : 1);
+                }
+            })
+            .build();
+    }
+
+    @After
+    public void destroy() {
+        getSessionFactory().getCache().evictAllRegions();
+        super.destroy();
+    }
+
+    @Test
+    public void testDeleteEvictsChildren() {
+        List<Long> postIds = addDeleteBatchingRows(3, this::newOnDeletePost, OnDeletePost::getId);
+        Map<Long, List<Long>> commentIds = new HashMap<>();
+        //load the posts, the comments and the details in the second-level cache
+        doInTransaction(session -> {
+            for (Long postId : postIds) {
+                OnDeletePost post = (OnDeletePost) session.get(OnDeletePost.class, postId);
+                List<Long> ids = new ArrayList<>();
+                for (OnDeleteComment comment : post.getComments()) {
+                    ids.add(comment.getId());
+                }
+                commentIds.put(postId, ids);
+                session.get(OnDeletePostDetails.class, postId);
+            }
+        });
+        Cache cache = getSessionFactory().getCache();
+        doInTransaction(session -> {
+            OnDeletePost post = (OnDeletePost) session.get(OnDeletePost.class, postIds.get(0));
+            List<OnDeleteComment> comments = new ArrayList<>(post.getComments());
+            OnDeletePostDetails details = (OnDeletePostDetails) session.get(OnDeletePostDetails.class, postIds.get(0));
+            OnDeleteComment otherComment = (OnDeleteComment) session.get(OnDeleteComment.class,
+                commentIds.get(postIds.get(2)).get(0));
+            OnDeletePostDetails proxy = (OnDeletePostDetails) session.load(OnDeletePostDetails.class, postIds.get(1));
+
+            int rowCount = deleter().delete(session, postIds.subList(0, 2));
+            assertEquals(2, rowCount);
+            assertFalse(session.contains(post));
+            assertFalse(session.contains(details));
+            assertFalse(session.contains(proxy));
+            for (OnDeleteComment comment : comments) {
+                assertFalse(session.contains(comment));
+            }
+            assertTrue(session.contains(otherComment));
+            for (Long postId : postIds.subList(0, 2)) {
+                assertFalse(cache.containsEntity(OnDeletePostDetails.class, postId));
+                assertFalse(cache.containsCollection(OnDeletePost.class.getName() + ".comments", postId));
+                for (Long commentId : commentIds.get(postId)) {
+                    assertFalse(cache.containsEntity(OnDeleteComment.class, commentId));
+                }
+            }
+            assertTrue(cache.containsEntity(OnDeletePostDetails.class, postIds.get(2)));
+            for (Long commentId : commentIds.get(postIds.get(2))) {
+                assertTrue(cache.containsEntity(OnDeleteComment.class, commentId));
+            }
+        });
+        doInTransaction(session -> {
+            for (Long postId : postIds.subList(0, 2)) {
+                assertNull(session.get(OnDeletePost.class, postId));
+                assertNull(session.get(OnDeletePostDetails.class, postId));
+                for (Long commentId : commentIds.get(postId)) {
+                    assertNull(session.get(OnDeleteComment.class, commentId));
+                }
+            }
+            OnDeletePost post = (OnDeletePost) session.get(OnDeletePost.class, postIds.get(2));
+            assertEquals(2, post.getComments().size());
+        });
+    }
+
+    @Test
+    public void testDeleteInvalidatesChildQueries() {
+        List<Long> postIds = addDeleteBatchingRows(3, this::newOnDeletePost, OnDeletePost::getId);
+        assertEquals(6, cachedCommentCount());
+        doInTransaction(session -> {
+            assertEquals(2, deleter().delete(session, postIds.subList(0, 2)));
+        });
+        assertEquals(2, cachedCommentCount());
+    }
+
+    @Test
+    public void testDeleteEvictsUncachedChildProxies() {
+        List<Long> postIds = addDeleteBatchingRows(2, this::newOnDeletePost, OnDeletePost::getId);
+        List<Long> attachmentIds = doInTransaction(session -> {
+            List<Long> ids = new ArrayList<>();
+            for (Long postId : postIds) {
+                OnDeleteAttachment attachment = new OnDeleteAttachment(
+                    (OnDeletePost) session.load(OnDeletePost.class, postId)
+                );
+                session.persist(attachment);
+                ids.add(attachment.getId());
+            }
+            return ids;
+        });
+        doInTransaction(session -> {
+            OnDeleteAttachment deletedProxy = (OnDeleteAttachment) session.load(OnDeleteAttachment.class, attachmentIds.get(0));
+            OnDeleteAttachment otherProxy = (OnDeleteAttachment) session.load(OnDeleteAttachment.class, attachmentIds.get(1));
+            assertEquals(1, deleter().delete(session, postIds.subList(0, 1)));
+            assertFalse(session.contains(deletedProxy));
+            assertTrue(session.contains(otherProxy));
+            assertNull(session.get(OnDeleteAttachment.class, attachmentIds.get(0)));
+        });
+    }
+
+    @Test
+    public void testEntityVersusDatabaseCascadeDelete() {
+        int itemsCount = itemsCount();
+
+        addDeleteBatchingRows(itemsCount, this::newPost, Post::getId);
+        statementCount.set(0);
+        long startNanos = System.nanoTime();
+        doInTransaction(session -> {
+            List<Post> posts = session.createQuery(
+                "select distinct p " +
+                "from Post p " +
+                "join fetch p.details d " +
+                "join fetch p.comments c")
+            .list();
+            for (Post post : posts) {
+                session.delete(post);
+            }
+        });
+        long entityNanos = System.nanoTime() - startNanos;
+        long entityStatements = statementCount.get();
+        assertEquals(0, rowCount("Post", "PostDetails", "Comment"));
+
+        List<Long> postIds = addDeleteBatchingRows(itemsCount, this::newOnDeletePost, OnDeletePost::getId);
+        statementCount.set(0);
+        startNanos = System.nanoTime();
+        doInTransaction(session -> {
+            assertEquals(itemsCount, deleter().delete(session, postIds));
+        });
+        long databaseNanos = System.nanoTime() - startNanos;
+        long databaseStatements = statementCount.get();
+        assertEquals(0, rowCount("OnDeletePost", "OnDeletePostDetails", "OnDeleteComment"));
+
+        LOGGER.info("Deleting {} posts: entity-level cascade took {} ms and {} statements, " +
+            "database cascade took {} ms and {} statements",
+            itemsCount,
+            TimeUnit.NANOSECONDS.toMillis(entityNanos), entityStatements,
+            TimeUnit.NANOSECONDS.toMillis(databaseNanos), databaseStatements);
+        assertTrue(databaseStatements < entityStatements);
+    }
+
+    protected int itemsCount() {
+        return 10 * 1000;
+    }
+
+    private DatabaseCascadeDeleter deleter() {
+        return new DatabaseCascadeDeleter(getSessionFactory(), OnDeletePost.class);
+    }
+
+    private long rowCount(String... entityNames) {
+        return doInTransaction(session -> {
+            long rowCount = 0;
+            for (String entityName : entityNames) {
+                rowCount += ((Number) session.createQuery("select count(*) from " + entityName).uniqueResult()).longValue();
+            }
+            return rowCount;
+        });
+    }
+
+    private long cachedCommentCount() {
+        return doInTransaction(session -> {
+            return ((Number) session.createQuery(
+                "select count(c) from OnDeleteComment c")
+            .setCacheable(true)
+            .uniqueResult()).longValue();
+        });
+    }
+
+    private Post newPost(int i) {
+        Post post = new Post(String.format("Post no. %d", i));
+        int j = 0;
+        post.addComment(new Comment(
+                String.format("Post comment %d:%d", i, j++)));
+        post.addComment(new Comment(
+                String.format("Post comment %d:%d", i, j++)));
+        post.addDetails(new PostDetails());
+        return post;
+    }
+
+    private OnDeletePost newOnDeletePost(int i) {
+        OnDeletePost post = new OnDeletePost(String.format("Post no. %d", i));
+        int j = 0;
+        post.addComment(new OnDeleteComment(
+                String.format("Post comment %d:%d", i, j++)));
+        post.addComment(new OnDeleteComment(
+                String.format("Post comment %d:%d", i, j++)));
+        post.addDetails(new OnDeletePostDetails());
+        return post;
+    }
+
+    private <P> List<Long> addDeleteBatchingRows(int itemsCount, Function<Integer, P> postFactory,
+                                                 Function<P, Long> postId) {
+        getSessionFactory().getCache().evictAllRegions();
+        return doInTransaction(session -> {
+            List<Long> postIds = new ArrayList<>();
+            for (int i = 0; i < itemsCount; i++) {
+                P post = postFactory.apply(i);
+                session.persist(post);
+                postIds.add(postId.apply(post));
+                if(i % 50 == 0 && i > 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            return postIds;
+        });
+    }
+
+    @Entity(name = "Post")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    public static class Post {
+
+        @Id
+        @GenericGenerator(
+            name = "sequenceGenerator",
+            strategy = "enhanced-sequence",
+            parameters = {
+            @org.hibernate.annotations.Parameter(
+                    name = "optimizer",
+                    value = "pooled-lo"),
+            @org.hibernate.annotations.Parameter(
+                    name = "initial_value",
+                    value = "1"),
+            @org.hibernate.annotations.Parameter(
+                    name = "increment_size",
+                    value = "50"
+            )
+            }
+        )
+        @GeneratedValue(
+                strategy = GenerationType.SEQUENCE,
+                generator = "sequenceGenerator")
+        private Long id;
+
+        private String title;
+
+        @Version
+        private int version;
+
+        protected Post() {
+        }
+
+        public Post(String title) {
+            this.title = title;
+        }
+
+        @OneToMany(cascade = CascadeType.ALL, mappedBy = "post",
+                orphanRemoval = true)
+        @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+        private List<Comment> comments = new ArrayList<>();
+
+        @OneToOne(cascade = CascadeType.ALL, mappedBy = "post",
+                orphanRemoval = true, fetch = FetchType.LAZY)
+        private PostDetails details;
+
+        public Long getId() {
+            return id;
+        }
+
+        public List<Comment> getComments() {
+            return comments;
+        }
+
+        public void addComment(Comment comment) {
+            comments.add(comment);
+            comment.setPost(this);
+        }
+
+        public void addDetails(PostDetails details) {
+            this.details = details;
+            details.setPost(this);
+        }
+    }
+
+    @Entity(name = "PostDetails")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    public static class PostDetails {
+
+        @Id
+        private Long id;
+
+        private Date createdOn;
+
+        public PostDetails() {
+            createdOn = new Date();
+        }
+
+        @OneToOne(fetch = FetchType.LAZY)
+        @JoinColumn(name = "id")
+        @MapsId
+        private Post post;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setPost(Post post) {
+            this.post = post;
+        }
+    }
+
+    @Entity(name = "Comment")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    public static class Comment {
+
+        @Id
+        @GenericGenerator(
+            name = "sequenceGenerator",
+            strategy = "enhanced-sequence",
+            parameters = {
+                @org.hibernate.annotations.Parameter(
+                        name = "optimizer",
+                        value = "pooled-lo"),
+                @org.hibernate.annotations.Parameter(
+                        name = "initial_value",
+                        value = "1"),
+                @org.hibernate.annotations.Parameter(
+                        name = "increment_size",
+                        value = "50"
+                )
+            }
+        )
+        @GeneratedValue(
+                strategy = GenerationType.SEQUENCE,
+                generator = "sequenceGenerator")
+        private Long id;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Post post;
+
+        @Version
+        private int version;
+
+        protected Comment() {}
+
+        public Comment(String review) {
+            this.review = review;
+        }
+
+        private String review;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setPost(Post post) {
+            this.post = post;
+        }
+    }
+
+    @Entity(name = "OnDeletePost")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    public static class OnDeletePost {
+
+        @Id
+        @GenericGenerator(
+            name = "sequenceGenerator",
+            strategy = "enhanced-sequence",
+            parameters = {
+            @org.hibernate.annotations.Parameter(
+                    name = "optimizer",
+                    value = "pooled-lo"),
+            @org.hibernate.annotations.Parameter(
+                    name = "initial_value",
+                    value = "1"),
+            @org.hibernate.annotations.Parameter(
+                    name = "increment_size",
+                    value = "50"
+            )
+            }
+        )
+        @GeneratedValue(
+                strategy = GenerationType.SEQUENCE,
+                generator = "sequenceGenerator")
+        private Long id;
+
+        private String title;
+
+        @Version
+        private int version;
+
+        protected OnDeletePost() {
+        }
+
+        public OnDeletePost(String title) {
+            this.title = title;
+        }
+
+        @OneToMany(cascade = CascadeType.ALL, mappedBy = "post",
+                orphanRemoval = true)
+        @OnDelete(action = OnDeleteAction.CASCADE)
+        @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+        private List<OnDeleteComment> comments = new ArrayList<>();
+
+        @OneToOne(cascade = CascadeType.ALL, mappedBy = "post",
+                orphanRemoval = true, fetch = FetchType.LAZY)
+        private OnDeletePostDetails details;
+
+        public Long getId() {
+            return id;
+        }
+
+        public List<OnDeleteComment> getComments() {
+            return comments;
+        }
+
+        public void addComment(OnDeleteComment comment) {
+            comments.add(comment);
+            comment.setPost(this);
+        }
+
+        public void addDetails(OnDeletePostDetails details) {
+            this.details = details;
+            details.setPost(this);
+        }
+    }
+
+    @Entity(name = "OnDeletePostDetails")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    public static class OnDeletePostDetails {
+
+        @Id
+        private Long id;
+
+        private Date createdOn;
+
+        public OnDeletePostDetails() {
+            createdOn = new Date();
+        }
+
+        @OneToOne(fetch = FetchType.LAZY)
+        @JoinColumn(name = "id")
+        @MapsId
+        @OnDelete(action = OnDeleteAction.CASCADE)
+        private OnDeletePost post;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setPost(OnDeletePost post) {
+            this.post = post;
+        }
+    }
+
+    @Entity(name = "OnDeleteComment")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    public static class OnDeleteComment {
+
+        @Id
+        @GenericGenerator(
+            name = "sequenceGenerator",
+            strategy = "enhanced-sequence",
+            parameters = {
+                @org.hibernate.annotations.Parameter(
+                        name = "optimizer",
+                        value = "pooled-lo"),
+                @org.hibernate.annotations.Parameter(
+                        name = "initial_value",
+                        value = "1"),
+                @org.hibernate.annotations.Parameter(
+                        name = "increment_size",
+                        value = "50"
+                )
+            }
+        )
+        @GeneratedValue(
+                strategy = GenerationType.SEQUENCE,
+                generator = "sequenceGenerator")
+        private Long id;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private OnDeletePost post;
+
+        @Version
+        private int version;
+
+        protected OnDeleteComment() {}
+
+        public OnDeleteComment(String review) {
+            this.review = review;
+        }
+
+        private String review;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setPost(OnDeletePost post) {
+            this.post = post;
+        }
+    }
+
+    @Entity(name = "OnDeleteAttachment")
+    public static class OnDeleteAttachment {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        @OnDelete(action = OnDeleteAction.CASCADE)
+        private OnDeletePost post;
+
+        protected OnDeleteAttachment() {}
+
+        public OnDeleteAttachment(OnDeletePost post) {
+            this.post = post;
+        }
+
+        public Long getId() {
+            return id;
+        }
+    }
+}
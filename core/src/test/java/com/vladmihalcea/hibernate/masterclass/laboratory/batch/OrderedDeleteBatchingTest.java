@@ -0,0 +1,187 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.batch;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.OrderedDeleteFlushEventListener;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.internal.DefaultFlushEventListener;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.FlushEventListener;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.vladmihalcea.hibernate.masterclass.laboratory.batch.NoBatchingTest.Comment;
+import static com.vladmihalcea.hibernate.masterclass.laboratory.batch.NoBatchingTest.Post;
+import static com.vladmihalcea.hibernate.masterclass.laboratory.batch.NoBatchingTest.PostDetails;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * OrderedDeleteBatchingTest - Test to check the orphan removal and cascade deletes grouped per table by the
+ * OrderedDeleteFlushEventListener, and to compare the JDBC batches with the default delete order
+ *
+ * @author Vlad Mihalcea
+ */
+public class OrderedDeleteBatchingTest extends AbstractTest {
+
+    private final AtomicLong statementCount = new AtomicLong();
+
+    private final AtomicLong executionCount = new AtomicLong();
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[]{
+            Post.class,
+            PostDetails.class,
+            Comment.class
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.jdbc.batch_size", String.valueOf(batchSize()));
+        properties.put("hibernate.order_inserts", "true");
+        properties.put("hibernate.order_updates", "true");
+        properties.put("hibernate.jdbc.batch_versioned_data", "true");
+        return properties;
+    }
+
+    /**
+     * Count the statements, each batched statement included, and the JDBC executions, each batch counting once
+     */
+    @Override
+    protected DataSource newDataSource() {
+        return ProxyDataSourceBuilder
+            .create(getDataSourceProvider().dataSource())
+            .name(getClass().getName())
+            .listener(new QueryExecutionListener() {
+                @Override
+                public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                }
+
+                @Override
+                public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                    statementCount.addAndGet(execInfo.isBatch() ? execInfo.getBatchSize() : 1);
+                    executionCount.incrementAndGet();
+                }
+            })
+            .build();
+    }
+
+    @Test
+    public void testGroupedDeletes() {
+        new OrderedDeleteFlushEventListener().integrate(getSessionFactory());
+        long[] ordered = orphanRemoval(3);
+        assertEquals(3 * 4, ordered[0]);
+        //one batch for the details, the comments and the posts
+        assertEquals(3, ordered[1]);
+        assertEquals(0, rowCount());
+    }
+
+    @Test
+    public void testDefaultVersusOrderedDeletes() {
+        for (int itemsCount : itemsCounts()) {
+            flushEventListener(new DefaultFlushEventListener());
+            long[] defaultOrder = orphanRemoval(itemsCount);
+            assertEquals(0, rowCount());
+
+            new OrderedDeleteFlushEventListener().integrate(getSessionFactory());
+            long[] ordered = orphanRemoval(itemsCount);
+            assertEquals(0, rowCount());
+
+            LOGGER.info("Deleting {} posts with orphan removal: default order took {} statements in {} executions " +
+                "and {} ms, ordered deletes took {} statements in {} executions and {} ms",
+                itemsCount, defaultOrder[0], defaultOrder[1], defaultOrder[2], ordered[0], ordered[1], ordered[2]);
+            assertEquals(defaultOrder[0], ordered[0]);
+            assertTrue(ordered[1] < defaultOrder[1]);
+        }
+    }
+
+    protected int[] itemsCounts() {
+        return new int[] {100, 1000, 5000};
+    }
+
+    protected int batchSize() {
+        return 50;
+    }
+
+    /**
+     * Remove the details and the comments of every post and delete the posts in a single flush, and return
+     * the number of statements, the JDBC executions and the millis taken by the flush
+     */
+    private long[] orphanRemoval(int itemsCount) {
+        addDeleteBatchingRows(itemsCount);
+        long[] startNanos = new long[1];
+        doInTransaction(session -> {
+            List<Post> posts = session.createQuery(
+                "select distinct p " +
+                "from Post p " +
+                "join fetch p.details d " +
+                "join fetch p.comments c")
+            .list();
+            posts.forEach(Post::removeDetails);
+            posts.forEach(post -> {
+                for (Iterator<Comment> commentIterator = post.getComments().iterator(); commentIterator.hasNext(); ) {
+                    Comment comment = commentIterator.next();
+                    comment.setPost(null);
+                    commentIterator.remove();
+                }
+            });
+            posts.forEach(session::delete);
+            statementCount.set(0);
+            executionCount.set(0);
+            startNanos[0] = System.nanoTime();
+            session.flush();
+        });
+        return new long[] {
+            statementCount.get(),
+            executionCount.get(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos[0])
+        };
+    }
+
+    private void flushEventListener(FlushEventListener listener) {
+        ((SessionFactoryImplementor) getSessionFactory()).getServiceRegistry()
+            .getService(EventListenerRegistry.class)
+            .setListeners(EventType.FLUSH, listener);
+    }
+
+    private long rowCount() {
+        return doInTransaction(session -> {
+            return ((Number) session.createQuery("select count(c) from Comment c").uniqueResult()).longValue() +
+                ((Number) session.createQuery("select count(d) from PostDetails d").uniqueResult()).longValue() +
+                ((Number) session.createQuery("select count(p) from Post p").uniqueResult()).longValue();
+        });
+    }
+
+    private void addDeleteBatchingRows(int itemsCount) {
+        doInTransaction(session -> {
+            int batchSize = batchSize();
+            for (int i = 0; i < itemsCount; i++) {
+                Post post = new Post(String.format("Post no. %d", i));
+                int j = 0;
+                post.addComment(new Comment(
+                        String.format("Post comment %d:%d", i, j++)));
+                post.addComment(new Comment(
+                        String.format("Post comment %d:%d", i, j++)));
+                post.addDetails(new PostDetails());
+                session.persist(post);
+                if(i % batchSize == 0 && i > 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,258 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.cache;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.CacheAsideRepository;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CacheAsideRepositoryTest - Test to check the cache-aside bulk get-or-load
+ *
+ * @author Vlad Mihalcea
+ */
+public class CacheAsideRepositoryTest extends AbstractTest {
+
+    private CacheManager cacheManager;
+
+    private CacheAsideRepository<Post, Long> postRepository;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[]{
+            Post.class
+        };
+    }
+
+    @Before
+    public void init() {
+        super.init();
+        cacheManager = CacheManager.newInstance(
+            new Configuration()
+                .name(getClass().getSimpleName())
+                .cache(new CacheConfiguration("post", postCount()))
+        );
+        Cache cache = cacheManager.getCache("post");
+        postRepository = new CacheAsideRepository<>(Post.class, cache);
+        doInTransaction(session -> {
+            for (long id = 1; id <= postCount(); id++) {
+                session.persist(new Post(id, String.format("Post no. %d", id)));
+            }
+        });
+    }
+
+    @After
+    public void destroy() {
+        cacheManager.shutdown();
+        super.destroy();
+    }
+
+    @Test
+    public void testGetAllLoadsMissesWithOneQuery() {
+        List<Long> ids = ids(1, postCount() / 2);
+        Statistics statistics = getSessionFactory().getStatistics();
+
+        statistics.clear();
+        doInTransaction(session -> {
+            Map<Long, Post> posts = postRepository.getAll(session, ids);
+            assertEquals(ids.size(), posts.size());
+            assertEquals(ids, new ArrayList<>(posts.keySet()));
+        });
+        assertEquals(1, statistics.getPrepareStatementCount());
+
+        statistics.clear();
+        doInTransaction(session -> {
+            Map<Long, Post> posts = postRepository.getAll(session, ids(1, postCount()));
+            assertEquals(postCount(), posts.size());
+        });
+        assertEquals(1, statistics.getPrepareStatementCount());
+
+        statistics.clear();
+        doInTransaction(session -> {
+            Map<Long, Post> posts = postRepository.getAll(session, ids(1, postCount()));
+            assertEquals(postCount(), posts.size());
+            assertEquals("Post no. 7", posts.get(7L).getTitle());
+        });
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testGetAllSkipsUnknownIds() {
+        doInTransaction(session -> {
+            Map<Long, Post> posts = postRepository.getAll(session, ids(postCount() - 1, postCount() + 2));
+            assertEquals(2, posts.size());
+            assertNull(postRepository.get(session, postCount() + 1L));
+        });
+    }
+
+    @Test
+    public void testEvictReloadsEntry() {
+        doInTransaction(session -> {
+            postRepository.getAll(session, ids(1, 10));
+        });
+        doInTransaction(session -> {
+            Post post = (Post) session.get(Post.class, 1L);
+            post.setTitle("High-Performance Java Persistence");
+        });
+        postRepository.evict(1L);
+        doInTransaction(session -> {
+            assertEquals("High-Performance Java Persistence", postRepository.get(session, 1L).getTitle());
+        });
+    }
+
+    @Test
+    public void testCachedEntitiesAreManagedCopies() {
+        doInTransaction(session -> {
+            postRepository.getAll(session, ids(1, 10));
+        });
+        try {
+            doInTransaction((HibernateTransactionConsumer) session -> {
+                Post post = postRepository.get(session, 1L);
+                assertTrue(session.contains(post));
+                post.setTitle("High-Performance Java Persistence");
+                session.flush();
+                throw new IllegalStateException("rollback");
+            });
+        } catch (IllegalStateException expected) {
+        }
+        Post[] posts = new Post[2];
+        for (int i = 0; i < posts.length; i++) {
+            int index = i;
+            doInTransaction(session -> {
+                posts[index] = postRepository.get(session, 1L);
+                assertTrue(session.contains(posts[index]));
+                assertSame(posts[index], session.get(Post.class, 1L));
+            });
+        }
+        assertNotSame(posts[0], posts[1]);
+        assertEquals("Post no. 1", posts[1].getTitle());
+    }
+
+    @Test
+    public void testMissResolvesSessionProxy() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        doInTransaction(session -> {
+            Post proxy = (Post) session.load(Post.class, 1L);
+            Map<Long, Post> posts = postRepository.getAll(session, ids(1, 10));
+            assertEquals(10, posts.size());
+            assertSame(proxy, posts.get(1L));
+            assertEquals("Post no. 1", posts.get(1L).getTitle());
+        });
+        assertEquals(1, statistics.getPrepareStatementCount());
+        doInTransaction(session -> {
+            assertEquals("Post no. 1", postRepository.get(session, 1L).getTitle());
+        });
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testRolledBackMissesAreNotCached() {
+        try {
+            doInTransaction((HibernateTransactionConsumer) session -> {
+                postRepository.getAll(session, ids(1, 10));
+                throw new IllegalStateException("rollback");
+            });
+        } catch (IllegalStateException expected) {
+        }
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        doInTransaction(session -> {
+            postRepository.getAll(session, ids(1, 10));
+        });
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testGetAllVersusGet() {
+        List<Long> ids = ids(1, postCount());
+        Statistics statistics = getSessionFactory().getStatistics();
+
+        statistics.clear();
+        long startNanos = System.nanoTime();
+        doInTransaction(session -> {
+            for (Long id : ids) {
+                session.get(Post.class, id);
+            }
+        });
+        LOGGER.info("{} session.get calls took {} millis and {} statements",
+            ids.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+            statistics.getPrepareStatementCount());
+
+        statistics.clear();
+        startNanos = System.nanoTime();
+        doInTransaction(session -> {
+            postRepository.getAll(session, ids);
+        });
+        LOGGER.info("CacheAsideRepository.getAll cold cache took {} millis and {} statements",
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+            statistics.getPrepareStatementCount());
+
+        statistics.clear();
+        startNanos = System.nanoTime();
+        doInTransaction(session -> {
+            postRepository.getAll(session, ids);
+        });
+        LOGGER.info("CacheAsideRepository.getAll warm cache took {} millis and {} statements",
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+            statistics.getPrepareStatementCount());
+    }
+
+    protected int postCount() {
+        return 100;
+    }
+
+    private List<Long> ids(long from, long to) {
+        return LongStream.rangeClosed(from, to).boxed().collect(Collectors.toList());
+    }
+
+    @Entity(name = "Post")
+    public static class Post {
+
+        @Id
+        private Long id;
+
+        private String title;
+
+        public Post() {
+        }
+
+        public Post(Long id, String title) {
+            this.id = id;
+            this.title = title;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.cache;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.cache.CacheRegionSettings;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.cache.CacheRegionSizing;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.cache.SizedEhCacheRegionFactory;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.PersistenceConfiguration;
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.cache.CacheException;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * CacheRegionSizingTest - Test to check the per-region sizing and expiry settings declared without ehcache.xml
+ *
+ * @author Vlad Mihalcea
+ */
+public class CacheRegionSizingTest extends AbstractTest {
+
+    private CacheRegionSettings regionSettings = newRegionSettings();
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Post.class,
+            Tag.class,
+            Comment.class
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.cache.use_second_level_cache", Boolean.TRUE.toString());
+        properties.put("hibernate.cache.region.factory_class", SizedEhCacheRegionFactory.class.getName());
+        properties.put(CacheRegionSettings.SETTINGS, regionSettings);
+        return properties;
+    }
+
+    @Override
+    protected SessionFactoryObserver sessionFactoryObserver() {
+        return regionSettings;
+    }
+
+    private CacheRegionSettings newRegionSettings() {
+        CacheRegionSettings regionSettings = new CacheRegionSettings().annotated(entities());
+        regionSettings.region(Post.class.getName()).timeToLiveSeconds(1);
+        return regionSettings;
+    }
+
+    @Test
+    public void testRegionSettingsApplied() {
+        CacheConfiguration postConfiguration = getCacheConfiguration(Post.class.getName());
+        assertEquals(500, postConfiguration.getMaxEntriesLocalHeap());
+        assertEquals(1, postConfiguration.getTimeToLiveSeconds());
+        assertEquals(PersistenceConfiguration.Strategy.NONE, postConfiguration.getPersistenceConfiguration().getStrategy());
+
+        CacheConfiguration tagConfiguration = getCacheConfiguration(Tag.class.getName());
+        assertEquals(64 * 1024, tagConfiguration.getMaxBytesLocalHeap());
+
+        CacheConfiguration commentsConfiguration = getCacheConfiguration(Post.class.getName() + ".comments");
+        assertEquals(100, commentsConfiguration.getMaxEntriesLocalHeap());
+        assertEquals(300, commentsConfiguration.getTimeToIdleSeconds());
+    }
+
+    @Test
+    public void testEvictionKeepsHeapBounded() {
+        for (int workingSetSize : workingSetSizes()) {
+            insert("Post", "title", workingSetSize);
+            insert("Tag", "name", workingSetSize);
+            insert("post_comment", "review", workingSetSize);
+            doInTransaction(session -> {
+                assertEquals(workingSetSize, session.createQuery("from Post").list().size());
+                assertEquals(workingSetSize, session.createQuery("from Tag").list().size());
+                assertEquals(workingSetSize, session.createQuery("from Comment").list().size());
+            });
+            Statistics statistics = getSessionFactory().getStatistics();
+            SecondLevelCacheStatistics postStatistics = statistics.getSecondLevelCacheStatistics(Post.class.getName());
+            SecondLevelCacheStatistics tagStatistics = statistics.getSecondLevelCacheStatistics(Tag.class.getName());
+            SecondLevelCacheStatistics commentStatistics = statistics.getSecondLevelCacheStatistics(Comment.class.getName());
+            LOGGER.info("Working set of {} entities: " +
+                    "Post region (max 500 entries) holds {} entries in {} bytes, " +
+                    "Tag region (max 64k) holds {} entries in {} bytes, " +
+                    "Comment region (defaults) holds {} entries in {} bytes",
+                workingSetSize,
+                postStatistics.getElementCountInMemory(), postStatistics.getSizeInMemory(),
+                tagStatistics.getElementCountInMemory(), tagStatistics.getSizeInMemory(),
+                commentStatistics.getElementCountInMemory(), commentStatistics.getSizeInMemory());
+
+            assertTrue(postStatistics.getElementCountInMemory() <= 500);
+            assertEquals(0, postStatistics.getElementCountOnDisk());
+            assertTrue(tagStatistics.getSizeInMemory() <= 64 * 1024);
+            assertEquals(0, tagStatistics.getElementCountOnDisk());
+            assertEquals(workingSetSize, commentStatistics.getElementCountInMemory());
+        }
+    }
+
+    @Test
+    public void testTimeToLive() {
+        insert("Post", "title", 1);
+        Long postId = doInTransaction(session -> {
+            return ((Post) session.createQuery("from Post").uniqueResult()).getId();
+        });
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        doInTransaction(session -> {
+            session.get(Post.class, postId);
+        });
+        assertEquals(1, statistics.getSecondLevelCacheHitCount());
+
+        sleep(1500);
+        doInTransaction(session -> {
+            session.get(Post.class, postId);
+        });
+        assertEquals(1, statistics.getSecondLevelCacheMissCount());
+    }
+
+    @Test
+    public void testInvalidSizingFailsAtBuildTime() {
+        regionSettings = new CacheRegionSettings();
+        regionSettings.region(Post.class.getName()).maxEntriesLocalHeap(100).maxBytesLocalHeap("10M");
+        assertBuildFails("mutually exclusive");
+
+        regionSettings = new CacheRegionSettings();
+        regionSettings.region(Post.class.getName()).maxBytesLocalHeap("10%");
+        assertBuildFails("is not a size");
+
+        regionSettings = new CacheRegionSettings();
+        regionSettings.region(Post.class.getName()).timeToLiveSeconds(60).timeToIdleSeconds(120);
+        assertBuildFails("cannot exceed timeToLiveSeconds");
+    }
+
+    @Test
+    public void testUnknownRegionFailsAtBuildTime() {
+        regionSettings = newRegionSettings();
+        regionSettings.region("com.vladmihalcea.hibernate.masterclass.laboratory.cache.Post").maxEntriesLocalHeap(100);
+        assertBuildFails("not used by any cached entity or collection");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSizingRequiresCacheAnnotation() {
+        new CacheRegionSettings().annotated(UncachedPost.class);
+    }
+
+    protected int[] workingSetSizes() {
+        return new int[] {1000, 2000, 4000};
+    }
+
+    private void assertBuildFails(String message) {
+        Properties properties = getProperties();
+        properties.remove("hibernate.hbm2ddl.auto");
+        try {
+            newSessionFactory(properties).close();
+            fail("Should have thrown CacheException");
+        } catch (HibernateException e) {
+            Throwable cause = e;
+            while (!(cause instanceof CacheException) && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            LOGGER.info("Invalid region settings", cause);
+            assertTrue(cause instanceof CacheException);
+            assertTrue(cause.getMessage().contains(message));
+        }
+    }
+
+    private void insert(String table, String column, int rowCount) {
+        doInJDBC(connection -> {
+            int existingRowCount;
+            try (Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery("select count(*) from " + table)) {
+                resultSet.next();
+                existingRowCount = resultSet.getInt(1);
+            }
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "insert into " + table + " (" + column + ") values (?)")) {
+                for (int i = existingRowCount; i < rowCount; i++) {
+                    statement.setString(1, String.format("Value no. %d", i));
+                    statement.addBatch();
+                    if ((i + 1) % 100 == 0 || i + 1 == rowCount) {
+                        statement.executeBatch();
+                    }
+                }
+            }
+        });
+    }
+
+    private CacheConfiguration getCacheConfiguration(String regionName) {
+        SizedEhCacheRegionFactory regionFactory = (SizedEhCacheRegionFactory)
+            ((SessionFactoryImplementor) getSessionFactory()).getSettings().getRegionFactory();
+        return regionFactory.getCacheManager().getCache(regionName).getCacheConfiguration();
+    }
+
+    /**
+     * Post - Post
+     *
+     * @author Vlad Mihalcea
+     */
+    @Entity(name = "Post")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    @CacheRegionSizing(maxEntriesLocalHeap = 500)
+    public static class Post {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        private Long id;
+
+        private String title;
+
+        @OneToMany(mappedBy = "post")
+        @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+        @CacheRegionSizing(maxEntriesLocalHeap = 100, timeToIdleSeconds = 300)
+        private List<Comment> comments = new ArrayList<>();
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public List<Comment> getComments() {
+            return comments;
+        }
+    }
+
+    /**
+     * Tag - Tag
+     *
+     * @author Vlad Mihalcea
+     */
+    @Entity(name = "Tag")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    @CacheRegionSizing(maxBytesLocalHeap = "64k")
+    public static class Tag {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        private Long id;
+
+        private String name;
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Comment - Comment
+     *
+     * @author Vlad Mihalcea
+     */
+    @Entity(name = "Comment")
+    @Table(name = "post_comment")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    public static class Comment {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        private Long id;
+
+        private String review;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Post post;
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getReview() {
+            return review;
+        }
+    }
+
+    /**
+     * UncachedPost - Sized but not cached
+     *
+     * @author Vlad Mihalcea
+     */
+    @CacheRegionSizing(maxEntriesLocalHeap = 500)
+    public static class UncachedPost {
+    }
+}
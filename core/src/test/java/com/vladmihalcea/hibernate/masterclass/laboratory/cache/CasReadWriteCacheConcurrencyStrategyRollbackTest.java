@@ -0,0 +1,41 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.cache;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.cache.CasSoftLockEhCacheRegionFactory;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.cache.SoftLockStatistics;
+import org.hibernate.cache.ehcache.EhCacheRegionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CasReadWriteCacheConcurrencyStrategyRollbackTest - Test to check that the CAS-based soft locks
+ * are released as soon as the update is rolled back
+ *
+ * @author Vlad Mihalcea
+ */
+public class CasReadWriteCacheConcurrencyStrategyRollbackTest extends ReadWriteCacheConcurrencyStrategyRollbackTest {
+
+    @Override
+    protected Class<? extends EhCacheRegionFactory> regionFactoryClass() {
+        return CasSoftLockEhCacheRegionFactory.class;
+    }
+
+    @Override
+    protected void verifyMissWindow(long missWindowMillis, long databaseReadCount) {
+        SoftLockStatistics softLockStatistics = getSoftLockStatistics();
+        LOGGER.info("Soft lock statistics: {}", softLockStatistics);
+        assertTrue(missWindowMillis < lockTimeoutMillis() / 2);
+        assertEquals(1, databaseReadCount);
+        assertEquals(1, softLockStatistics.getLockCount());
+        assertEquals(1, softLockStatistics.getReleaseCount());
+        assertEquals(0, softLockStatistics.getExpiredCount());
+        assertTrue(softLockStatistics.getMaxLifetimeMillis() < lockTimeoutMillis());
+    }
+
+    private SoftLockStatistics getSoftLockStatistics() {
+        CasSoftLockEhCacheRegionFactory regionFactory = (CasSoftLockEhCacheRegionFactory)
+            ((SessionFactoryImplementor) getSessionFactory()).getSettings().getRegionFactory();
+        return regionFactory.getSoftLockStatistics(Repository.class.getName());
+    }
+}
@@ -0,0 +1,358 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.cache;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.cache.CollectionCacheDeltaListener;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.cache.DeltaCollectionEhCacheRegionFactory;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.cache.DeltaCollectionRegionAccessStrategy;
+import org.hibernate.Session;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.Transaction;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.cache.spi.CacheKey;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * CollectionCacheDeltaTest - Test to check that adding or removing collection entries
+ * updates the cached collection instead of invalidating it
+ *
+ * @author Vlad Mihalcea
+ */
+public class CollectionCacheDeltaTest extends AbstractTest {
+
+    private final CollectionCacheDeltaListener deltaListener = new CollectionCacheDeltaListener();
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Repository.class,
+            Commit.class
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.cache.use_second_level_cache", Boolean.TRUE.toString());
+        properties.put("hibernate.cache.region.factory_class", DeltaCollectionEhCacheRegionFactory.class.getName());
+        return properties;
+    }
+
+    @Override
+    protected SessionFactoryObserver sessionFactoryObserver() {
+        return deltaListener;
+    }
+
+    @Before
+    public void init() {
+        super.init();
+        doInTransaction(session -> {
+            Repository repository = new Repository("Hibernate-Master-Class");
+            session.persist(repository);
+            repository.addCommit(new Commit("Initial commit"));
+            repository.addCommit(new Commit("Add README"));
+        });
+        loadCommits();
+        getSessionFactory().getStatistics().clear();
+        getCommitsCacheStrategy().clearStatistics();
+    }
+
+    @Test
+    public void testAddingEntryAppliesDelta() {
+        doInTransaction(session -> {
+            Repository repository = (Repository) session.get(Repository.class, 1L);
+            assertEquals(2, repository.getCommits().size());
+            repository.addCommit(new Commit("Add Main.java"));
+        });
+        assertCommitsLoadedFromCache(3);
+    }
+
+    @Test
+    public void testAddingEntryToUninitializedCollectionAppliesDelta() {
+        doInTransaction(session -> {
+            Repository repository = (Repository) session.get(Repository.class, 1L);
+            repository.addCommit(new Commit("Add Main.java"));
+        });
+        assertCommitsLoadedFromCache(3);
+    }
+
+    @Test
+    public void testRemovingEntryAppliesDelta() {
+        doInTransaction(session -> {
+            Repository repository = (Repository) session.get(Repository.class, 1L);
+            repository.removeCommit(repository.getCommits().get(0));
+        });
+        assertCommitsLoadedFromCache(1);
+    }
+
+    @Test
+    public void testChangesOfSeveralFlushesApplyMergedDelta() {
+        doInTransaction(session -> {
+            Repository repository = (Repository) session.get(Repository.class, 1L);
+            repository.addCommit(new Commit("Add Main.java"));
+            session.flush();
+            repository.removeCommit(repository.getCommits().get(0));
+            repository.addCommit(new Commit("Add pom.xml"));
+        });
+        assertCommitsLoadedFromCache(3);
+    }
+
+    @Test
+    public void testTransactionCompletedByAnotherThreadAppliesDelta() {
+        Session session = getSessionFactory().openSession();
+        try {
+            Transaction transaction = session.beginTransaction();
+            Repository repository = (Repository) session.get(Repository.class, 1L);
+            repository.addCommit(new Commit("Add Main.java"));
+            session.flush();
+            executeSync(() -> {
+                LOGGER.info("Another thread commits the transaction");
+                transaction.commit();
+            });
+        } finally {
+            session.close();
+        }
+        assertCommitsLoadedFromCache(3);
+    }
+
+    @Test
+    public void testConcurrentChangeFallsBackToInvalidation() {
+        AtomicReference<SoftLock> concurrentLock = new AtomicReference<>();
+        doInTransaction(session -> {
+            Repository repository = (Repository) session.get(Repository.class, 1L);
+            repository.addCommit(new Commit("Add Main.java"));
+            session.flush();
+            executeSync(() -> {
+                LOGGER.info("Another transaction locks the same collection cache entry");
+                doInTransaction(_session -> {
+                    concurrentLock.set(getCommitsCacheStrategy().lockItem(commitsCacheKey((SessionImplementor) _session), null));
+                });
+            });
+        });
+        executeSync(() -> {
+            doInTransaction(_session -> {
+                getCommitsCacheStrategy().unlockItem(commitsCacheKey((SessionImplementor) _session), concurrentLock.get());
+            });
+        });
+        assertEquals(0, getCommitsCacheStrategy().getAppliedDeltaCount());
+        assertEquals(1, getCommitsCacheStrategy().getInvalidationCount());
+
+        loadCommits();
+        assertEquals(1, getSessionFactory().getStatistics().getCollectionLoadCount());
+    }
+
+    @Test
+    public void testRollbackDiscardsDelta() {
+        try {
+            doInTransaction(session -> {
+                Repository repository = (Repository) session.get(Repository.class, 1L);
+                repository.addCommit(new Commit("Add Main.java"));
+                session.flush();
+                if (repository.getId() != null) {
+                    throw new IllegalStateException("Rollback");
+                }
+            });
+        } catch (IllegalStateException expected) {
+            LOGGER.info("Expected", expected);
+        }
+        assertEquals(0, getCommitsCacheStrategy().getAppliedDeltaCount());
+        assertEquals(2, loadCommits());
+    }
+
+    @Test
+    public void testAppendHeavyWorkload() {
+        for (int collectionSize : collectionSizes()) {
+            deltaListener.setEnabled(false);
+            long invalidationMillis = appendAndRead(collectionSize);
+            long invalidationCollectionLoads = getSessionFactory().getStatistics().getCollectionLoadCount();
+
+            deltaListener.setEnabled(true);
+            long deltaMillis = appendAndRead(collectionSize);
+            long deltaCollectionLoads = getSessionFactory().getStatistics().getCollectionLoadCount();
+
+            LOGGER.info("Collection size {}, {} appends: invalidation took {} millis with {} collection loads, " +
+                    "delta updates took {} millis with {} collection loads",
+                collectionSize, appendCount(), invalidationMillis, invalidationCollectionLoads,
+                deltaMillis, deltaCollectionLoads);
+            assertEquals(appendCount(), invalidationCollectionLoads);
+            assertEquals(0, deltaCollectionLoads);
+        }
+    }
+
+    protected int[] collectionSizes() {
+        return new int[] {1000, 10000, 100000};
+    }
+
+    protected int appendCount() {
+        return 5;
+    }
+
+    private long appendAndRead(int collectionSize) {
+        doInJDBC(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement("delete from commit")) {
+                statement.executeUpdate();
+            }
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "insert into commit (message, repository_id) values (?, 1)")) {
+                for (int i = 0; i < collectionSize; i++) {
+                    statement.setString(1, String.format("Commit no. %d", i));
+                    statement.addBatch();
+                    if (i % 100 == 0) {
+                        statement.executeBatch();
+                    }
+                }
+                statement.executeBatch();
+            }
+        });
+        getSessionFactory().getCache().evictAllRegions();
+        loadCommits();
+        getSessionFactory().getStatistics().clear();
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < appendCount(); i++) {
+            int commitNumber = collectionSize + i;
+            doInTransaction(session -> {
+                Repository repository = (Repository) session.get(Repository.class, 1L);
+                repository.addCommit(new Commit(String.format("Commit no. %d", commitNumber)));
+            });
+            assertEquals(commitNumber + 1, loadCommits());
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private int loadCommits() {
+        return doInTransaction(session -> {
+            Repository repository = (Repository) session.get(Repository.class, 1L);
+            return repository.getCommits().size();
+        });
+    }
+
+    private void assertCommitsLoadedFromCache(int expectedSize) {
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        assertEquals(expectedSize, loadCommits());
+        assertEquals(0, statistics.getCollectionLoadCount());
+        assertEquals(1, getCommitsCacheStrategy().getAppliedDeltaCount());
+        assertEquals(0, getCommitsCacheStrategy().getInvalidationCount());
+    }
+
+    private CollectionPersister getCommitsPersister() {
+        return ((SessionFactoryImplementor) getSessionFactory()).getCollectionPersister(Repository.class.getName() + ".commits");
+    }
+
+    private DeltaCollectionRegionAccessStrategy getCommitsCacheStrategy() {
+        return (DeltaCollectionRegionAccessStrategy) getCommitsPersister().getCacheAccessStrategy();
+    }
+
+    private CacheKey commitsCacheKey(SessionImplementor session) {
+        CollectionPersister persister = getCommitsPersister();
+        return session.generateCacheKey(1L, persister.getKeyType(), persister.getRole());
+    }
+
+    /**
+     * Repository - Repository
+     *
+     * @author Vlad Mihalcea
+     */
+    @Entity(name = "Repository")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    public static class Repository {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        private Long id;
+
+        private String name;
+
+        @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+        @OneToMany(mappedBy = "repository", cascade = CascadeType.ALL, orphanRemoval = true)
+        private List<Commit> commits = new ArrayList<>();
+
+        public Repository() {
+        }
+
+        public Repository(String name) {
+            this.name = name;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<Commit> getCommits() {
+            return commits;
+        }
+
+        public void addCommit(Commit commit) {
+            commits.add(commit);
+            commit.setRepository(this);
+        }
+
+        public void removeCommit(Commit commit) {
+            commits.remove(commit);
+            commit.setRepository(null);
+        }
+    }
+
+    /**
+     * Commit - Commit
+     *
+     * @author Vlad Mihalcea
+     */
+    @Entity(name = "Commit")
+    @Table(name = "commit")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    public static class Commit {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        private Long id;
+
+        private String message;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Repository repository;
+
+        public Commit() {
+        }
+
+        public Commit(String message) {
+            this.message = message;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public Repository getRepository() {
+            return repository;
+        }
+
+        public void setRepository(Repository repository) {
+            this.repository = repository;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.cache;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.PartitionedQueryCache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.hibernate.Session;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PartitionedQueryCacheTest - Test to check the (table, partition key) query cache invalidation
+ *
+ * @author Vlad Mihalcea
+ */
+public class PartitionedQueryCacheTest extends AbstractTest {
+
+    private CacheManager cacheManager;
+
+    private PartitionedQueryCache queryCache;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[]{
+            Post.class,
+            Author.class,
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.cache.use_second_level_cache", Boolean.TRUE.toString());
+        properties.put("hibernate.cache.region.factory_class", "org.hibernate.cache.ehcache.EhCacheRegionFactory");
+        properties.put("hibernate.cache.use_query_cache", Boolean.TRUE.toString());
+        return properties;
+    }
+
+    @Before
+    public void init() {
+        super.init();
+        cacheManager = CacheManager.newInstance(
+            new Configuration()
+                .name(getClass().getSimpleName())
+                .cache(new CacheConfiguration("partitionedQueryCache", 1000))
+        );
+        queryCache = new PartitionedQueryCache(cacheManager.getCache("partitionedQueryCache"), maxPartitionTimestamps())
+            .integrate(getSessionFactory())
+            .partitionBy(Post.class, "author");
+        doInTransaction(session -> {
+            for (int i = 0; i < authorCount(); i++) {
+                Author author = new Author(String.format("Author no. %d", i));
+                session.persist(author);
+                session.persist(new Post(String.format("Post no. %d", i), author));
+            }
+        });
+    }
+
+    @After
+    public void destroy() {
+        cacheManager.shutdown();
+        getSessionFactory().getCache().evictAllRegions();
+        super.destroy();
+    }
+
+    @Test
+    public void testUnrelatedWriteKeepsOtherPartitions() {
+        doInTransaction(session -> {
+            assertEquals(1, getLatestPostsByAuthorId(session, 1L).size());
+            assertEquals(1, getLatestPostsByAuthorId(session, 2L).size());
+            assertEquals(authorCount(), getPosts(session).size());
+        });
+
+        doInTransaction(session -> {
+            LOGGER.info("Insert a new Post for the first Author");
+            Author author = (Author) session.get(Author.class, 1L);
+            session.persist(new Post("Hibernate Book", author));
+        });
+
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        queryCache.clearStatistics();
+        doInTransaction(session -> {
+            LOGGER.info("The second Author partition is still cached");
+            assertEquals(1, getLatestPostsByAuthorId(session, 2L).size());
+        });
+        assertEquals(1, queryCache.getHitCount());
+        assertEquals(0, statistics.getPrepareStatementCount());
+
+        doInTransaction(session -> {
+            LOGGER.info("The first Author partition and the whole table results are invalidated");
+            assertEquals(2, getLatestPostsByAuthorId(session, 1L).size());
+            assertEquals(authorCount() + 1, getPosts(session).size());
+        });
+        assertEquals(2, queryCache.getMissCount());
+    }
+
+    @Test
+    public void testChangingPartitionKeyInvalidatesBothPartitions() {
+        doInTransaction(session -> {
+            assertEquals(1, getLatestPostsByAuthorId(session, 1L).size());
+            assertEquals(1, getLatestPostsByAuthorId(session, 2L).size());
+            assertEquals(1, getLatestPostsByAuthorId(session, 3L).size());
+        });
+
+        doInTransaction(session -> {
+            Post post = (Post) session.createQuery(
+                "select p from Post p where p.author.id = :authorId")
+            .setParameter("authorId", 1L)
+            .uniqueResult();
+            post.setAuthor((Author) session.load(Author.class, 2L));
+        });
+
+        queryCache.clearStatistics();
+        doInTransaction(session -> {
+            assertEquals(0, getLatestPostsByAuthorId(session, 1L).size());
+            assertEquals(2, getLatestPostsByAuthorId(session, 2L).size());
+            assertEquals(1, getLatestPostsByAuthorId(session, 3L).size());
+        });
+        assertEquals(1, queryCache.getHitCount());
+        assertEquals(2, queryCache.getMissCount());
+    }
+
+    @Test
+    public void testPendingWriteBypassesCache() {
+        doInTransaction(session -> {
+            assertEquals(1, getLatestPostsByAuthorId(session, 1L).size());
+
+            Author author = (Author) session.get(Author.class, 1L);
+            session.persist(new Post("Hibernate Book", author));
+            session.flush();
+
+            LOGGER.info("The uncommitted Post is visible to the current transaction only");
+            assertEquals(2, getLatestPostsByAuthorId(session, 1L).size());
+            assertEquals(2, getLatestPostsByAuthorId(session, 1L).size());
+        });
+        queryCache.clearStatistics();
+        doInTransaction(session -> {
+            assertEquals(2, getLatestPostsByAuthorId(session, 1L).size());
+            assertEquals(2, getLatestPostsByAuthorId(session, 1L).size());
+        });
+        assertEquals(1, queryCache.getMissCount());
+        assertEquals(1, queryCache.getHitCount());
+    }
+
+    @Test
+    public void testBulkUpdateInvalidatesAllPartitions() {
+        doInTransaction(session -> {
+            assertEquals(1, getLatestPostsByAuthorId(session, 1L).size());
+            session.createQuery("delete from Post").executeUpdate();
+        });
+        queryCache.invalidate(Post.class);
+        doInTransaction(session -> {
+            assertEquals(0, getLatestPostsByAuthorId(session, 1L).size());
+        });
+    }
+
+    @Test
+    public void testCachedEntitiesAreManagedBySession() {
+        Post cachedPost = doInTransaction(session -> {
+            return getLatestPostsByAuthorId(session, 1L).get(0);
+        });
+
+        queryCache.clearStatistics();
+        doInTransaction(session -> {
+            List<Post> posts = getLatestPostsByAuthorId(session, 1L);
+            assertEquals(1, queryCache.getHitCount());
+            assertNotSame(cachedPost, posts.get(0));
+            assertTrue(session.contains(posts.get(0)));
+
+            LOGGER.info("Every cache hit returns a new result list");
+            assertNotSame(posts, getLatestPostsByAuthorId(session, 1L));
+            posts.clear();
+            assertEquals(1, getLatestPostsByAuthorId(session, 1L).size());
+        });
+    }
+
+    @Test
+    public void testPartitionTimestampsArePurged() {
+        doInTransaction(session -> {
+            assertEquals(1, getLatestPostsByAuthorId(session, 1L).size());
+        });
+        for (long authorId = 1; authorId <= authorCount(); authorId++) {
+            Long id = authorId;
+            doInTransaction(session -> {
+                session.persist(new Post("Partitioned Post", (Author) session.load(Author.class, id)));
+            });
+        }
+        LOGGER.info("The query cache holds {} partition timestamps", queryCache.getPartitionTimestampCount());
+        assertTrue(queryCache.getPartitionTimestampCount() <= maxPartitionTimestamps());
+
+        queryCache.clearStatistics();
+        doInTransaction(session -> {
+            assertEquals(2, getLatestPostsByAuthorId(session, 1L).size());
+        });
+        assertEquals(1, queryCache.getMissCount());
+    }
+
+    @Test
+    public void testHitRateUnderMixedReadWriteWorkload() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        queryCache.clearStatistics();
+
+        long startNanos = System.nanoTime();
+        runMixedWorkload(this::getCacheableLatestPostsByAuthorId);
+        long standardMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        long standardHits = statistics.getQueryCacheHitCount();
+        long standardMisses = statistics.getQueryCacheMissCount();
+        double standardHitRatio = (double) standardHits / (standardHits + standardMisses);
+
+        startNanos = System.nanoTime();
+        runMixedWorkload(this::getLatestPostsByAuthorId);
+        long partitionedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        LOGGER.info("Standard query cache hit ratio is {} and the workload took {} millis",
+            standardHitRatio, standardMillis);
+        LOGGER.info("Partitioned query cache hit ratio is {} and the workload took {} millis",
+            queryCache.getHitRatio(), partitionedMillis);
+        assertTrue(queryCache.getHitRatio() > standardHitRatio);
+    }
+
+    protected int authorCount() {
+        return 10;
+    }
+
+    protected int maxPartitionTimestamps() {
+        return authorCount() / 2;
+    }
+
+    protected int operationCount() {
+        return 1000;
+    }
+
+    protected int writePercentage() {
+        return 10;
+    }
+
+    private interface PostsByAuthorIdQuery {
+        List<Post> list(Session session, Long authorId);
+    }
+
+    private void runMixedWorkload(PostsByAuthorIdQuery query) {
+        Random random = new Random(authorCount());
+        for (int i = 0; i < operationCount(); i++) {
+            Long authorId = (long) (random.nextInt(authorCount()) + 1);
+            if (random.nextInt(100) < writePercentage()) {
+                doInTransaction(session -> {
+                    Author author = (Author) session.load(Author.class, authorId);
+                    session.persist(new Post("Mixed workload Post", author));
+                });
+            } else {
+                doInTransaction(session -> {
+                    query.list(session, authorId);
+                });
+            }
+        }
+    }
+
+    private List<Post> getPosts(Session session) {
+        return queryCache.list(
+            session,
+            "posts",
+            () -> {
+                @SuppressWarnings("unchecked")
+                List<Post> posts = session.createQuery(
+                    "select p " +
+                    "from Post p " +
+                    "order by p.createdOn desc")
+                .list();
+                return posts;
+            },
+            queryCache.table(Post.class)
+        );
+    }
+
+    private List<Post> getLatestPostsByAuthorId(Session session, Long authorId) {
+        return queryCache.list(
+            session,
+            "latestPostsByAuthorId:" + authorId,
+            () -> {
+                @SuppressWarnings("unchecked")
+                List<Post> posts = session.createQuery(
+                    "select p " +
+                    "from Post p " +
+                    "where p.author.id = :authorId " +
+                    "order by p.createdOn desc")
+                .setParameter("authorId", authorId)
+                .setMaxResults(10)
+                .list();
+                return posts;
+            },
+            queryCache.partition(Post.class, authorId)
+        );
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Post> getCacheableLatestPostsByAuthorId(Session session, Long authorId) {
+        return (List<Post>) session.createQuery(
+            "select p " +
+            "from Post p " +
+            "where p.author.id = :authorId " +
+            "order by p.createdOn desc")
+        .setParameter("authorId", authorId)
+        .setMaxResults(10)
+        .setCacheable(true)
+        .list();
+    }
+
+    @Entity(name = "Author")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
+    public static class Author {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.AUTO)
+        private Long id;
+
+        private String name;
+
+        public Author() {
+        }
+
+        public Author(String name) {
+            this.name = name;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    @Entity(name = "Post")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
+    public static class Post {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.AUTO)
+        private Long id;
+
+        private String name;
+
+        @Column(name = "created_on")
+        @Temporal(TemporalType.TIMESTAMP)
+        private Date createdOn = new Date();
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Author author;
+
+        public Post() {
+        }
+
+        public Post(String name, Author author) {
+            this.name = name;
+            this.author = author;
+        }
+
+        public Date getCreatedOn() {
+            return createdOn;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Author getAuthor() {
+            return author;
+        }
+
+        public void setAuthor(Author author) {
+            this.author = author;
+        }
+    }
+}
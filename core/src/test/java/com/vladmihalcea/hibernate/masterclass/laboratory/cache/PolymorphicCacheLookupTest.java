@@ -0,0 +1,297 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.cache;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.cache.PolymorphicCacheLoadEventListener;
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.WrongClassException;
+import org.hibernate.cache.ehcache.SingletonEhCacheRegionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * PolymorphicCacheLookupTest - Test to check that the entities of a hierarchy with cacheable subclasses
+ * are resolved from the root class cache region, whatever class they are requested through
+ *
+ * @author Vlad Mihalcea
+ */
+public class PolymorphicCacheLookupTest extends AbstractTest {
+
+    private final PolymorphicCacheLoadEventListener listener = new PolymorphicCacheLoadEventListener();
+
+    private boolean polymorphicCache = true;
+
+    private Map<String, String> cachedHierarchies;
+
+    private final List<Long> entityAIds = new ArrayList<>();
+
+    private final List<Long> entityBIds = new ArrayList<>();
+
+    private Long holderId;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[]{
+            EntityBase.class,
+            EntityA.class,
+            EntityB.class,
+            HolderEntity.class,
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.cache.use_second_level_cache", Boolean.TRUE.toString());
+        properties.put("hibernate.cache.region.factory_class", SingletonEhCacheRegionFactory.class.getName());
+        properties.put("hibernate.cache.default_cache_concurrency_strategy", "read-write");
+        properties.put("javax.persistence.sharedCache.mode", SharedCacheMode.ENABLE_SELECTIVE.name());
+        return properties;
+    }
+
+    @Override
+    protected void configure(Configuration configuration) {
+        if (polymorphicCache) {
+            cachedHierarchies = PolymorphicCacheLoadEventListener.cacheHierarchies(configuration);
+        }
+    }
+
+    @Override
+    protected SessionFactoryObserver sessionFactoryObserver() {
+        return polymorphicCache ? listener : null;
+    }
+
+    @Before
+    public void init() {
+        super.init();
+        doInTransaction(session -> {
+            for (int i = 0; i < entityCount(); i++) {
+                EntityA entityA = new EntityA();
+                entityA.setAColumn(i);
+                session.persist(entityA);
+                entityAIds.add(entityA.getId());
+
+                EntityB entityB = new EntityB();
+                entityB.setBColumn(i);
+                session.persist(entityB);
+                entityBIds.add(entityB.getId());
+            }
+            HolderEntity holderEntity = new HolderEntity();
+            holderEntity.setHoldedEntity((EntityBase) session.load(EntityBase.class, entityAIds.get(0)));
+            session.persist(holderEntity);
+            holderId = holderEntity.getId();
+        });
+        warmUp(getSessionFactory());
+        listener.clearStatistics();
+    }
+
+    @Test
+    public void testSubclassCacheSettingsAppliedToHierarchyRoot() {
+        assertEquals("read-write", cachedHierarchies.get(EntityBase.class.getName()));
+        assertEquals(1, cachedHierarchies.size());
+        assertNotNull(getSessionFactory().getStatistics().getSecondLevelCacheStatistics(EntityBase.class.getName()));
+    }
+
+    @Test
+    public void testLoadThroughBaseClassResolvesCachedSubclass() {
+        assertStatementCount(0, session -> {
+            Object entity = session.load(EntityBase.class, entityBIds.get(0));
+            assertFalse(entity instanceof HibernateProxy);
+            assertEquals(EntityB.class, entity.getClass());
+
+            HolderEntity holderEntity = (HolderEntity) session.get(HolderEntity.class, holderId);
+            assertEquals(EntityA.class, holderEntity.getHoldedEntity().getClass());
+        });
+        assertEquals(2, listener.getResolvedSubclassCount());
+    }
+
+    @Test
+    public void testLoadThroughBaseClassWithoutPolymorphicLookup() {
+        listener.setEnabled(false);
+        assertStatementCount(0, session -> {
+            Object entity = session.load(EntityBase.class, entityBIds.get(0));
+            assertTrue(entity instanceof HibernateProxy);
+            assertFalse(entity instanceof EntityB);
+        });
+    }
+
+    @Test
+    public void testGetThroughSiblingSubclassSkipsDiscriminatorSelect() {
+        assertStatementCount(0, session -> {
+            assertNull(session.get(EntityA.class, entityBIds.get(0)));
+            assertNotNull(session.get(EntityB.class, entityBIds.get(0)));
+        });
+        assertEquals(1, listener.getSubclassMismatchCount());
+    }
+
+    @Test
+    public void testGetThroughSiblingSubclassWithoutPolymorphicLookup() {
+        listener.setEnabled(false);
+        try {
+            doInTransaction(session -> {
+                session.get(EntityA.class, entityBIds.get(0));
+            });
+            fail("Should have thrown WrongClassException");
+        } catch (WrongClassException expected) {
+            LOGGER.info("The default load listener fails on the cached sibling subclass entry", expected);
+        }
+    }
+
+    @Test
+    public void testPolymorphicLookupRoundTrips() {
+        polymorphicCache = false;
+        Properties properties = getProperties();
+        properties.remove("hibernate.hbm2ddl.auto");
+        SessionFactory subclassCacheSessionFactory = newSessionFactory(properties);
+        try {
+            warmUp(subclassCacheSessionFactory);
+            Statistics statistics = subclassCacheSessionFactory.getStatistics();
+            statistics.clear();
+            polymorphicLookups(subclassCacheSessionFactory);
+            long subclassCacheStatements = statistics.getPrepareStatementCount();
+            long subclassCacheHits = statistics.getSecondLevelCacheHitCount();
+
+            statistics = getSessionFactory().getStatistics();
+            statistics.clear();
+            polymorphicLookups(getSessionFactory());
+            long rootCacheStatements = statistics.getPrepareStatementCount();
+            long rootCacheHits = statistics.getSecondLevelCacheHitCount();
+
+            LOGGER.info("{} polymorphic lookups, subclass cache settings: {} statements and {} cache hits, " +
+                    "root indexed cache: {} statements and {} cache hits, {} resolved subclasses, {} subclass mismatches",
+                lookupCount(), subclassCacheStatements, subclassCacheHits, rootCacheStatements, rootCacheHits,
+                listener.getResolvedSubclassCount(), listener.getSubclassMismatchCount());
+            assertEquals(lookupCount(), subclassCacheStatements);
+            assertEquals(0, rootCacheStatements);
+            assertEquals(entityAIds.size() + entityBIds.size(), listener.getResolvedSubclassCount());
+            assertEquals(entityBIds.size(), listener.getSubclassMismatchCount());
+        } finally {
+            subclassCacheSessionFactory.close();
+        }
+    }
+
+    protected int entityCount() {
+        return 50;
+    }
+
+    private int lookupCount() {
+        return 2 * (entityAIds.size() + entityBIds.size());
+    }
+
+    private void polymorphicLookups(SessionFactory sessionFactory) {
+        for (Long id : allIds()) {
+            doInTransaction(sessionFactory, session -> {
+                Object entity = session.load(EntityBase.class, id);
+                assertEquals(entityAIds.contains(id) ? EntityA.class : EntityB.class, Hibernate.getClass(entity));
+            });
+            doInTransaction(sessionFactory, session -> {
+                EntityA entityA = (EntityA) session.get(EntityA.class, id);
+                assertEquals(entityAIds.contains(id), entityA != null);
+            });
+        }
+    }
+
+    private void warmUp(SessionFactory sessionFactory) {
+        doInTransaction(sessionFactory, session -> {
+            for (Long id : allIds()) {
+                session.get(EntityBase.class, id);
+            }
+            session.get(HolderEntity.class, holderId);
+        });
+    }
+
+    private List<Long> allIds() {
+        List<Long> ids = new ArrayList<>(entityAIds);
+        ids.addAll(entityBIds);
+        return ids;
+    }
+
+    private void assertStatementCount(int expectedCount, HibernateTransactionConsumer callable) {
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        doInTransaction(callable);
+        assertEquals(expectedCount, statistics.getPrepareStatementCount());
+    }
+
+    @Entity(name = "EntityBase")
+    @Inheritance(strategy = InheritanceType.SINGLE_TABLE)
+    @DiscriminatorColumn(name = "TYPE", discriminatorType = DiscriminatorType.STRING)
+    public static abstract class EntityBase {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        private Long id;
+
+        public Long getId() {
+            return id;
+        }
+    }
+
+    @Entity(name = "EntityA")
+    @DiscriminatorValue("EntityA")
+    @Cacheable
+    public static class EntityA extends EntityBase {
+
+        private int aColumn;
+
+        public int getAColumn() {
+            return aColumn;
+        }
+
+        public void setAColumn(int aColumn) {
+            this.aColumn = aColumn;
+        }
+    }
+
+    @Entity(name = "EntityB")
+    @DiscriminatorValue("EntityB")
+    @Cacheable
+    public static class EntityB extends EntityBase {
+
+        private int bColumn;
+
+        public int getBColumn() {
+            return bColumn;
+        }
+
+        public void setBColumn(int bColumn) {
+            this.bColumn = bColumn;
+        }
+    }
+
+    @Entity(name = "HolderEntity")
+    @Cacheable
+    public static class HolderEntity {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.IDENTITY)
+        private Long id;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private EntityBase holdedEntity;
+
+        public Long getId() {
+            return id;
+        }
+
+        public EntityBase getHoldedEntity() {
+            return holdedEntity;
+        }
+
+        public void setHoldedEntity(EntityBase holdedEntity) {
+            this.holdedEntity = holdedEntity;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.cache;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.ProjectionQueryCache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.hibernate.Session;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.stat.Statistics;
+import org.hibernate.transform.Transformers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * ProjectionQueryCacheTest - Test to check the projection query cache
+ *
+ * @author Vlad Mihalcea
+ */
+public class ProjectionQueryCacheTest extends AbstractTest {
+
+    private CacheManager cacheManager;
+
+    private ProjectionQueryCache projectionQueryCache;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[]{
+            Post.class,
+            Author.class,
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.cache.use_second_level_cache", Boolean.TRUE.toString());
+        properties.put("hibernate.cache.region.factory_class", "org.hibernate.cache.ehcache.EhCacheRegionFactory");
+        properties.put("hibernate.cache.use_query_cache", Boolean.TRUE.toString());
+        return properties;
+    }
+
+    @Before
+    public void init() {
+        super.init();
+        cacheManager = CacheManager.newInstance(
+            new Configuration()
+                .name(getClass().getSimpleName())
+                .cache(new CacheConfiguration("projectionQueryCache", 1000))
+        );
+        projectionQueryCache = new ProjectionQueryCache(
+            getSessionFactory(), cacheManager.getCache("projectionQueryCache")
+        );
+        doInTransaction(session -> {
+            Author author = new Author("Vlad");
+            session.persist(author);
+            for (int i = 0; i < postCount(); i++) {
+                session.persist(new Post(String.format("Post no. %d", i), author));
+            }
+        });
+    }
+
+    @After
+    public void destroy() {
+        cacheManager.shutdown();
+        getSessionFactory().getCache().evictAllRegions();
+        super.destroy();
+    }
+
+    @Test
+    public void testProjectionCacheHitRequiresNoRoundTrip() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        doInTransaction(session -> {
+            assertEquals(10, getLatestPostSummaries(session).size());
+        });
+
+        statistics.clear();
+        doInTransaction(session -> {
+            List<PostSummary> summaries = getLatestPostSummaries(session);
+            assertEquals(10, summaries.size());
+            assertEquals("Vlad", summaries.get(0).getAuthorName());
+        });
+        assertEquals(0, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getSecondLevelCacheHitCount());
+    }
+
+    @Test
+    public void testProjectionCacheInvalidation() {
+        doInTransaction(session -> {
+            assertEquals(postCount(), getPostSummaries(session).size());
+        });
+        doInTransaction(session -> {
+            Author author = (Author) session.get(Author.class, 1L);
+            session.persist(new Post("Hibernate Book", author));
+        });
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        doInTransaction(session -> {
+            assertEquals(postCount() + 1, getPostSummaries(session).size());
+        });
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testProjectionCacheInvalidationOnJoinedTable() {
+        doInTransaction(session -> {
+            assertEquals("Vlad", getLatestPostSummaries(session).get(0).getAuthorName());
+        });
+        doInTransaction(session -> {
+            Author author = (Author) session.get(Author.class, 1L);
+            author.setName("Vlad Mihalcea");
+        });
+        doInTransaction(session -> {
+            assertEquals("Vlad Mihalcea", getLatestPostSummaries(session).get(0).getAuthorName());
+        });
+    }
+
+    @Test
+    public void testPendingChangesAreFlushedBeforeCacheLookup() {
+        doInTransaction(session -> {
+            assertEquals("Vlad", getLatestPostSummaries(session).get(0).getAuthorName());
+        });
+        doInTransaction(session -> {
+            Author author = (Author) session.get(Author.class, 1L);
+            author.setName("Vlad Mihalcea");
+            assertEquals("Vlad Mihalcea", getLatestPostSummaries(session).get(0).getAuthorName());
+        });
+    }
+
+    @Test
+    public void testCachedValuesAreNotShared() {
+        Date createdOn = doInTransaction(session -> {
+            PostSummary summary = getLatestPostSummaries(session).get(0);
+            Date original = new Date(summary.getCreatedOn().getTime());
+            summary.getCreatedOn().setTime(0);
+            return original;
+        });
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        doInTransaction(session -> {
+            PostSummary summary = getLatestPostSummaries(session).get(0);
+            assertEquals(createdOn.getTime(), summary.getCreatedOn().getTime());
+            summary.getCreatedOn().setTime(0);
+        });
+        doInTransaction(session -> {
+            assertEquals(createdOn.getTime(), getLatestPostSummaries(session).get(0).getCreatedOn().getTime());
+        });
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testEntityQueryIsRejected() {
+        doInTransaction(session -> {
+            try {
+                projectionQueryCache.list(session, "select p from Post p", Transformers.TO_LIST);
+                fail("Entity queries should not be cached");
+            } catch (IllegalArgumentException expected) {
+                LOGGER.info("Expected", expected);
+            }
+        });
+    }
+
+    @Test
+    public void testProjectionVersusEntityQueryCache() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        doInTransaction(session -> {
+            getLatestPosts(session);
+            getLatestPostSummaries(session);
+        });
+
+        statistics.clear();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < iterationCount(); i++) {
+            doInTransaction(this::getLatestPosts);
+        }
+        LOGGER.info("Entity query cache took {} millis, {} statements and {} 2LC hits for {} queries",
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+            statistics.getPrepareStatementCount(),
+            statistics.getSecondLevelCacheHitCount(),
+            iterationCount());
+
+        statistics.clear();
+        startNanos = System.nanoTime();
+        for (int i = 0; i < iterationCount(); i++) {
+            doInTransaction(this::getLatestPostSummaries);
+        }
+        LOGGER.info("Projection query cache took {} millis, {} statements and {} 2LC hits for {} queries",
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+            statistics.getPrepareStatementCount(),
+            statistics.getSecondLevelCacheHitCount(),
+            iterationCount());
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    protected int postCount() {
+        return 100;
+    }
+
+    protected int iterationCount() {
+        return 1000;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Post> getLatestPosts(Session session) {
+        return (List<Post>) session.createQuery(
+            "select p " +
+            "from Post p " +
+            "order by p.createdOn desc")
+        .setMaxResults(10)
+        .setCacheable(true)
+        .list();
+    }
+
+    private List<PostSummary> getLatestPostSummaries(Session session) {
+        return projectionQueryCache.list(session,
+            "select p.id as id, p.name as name, p.createdOn as createdOn, a.name as authorName " +
+            "from Post p " +
+            "join p.author a " +
+            "order by p.createdOn desc",
+            Collections.emptyMap(),
+            10,
+            Transformers.aliasToBean(PostSummary.class)
+        );
+    }
+
+    private List<PostSummary> getPostSummaries(Session session) {
+        return projectionQueryCache.list(session,
+            "select p.id as id, p.name as name " +
+            "from Post p",
+            Transformers.aliasToBean(PostSummary.class)
+        );
+    }
+
+    public static class PostSummary {
+
+        private Long id;
+
+        private String name;
+
+        private Date createdOn;
+
+        private String authorName;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Date getCreatedOn() {
+            return createdOn;
+        }
+
+        public void setCreatedOn(Date createdOn) {
+            this.createdOn = createdOn;
+        }
+
+        public String getAuthorName() {
+            return authorName;
+        }
+
+        public void setAuthorName(String authorName) {
+            this.authorName = authorName;
+        }
+    }
+
+    @Entity(name = "Author")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
+    public static class Author {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.AUTO)
+        private Long id;
+
+        private String name;
+
+        public Author() {
+        }
+
+        public Author(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    @Entity(name = "Post")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
+    public static class Post {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.AUTO)
+        private Long id;
+
+        private String name;
+
+        @Column(name = "created_on")
+        @Temporal(TemporalType.TIMESTAMP)
+        private Date createdOn = new Date();
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Author author;
+
+        public Post() {
+        }
+
+        public Post(String name, Author author) {
+            this.name = name;
+            this.author = author;
+        }
+
+        public Date getCreatedOn() {
+            return createdOn;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Author getAuthor() {
+            return author;
+        }
+    }
+}
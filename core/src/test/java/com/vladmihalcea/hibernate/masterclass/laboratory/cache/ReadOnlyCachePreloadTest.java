@@ -0,0 +1,323 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.cache;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.cache.SecondLevelCachePreloader;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Immutable;
+import org.hibernate.cache.ehcache.SingletonEhCacheRegionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * ReadOnlyCachePreloadTest - Test to check the READ_ONLY regions preloaded at SessionFactory build time
+ *
+ * @author Vlad Mihalcea
+ */
+public class ReadOnlyCachePreloadTest extends AbstractTest {
+
+    private final SecondLevelCachePreloader preloader = new SecondLevelCachePreloader()
+        .entity(Repository.class)
+        .entity(Branch.class)
+        .entity(Commit.class)
+        .collection(Commit.class, "changes");
+
+    private final List<Long> repositoryIds = new ArrayList<>();
+
+    private final List<Long> branchIds = new ArrayList<>();
+
+    private final List<Long> commitIds = new ArrayList<>();
+
+    private final List<SessionFactory> nodes = new ArrayList<>();
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Repository.class,
+            Branch.class,
+            Commit.class
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.cache.use_second_level_cache", Boolean.TRUE.toString());
+        properties.put("hibernate.cache.region.factory_class", SingletonEhCacheRegionFactory.class.getName());
+        return properties;
+    }
+
+    @Override
+    protected SessionFactoryObserver sessionFactoryObserver() {
+        return preloader;
+    }
+
+    @Before
+    public void init() {
+        super.init();
+        doInTransaction(session -> {
+            for (int i = 0; i < repositoryCount(); i++) {
+                Repository repository = new Repository(String.format("Repository no. %d", i));
+                session.persist(repository);
+                repositoryIds.add(repository.getId());
+                Branch branch = new Branch(repository, "master");
+                session.persist(branch);
+                branchIds.add(branch.getId());
+                for (int j = 0; j < commitsPerRepository(); j++) {
+                    Commit commit = new Commit(repository);
+                    commit.getChanges().add(new Change("README.txt", "0a1,5..."));
+                    commit.getChanges().add(new Change("web.xml", "17c17..."));
+                    session.persist(commit);
+                    commitIds.add(commit.getId());
+                }
+            }
+        });
+        getSessionFactory().getCache().evictAllRegions();
+        getSessionFactory().getStatistics().clear();
+    }
+
+    @After
+    public void destroy() {
+        for (SessionFactory node : nodes) {
+            node.close();
+        }
+        super.destroy();
+    }
+
+    @Test
+    public void testPreloadAtSessionFactoryBuild() {
+        startNode();
+        SecondLevelCachePreloader.PreloadReport report = preloader.getLastReport();
+        assertEquals(repositoryIds.size(), report.getEntryCount(Repository.class.getName()));
+        assertEquals(branchIds.size(), report.getEntryCount(Branch.class.getName()));
+        assertEquals(commitIds.size(), report.getEntryCount(Commit.class.getName()));
+        assertEquals(commitIds.size(), report.getEntryCount(Commit.class.getName() + ".changes"));
+
+        readAll();
+        assertEquals(0, getSessionFactory().getStatistics().getPrepareStatementCount());
+        assertEquals(0, getSessionFactory().getStatistics().getSecondLevelCacheMissCount());
+    }
+
+    @Test
+    public void testFirstRequestsAfterStartup() {
+        long startNanos = System.nanoTime();
+        readAll();
+        LOGGER.info("Lazily populated cache: first requests took {} millis and executed {} statements",
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+            getSessionFactory().getStatistics().getPrepareStatementCount());
+        assertTrue(getSessionFactory().getStatistics().getPrepareStatementCount() > 0);
+
+        getSessionFactory().getCache().evictAllRegions();
+        startNode();
+        getSessionFactory().getStatistics().clear();
+
+        startNanos = System.nanoTime();
+        readAll();
+        LOGGER.info("Preloaded cache: warm-up took {} millis, first requests took {} millis and executed {} statements",
+            preloader.getLastReport().getDurationMillis(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+            getSessionFactory().getStatistics().getPrepareStatementCount());
+        assertEquals(0, getSessionFactory().getStatistics().getPrepareStatementCount());
+    }
+
+    @Test
+    public void testOnlyReadOnlyRegionsArePreloaded() {
+        try {
+            new SecondLevelCachePreloader().entity(Change.class);
+            fail("Should not preload uncached types");
+        } catch (IllegalArgumentException expected) {
+            LOGGER.info("Expected", expected);
+        }
+    }
+
+    protected int repositoryCount() {
+        return 10;
+    }
+
+    protected int commitsPerRepository() {
+        return 50;
+    }
+
+    /**
+     * Start another node sharing the cache regions, which runs the preload stage while being built
+     */
+    private void startNode() {
+        Properties properties = getProperties();
+        properties.remove("hibernate.hbm2ddl.auto");
+        nodes.add(newSessionFactory(properties));
+    }
+
+    private void readAll() {
+        doInTransaction(session -> {
+            for (Long repositoryId : repositoryIds) {
+                session.get(Repository.class, repositoryId);
+            }
+            for (Long branchId : branchIds) {
+                session.get(Branch.class, branchId);
+            }
+            for (Long commitId : commitIds) {
+                Commit commit = (Commit) session.get(Commit.class, commitId);
+                assertEquals(2, commit.getChanges().size());
+            }
+        });
+    }
+
+    /**
+     * Repository - Repository
+     *
+     * @author Vlad Mihalcea
+     */
+    @Entity(name = "repository")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_ONLY, region = "repository")
+    @Immutable
+    public static class Repository {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.AUTO)
+        private Long id;
+
+        private String name;
+
+        public Repository() {
+        }
+
+        public Repository(String name) {
+            this.name = name;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Branch - Branch, sharing the repository cache region
+     *
+     * @author Vlad Mihalcea
+     */
+    @Entity(name = "Branch")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_ONLY, region = "repository")
+    @Immutable
+    public static class Branch {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.AUTO)
+        private Long id;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Repository repository;
+
+        private String name;
+
+        public Branch() {
+        }
+
+        public Branch(Repository repository, String name) {
+            this.repository = repository;
+            this.name = name;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public Repository getRepository() {
+            return repository;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * Commit - Commit
+     *
+     * @author Vlad Mihalcea
+     */
+    @Entity(name = "Commit")
+    @Table(name = "commit")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
+    @Immutable
+    public static class Commit {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.AUTO)
+        private Long id;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Repository repository;
+
+        @ElementCollection
+        @CollectionTable(
+                name="commit_change",
+                joinColumns=@JoinColumn(name="commit_id")
+        )
+        @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_ONLY)
+        private List<Change> changes = new ArrayList<>();
+
+        public Commit() {
+        }
+
+        public Commit(Repository repository) {
+            this.repository = repository;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public Repository getRepository() {
+            return repository;
+        }
+
+        public List<Change> getChanges() {
+            return changes;
+        }
+    }
+
+    /**
+     * Change - Change
+     *
+     * @author Vlad Mihalcea
+     */
+    @Embeddable
+    public static class Change {
+
+        private String path;
+
+        private String diff;
+
+        public Change() {
+        }
+
+        public Change(String path, String diff) {
+            this.path = path;
+            this.diff = diff;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getDiff() {
+            return diff;
+        }
+    }
+}
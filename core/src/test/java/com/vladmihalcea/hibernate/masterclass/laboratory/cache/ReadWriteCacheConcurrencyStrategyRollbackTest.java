@@ -0,0 +1,151 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.cache;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Interceptor;
+import org.hibernate.Transaction;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.cache.ehcache.EhCacheRegionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Version;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ReadWriteCacheConcurrencyStrategyRollbackTest - Test to check how long a rolled-back update
+ * keeps a CacheConcurrencyStrategy.READ_WRITE entry out of the cache
+ *
+ * @author Vlad Mihalcea
+ */
+public class ReadWriteCacheConcurrencyStrategyRollbackTest extends AbstractTest {
+
+    private final AtomicBoolean applyInterceptor = new AtomicBoolean();
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Repository.class
+        };
+    }
+
+    @Override
+    protected Interceptor interceptor() {
+        return new EmptyInterceptor() {
+            @Override
+            public void beforeTransactionCompletion(Transaction tx) {
+                if(applyInterceptor.get()) {
+                    tx.rollback();
+                }
+            }
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.cache.use_second_level_cache", Boolean.TRUE.toString());
+        properties.put("hibernate.cache.region.factory_class", regionFactoryClass().getName());
+        properties.put("net.sf.ehcache.hibernate.cache_lock_timeout", String.valueOf(lockTimeoutMillis()));
+        return properties;
+    }
+
+    protected Class<? extends EhCacheRegionFactory> regionFactoryClass() {
+        return EhCacheRegionFactory.class;
+    }
+
+    protected int lockTimeoutMillis() {
+        return 250;
+    }
+
+    @Before
+    public void init() {
+        super.init();
+        doInTransaction(session -> {
+            session.persist(new Repository(1L, "Hibernate-Master-Class"));
+        });
+        doInTransaction(session -> {
+            session.get(Repository.class, 1L);
+        });
+    }
+
+    @Test
+    public void testRollbackMissWindow() {
+        try {
+            doInTransaction(session -> {
+                Repository repository = (Repository) session.get(Repository.class, 1L);
+                repository.setName("High-Performance Hibernate");
+                applyInterceptor.set(true);
+            });
+        } catch (Exception e) {
+            LOGGER.info("Expected", e);
+        }
+        applyInterceptor.set(false);
+        long rollbackNanos = System.nanoTime();
+
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        while (statistics.getSecondLevelCacheHitCount() == 0) {
+            doInTransaction(session -> {
+                session.get(Repository.class, 1L);
+            });
+            if (statistics.getSecondLevelCacheHitCount() == 0) {
+                sleep(10);
+            }
+        }
+        long missWindowMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - rollbackNanos);
+        LOGGER.info("After rollback, the entry was not cached for {} millis, during which {} reads went to the database",
+            missWindowMillis, statistics.getEntityLoadCount());
+        verifyMissWindow(missWindowMillis, statistics.getEntityLoadCount());
+    }
+
+    protected void verifyMissWindow(long missWindowMillis, long databaseReadCount) {
+        assertTrue(missWindowMillis >= lockTimeoutMillis() / 2);
+        assertTrue(databaseReadCount > 1);
+    }
+
+    /**
+     * Repository - Repository
+     *
+     * @author Vlad Mihalcea
+     */
+    @Entity(name = "repository")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    public static class Repository {
+
+        @Id
+        private Long id;
+
+        private String name;
+
+        @Version
+        private int version;
+
+        public Repository() {
+        }
+
+        public Repository(Long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.cache;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.cache.InProcessRemoteCacheServer;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.cache.TwoTierEhCacheRegionFactory;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.cache.TwoTierEhcache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+import org.hibernate.SessionFactory;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * TwoTierCacheTest - Test to check the near-cache plus remote tier second-level cache
+ * shared by multiple SessionFactory nodes
+ *
+ * @author Vlad Mihalcea
+ */
+public class TwoTierCacheTest extends AbstractTest {
+
+    private final InProcessRemoteCacheServer server = new InProcessRemoteCacheServer();
+
+    private final List<SessionFactory> nodes = new ArrayList<>();
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[]{
+            Post.class
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        return nodeProperties("node-0");
+    }
+
+    private Properties nodeProperties(String nodeName) {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.cache.use_second_level_cache", Boolean.TRUE.toString());
+        properties.put("hibernate.cache.region.factory_class", TwoTierEhCacheRegionFactory.class.getName());
+        properties.put(TwoTierEhCacheRegionFactory.TRANSPORT, server);
+        properties.put(TwoTierEhCacheRegionFactory.NODE_NAME, nodeName);
+        return properties;
+    }
+
+    @Before
+    public void init() {
+        super.init();
+        nodes.add(getSessionFactory());
+        for (int i = 1; i < nodeCount(); i++) {
+            Properties properties = nodeProperties("node-" + i);
+            properties.remove("hibernate.hbm2ddl.auto");
+            nodes.add(newSessionFactory(properties));
+        }
+        doInTransaction(session -> {
+            for (long id = 1; id <= postCount(); id++) {
+                session.persist(new Post(id, String.format("Post no. %d", id)));
+            }
+        });
+    }
+
+    @After
+    public void destroy() {
+        for (int i = 1; i < nodes.size(); i++) {
+            nodes.get(i).close();
+        }
+        super.destroy();
+        server.shutdown();
+    }
+
+    @Test
+    public void testRemoteTierHitAvoidsDatabase() {
+        doInTransaction(node(0), session -> {
+            session.get(Post.class, 1L);
+        });
+
+        node(1).getStatistics().clear();
+        doInTransaction(node(1), session -> {
+            Post post = (Post) session.get(Post.class, 1L);
+            assertEquals("Post no. 1", post.getTitle());
+        });
+        doInTransaction(node(1), session -> {
+            session.get(Post.class, 1L);
+        });
+        assertEquals(0, node(1).getStatistics().getPrepareStatementCount());
+        assertEquals(1, postCache(1).getRemoteHitCount());
+        assertEquals(1, postCache(1).getNearHitCount());
+    }
+
+    @Test
+    public void testInvalidationMessageRefreshesOtherNodes() {
+        server.setInvalidationDelayMillis(invalidationDelayMillis());
+        for (SessionFactory node : nodes) {
+            doInTransaction(node, session -> {
+                session.get(Post.class, 1L);
+            });
+        }
+
+        doInTransaction(node(0), session -> {
+            Post post = (Post) session.get(Post.class, 1L);
+            post.setTitle("High-Performance Java Persistence");
+        });
+        long updateNanos = System.nanoTime();
+
+        long deadlineNanos = updateNanos + TimeUnit.MILLISECONDS.toNanos(invalidationDelayMillis() * 10);
+        for (int i = 1; i < nodeCount(); i++) {
+            String title;
+            do {
+                if (System.nanoTime() > deadlineNanos) {
+                    fail("Node " + i + " still reads the stale entry");
+                }
+                title = doInTransaction(node(i), (HibernateTransactionFunction<String>) session ->
+                    ((Post) session.get(Post.class, 1L)).getTitle()
+                );
+            } while (!"High-Performance Java Persistence".equals(title));
+            long stalenessMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - updateNanos);
+            LOGGER.info("Node {} staleness window is {} millis", i, stalenessMillis);
+            assertTrue(stalenessMillis < invalidationDelayMillis() * 10);
+        }
+    }
+
+    @Test
+    public void testInvalidationDuringRemoteReadIsNotLost() {
+        TwoTierEhcache[] cache = new TwoTierEhcache[1];
+        InProcessRemoteCacheServer raceServer = new InProcessRemoteCacheServer() {
+            @Override
+            public Object get(String region, Object key) {
+                Object value = super.get(region, key);
+                //another node changes the entry before the near-cache is populated
+                cache[0].invalidateLocal(key);
+                return value;
+            }
+        };
+        withNearCache(raceServer, nearCache -> {
+            cache[0] = nearCache;
+            raceServer.put("post", 1L, "Post no. 1");
+            assertEquals("Post no. 1", cache[0].get((Object) 1L).getObjectValue());
+            assertNull(cache[0].getNearCache().get(1L));
+        });
+    }
+
+    @Test
+    public void testLocalWriteDuringRemoteReadIsNotLost() {
+        TwoTierEhcache[] cache = new TwoTierEhcache[1];
+        InProcessRemoteCacheServer raceServer = new InProcessRemoteCacheServer() {
+            @Override
+            public Object get(String region, Object key) {
+                Object value = super.get(region, key);
+                //a concurrent Session of the same node changes the entry before the near-cache is populated
+                cache[0].put(new Element(key, "Post no. 1, updated"));
+                return value;
+            }
+        };
+        withNearCache(raceServer, nearCache -> {
+            cache[0] = nearCache;
+            raceServer.put("post", 1L, "Post no. 1");
+            assertEquals("Post no. 1", cache[0].get((Object) 1L).getObjectValue());
+            assertEquals("Post no. 1, updated", cache[0].getNearCache().get(1L).getObjectValue());
+        });
+    }
+
+    @Test
+    public void testQuietAndBulkOperationsReachRemoteTier() {
+        InProcessRemoteCacheServer remoteServer = new InProcessRemoteCacheServer();
+        withNearCache(remoteServer, cache -> {
+            cache.putAll(Arrays.asList(new Element(1L, "Post no. 1"), new Element(2L, "Post no. 2")));
+            cache.putQuiet(new Element(3L, "Post no. 3"));
+            assertEquals(3, remoteServer.size("post"));
+            cache.getNearCache().removeAll();
+            assertEquals("Post no. 3", cache.getQuiet((Object) 3L).getObjectValue());
+            Map<Object, Element> elements = cache.getAll(Arrays.asList(1L, 2L, 4L));
+            assertEquals("Post no. 1", elements.get(1L).getObjectValue());
+            assertEquals("Post no. 2", elements.get(2L).getObjectValue());
+            assertNull(elements.get(4L));
+            cache.removeAll(Arrays.asList(1L, 2L));
+            assertEquals(1, remoteServer.size("post"));
+            try {
+                cache.putIfAbsent(new Element(4L, "Post no. 4"));
+                fail("The compare-and-set operations should not be supported");
+            } catch (UnsupportedOperationException expected) {
+            }
+        });
+    }
+
+    private void withNearCache(InProcessRemoteCacheServer remoteServer, Consumer<TwoTierEhcache> callback) {
+        CacheManager cacheManager = CacheManager.newInstance(
+            new Configuration()
+                .name(getClass().getSimpleName())
+                .cache(new CacheConfiguration("post", postCount()))
+        );
+        try {
+            callback.accept(new TwoTierEhcache(cacheManager.getCache("post"), remoteServer, "node-0"));
+        } finally {
+            cacheManager.shutdown();
+            remoteServer.shutdown();
+        }
+    }
+
+    @Test
+    public void testHitRatioAcrossNodes() {
+        Random random = new Random(postCount());
+        for (int i = 0; i < nodeCount(); i++) {
+            node(i).getStatistics().clear();
+            postCache(i).clearStatistics();
+        }
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < operationCount(); i++) {
+            SessionFactory node = nodes.get(random.nextInt(nodeCount()));
+            Long id = (long) (random.nextInt(postCount()) + 1);
+            if (random.nextInt(100) < writePercentage()) {
+                doInTransaction(node, session -> {
+                    Post post = (Post) session.get(Post.class, id);
+                    post.setTitle(String.format("Post no. %d, update %d", id, random.nextInt()));
+                });
+            } else {
+                doInTransaction(node, session -> {
+                    session.get(Post.class, id);
+                });
+            }
+        }
+        LOGGER.info("{} operations on {} nodes took {} millis, {} remote round trips, {} invalidations",
+            operationCount(),
+            nodeCount(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+            server.getRoundTripCount(),
+            server.getInvalidationCount());
+        long entityLoads = 0;
+        for (int i = 0; i < nodeCount(); i++) {
+            TwoTierEhcache cache = postCache(i);
+            entityLoads += node(i).getStatistics().getEntityLoadCount();
+            LOGGER.info("Node {} hit ratio is {}: {} near hits, {} remote hits, {} misses",
+                i, cache.getHitRatio(), cache.getNearHitCount(), cache.getRemoteHitCount(), cache.getMissCount());
+            assertTrue(cache.getRemoteHitCount() > 0);
+        }
+        assertTrue(entityLoads < operationCount());
+    }
+
+    protected int nodeCount() {
+        return 3;
+    }
+
+    protected int postCount() {
+        return 50;
+    }
+
+    protected int operationCount() {
+        return 1000;
+    }
+
+    protected int writePercentage() {
+        return 10;
+    }
+
+    protected long invalidationDelayMillis() {
+        return 20;
+    }
+
+    private SessionFactory node(int index) {
+        return nodes.get(index);
+    }
+
+    private TwoTierEhcache postCache(int index) {
+        TwoTierEhCacheRegionFactory regionFactory = (TwoTierEhCacheRegionFactory)
+            ((SessionFactoryImplementor) node(index)).getSettings().getRegionFactory();
+        return regionFactory.getCache(Post.class.getName());
+    }
+
+    @Entity(name = "Post")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    public static class Post {
+
+        @Id
+        private Long id;
+
+        private String title;
+
+        public Post() {
+        }
+
+        public Post(Long id, String title) {
+            this.id = id;
+            this.title = title;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+    }
+}
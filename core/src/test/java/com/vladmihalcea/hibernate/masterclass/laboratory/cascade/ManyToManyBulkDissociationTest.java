@@ -0,0 +1,297 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.cascade;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.ManyToManyDissociator;
+import org.hibernate.Session;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ManyToManyBulkDissociationTest - Test to check the set-based many-to-many dissociation keeps the Persistence
+ * Context and the collection cache consistent, and to compare it with the collection-based dissociation
+ *
+ * @author Vlad Mihalcea
+ */
+public class ManyToManyBulkDissociationTest extends AbstractTest {
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[]{
+                Book.class,
+                Author.class
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.cache.use_second_level_cache", Boolean.TRUE.toString());
+        properties.put("hibernate.cache.region.factory_class", "org.hibernate.cache.ehcache.EhCacheRegionFactory");
+        properties.put("hibernate.jdbc.batch_size", "50");
+        return properties;
+    }
+
+    @Override
+    protected boolean proxyDataSource() {
+        return false;
+    }
+
+    @After
+    public void destroy() {
+        getSessionFactory().getCache().evictAllRegions();
+        super.destroy();
+    }
+
+    @Test
+    public void testDissociateElements() {
+        insertLinks(3, 3);
+        //load the collections in the second-level cache
+        doInTransaction(session -> {
+            for (Book book : books(session)) {
+                assertEquals(3, book.getAuthors().size());
+            }
+        });
+        Statistics statistics = getSessionFactory().getStatistics();
+        doInTransaction(session -> {
+            List<Book> books = books(session);
+            Author author = (Author) session.get(Author.class, 0L);
+            assertEquals(3, author.getBooks().size());
+            for (Book book : books) {
+                assertEquals(3, book.getAuthors().size());
+            }
+            int rowCount = dissociator().dissociateElements(session, ids(0));
+            assertEquals(3, rowCount);
+            assertTrue(author.getBooks().isEmpty());
+            for (Book book : books) {
+                assertEquals(2, book.getAuthors().size());
+                assertTrue(!book.getAuthors().contains(author));
+            }
+            statistics.clear();
+            session.flush();
+            assertEquals(0, statistics.getPrepareStatementCount());
+        });
+        doInTransaction(session -> {
+            for (Book book : books(session)) {
+                assertEquals(2, book.getAuthors().size());
+            }
+            assertTrue(((Author) session.get(Author.class, 0L)).getBooks().isEmpty());
+        });
+    }
+
+    @Test
+    public void testDissociateOwners() {
+        insertLinks(3, 3);
+        doInTransaction(session -> {
+            List<Book> books = books(session);
+            Author author = (Author) session.get(Author.class, 1L);
+            assertEquals(3, author.getBooks().size());
+            int rowCount = dissociator().dissociateOwners(session, ids(0, 1));
+            assertEquals(6, rowCount);
+            assertTrue(books.get(0).getAuthors().isEmpty());
+            assertTrue(books.get(1).getAuthors().isEmpty());
+            assertEquals(3, books.get(2).getAuthors().size());
+            assertEquals(1, author.getBooks().size());
+        });
+        doInTransaction(session -> {
+            List<Book> books = books(session);
+            assertTrue(books.get(0).getAuthors().isEmpty());
+            assertEquals(3, books.get(2).getAuthors().size());
+            assertEquals(1, ((Author) session.get(Author.class, 1L)).getBooks().size());
+        });
+    }
+
+    @Test
+    public void testCollectionVersusBulkDissociation() {
+        int bookCount = bookCount();
+        int authorCount = authorCount();
+        List<Long> authorIds = new ArrayList<>();
+        for (long i = 0; i < authorCount / 2; i++) {
+            authorIds.add(i);
+        }
+        Statistics statistics = getSessionFactory().getStatistics();
+
+        insertLinks(bookCount, authorCount);
+        statistics.clear();
+        long startNanos = System.nanoTime();
+        doInTransaction(session -> {
+            for (Author author : authors(session, authorIds)) {
+                author.remove();
+            }
+        });
+        long collectionNanos = System.nanoTime() - startNanos;
+        long collectionStatements = statistics.getPrepareStatementCount();
+        assertEquals(bookCount * (authorCount - authorIds.size()), linkCount());
+
+        insertLinks(bookCount, authorCount);
+        statistics.clear();
+        startNanos = System.nanoTime();
+        doInTransaction(session -> {
+            assertEquals(bookCount * authorIds.size(), dissociator().dissociateElements(session, authorIds));
+        });
+        long bulkNanos = System.nanoTime() - startNanos;
+        long bulkStatements = statistics.getPrepareStatementCount();
+        assertEquals(bookCount * (authorCount - authorIds.size()), linkCount());
+
+        LOGGER.info("Dissociating {} authors out of {} link rows: collection-based took {} ms and {} statements, " +
+            "bulk took {} ms and {} statements",
+            authorIds.size(), bookCount * authorCount,
+            TimeUnit.NANOSECONDS.toMillis(collectionNanos), collectionStatements,
+            TimeUnit.NANOSECONDS.toMillis(bulkNanos), bulkStatements);
+        assertEquals(1, bulkStatements);
+    }
+
+    protected int bookCount() {
+        return 1000;
+    }
+
+    protected int authorCount() {
+        return 100;
+    }
+
+    private ManyToManyDissociator dissociator() {
+        return new ManyToManyDissociator(getSessionFactory(), Book.class, "authors");
+    }
+
+    private List<Long> ids(long... values) {
+        List<Long> ids = new ArrayList<>();
+        for (long value : values) {
+            ids.add(value);
+        }
+        return ids;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Book> books(Session session) {
+        return session.createQuery("select b from Book b order by b.id").list();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Author> authors(Session session, List<Long> ids) {
+        return session.createQuery(
+            "select distinct a " +
+            "from Author a " +
+            "left join fetch a.books " +
+            "where a.id in (:ids)")
+            .setParameterList("ids", ids)
+            .list();
+    }
+
+    private long linkCount() {
+        return doInTransaction(session -> {
+            return ((Number) session.createSQLQuery("select count(*) from Book_Author").uniqueResult()).longValue();
+        });
+    }
+
+    /**
+     * Link every book with every author
+     */
+    private void insertLinks(int bookCount, int authorCount) {
+        getSessionFactory().getCache().evictAllRegions();
+        doInJDBC(connection -> {
+            try (
+                PreparedStatement deleteLinks = connection.prepareStatement("delete from Book_Author");
+                PreparedStatement deleteBooks = connection.prepareStatement("delete from Book");
+                PreparedStatement deleteAuthors = connection.prepareStatement("delete from Author");
+            ) {
+                deleteLinks.executeUpdate();
+                deleteBooks.executeUpdate();
+                deleteAuthors.executeUpdate();
+            }
+            try (
+                PreparedStatement bookStatement = connection.prepareStatement("insert into Book (id, title) values (?, ?)");
+                PreparedStatement authorStatement = connection.prepareStatement("insert into Author (id, full_name) values (?, ?)");
+                PreparedStatement linkStatement = connection.prepareStatement("insert into Book_Author (book_id, author_id) values (?, ?)");
+            ) {
+                for (int i = 0; i < bookCount; i++) {
+                    bookStatement.setLong(1, i);
+                    bookStatement.setString(2, String.format("Book no. %d", i));
+                    bookStatement.addBatch();
+                }
+                bookStatement.executeBatch();
+                for (int i = 0; i < authorCount; i++) {
+                    authorStatement.setLong(1, i);
+                    authorStatement.setString(2, String.format("Author no. %d", i));
+                    authorStatement.addBatch();
+                }
+                authorStatement.executeBatch();
+                for (int i = 0; i < bookCount; i++) {
+                    for (int j = 0; j < authorCount; j++) {
+                        linkStatement.setLong(1, i);
+                        linkStatement.setLong(2, j);
+                        linkStatement.addBatch();
+                    }
+                    linkStatement.executeBatch();
+                }
+            }
+        });
+    }
+
+    @Entity(name = "Author")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    public static class Author {
+
+        @Id
+        private Long id;
+
+        @Column(name = "full_name", nullable = false)
+        private String fullName;
+
+        @ManyToMany(mappedBy = "authors")
+        @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+        private List<Book> books = new ArrayList<>();
+
+        public Long getId() {
+            return id;
+        }
+
+        public List<Book> getBooks() {
+            return books;
+        }
+
+        public void remove() {
+            for (Book book : new ArrayList<>(books)) {
+                books.remove(book);
+                book.authors.remove(this);
+            }
+        }
+    }
+
+    @Entity(name = "Book")
+    @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+    public static class Book {
+
+        @Id
+        private Long id;
+
+        @Column(name = "title", nullable = false)
+        private String title;
+
+        @ManyToMany
+        @JoinTable(name = "Book_Author",
+            joinColumns = {@JoinColumn(name = "book_id", referencedColumnName = "id")},
+            inverseJoinColumns = {@JoinColumn(name = "author_id", referencedColumnName = "id")}
+        )
+        @org.hibernate.annotations.Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+        private List<Author> authors = new ArrayList<>();
+
+        public Long getId() {
+            return id;
+        }
+
+        public List<Author> getAuthors() {
+            return authors;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.fetch;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AdaptiveBatchFetchLoadEventListener;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AdaptiveBatchFetchLoadEventListener.EntityBatchFetchStatistics;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AdaptiveBatchFetchTest - Test to check that the batch size of the lazy associations adapts to the number
+ * of proxies initialized per Session, and to report the N+1 queries avoided
+ *
+ * @author Vlad Mihalcea
+ */
+public class AdaptiveBatchFetchTest extends AbstractTest {
+
+    private final AdaptiveBatchFetchLoadEventListener listener = new AdaptiveBatchFetchLoadEventListener(1, 16);
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Company.class,
+            Image.class,
+            Product.class,
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.default_batch_fetch_size", "2");
+        return properties;
+    }
+
+    @Override
+    protected SessionFactoryObserver sessionFactoryObserver() {
+        return listener;
+    }
+
+    @Override
+    public void init() {
+        super.init();
+        doInTransaction(session -> {
+            Company[] companies = new Company[companyCount()];
+            for (int i = 0; i < companies.length; i++) {
+                companies[i] = new Company("Company " + i);
+                session.persist(companies[i]);
+            }
+            for (int i = 0; i < productCount(); i++) {
+                Image image = new Image("Image " + i);
+                session.persist(image);
+                session.persist(new Product("Product " + i, companies[i % companies.length], image));
+            }
+        });
+        listener.clearStatistics();
+    }
+
+    @Test
+    public void testBatchSizeAdaptsToInitializedProxies() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        long[] companyQueries = new long[5];
+        for (int i = 0; i < companyQueries.length; i++) {
+            statistics.clear();
+            iterateCompanies();
+            companyQueries[i] = statistics.getPrepareStatementCount() - 1;
+            LOGGER.info("Session {}: {} Company queries", i, companyQueries[i]);
+        }
+        assertEquals(companyCount(), companyQueries[0]);
+        assertTrue(companyQueries[companyQueries.length - 1] < companyQueries[0]);
+        EntityBatchFetchStatistics companyStatistics = listener.getStatistics(Company.class.getName());
+        assertEquals(16, companyStatistics.getBatchSize());
+        assertEquals(companyQueries.length * companyCount(), companyStatistics.getInitializedProxyCount());
+        assertTrue(companyStatistics.getAvoidedQueryCount() > 0);
+        for (String line : listener.report()) {
+            LOGGER.info(line);
+        }
+    }
+
+    @Test
+    public void testBatchSizeIsPerEntity() {
+        for (int i = 0; i < 3; i++) {
+            iterateCompanies();
+        }
+        doInTransaction(session -> {
+            List<Product> products = session.createQuery("select p from Product p order by p.id")
+                .setMaxResults(2)
+                .list();
+            for (Product product : products) {
+                product.getImage().getName();
+            }
+        });
+        assertEquals(16, listener.getStatistics(Company.class.getName()).getBatchSize());
+        assertEquals(2, listener.getStatistics(Image.class.getName()).getBatchSize());
+        for (String line : listener.report()) {
+            LOGGER.info(line);
+        }
+    }
+
+    protected int companyCount() {
+        return 25;
+    }
+
+    protected int productCount() {
+        return 100;
+    }
+
+    private void iterateCompanies() {
+        doInTransaction(session -> {
+            List<Product> products = session.createQuery("select p from Product p order by p.id").list();
+            for (Product product : products) {
+                product.getCompany().getName();
+            }
+        });
+    }
+
+    @Entity(name = "Company")
+    public static class Company {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String name;
+
+        public Company() {
+        }
+
+        public Company(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    @Entity(name = "Image")
+    public static class Image {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String name;
+
+        public Image() {
+        }
+
+        public Image(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    @Entity(name = "Product")
+    public static class Product {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String name;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Company company;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Image image;
+
+        public Product() {
+        }
+
+        public Product(String name, Company company, Image image) {
+            this.name = name;
+            this.company = company;
+            this.image = image;
+        }
+
+        public Company getCompany() {
+            return company;
+        }
+
+        public Image getImage() {
+            return image;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.fetch;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.CollectionFetchPlanner;
+import org.hibernate.Session;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * CollectionFetchPlannerTest - Test to check the collection fetch planner and to compare the rows transferred
+ * and the latency with the single query join fetching all the collections
+ *
+ * @author Vlad Mihalcea
+ */
+public class CollectionFetchPlannerTest extends AbstractTest {
+
+    private static final String[] PATHS = {"images.versions.subVersions", "reviews"};
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Product.class,
+            Image.class,
+            Version.class,
+            SubVersion.class,
+            Review.class,
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.jdbc.batch_size", "50");
+        properties.put("hibernate.order_inserts", "true");
+        return properties;
+    }
+
+    @Override
+    protected boolean proxyDataSource() {
+        return false;
+    }
+
+    @Test
+    public void testFetchGraph() {
+        List<Long> productIds = insertProducts(3, 2);
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        List<Product> products = doInTransaction(session -> {
+            return new CollectionFetchPlanner(100).fetch(session, Product.class, productIds, PATHS);
+        });
+        assertEquals(5, statistics.getPrepareStatementCount());
+        assertGraph(products, 3, 2);
+    }
+
+    @Test
+    public void testFetchGraphInBatches() {
+        List<Long> productIds = insertProducts(3, 2);
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        List<Product> products = doInTransaction(session -> {
+            return new CollectionFetchPlanner(2).fetch(session, Product.class, productIds, PATHS);
+        });
+        //products: 2, images: 2, versions of 6 images: 3, subVersions of 12 versions: 6, reviews: 2
+        assertEquals(15, statistics.getPrepareStatementCount());
+        assertGraph(products, 3, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequiresEntityCollectionPath() {
+        doInTransaction(session -> {
+            new CollectionFetchPlanner(100).fetch(session, Product.class, new ArrayList<Long>(), "name");
+        });
+    }
+
+    @Test
+    public void testFetchPlannerVersusJoinFetch() {
+        for (int collectionSize : collectionSizes()) {
+            List<Long> productIds = insertProducts(productCount(), collectionSize);
+            for (int i = 0; i < 2; i++) {
+                boolean warmUp = i == 0;
+                long[] joinFetch = fetch(productIds, collectionSize, session -> {
+                    List<Product> products = session.createQuery(
+                        "select p " +
+                        "from Product p " +
+                        "left join fetch p.images i " +
+                        "left join fetch i.versions v " +
+                        "left join fetch v.subVersions " +
+                        "left join fetch p.reviews " +
+                        "where p.id in (:ids)")
+                        .setParameterList("ids", productIds)
+                        .list();
+                    return new ArrayList<>(new LinkedHashSet<>(products));
+                });
+                long[] planner = fetch(productIds, collectionSize, session -> {
+                    return new CollectionFetchPlanner(100).fetch(session, Product.class, productIds, PATHS);
+                });
+                if (!warmUp) {
+                    LOGGER.info("{} products with {} children per collection: join fetch {} rows in {} ms, " +
+                        "fetch planner {} rows in {} ms",
+                        productCount(), collectionSize,
+                        joinFetch[0], TimeUnit.NANOSECONDS.toMillis(joinFetch[1]),
+                        planner[0], TimeUnit.NANOSECONDS.toMillis(planner[1]));
+                }
+            }
+        }
+    }
+
+    protected int productCount() {
+        return 10;
+    }
+
+    protected int[] collectionSizes() {
+        return new int[] {2, 4, 6, 8};
+    }
+
+    /**
+     * Fetch the graph and return the number of rows transferred and the elapsed nanos
+     */
+    private long[] fetch(List<Long> productIds, int collectionSize, Function<Session, List<Product>> fetcher) {
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        long startNanos = System.nanoTime();
+        List<Product> products = doInTransaction(fetcher::apply);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        assertGraph(products, productIds.size(), collectionSize);
+        long rowCount = 0;
+        for (String query : statistics.getQueries()) {
+            rowCount += statistics.getQueryStatistics(query).getExecutionRowCount();
+        }
+        return new long[] {rowCount, elapsedNanos};
+    }
+
+    private void assertGraph(List<Product> products, int productCount, int collectionSize) {
+        assertEquals(productCount, products.size());
+        for (Product product : products) {
+            assertEquals(collectionSize, product.getImages().size());
+            assertEquals(collectionSize, product.getReviews().size());
+            for (Image image : product.getImages()) {
+                assertEquals(collectionSize, image.getVersions().size());
+                for (Version version : image.getVersions()) {
+                    assertEquals(collectionSize, version.getSubVersions().size());
+                }
+            }
+        }
+    }
+
+    private List<Long> insertProducts(int productCount, int collectionSize) {
+        return doInTransaction(session -> {
+            session.createQuery("delete from SubVersion").executeUpdate();
+            session.createQuery("delete from Version").executeUpdate();
+            session.createQuery("delete from Image").executeUpdate();
+            session.createQuery("delete from Review").executeUpdate();
+            session.createQuery("delete from Product").executeUpdate();
+            List<Long> productIds = new ArrayList<>();
+            for (int i = 0; i < productCount; i++) {
+                Product product = new Product();
+                product.setName("Product " + i);
+                for (int j = 0; j < collectionSize; j++) {
+                    Image image = new Image();
+                    image.setName("Image " + j);
+                    product.addImage(image);
+                    for (int k = 0; k < collectionSize; k++) {
+                        Version version = new Version();
+                        version.setType("Version " + k);
+                        image.addVersion(version);
+                        for (int l = 0; l < collectionSize; l++) {
+                            SubVersion subVersion = new SubVersion();
+                            subVersion.setCode("SubVersion " + l);
+                            version.addSubVersion(subVersion);
+                        }
+                    }
+                    Review review = new Review();
+                    review.setComment("Review " + j);
+                    product.addReview(review);
+                }
+                session.persist(product);
+                productIds.add(product.getId());
+            }
+            return productIds;
+        });
+    }
+
+    @Entity(name = "Product")
+    public static class Product {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String name;
+
+        @OneToMany(mappedBy = "product", cascade = CascadeType.ALL)
+        private Set<Image> images = new LinkedHashSet<>();
+
+        @OneToMany(mappedBy = "product", cascade = CascadeType.ALL)
+        private Set<Review> reviews = new LinkedHashSet<>();
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Set<Image> getImages() {
+            return images;
+        }
+
+        public Set<Review> getReviews() {
+            return reviews;
+        }
+
+        public void addImage(Image image) {
+            images.add(image);
+            image.product = this;
+        }
+
+        public void addReview(Review review) {
+            reviews.add(review);
+            review.product = this;
+        }
+    }
+
+    @Entity(name = "Image")
+    public static class Image {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String name;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Product product;
+
+        @OneToMany(mappedBy = "image", cascade = CascadeType.ALL)
+        private Set<Version> versions = new LinkedHashSet<>();
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public Set<Version> getVersions() {
+            return versions;
+        }
+
+        public void addVersion(Version version) {
+            versions.add(version);
+            version.image = this;
+        }
+    }
+
+    @Entity(name = "Version")
+    public static class Version {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String type;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Image image;
+
+        @OneToMany(mappedBy = "version", cascade = CascadeType.ALL)
+        private Set<SubVersion> subVersions = new LinkedHashSet<>();
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        public Set<SubVersion> getSubVersions() {
+            return subVersions;
+        }
+
+        public void addSubVersion(SubVersion subVersion) {
+            subVersions.add(subVersion);
+            subVersion.version = this;
+        }
+    }
+
+    @Entity(name = "SubVersion")
+    public static class SubVersion {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String code;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Version version;
+
+        public void setCode(String code) {
+            this.code = code;
+        }
+    }
+
+    @Entity(name = "Review")
+    public static class Review {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String comment;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Product product;
+
+        public void setComment(String comment) {
+            this.comment = comment;
+        }
+    }
+}
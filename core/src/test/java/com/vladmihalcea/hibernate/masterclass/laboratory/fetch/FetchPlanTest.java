@@ -0,0 +1,469 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.fetch;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.FetchPlan;
+import org.hibernate.Hibernate;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * FetchPlanTest - Test to check the named fetch plans of the Product/Image/Version model and the number of
+ * statements each plan requires, from the Session and the Criteria API
+ *
+ * @author Vlad Mihalcea
+ */
+public class FetchPlanTest extends AbstractTest {
+
+    private final List<Long> productIds = new ArrayList<>();
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Company.class,
+            Product.class,
+            Image.class,
+            Version.class,
+            SubVersion.class,
+            Review.class,
+            Manual.class,
+            Page.class,
+        };
+    }
+
+    @Override
+    public void init() {
+        super.init();
+        doInTransaction(session -> {
+            Company company = new Company("TV Company");
+            session.persist(company);
+            for (int i = 0; i < 2; i++) {
+                Product product = new Product("TV " + i, company);
+                for (int j = 0; j < 2; j++) {
+                    Image image = new Image("Image " + j);
+                    product.addImage(image);
+                    for (int k = 0; k < 2; k++) {
+                        Version version = new Version("Version " + k);
+                        image.addVersion(version);
+                        for (int l = 0; l < 2; l++) {
+                            version.addSubVersion(new SubVersion("SubVersion " + l));
+                        }
+                    }
+                    product.addReview(new Review("Review " + j));
+                    Manual manual = new Manual("Manual " + j);
+                    product.addManual(manual);
+                    for (int k = 0; k < 2; k++) {
+                        manual.addPage(new Page(k + 1));
+                    }
+                }
+                session.persist(product);
+                productIds.add(product.getId());
+            }
+        });
+    }
+
+    @Test
+    public void testCompanyPlan() {
+        List<Product> products = fetch(1, "Product.company");
+        for (Product product : products) {
+            assertTrue(Hibernate.isInitialized(product.getCompany()));
+            assertFalse(Hibernate.isInitialized(product.getImages()));
+            assertFalse(Hibernate.isInitialized(product.getReviews()));
+        }
+    }
+
+    @Test
+    public void testImagesPlan() {
+        List<Product> products = fetch(1, "Product.images");
+        for (Product product : products) {
+            assertTrue(Hibernate.isInitialized(product.getCompany()));
+            assertEquals(2, product.getImages().size());
+            for (Image image : product.getImages()) {
+                assertEquals(2, image.getVersions().size());
+                for (Version version : image.getVersions()) {
+                    assertFalse(Hibernate.isInitialized(version.getSubVersions()));
+                }
+            }
+            assertFalse(Hibernate.isInitialized(product.getReviews()));
+        }
+    }
+
+    @Test
+    public void testFullPlan() {
+        List<Product> products = fetch(2, "Product.full");
+        assertFullGraph(products);
+    }
+
+    @Test
+    public void testFindWithPathPlan() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        Product product = doInTransaction(session -> {
+            return new FetchPlan<>(getSessionFactory(), Product.class, "reviews", "images.versions.subVersions")
+                .find(session, productIds.get(0));
+        });
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(2, product.getReviews().size());
+        assertEquals(2, product.getImages().iterator().next().getVersions().iterator().next().getSubVersions().size());
+    }
+
+    @Test
+    public void testCriteriaFullPlan() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        List<Product> products = doInTransaction(session -> {
+            FetchPlan<Product> fetchPlan = FetchPlan.fromEntityGraph(getSessionFactory(), Product.class, "Product.full");
+            return fetchPlan.list(session, session.createCriteria(Product.class)
+                .add(Restrictions.like("name", "TV%")));
+        });
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertFullGraph(products);
+    }
+
+    @Test
+    public void testNestedBagsPlan() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        List<Product> products = doInTransaction(session -> {
+            return new FetchPlan<>(getSessionFactory(), Product.class, "manuals.pages").list(session, productIds);
+        });
+        //the root query joins the manuals bag only, and the pages bag is fetched by a secondary query
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(productIds.size(), products.size());
+        for (Product product : products) {
+            assertEquals(2, product.getManuals().size());
+            for (Manual manual : product.getManuals()) {
+                assertEquals(2, manual.getPages().size());
+            }
+        }
+    }
+
+    @Test
+    public void testIdentifiersSplitInClauseBatches() {
+        List<Long> ids = new ArrayList<>(productIds);
+        long missingId = productIds.get(productIds.size() - 1);
+        while (ids.size() <= FetchPlan.IN_CLAUSE_SIZE) {
+            ids.add(++missingId);
+        }
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        List<Product> products = doInTransaction(session -> {
+            return new FetchPlan<>(getSessionFactory(), Product.class, "reviews", "images.versions.subVersions")
+                .list(session, ids);
+        });
+        //two root queries, and one reviews query for the two products found
+        assertEquals(3, statistics.getPrepareStatementCount());
+        assertEquals(productIds.size(), products.size());
+        for (Product product : products) {
+            assertEquals(2, product.getReviews().size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownEntityGraph() {
+        FetchPlan.fromEntityGraph(getSessionFactory(), Product.class, "Product.unknown");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBasicAttributePath() {
+        new FetchPlan<>(getSessionFactory(), Product.class, "name");
+    }
+
+    private List<Product> fetch(int expectedStatementCount, String graphName) {
+        FetchPlan<Product> fetchPlan = FetchPlan.fromEntityGraph(getSessionFactory(), Product.class, graphName);
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        List<Product> products = doInTransaction(session -> {
+            return fetchPlan.list(session, productIds);
+        });
+        LOGGER.info("The {} fetch plan required {} statements", graphName, statistics.getPrepareStatementCount());
+        assertEquals(expectedStatementCount, statistics.getPrepareStatementCount());
+        assertEquals(productIds.size(), products.size());
+        return products;
+    }
+
+    private void assertFullGraph(List<Product> products) {
+        for (Product product : products) {
+            assertEquals("TV Company", product.getCompany().getName());
+            assertEquals(2, product.getReviews().size());
+            assertEquals(2, product.getImages().size());
+            for (Image image : product.getImages()) {
+                assertEquals(2, image.getVersions().size());
+                for (Version version : image.getVersions()) {
+                    assertEquals(2, version.getSubVersions().size());
+                }
+            }
+        }
+    }
+
+    @Entity(name = "Company")
+    public static class Company {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String name;
+
+        public Company() {
+        }
+
+        public Company(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    @Entity(name = "Product")
+    @NamedEntityGraphs({
+        @NamedEntityGraph(name = "Product.company", attributeNodes = @NamedAttributeNode("company")),
+        @NamedEntityGraph(name = "Product.images",
+            attributeNodes = {
+                @NamedAttributeNode("company"),
+                @NamedAttributeNode(value = "images", subgraph = "images"),
+            },
+            subgraphs = @NamedSubgraph(name = "images", attributeNodes = @NamedAttributeNode("versions"))
+        ),
+        @NamedEntityGraph(name = "Product.full",
+            attributeNodes = {
+                @NamedAttributeNode("company"),
+                @NamedAttributeNode(value = "images", subgraph = "images"),
+                @NamedAttributeNode("reviews"),
+            },
+            subgraphs = {
+                @NamedSubgraph(name = "images", attributeNodes = @NamedAttributeNode(value = "versions", subgraph = "versions")),
+                @NamedSubgraph(name = "versions", attributeNodes = @NamedAttributeNode("subVersions")),
+            }
+        ),
+    })
+    public static class Product {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String name;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Company company;
+
+        @OneToMany(mappedBy = "product", cascade = CascadeType.ALL)
+        private Set<Image> images = new LinkedHashSet<>();
+
+        @OneToMany(mappedBy = "product", cascade = CascadeType.ALL)
+        private Set<Review> reviews = new LinkedHashSet<>();
+
+        @OneToMany(mappedBy = "product", cascade = CascadeType.ALL)
+        private List<Manual> manuals = new ArrayList<>();
+
+        public Product() {
+        }
+
+        public Product(String name, Company company) {
+            this.name = name;
+            this.company = company;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public Company getCompany() {
+            return company;
+        }
+
+        public Set<Image> getImages() {
+            return images;
+        }
+
+        public Set<Review> getReviews() {
+            return reviews;
+        }
+
+        public List<Manual> getManuals() {
+            return manuals;
+        }
+
+        public void addImage(Image image) {
+            images.add(image);
+            image.product = this;
+        }
+
+        public void addReview(Review review) {
+            reviews.add(review);
+            review.product = this;
+        }
+
+        public void addManual(Manual manual) {
+            manuals.add(manual);
+            manual.product = this;
+        }
+    }
+
+    @Entity(name = "Image")
+    public static class Image {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String name;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Product product;
+
+        @OneToMany(mappedBy = "image", cascade = CascadeType.ALL)
+        private Set<Version> versions = new LinkedHashSet<>();
+
+        public Image() {
+        }
+
+        public Image(String name) {
+            this.name = name;
+        }
+
+        public Set<Version> getVersions() {
+            return versions;
+        }
+
+        public void addVersion(Version version) {
+            versions.add(version);
+            version.image = this;
+        }
+    }
+
+    @Entity(name = "Version")
+    public static class Version {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String type;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Image image;
+
+        @OneToMany(mappedBy = "version", cascade = CascadeType.ALL)
+        private Set<SubVersion> subVersions = new LinkedHashSet<>();
+
+        public Version() {
+        }
+
+        public Version(String type) {
+            this.type = type;
+        }
+
+        public Set<SubVersion> getSubVersions() {
+            return subVersions;
+        }
+
+        public void addSubVersion(SubVersion subVersion) {
+            subVersions.add(subVersion);
+            subVersion.version = this;
+        }
+    }
+
+    @Entity(name = "SubVersion")
+    public static class SubVersion {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String code;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Version version;
+
+        public SubVersion() {
+        }
+
+        public SubVersion(String code) {
+            this.code = code;
+        }
+    }
+
+    @Entity(name = "Review")
+    public static class Review {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String comment;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Product product;
+
+        public Review() {
+        }
+
+        public Review(String comment) {
+            this.comment = comment;
+        }
+    }
+
+    @Entity(name = "Manual")
+    public static class Manual {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String title;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Product product;
+
+        @OneToMany(mappedBy = "manual", cascade = CascadeType.ALL)
+        private List<Page> pages = new ArrayList<>();
+
+        public Manual() {
+        }
+
+        public Manual(String title) {
+            this.title = title;
+        }
+
+        public List<Page> getPages() {
+            return pages;
+        }
+
+        public void addPage(Page page) {
+            pages.add(page);
+            page.manual = this;
+        }
+    }
+
+    @Entity(name = "Page")
+    public static class Page {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private int number;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Manual manual;
+
+        public Page() {
+        }
+
+        public Page(int number) {
+            this.number = number;
+        }
+    }
+}
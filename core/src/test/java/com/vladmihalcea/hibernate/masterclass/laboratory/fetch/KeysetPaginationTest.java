@@ -0,0 +1,203 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.fetch;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.KeysetPagination;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.KeysetPagination.Cursor;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.KeysetPagination.Page;
+import org.hibernate.Session;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * KeysetPaginationTest - Test to check the keyset pagination on the (createdOn, id) cursor and to compare
+ * its latency with the OFFSET pagination for increasing page depths
+ *
+ * @author Vlad Mihalcea
+ */
+public class KeysetPaginationTest extends AbstractTest {
+
+    private static final long START_MILLIS = Timestamp.valueOf("2015-01-01 00:00:00").getTime();
+
+    /**
+     * Posts sharing the same createdOn value, so the identifier must break the ties
+     */
+    private static final int POSTS_PER_TIMESTAMP = 10;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Post.class
+        };
+    }
+
+    @Override
+    protected boolean proxyDataSource() {
+        return false;
+    }
+
+    @Test
+    public void testKeysetPagesMatchOffsetPages() {
+        insertPosts(95);
+        KeysetPagination<Post> pagination = new KeysetPagination<>(getSessionFactory(), Post.class, "createdOn", true);
+        doInTransaction(session -> {
+            Set<Long> ids = new LinkedHashSet<>();
+            Page<Post> page = pagination.first(session, 10);
+            int pageNumber = 0;
+            while (true) {
+                List<Post> offsetPage = offsetPage(session, pageNumber, 10);
+                assertEquals(ids(offsetPage), ids(page.getContent()));
+                for (Post post : page.getContent()) {
+                    assertTrue(ids.add(post.getId()));
+                }
+                if (!page.hasNext()) {
+                    break;
+                }
+                page = pagination.next(session, page.getNextCursor(), 10);
+                pageNumber++;
+            }
+            assertEquals(9, pageNumber);
+            assertEquals(5, page.getContent().size());
+            assertEquals(95, ids.size());
+        });
+    }
+
+    @Test
+    public void testAscendingPagination() {
+        insertPosts(20);
+        KeysetPagination<Post> pagination = new KeysetPagination<>(getSessionFactory(), Post.class, "createdOn", false);
+        doInTransaction(session -> {
+            Page<Post> first = pagination.first(session, 10);
+            Page<Post> second = pagination.next(session, first.getNextCursor(), 10);
+            assertEquals(Long.valueOf(0), first.getContent().get(0).getId());
+            assertEquals(Long.valueOf(10), second.getContent().get(0).getId());
+            assertFalse(second.hasNext());
+        });
+    }
+
+    @Test
+    public void testOffsetVersusKeysetPagination() {
+        int postCount = postCount();
+        int pageSize = pageSize();
+        insertPosts(postCount);
+        KeysetPagination<Post> pagination = new KeysetPagination<>(getSessionFactory(), Post.class, "createdOn", true);
+        for (int i = 0; i < 2; i++) {
+            boolean warmUp = i == 0;
+            for (int pageNumber = 1; pageNumber * pageSize < postCount; pageNumber *= 10) {
+                int depth = pageNumber;
+                doInTransaction(session -> {
+                    Post previous = offsetPage(session, depth - 1, pageSize).get(pageSize - 1);
+                    Cursor cursor = pagination.cursor(previous);
+                    session.clear();
+
+                    long offsetNanos = 0;
+                    long keysetNanos = 0;
+                    List<Post> offsetPage = null;
+                    List<Post> keysetPage = null;
+                    for (int j = 0; j < iterations(); j++) {
+                        long startNanos = System.nanoTime();
+                        offsetPage = offsetPage(session, depth, pageSize);
+                        offsetNanos += System.nanoTime() - startNanos;
+                        session.clear();
+
+                        startNanos = System.nanoTime();
+                        keysetPage = pagination.next(session, cursor, pageSize).getContent();
+                        keysetNanos += System.nanoTime() - startNanos;
+                        session.clear();
+                    }
+                    assertEquals(ids(offsetPage), ids(keysetPage));
+                    if (!warmUp) {
+                        LOGGER.info("Page {} of {} posts: OFFSET took {} us, keyset took {} us",
+                            depth, postCount,
+                            TimeUnit.NANOSECONDS.toMicros(offsetNanos / iterations()),
+                            TimeUnit.NANOSECONDS.toMicros(keysetNanos / iterations()));
+                    }
+                });
+            }
+        }
+    }
+
+    protected int postCount() {
+        return 100 * 1000;
+    }
+
+    protected int pageSize() {
+        return 25;
+    }
+
+    protected int iterations() {
+        return 5;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Post> offsetPage(Session session, int pageNumber, int pageSize) {
+        return (List<Post>) session.createQuery(
+            "select p " +
+            "from Post p " +
+            "order by p.createdOn desc, p.id desc")
+            .setFirstResult(pageNumber * pageSize)
+            .setMaxResults(pageSize)
+            .list();
+    }
+
+    private List<Long> ids(List<Post> posts) {
+        List<Long> ids = new ArrayList<>(posts.size());
+        for (Post post : posts) {
+            ids.add(post.getId());
+        }
+        return ids;
+    }
+
+    private void insertPosts(int postCount) {
+        doInJDBC(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "insert into post (id, title, created_on) values (?, ?, ?)")) {
+                for (int i = 0; i < postCount; i++) {
+                    statement.setLong(1, i);
+                    statement.setString(2, String.format("Post no. %d", i));
+                    statement.setTimestamp(3, new Timestamp(START_MILLIS + (i / POSTS_PER_TIMESTAMP) * 1000L));
+                    statement.addBatch();
+                    if ((i + 1) % 1000 == 0 || i + 1 == postCount) {
+                        statement.executeBatch();
+                    }
+                }
+            }
+        });
+    }
+
+    @Entity(name = "Post")
+    @Table(name = "post", indexes = @Index(name = "idx_post_created_on_id", columnList = "created_on, id"))
+    public static class Post {
+
+        @Id
+        private Long id;
+
+        private String title;
+
+        @Temporal(TemporalType.TIMESTAMP)
+        @Column(name = "created_on", nullable = false)
+        private Date createdOn;
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public Date getCreatedOn() {
+            return createdOn;
+        }
+    }
+}
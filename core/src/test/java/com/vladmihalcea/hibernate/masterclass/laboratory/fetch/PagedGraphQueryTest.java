@@ -0,0 +1,221 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.fetch;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.FetchPlan;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.PagedGraphQuery;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * PagedGraphQueryTest - Test to check that the two-phase paginated fetch bounds the rows transferred and the
+ * entities loaded by the page size, unlike the in-memory pagination of a collection fetch query
+ *
+ * @author Vlad Mihalcea
+ */
+public class PagedGraphQueryTest extends AbstractTest {
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Post.class,
+            Comment.class
+        };
+    }
+
+    @Override
+    public void init() {
+        super.init();
+        doInTransaction(session -> {
+            for (int i = 0; i < postCount(); i++) {
+                Post post = new Post(String.format("Post no. %d", i));
+                for (int j = 0; j < commentCount(); j++) {
+                    post.addComment(new Comment(String.format("Post comment %d:%d", i, j)));
+                }
+                session.persist(post);
+            }
+        });
+    }
+
+    @Test
+    public void testInMemoryPagination() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        doInTransaction(session -> {
+            List<Post> posts = new ArrayList<>(new LinkedHashSet<Post>(session.createQuery(
+                "select p " +
+                "from Post p " +
+                "join fetch p.comments " +
+                "order by p.id")
+                .setFirstResult(pageSize())
+                .setMaxResults(pageSize())
+                .list()));
+            assertPage(posts, pageSize());
+            LOGGER.info("In-memory pagination transferred {} rows and loaded {} entities",
+                rowCount(statistics), session.getStatistics().getEntityCount());
+            assertEquals(postCount() * commentCount(), rowCount(statistics));
+            assertEquals(postCount() * (1 + commentCount()), session.getStatistics().getEntityCount());
+        });
+    }
+
+    @Test
+    public void testHqlPagination() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        doInTransaction(session -> {
+            List<Post> posts = pagedGraphQuery().list(session, session.createQuery(
+                "select p.id " +
+                "from Post p " +
+                "order by p.id"), pageSize(), pageSize());
+            assertPage(posts, pageSize());
+            assertBoundedByPageSize(session, statistics);
+        });
+    }
+
+    @Test
+    public void testCriteriaPagination() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        doInTransaction(session -> {
+            List<Post> posts = pagedGraphQuery().list(session, session.createCriteria(Post.class)
+                .add(Restrictions.like("title", "Post no.%"))
+                .addOrder(Order.asc("id")), pageSize(), pageSize());
+            assertPage(posts, pageSize());
+            assertBoundedByPageSize(session, statistics);
+        });
+    }
+
+    @Test
+    public void testPaginationKeepsIdentifierQueryOrder() {
+        doInTransaction(session -> {
+            List<Post> posts = pagedGraphQuery().list(session, session.createQuery(
+                "select p.id " +
+                "from Post p " +
+                "order by p.id desc"), 0, pageSize());
+            assertEquals(pageSize(), posts.size());
+            for (int i = 1; i < posts.size(); i++) {
+                assertTrue(posts.get(i - 1).getId() > posts.get(i).getId());
+            }
+        });
+    }
+
+    @Test
+    public void testEmptyPage() {
+        doInTransaction(session -> {
+            List<Post> posts = pagedGraphQuery().list(session, session.createQuery(
+                "select p.id " +
+                "from Post p " +
+                "order by p.id"), postCount(), pageSize());
+            assertTrue(posts.isEmpty());
+        });
+    }
+
+    protected int postCount() {
+        return 50;
+    }
+
+    protected int commentCount() {
+        return 5;
+    }
+
+    protected int pageSize() {
+        return 10;
+    }
+
+    private PagedGraphQuery<Post> pagedGraphQuery() {
+        return new PagedGraphQuery<>(new FetchPlan<>(getSessionFactory(), Post.class, "comments"));
+    }
+
+    private void assertBoundedByPageSize(Session session, Statistics statistics) {
+        LOGGER.info("Two-phase pagination transferred {} rows and loaded {} entities",
+            rowCount(statistics), session.getStatistics().getEntityCount());
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(pageSize() + pageSize() * commentCount(), rowCount(statistics));
+        assertEquals(pageSize() * (1 + commentCount()), session.getStatistics().getEntityCount());
+    }
+
+    private void assertPage(List<Post> posts, int firstResult) {
+        assertEquals(pageSize(), posts.size());
+        for (int i = 0; i < posts.size(); i++) {
+            Post post = posts.get(i);
+            assertEquals(String.format("Post no. %d", firstResult + i), post.getTitle());
+            assertTrue(Hibernate.isInitialized(post.getComments()));
+            assertEquals(commentCount(), post.getComments().size());
+        }
+    }
+
+    private long rowCount(Statistics statistics) {
+        long rowCount = 0;
+        for (String query : statistics.getQueries()) {
+            rowCount += statistics.getQueryStatistics(query).getExecutionRowCount();
+        }
+        return rowCount;
+    }
+
+    @Entity(name = "Post")
+    public static class Post {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        private String title;
+
+        @OneToMany(cascade = CascadeType.ALL, mappedBy = "post")
+        private List<Comment> comments = new ArrayList<>();
+
+        public Post() {
+        }
+
+        public Post(String title) {
+            this.title = title;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public List<Comment> getComments() {
+            return comments;
+        }
+
+        public void addComment(Comment comment) {
+            comments.add(comment);
+            comment.post = this;
+        }
+    }
+
+    @Entity(name = "Comment")
+    public static class Comment {
+
+        @Id
+        @GeneratedValue
+        private Long id;
+
+        @ManyToOne
+        private Post post;
+
+        private String review;
+
+        public Comment() {
+        }
+
+        public Comment(String review) {
+            this.review = review;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import org.hibernate.Interceptor;
+import org.hibernate.PersistentObjectException;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Transient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * AssignedIdentifierBulkImportTest - Test to check that the entities with assigned identifiers can be persisted
+ * in batches, without the SELECT issued by merge, when the PersistableInterceptor tells Hibernate they are new
+ *
+ * @author Vlad Mihalcea
+ */
+public class AssignedIdentifierBulkImportTest extends AbstractTest {
+
+    private final PersistableInterceptor interceptor = new PersistableInterceptor();
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            ImportedPost.class,
+            LegacyImportedPost.class,
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.id.new_generator_mappings", "true");
+        properties.put("hibernate.jdbc.batch_size", String.valueOf(batchSize()));
+        return properties;
+    }
+
+    @Override
+    protected Interceptor interceptor() {
+        return interceptor;
+    }
+
+    @Override
+    protected SessionFactoryObserver sessionFactoryObserver() {
+        return interceptor;
+    }
+
+    @Override
+    protected boolean proxyDataSource() {
+        return false;
+    }
+
+    @Test
+    public void testPersistAssignedIdentifiersInBatches() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        List<ImportedPost> posts = new ArrayList<>();
+        doInTransaction(session -> {
+            for (long id = 1; id <= 100; id++) {
+                ImportedPost post = new ImportedPost(id);
+                session.persist(post);
+                posts.add(post);
+            }
+            session.flush();
+            assertTrue(posts.get(0).isNew());
+        });
+        assertEquals(100, statistics.getEntityInsertCount());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        posts.forEach(post -> assertFalse(post.isNew()));
+    }
+
+    @Test
+    public void testRolledBackInsertIsStillNew() {
+        ImportedPost post = new ImportedPost(1L);
+        try {
+            doInTransaction((HibernateTransactionConsumer) session -> {
+                session.persist(post);
+                session.flush();
+                throw new IllegalStateException("Rollback the insert");
+            });
+        } catch (IllegalStateException expected) {
+            LOGGER.info("The insert was rolled back", expected);
+        }
+        assertTrue(post.isNew());
+
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        doInTransaction(session -> {
+            session.merge(post);
+        });
+        assertEquals(1, statistics.getEntityInsertCount());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertFalse(post.isNew());
+    }
+
+    @Test
+    public void testMergeSameInstanceTwice() {
+        ImportedPost post = new ImportedPost(1L);
+        doInTransaction(session -> {
+            session.merge(post);
+        });
+        assertFalse(post.isNew());
+
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        doInTransaction(session -> {
+            session.merge(post);
+        });
+        assertEquals(0, statistics.getEntityInsertCount());
+    }
+
+    @Test
+    public void testMergeAssignedIdentifierWithoutSelect() {
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        doInTransaction(session -> {
+            session.merge(new ImportedPost(1L));
+        });
+        assertEquals(1, statistics.getEntityInsertCount());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void testGenerateMissingIdentifier() {
+        doInTransaction(session -> {
+            ImportedPost post = new ImportedPost();
+            session.persist(post);
+            assertNotNull(post.getId());
+        });
+    }
+
+    @Test
+    public void testMergeLoadedEntityUpdates() {
+        doInTransaction(session -> {
+            session.persist(new ImportedPost(1L));
+        });
+        ImportedPost post = doInTransaction(session -> {
+            return (ImportedPost) session.get(ImportedPost.class, 1L);
+        });
+        assertFalse(post.isNew());
+        post.setTitle("Updated");
+        Statistics statistics = getSessionFactory().getStatistics();
+        statistics.clear();
+        doInTransaction(session -> {
+            session.merge(post);
+        });
+        assertEquals(0, statistics.getEntityInsertCount());
+        assertEquals(1, statistics.getEntityUpdateCount());
+    }
+
+    @Test(expected = PersistentObjectException.class)
+    public void testPersistLegacyAssignedIdentifierFails() {
+        doInTransaction(session -> {
+            session.persist(new LegacyImportedPost(1L));
+        });
+    }
+
+    @Test
+    public void testBulkImport() {
+        for (int i = 0; i < 2; i++) {
+            boolean warmUp = i == 0;
+            long offset = i * rowCount();
+            Statistics statistics = getSessionFactory().getStatistics();
+
+            statistics.clear();
+            long startNanos = System.nanoTime();
+            bulkImport(id -> new LegacyImportedPost(offset + id), true);
+            long mergeNanos = System.nanoTime() - startNanos;
+            long mergeStatements = statistics.getPrepareStatementCount();
+
+            statistics.clear();
+            startNanos = System.nanoTime();
+            bulkImport(id -> new ImportedPost(offset + id), false);
+            long persistNanos = System.nanoTime() - startNanos;
+            long persistStatements = statistics.getPrepareStatementCount();
+
+            assertEquals(rowCount() + rowCount() / batchSize(), mergeStatements);
+            assertEquals(rowCount() / batchSize(), persistStatements);
+            if (!warmUp) {
+                LOGGER.info("{} assigned identifiers: merge {} statements, {} rows/second, " +
+                    "Persistable persist {} statements, {} rows/second",
+                    rowCount(),
+                    mergeStatements, rowCount() * TimeUnit.SECONDS.toNanos(1) / mergeNanos,
+                    persistStatements, rowCount() * TimeUnit.SECONDS.toNanos(1) / persistNanos);
+            }
+        }
+    }
+
+    protected int batchSize() {
+        return 25;
+    }
+
+    protected int rowCount() {
+        return 10_000;
+    }
+
+    private void bulkImport(LongFunction<Object> entityFunction, boolean merge) {
+        for (int i = 0; i < rowCount(); i += 1000) {
+            long firstId = i + 1;
+            doInTransaction(session -> {
+                for (long id = firstId; id < firstId + 1000; id++) {
+                    Object entity = entityFunction.apply(id);
+                    if (merge) {
+                        session.merge(entity);
+                    } else {
+                        session.persist(entity);
+                    }
+                    if (id % batchSize() == 0) {
+                        session.flush();
+                        session.clear();
+                    }
+                }
+            });
+        }
+    }
+
+    @Entity(name = "ImportedPost")
+    public static class ImportedPost implements Persistable<Long> {
+
+        @Id
+        @GenericGenerator(name = "assigned_sequence",
+            strategy = "com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator.AssignedSequenceStyleGenerator",
+            parameters = {
+                @Parameter(name = "sequence_name", value = "imported_post_sequence"),
+                @Parameter(name = "initial_value", value = "1000000"),
+                @Parameter(name = "increment_size", value = "50"),
+                @Parameter(name = "optimizer", value = "pooled"),
+            }
+        )
+        @GeneratedValue(generator = "assigned_sequence")
+        private Long id;
+
+        private String title = "Imported";
+
+        @Transient
+        private boolean persisted;
+
+        public ImportedPost() {
+        }
+
+        public ImportedPost(Long id) {
+            this.id = id;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        @Override
+        public boolean isNew() {
+            return !persisted;
+        }
+
+        @Override
+        public void markPersisted() {
+            persisted = true;
+        }
+    }
+
+    @Entity(name = "LegacyImportedPost")
+    public static class LegacyImportedPost implements Identifiable<Long> {
+
+        @Id
+        @GenericGenerator(name = "assigned_table",
+            strategy = "com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator.AssignedTableGenerator",
+            parameters = {
+                @Parameter(name = "table_name", value = "imported_post_table"),
+            }
+        )
+        @GeneratedValue(generator = "assigned_table")
+        private Long id;
+
+        private String title = "Imported";
+
+        public LegacyImportedPost() {
+        }
+
+        public LegacyImportedPost(Long id) {
+            this.id = id;
+        }
+
+        @Override
+        public Long getId() {
+            return id;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator;
+
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
+import java.io.Serializable;
+
+/**
+ * AssignedSequenceStyleGenerator - Assigned SequenceStyleGenerator, which, unlike the {@link AssignedTableGenerator},
+ * allocates the missing identifiers through the pooled sequence optimizers, without locking a table row
+ *
+ * @author Vlad Mihalcea
+ */
+public class AssignedSequenceStyleGenerator extends SequenceStyleGenerator {
+
+    @Override
+    public Serializable generate(SessionImplementor session, Object obj) {
+        Serializable id = Identifiable.getAssignedId(obj);
+        if(id != null) {
+            return id;
+        }
+        return super.generate(session, obj);
+    }
+}
@@ -14,12 +14,9 @@ public class AssignedTableGenerator extends TableGenerator {
 
     @Override
     public Serializable generate(SessionImplementor session, Object obj) {
-        if(obj instanceof Identifiable) {
-            Identifiable identifiable = (Identifiable) obj;
-            Serializable id = identifiable.getId();
-            if(id != null) {
-                return id;
-            }
+        Serializable id = Identifiable.getAssignedId(obj);
+        if(id != null) {
+            return id;
         }
         return super.generate(session, obj);
     }
@@ -10,4 +10,18 @@ import java.io.Serializable;
 public interface Identifiable<T extends Serializable> {
 
     T getId();
+
+    /**
+     * Get the identifier the application assigned to the given entity
+     *
+     * @param entity entity
+     * @return the assigned identifier or null if the entity is not Identifiable or it has no identifier
+     */
+    @SuppressWarnings("unchecked")
+    static Serializable getAssignedId(Object entity) {
+        if (entity instanceof Identifiable) {
+            return ((Identifiable<Serializable>) entity).getId();
+        }
+        return null;
+    }
 }
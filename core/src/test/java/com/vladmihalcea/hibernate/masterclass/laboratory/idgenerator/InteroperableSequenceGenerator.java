@@ -0,0 +1,166 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator;
+
+import org.hibernate.MappingException;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.HSQLDialect;
+import org.hibernate.dialect.Oracle8iDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.id.IntegralDataTypeHolder;
+import org.hibernate.id.enhanced.SequenceStructure;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.enhanced.StandardOptimizerDescriptor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Properties;
+
+/**
+ * InteroperableSequenceGenerator - Sequence generator for legacy schemas, where other applications insert rows
+ * using the raw <code>NEXT VALUE FOR</code> sequence values.
+ *
+ * The pooled optimizers are only safe as long as the database sequence is incremented by the
+ * <code>increment_size</code>, and the hilo optimizer is never safe, since the identifiers are derived from
+ * the sequence values. This generator keeps the sequence incremented by 1, and every identifier it hands out is
+ * a value the database sequence returned, so it can never collide with the external inserters, no matter how
+ * many values they consume in between.
+ *
+ * To keep the pooled optimizer throughput, <code>increment_size</code> sequence values are fetched with a single
+ * multi-row select. The fetched values are contiguous unless other inserters advanced the sequence in the meantime,
+ * and those out-of-band advances are counted, the generator simply carrying on from the values it got.
+ *
+ * @author Vlad Mihalcea
+ */
+public class InteroperableSequenceGenerator extends SequenceStyleGenerator {
+
+    private final Deque<Long> values = new ArrayDeque<>();
+
+    private Dialect dialect;
+
+    private int fetchSize;
+
+    private String fetchSql;
+
+    private long lastValue;
+
+    private long fetchCount;
+
+    private long outOfBandValueCount;
+
+    @Override
+    public void configure(Type type, Properties params, Dialect dialect) throws MappingException {
+        Properties sequenceParams = new Properties();
+        sequenceParams.putAll(params);
+        sequenceParams.setProperty(OPT_PARAM, StandardOptimizerDescriptor.NONE.getExternalName());
+        sequenceParams.setProperty(INCREMENT_PARAM, "1");
+        super.configure(type, sequenceParams, dialect);
+        if (!(getDatabaseStructure() instanceof SequenceStructure)) {
+            throw new MappingException(
+                "InteroperableSequenceGenerator requires a database sequence, but " +
+                getDatabaseStructure().getName() + " is a table"
+            );
+        }
+        this.dialect = dialect;
+        this.fetchSize = ConfigurationHelper.getInt(INCREMENT_PARAM, params, DEFAULT_INCREMENT_SIZE);
+        if (fetchSize < 1) {
+            throw new MappingException(INCREMENT_PARAM + " must be greater than 0");
+        }
+        this.fetchSql = fetchSql(getDatabaseStructure().getName());
+    }
+
+    /**
+     * Build the select returning <code>fetchSize</code> sequence values, or a single value if the
+     * Dialect has no row generator, in which case the sequence is called <code>fetchSize</code> times.
+     */
+    protected String fetchSql(String sequenceName) {
+        if (fetchSize > 1) {
+            if (dialect instanceof HSQLDialect) {
+                return "select next value for " + sequenceName +
+                    " from unnest(sequence_array(1, " + fetchSize + ", 1))";
+            }
+            if (dialect instanceof PostgreSQL81Dialect) {
+                return "select nextval('" + sequenceName + "') from generate_series(1, " + fetchSize + ")";
+            }
+            if (dialect instanceof Oracle8iDialect) {
+                return "select " + sequenceName + ".nextval from dual connect by level <= " + fetchSize;
+            }
+        }
+        return dialect.getSequenceNextValString(sequenceName);
+    }
+
+    @Override
+    public synchronized Serializable generate(SessionImplementor session, Object object) {
+        if (values.isEmpty()) {
+            fetch(session);
+        }
+        IntegralDataTypeHolder value = IdentifierGeneratorHelper.getIntegralDataTypeHolder(
+            getIdentifierType().getReturnedClass()
+        );
+        value.initialize(values.poll());
+        return value.makeValue();
+    }
+
+    private void fetch(SessionImplementor session) {
+        long[] fetchedValues = new long[fetchSize];
+        int fetchedCount = 0;
+        JdbcCoordinator jdbcCoordinator = session.getTransactionCoordinator().getJdbcCoordinator();
+        try {
+            while (fetchedCount < fetchSize) {
+                PreparedStatement statement = jdbcCoordinator.getStatementPreparer().prepareStatement(fetchSql);
+                ResultSet resultSet = null;
+                try {
+                    resultSet = jdbcCoordinator.getResultSetReturn().extract(statement);
+                    while (resultSet.next() && fetchedCount < fetchSize) {
+                        fetchedValues[fetchedCount++] = resultSet.getLong(1);
+                    }
+                } finally {
+                    if (resultSet != null) {
+                        jdbcCoordinator.release(resultSet, statement);
+                    }
+                    jdbcCoordinator.release(statement);
+                }
+            }
+        } catch (SQLException e) {
+            throw session.getFactory().getSQLExceptionHelper().convert(
+                e, "could not get the next sequence values", fetchSql
+            );
+        }
+        fetchCount++;
+        Arrays.sort(fetchedValues);
+        for (long fetchedValue : fetchedValues) {
+            if (lastValue != 0 && fetchedValue > lastValue + 1) {
+                outOfBandValueCount += fetchedValue - lastValue - 1;
+            }
+            lastValue = fetchedValue;
+            values.add(fetchedValue);
+        }
+    }
+
+    /**
+     * Get the number of sequence round trips
+     *
+     * @return fetch count
+     */
+    public synchronized long getFetchCount() {
+        return fetchCount;
+    }
+
+    /**
+     * Get the number of sequence values consumed by other inserters since this generator first fetched
+     * the sequence, as observed from the gaps between the values it fetched
+     *
+     * @return out-of-band value count
+     */
+    public synchronized long getOutOfBandValueCount() {
+        return outOfBandValueCount;
+    }
+}
@@ -0,0 +1,205 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.junit.Test;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * InteroperableSequenceIdentifierTest - Test to check the interoperable sequence generator against external
+ * inserters using the raw sequence values, and to compare its throughput with the non-optimized sequence calls
+ *
+ * @author Vlad Mihalcea
+ */
+public class InteroperableSequenceIdentifierTest extends AbstractPooledSequenceIdentifierTest {
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            InteroperableSequenceIdentifier.class,
+            NoOptimizerSequenceIdentifier.class,
+        };
+    }
+
+    @Override
+    protected Object newEntityInstance() {
+        return new InteroperableSequenceIdentifier();
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.jdbc.batch_size", "20");
+        return properties;
+    }
+
+    @Override
+    protected boolean proxyDataSource() {
+        return false;
+    }
+
+    @Test
+    public void testExternalInsertsAreDetected() {
+        insertSequences();
+        doInTransaction(session -> {
+            List<Number> ids = session.createSQLQuery(
+                "SELECT id FROM sequenceIdentifier ORDER BY id").list();
+            assertEquals(14, ids.size());
+            assertEquals(14, ids.get(ids.size() - 1).intValue());
+        });
+        InteroperableSequenceGenerator generator = generator();
+        assertEquals(3, generator.getFetchCount());
+        assertEquals(3, generator.getOutOfBandValueCount());
+    }
+
+    @Test
+    public void testConcurrentHibernateAndJdbcInserters() {
+        long startNanos = System.nanoTime();
+        int rowCount = insert("sequenceIdentifier", "hibernate_sequence", InteroperableSequenceIdentifier::new);
+        long elapsedNanos = System.nanoTime() - startNanos;
+        doInTransaction(session -> {
+            assertEquals(rowCount, ((Number) session.createSQLQuery(
+                "SELECT COUNT(DISTINCT id) FROM sequenceIdentifier").uniqueResult()).intValue());
+        });
+        InteroperableSequenceGenerator generator = generator();
+        LOGGER.info("{} rows inserted at {} inserts/second, {} sequence round trips, {} out-of-band sequence values",
+            rowCount, rowCount * TimeUnit.SECONDS.toNanos(1) / elapsedNanos,
+            generator.getFetchCount(), generator.getOutOfBandValueCount());
+        assertTrue(generator.getFetchCount() * incrementSize() >= rowCount / 2);
+    }
+
+    @Test
+    public void testInsertThroughput() {
+        for (int i = 0; i < 2; i++) {
+            boolean warmUp = i == 0;
+            long startNanos = System.nanoTime();
+            int rowCount = insert("sequenceIdentifier", "hibernate_sequence", InteroperableSequenceIdentifier::new);
+            long interoperableNanos = System.nanoTime() - startNanos;
+
+            startNanos = System.nanoTime();
+            insert("noOptimizerSequenceIdentifier", "no_optimizer_sequence", NoOptimizerSequenceIdentifier::new);
+            long noOptimizerNanos = System.nanoTime() - startNanos;
+            if (!warmUp) {
+                LOGGER.info("{} Hibernate and {} JDBC threads: interoperable {} inserts/second, " +
+                    "no optimizer {} inserts/second",
+                    threadCount(), threadCount(),
+                    rowCount * TimeUnit.SECONDS.toNanos(1) / interoperableNanos,
+                    rowCount * TimeUnit.SECONDS.toNanos(1) / noOptimizerNanos);
+            }
+        }
+    }
+
+    protected int threadCount() {
+        return 4;
+    }
+
+    protected int transactionCount() {
+        return 50;
+    }
+
+    protected int insertCount() {
+        return 20;
+    }
+
+    protected int incrementSize() {
+        return 5;
+    }
+
+    /**
+     * Run as many Hibernate threads, persisting entities, as JDBC threads, inserting rows with
+     * the raw sequence values, all sharing the same table and sequence
+     */
+    private int insert(String table, String sequence, Supplier<Object> entitySupplier) {
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount() * 2);
+        try {
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount(); i++) {
+                futures.add(executorService.submit(() -> {
+                    awaitOnLatch(startLatch);
+                    for (int j = 0; j < transactionCount(); j++) {
+                        doInTransaction(session -> {
+                            for (int k = 0; k < insertCount(); k++) {
+                                session.persist(entitySupplier.get());
+                            }
+                        });
+                    }
+                }));
+                futures.add(executorService.submit(() -> {
+                    awaitOnLatch(startLatch);
+                    for (int j = 0; j < transactionCount(); j++) {
+                        doInJDBC(connection -> {
+                            try (Statement statement = connection.createStatement()) {
+                                for (int k = 0; k < insertCount(); k++) {
+                                    statement.addBatch(
+                                        "INSERT INTO " + table + " VALUES NEXT VALUE FOR " + sequence);
+                                }
+                                statement.executeBatch();
+                            }
+                        });
+                    }
+                }));
+            }
+            startLatch.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        } finally {
+            executorService.shutdownNow();
+        }
+        return threadCount() * 2 * transactionCount() * insertCount();
+    }
+
+    private InteroperableSequenceGenerator generator() {
+        return (InteroperableSequenceGenerator) ((SessionFactoryImplementor) getSessionFactory())
+            .getIdentifierGenerator(InteroperableSequenceIdentifier.class.getName());
+    }
+
+    @Entity(name = "sequenceIdentifier")
+    public static class InteroperableSequenceIdentifier {
+
+        @Id
+        @GenericGenerator(name = "sequenceGenerator",
+            strategy = "com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator.InteroperableSequenceGenerator",
+            parameters = {
+                @Parameter(name = "initial_value", value = "1"),
+                @Parameter(name = "increment_size", value = "5")
+            }
+        )
+        @GeneratedValue(generator = "sequenceGenerator")
+        private Long id;
+    }
+
+    @Entity(name = "noOptimizerSequenceIdentifier")
+    public static class NoOptimizerSequenceIdentifier {
+
+        @Id
+        @GenericGenerator(name = "noOptimizerSequenceGenerator", strategy = "enhanced-sequence",
+            parameters = {
+                @Parameter(name = "sequence_name", value = "no_optimizer_sequence"),
+                @Parameter(name = "optimizer", value = "none")
+            }
+        )
+        @GeneratedValue(generator = "noOptimizerSequenceGenerator")
+        private Long id;
+    }
+}
@@ -0,0 +1,15 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator;
+
+import java.io.Serializable;
+
+/**
+ * Persistable - Identifiable entity knowing whether it was already saved, even if its identifier is assigned
+ *
+ * @author Vlad Mihalcea
+ */
+public interface Persistable<T extends Serializable> extends Identifiable<T> {
+
+    boolean isNew();
+
+    void markPersisted();
+}
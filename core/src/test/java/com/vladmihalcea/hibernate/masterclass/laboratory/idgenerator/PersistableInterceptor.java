@@ -0,0 +1,123 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.MergeEvent;
+import org.hibernate.event.spi.MergeEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * PersistableInterceptor - Interceptor telling Hibernate whether a {@link Persistable} entity is transient,
+ * so that entities with assigned identifiers can be persisted, and merged, without the SELECT Hibernate
+ * otherwise issues to find out if the identifier already exists.
+ *
+ * The loaded entities are marked as persisted, and so are the inserted entities, but only once the transaction
+ * is committed, so an entity whose insert was rolled back is still new. A merged entity is marked as persisted
+ * too once the insert of its managed copy is committed, so merging it again issues no second INSERT.
+ * Only the entities created by the application are therefore considered new, and it's up to the application
+ * to never assign the identifier of an existing row to a new entity. The inserts and the merges are intercepted
+ * by event listeners, so this interceptor must also be registered as a {@link SessionFactoryObserver},
+ * or integrated with the SessionFactory.
+ *
+ * @author Vlad Mihalcea
+ */
+public class PersistableInterceptor extends EmptyInterceptor
+    implements PostInsertEventListener, MergeEventListener, SessionFactoryObserver {
+
+    public PersistableInterceptor integrate(SessionFactory sessionFactory) {
+        EventListenerRegistry eventListenerRegistry = ((SessionFactoryImplementor) sessionFactory).getServiceRegistry()
+            .getService(EventListenerRegistry.class);
+        eventListenerRegistry.appendListeners(EventType.POST_INSERT, this);
+        eventListenerRegistry.appendListeners(EventType.MERGE, this);
+        return this;
+    }
+
+    @Override
+    public void sessionFactoryCreated(SessionFactory factory) {
+        integrate(factory);
+    }
+
+    @Override
+    public void sessionFactoryClosed(SessionFactory factory) {
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Boolean isTransient(Object entity) {
+        if (entity instanceof Persistable) {
+            return ((Persistable<Serializable>) entity).isNew();
+        }
+        return super.isTransient(entity);
+    }
+
+    @Override
+    public boolean onLoad(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        markPersisted(entity);
+        return super.onLoad(entity, id, state, propertyNames, types);
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        Object entity = event.getEntity();
+        if (entity instanceof Persistable) {
+            event.getSession().getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, session) -> {
+                if (success) {
+                    markPersisted(entity);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onMerge(MergeEvent event) {
+        markMergeSource(event);
+    }
+
+    @Override
+    public void onMerge(MergeEvent event, Map copiedAlready) {
+        markMergeSource(event);
+    }
+
+    /**
+     * A new entity is merged into a managed copy, so the merged entity is marked as persisted too,
+     * once the copy insert is committed
+     */
+    @SuppressWarnings("unchecked")
+    private void markMergeSource(MergeEvent event) {
+        Object source = event.getOriginal();
+        Object copy = event.getResult();
+        if (source instanceof Persistable && copy != null && copy != source &&
+            ((Persistable<Serializable>) source).isNew()) {
+            event.getSession().getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, session) -> {
+                EntityEntry entry = session.getPersistenceContext().getEntry(copy);
+                if (success && entry != null && entry.isExistsInDatabase()) {
+                    markPersisted(source);
+                }
+            });
+        }
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void markPersisted(Object entity) {
+        if (entity instanceof Persistable) {
+            ((Persistable<Serializable>) entity).markPersisted();
+        }
+    }
+}
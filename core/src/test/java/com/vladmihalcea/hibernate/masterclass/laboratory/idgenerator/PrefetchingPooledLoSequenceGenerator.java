@@ -0,0 +1,200 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator;
+
+import org.hibernate.MappingException;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.IdentifierGenerationException;
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.id.IntegralDataTypeHolder;
+import org.hibernate.id.enhanced.SequenceStructure;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.enhanced.StandardOptimizerDescriptor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PrefetchingPooledLoSequenceGenerator - Pooled-lo sequence generator handing out the identifiers of the
+ * current sequence block through an AtomicLong, instead of the synchronized Hibernate optimizer.
+ *
+ * Once only <code>prefetch_threshold</code> identifiers are left in the current block, the next block is
+ * fetched asynchronously, on a dedicated connection, so the inserting threads rarely wait for the sequence call.
+ * The sequence values are interpreted like the pooled-lo optimizer does, so the same sequence can be shared
+ * with pooled-lo generators.
+ *
+ * @author Vlad Mihalcea
+ */
+public class PrefetchingPooledLoSequenceGenerator extends SequenceStyleGenerator {
+
+    public static final String PREFETCH_THRESHOLD_PARAM = "prefetch_threshold";
+
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r);
+        thread.setName("sequence-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Block EXHAUSTED_BLOCK = new Block(0, 0);
+
+    private final AtomicReference<Block> currentBlock = new AtomicReference<>(EXHAUSTED_BLOCK);
+
+    private final AtomicReference<CompletableFuture<Block>> nextBlock = new AtomicReference<>();
+
+    private final AtomicLong prefetchCount = new AtomicLong();
+
+    private final AtomicLong stallCount = new AtomicLong();
+
+    private Dialect dialect;
+
+    private int incrementSize;
+
+    private int prefetchThreshold;
+
+    @Override
+    public void configure(Type type, Properties params, Dialect dialect) throws MappingException {
+        Properties pooledLoParams = new Properties();
+        pooledLoParams.putAll(params);
+        pooledLoParams.setProperty(OPT_PARAM, StandardOptimizerDescriptor.POOLED_LO.getExternalName());
+        super.configure(type, pooledLoParams, dialect);
+        if (!(getDatabaseStructure() instanceof SequenceStructure)) {
+            throw new MappingException(
+                "PrefetchingPooledLoSequenceGenerator requires a database sequence, but " +
+                getDatabaseStructure().getName() + " is a table"
+            );
+        }
+        this.dialect = dialect;
+        this.incrementSize = getDatabaseStructure().getIncrementSize();
+        this.prefetchThreshold = ConfigurationHelper.getInt(
+            PREFETCH_THRESHOLD_PARAM, params, Math.max(1, incrementSize / 2)
+        );
+        if (prefetchThreshold < 1 || prefetchThreshold > incrementSize) {
+            throw new MappingException(
+                PREFETCH_THRESHOLD_PARAM + " must be between 1 and the increment size " + incrementSize
+            );
+        }
+    }
+
+    @Override
+    public Serializable generate(SessionImplementor session, Object object) {
+        long id = nextValue(session.getFactory());
+        IntegralDataTypeHolder value = IdentifierGeneratorHelper.getIntegralDataTypeHolder(
+            getIdentifierType().getReturnedClass()
+        );
+        value.initialize(id);
+        return value.makeValue();
+    }
+
+    private long nextValue(SessionFactoryImplementor sessionFactory) {
+        while (true) {
+            Block block = currentBlock.get();
+            long value = block.next.getAndIncrement();
+            if (value < block.hi) {
+                if (block.hi - value == prefetchThreshold) {
+                    prefetch(sessionFactory);
+                }
+                return value;
+            }
+            CompletableFuture<Block> pendingBlock = nextBlock.get();
+            if (pendingBlock == null) {
+                pendingBlock = new CompletableFuture<>();
+                if (!nextBlock.compareAndSet(null, pendingBlock)) {
+                    continue;
+                }
+                stallCount.incrementAndGet();
+                fetch(pendingBlock, sessionFactory);
+            } else if (!pendingBlock.isDone()) {
+                stallCount.incrementAndGet();
+            }
+            Block fetchedBlock;
+            try {
+                fetchedBlock = pendingBlock.join();
+            } catch (CompletionException e) {
+                nextBlock.compareAndSet(pendingBlock, null);
+                throw new IdentifierGenerationException(
+                    "Could not fetch the next block of " + getDatabaseStructure().getName(), e.getCause()
+                );
+            }
+            //the next block slot is released before the fetched block is published, so the thread reaching
+            //the prefetch threshold of the fetched block can always schedule the following one
+            if (fetchedBlock != block && nextBlock.compareAndSet(pendingBlock, null)) {
+                currentBlock.compareAndSet(block, fetchedBlock);
+            }
+        }
+    }
+
+    private void prefetch(SessionFactoryImplementor sessionFactory) {
+        CompletableFuture<Block> pendingBlock = new CompletableFuture<>();
+        if (nextBlock.compareAndSet(null, pendingBlock)) {
+            prefetchCount.incrementAndGet();
+            PREFETCH_EXECUTOR.execute(() -> fetch(pendingBlock, sessionFactory));
+        }
+    }
+
+    private void fetch(CompletableFuture<Block> pendingBlock, SessionFactoryImplementor sessionFactory) {
+        try {
+            long lo = nextSequenceValue(sessionFactory);
+            pendingBlock.complete(new Block(lo, lo + incrementSize));
+        } catch (Throwable e) {
+            pendingBlock.completeExceptionally(e);
+        }
+    }
+
+    private long nextSequenceValue(SessionFactoryImplementor sessionFactory) throws SQLException {
+        ConnectionProvider connectionProvider = sessionFactory.getServiceRegistry().getService(ConnectionProvider.class);
+        Connection connection = connectionProvider.getConnection();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                 dialect.getSequenceNextValString(getDatabaseStructure().getName()))) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        } finally {
+            connectionProvider.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Get the number of blocks fetched ahead of time
+     *
+     * @return prefetch count
+     */
+    public long getPrefetchCount() {
+        return prefetchCount.get();
+    }
+
+    /**
+     * Get the number of times an inserting thread found the current block exhausted
+     * and had to wait for the next one
+     *
+     * @return stall count
+     */
+    public long getStallCount() {
+        return stallCount.get();
+    }
+
+    private static class Block {
+
+        private final AtomicLong next;
+
+        private final long hi;
+
+        private Block(long lo, long hi) {
+            this.next = new AtomicLong(lo);
+            this.hi = hi;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import org.hibernate.SessionFactory;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.SimpleValue;
+import org.junit.Test;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * PrefetchingPooledLoSequenceIdentifierTest - Test to check the prefetching pooled-lo sequence generator
+ * and to compare its multi-threaded insert throughput with the pooled, pooled-lo and hilo optimizers
+ *
+ * @author Vlad Mihalcea
+ */
+public class PrefetchingPooledLoSequenceIdentifierTest extends AbstractTest {
+
+    private int incrementSize = 5;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            PooledPost.class,
+            PooledLoPost.class,
+            HiloPost.class,
+            PrefetchingPooledLoPost.class,
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.id.new_generator_mappings", "true");
+        properties.put("hibernate.jdbc.batch_size", "20");
+        return properties;
+    }
+
+    @Override
+    protected boolean proxyDataSource() {
+        return false;
+    }
+
+    @Override
+    protected void configure(Configuration configuration) {
+        configuration.buildMappings();
+        for (Iterator<PersistentClass> iterator = configuration.getClassMappings(); iterator.hasNext(); ) {
+            SimpleValue identifier = (SimpleValue) iterator.next().getIdentifier();
+            identifier.getIdentifierGeneratorProperties().setProperty("increment_size", String.valueOf(incrementSize));
+        }
+    }
+
+    @Test
+    public void testPooledLoBlocks() {
+        doInTransaction(session -> {
+            for (int i = 0; i < 12; i++) {
+                session.persist(new PrefetchingPooledLoPost());
+            }
+            session.flush();
+            List<Number> ids = session.createSQLQuery(
+                "SELECT id FROM PrefetchingPooledLoPost ORDER BY id").list();
+            assertEquals(12, ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                assertEquals(i + 1, ids.get(i).intValue());
+            }
+        });
+        PrefetchingPooledLoSequenceGenerator generator = generator(getSessionFactory());
+        assertEquals(2, generator.getPrefetchCount());
+    }
+
+    @Test
+    public void testConcurrentInsertsGetUniqueIdentifiers() {
+        int rowCount = insert(getSessionFactory(), PrefetchingPooledLoPost::new, 8);
+        doInTransaction(session -> {
+            assertEquals(rowCount, ((Number) session.createSQLQuery(
+                "SELECT COUNT(DISTINCT id) FROM PrefetchingPooledLoPost").uniqueResult()).intValue());
+        });
+        PrefetchingPooledLoSequenceGenerator generator = generator(getSessionFactory());
+        LOGGER.info("{} rows inserted by 8 threads, {} blocks prefetched, {} stalls",
+            rowCount, generator.getPrefetchCount(), generator.getStallCount());
+        assertTrue(generator.getPrefetchCount() > 0);
+    }
+
+    @Test
+    public void testInsertThroughput() {
+        Properties properties = getProperties();
+        properties.put("hibernate.hbm2ddl.auto", "create");
+        for (int incrementSize : incrementSizes()) {
+            this.incrementSize = incrementSize;
+            SessionFactory sessionFactory = newSessionFactory(properties);
+            try {
+                for (Supplier<?> entitySupplier : entitySuppliers().values()) {
+                    insert(sessionFactory, entitySupplier, threadCount());
+                }
+                for (Map.Entry<Class<?>, Supplier<?>> entitySupplier : entitySuppliers().entrySet()) {
+                    Class<?> entityClass = entitySupplier.getKey();
+                    long startNanos = System.nanoTime();
+                    int rowCount = insert(sessionFactory, entitySupplier.getValue(), threadCount());
+                    long elapsedNanos = System.nanoTime() - startNanos;
+                    LOGGER.info("{} threads, increment_size {}, {}: {} inserts/second",
+                        threadCount(), incrementSize, entityClass.getSimpleName(),
+                        rowCount * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+                }
+                PrefetchingPooledLoSequenceGenerator generator = generator(sessionFactory);
+                LOGGER.info("increment_size {}, PrefetchingPooledLoPost: {} blocks prefetched, {} stalls",
+                    incrementSize, generator.getPrefetchCount(), generator.getStallCount());
+            } finally {
+                sessionFactory.close();
+            }
+        }
+    }
+
+    protected int threadCount() {
+        return 8;
+    }
+
+    protected int[] incrementSizes() {
+        return new int[] {1, 10, 50, 100};
+    }
+
+    protected int transactionCount() {
+        return 25;
+    }
+
+    protected int insertCount() {
+        return 20;
+    }
+
+    private int insert(SessionFactory sessionFactory, Supplier<?> entitySupplier, int threadCount) {
+        return executeConcurrentInserts(sessionFactory, entitySupplier, threadCount, transactionCount(), insertCount());
+    }
+
+    private Map<Class<?>, Supplier<?>> entitySuppliers() {
+        Map<Class<?>, Supplier<?>> entitySuppliers = new LinkedHashMap<>();
+        entitySuppliers.put(PooledPost.class, PooledPost::new);
+        entitySuppliers.put(PooledLoPost.class, PooledLoPost::new);
+        entitySuppliers.put(HiloPost.class, HiloPost::new);
+        entitySuppliers.put(PrefetchingPooledLoPost.class, PrefetchingPooledLoPost::new);
+        return entitySuppliers;
+    }
+
+    private PrefetchingPooledLoSequenceGenerator generator(SessionFactory sessionFactory) {
+        return (PrefetchingPooledLoSequenceGenerator) ((SessionFactoryImplementor) sessionFactory)
+            .getIdentifierGenerator(PrefetchingPooledLoPost.class.getName());
+    }
+
+    @Entity(name = "PooledPost")
+    public static class PooledPost {
+
+        @Id
+        @GenericGenerator(name = "pooled", strategy = "enhanced-sequence",
+            parameters = {
+                @Parameter(name = "sequence_name", value = "pooled_sequence"),
+                @Parameter(name = "optimizer", value = "pooled"),
+            }
+        )
+        @GeneratedValue(generator = "pooled")
+        private Long id;
+    }
+
+    @Entity(name = "PooledLoPost")
+    public static class PooledLoPost {
+
+        @Id
+        @GenericGenerator(name = "pooled_lo", strategy = "enhanced-sequence",
+            parameters = {
+                @Parameter(name = "sequence_name", value = "pooled_lo_sequence"),
+                @Parameter(name = "optimizer", value = "pooled-lo"),
+            }
+        )
+        @GeneratedValue(generator = "pooled_lo")
+        private Long id;
+    }
+
+    @Entity(name = "HiloPost")
+    public static class HiloPost {
+
+        @Id
+        @GenericGenerator(name = "hilo", strategy = "enhanced-sequence",
+            parameters = {
+                @Parameter(name = "sequence_name", value = "hilo_sequence"),
+                @Parameter(name = "optimizer", value = "hilo"),
+            }
+        )
+        @GeneratedValue(generator = "hilo")
+        private Long id;
+    }
+
+    @Entity(name = "PrefetchingPooledLoPost")
+    public static class PrefetchingPooledLoPost {
+
+        @Id
+        @GenericGenerator(name = "prefetching_pooled_lo",
+            strategy = "com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator.PrefetchingPooledLoSequenceGenerator",
+            parameters = {
+                @Parameter(name = "sequence_name", value = "prefetching_sequence"),
+            }
+        )
+        @GeneratedValue(generator = "prefetching_pooled_lo")
+        private Long id;
+    }
+}
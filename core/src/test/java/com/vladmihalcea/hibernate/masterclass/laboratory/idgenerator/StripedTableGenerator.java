@@ -0,0 +1,249 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator;
+
+import org.hibernate.HibernateException;
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
+import org.hibernate.MappingException;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.Configurable;
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.id.IntegralDataTypeHolder;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.jdbc.AbstractReturningWork;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * StripedTableGenerator - Table generator spreading the identifier allocation over <code>stripe_count</code> rows,
+ * so that concurrent inserters don't queue on the row lock of a single sequence row.
+ *
+ * Every thread is bound to a stripe and reserves its own segment of <code>increment_size</code> values
+ * from the stripe row, in a separate transaction, and then hands them out without any synchronization.
+ * The stripe values are interleaved (<code>initial_value + value * stripe_count + stripe</code>), so the
+ * identifiers are unique across stripes, but they are neither contiguous nor ordered by insertion time, and the
+ * values left in the segment of a thread which no longer inserts are never used.
+ *
+ * The stripe rows are initialized the first time the generator is used, which is only safe within a single JVM.
+ *
+ * @author Vlad Mihalcea
+ */
+public class StripedTableGenerator implements PersistentIdentifierGenerator, Configurable {
+
+    public static final String TABLE_PARAM = "table_name";
+
+    public static final String DEFAULT_TABLE = "striped_sequences";
+
+    public static final String SEGMENT_VALUE_PARAM = "segment_value";
+
+    public static final String STRIPE_COUNT_PARAM = "stripe_count";
+
+    public static final int DEFAULT_STRIPE_COUNT = 16;
+
+    public static final String INCREMENT_PARAM = "increment_size";
+
+    public static final int DEFAULT_INCREMENT_SIZE = 50;
+
+    public static final String INITIAL_PARAM = "initial_value";
+
+    private static final String SEGMENT_COLUMN = "sequence_name";
+
+    private static final String VALUE_COLUMN = "next_val";
+
+    private final AtomicInteger nextStripe = new AtomicInteger();
+
+    private final AtomicLong reservationCount = new AtomicLong();
+
+    private final ThreadLocal<Segment> segments = new ThreadLocal<>();
+
+    private Type identifierType;
+
+    private String tableName;
+
+    private String segmentValue;
+
+    private int stripeCount;
+
+    private int incrementSize;
+
+    private long initialValue;
+
+    private String selectQuery;
+
+    private String insertQuery;
+
+    private String updateQuery;
+
+    private volatile boolean initialized;
+
+    @Override
+    public void configure(Type type, Properties params, Dialect dialect) throws MappingException {
+        this.identifierType = type;
+        this.tableName = ConfigurationHelper.getString(TABLE_PARAM, params, DEFAULT_TABLE);
+        this.segmentValue = ConfigurationHelper.getString(SEGMENT_VALUE_PARAM, params, params.getProperty(TABLE));
+        this.stripeCount = ConfigurationHelper.getInt(STRIPE_COUNT_PARAM, params, DEFAULT_STRIPE_COUNT);
+        this.incrementSize = ConfigurationHelper.getInt(INCREMENT_PARAM, params, DEFAULT_INCREMENT_SIZE);
+        this.initialValue = ConfigurationHelper.getInt(INITIAL_PARAM, params, 1);
+        if (stripeCount < 1) {
+            throw new MappingException(STRIPE_COUNT_PARAM + " must be positive");
+        }
+        if (incrementSize < 1) {
+            throw new MappingException(INCREMENT_PARAM + " must be positive");
+        }
+        String alias = "tbl";
+        LockOptions lockOptions = new LockOptions(LockMode.PESSIMISTIC_WRITE);
+        lockOptions.setAliasSpecificLockMode(alias, LockMode.PESSIMISTIC_WRITE);
+        this.selectQuery = dialect.applyLocksToSql(
+            "select " + alias + "." + VALUE_COLUMN + " from " + tableName + " " + alias +
+            " where " + alias + "." + SEGMENT_COLUMN + "=?",
+            lockOptions,
+            Collections.singletonMap(alias, new String[] {VALUE_COLUMN})
+        );
+        this.insertQuery = "insert into " + tableName + " (" + SEGMENT_COLUMN + ", " + VALUE_COLUMN + ") values (?, ?)";
+        this.updateQuery = "update " + tableName + " set " + VALUE_COLUMN + "=? " +
+            "where " + VALUE_COLUMN + "=? and " + SEGMENT_COLUMN + "=?";
+    }
+
+    @Override
+    public Serializable generate(SessionImplementor session, Object object) throws HibernateException {
+        Segment segment = segments.get();
+        if (segment == null) {
+            initialize(session);
+            segment = new Segment(nextStripe.getAndIncrement() % stripeCount);
+            segments.set(segment);
+        }
+        if (segment.next == segment.hi) {
+            segment.next = reserve(session, segment.stripe);
+            segment.hi = segment.next + incrementSize;
+        }
+        IntegralDataTypeHolder value = IdentifierGeneratorHelper.getIntegralDataTypeHolder(
+            identifierType.getReturnedClass()
+        );
+        value.initialize(initialValue + segment.next++ * stripeCount + segment.stripe);
+        return value.makeValue();
+    }
+
+    private synchronized void initialize(SessionImplementor session) {
+        if (initialized) {
+            return;
+        }
+        session.getTransactionCoordinator().getTransaction().createIsolationDelegate().delegateWork(
+            new AbstractReturningWork<Void>() {
+                @Override
+                public Void execute(Connection connection) throws SQLException {
+                    for (int stripe = 0; stripe < stripeCount; stripe++) {
+                        try (PreparedStatement selectStatement = connection.prepareStatement(selectQuery)) {
+                            selectStatement.setString(1, stripeSegmentValue(stripe));
+                            try (ResultSet resultSet = selectStatement.executeQuery()) {
+                                if (resultSet.next()) {
+                                    continue;
+                                }
+                            }
+                        }
+                        try (PreparedStatement insertStatement = connection.prepareStatement(insertQuery)) {
+                            insertStatement.setString(1, stripeSegmentValue(stripe));
+                            insertStatement.setLong(2, 0);
+                            insertStatement.executeUpdate();
+                        }
+                    }
+                    return null;
+                }
+            },
+            true
+        );
+        initialized = true;
+    }
+
+    private long reserve(SessionImplementor session, int stripe) {
+        reservationCount.incrementAndGet();
+        return session.getTransactionCoordinator().getTransaction().createIsolationDelegate().delegateWork(
+            new AbstractReturningWork<Long>() {
+                @Override
+                public Long execute(Connection connection) throws SQLException {
+                    long value;
+                    int rows;
+                    do {
+                        try (PreparedStatement selectStatement = connection.prepareStatement(selectQuery)) {
+                            selectStatement.setString(1, stripeSegmentValue(stripe));
+                            try (ResultSet resultSet = selectStatement.executeQuery()) {
+                                if (!resultSet.next()) {
+                                    throw new SQLException("Missing " + tableName + " row " + stripeSegmentValue(stripe));
+                                }
+                                value = resultSet.getLong(1);
+                            }
+                        }
+                        try (PreparedStatement updateStatement = connection.prepareStatement(updateQuery)) {
+                            updateStatement.setLong(1, value + incrementSize);
+                            updateStatement.setLong(2, value);
+                            updateStatement.setString(3, stripeSegmentValue(stripe));
+                            rows = updateStatement.executeUpdate();
+                        }
+                    } while (rows == 0);
+                    return value;
+                }
+            },
+            true
+        );
+    }
+
+    private String stripeSegmentValue(int stripe) {
+        return segmentValue + "#" + stripe;
+    }
+
+    /**
+     * Get the number of segments reserved from the stripe rows
+     *
+     * @return reservation count
+     */
+    public long getReservationCount() {
+        return reservationCount.get();
+    }
+
+    public int getStripeCount() {
+        return stripeCount;
+    }
+
+    @Override
+    public String[] sqlCreateStrings(Dialect dialect) throws HibernateException {
+        return new String[] {
+            dialect.getCreateTableString() + " " + tableName + " ( " +
+                SEGMENT_COLUMN + " " + dialect.getTypeName(Types.VARCHAR, 255, 0, 0) + " not null, " +
+                VALUE_COLUMN + " " + dialect.getTypeName(Types.BIGINT) + ", " +
+                "primary key ( " + SEGMENT_COLUMN + " ) )" + dialect.getTableTypeString()
+        };
+    }
+
+    @Override
+    public String[] sqlDropStrings(Dialect dialect) throws HibernateException {
+        return new String[] {dialect.getDropTableString(tableName)};
+    }
+
+    @Override
+    public Object generatorKey() {
+        return tableName;
+    }
+
+    private static class Segment {
+
+        private final int stripe;
+
+        private long next;
+
+        private long hi;
+
+        private Segment(int stripe) {
+            this.stripe = stripe;
+        }
+    }
+}
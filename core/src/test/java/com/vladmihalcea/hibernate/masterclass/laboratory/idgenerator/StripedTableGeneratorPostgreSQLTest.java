@@ -0,0 +1,15 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator;
+
+/**
+ * StripedTableGeneratorPostgreSQLTest - Test to check the striped table generator on PostgreSQL,
+ * where the sequence rows are locked individually
+ *
+ * @author Vlad Mihalcea
+ */
+public class StripedTableGeneratorPostgreSQLTest extends StripedTableGeneratorTest {
+
+    @Override
+    protected DataSourceProvider getDataSourceProvider() {
+        return new PostgreSQLDataSourceProvider();
+    }
+}
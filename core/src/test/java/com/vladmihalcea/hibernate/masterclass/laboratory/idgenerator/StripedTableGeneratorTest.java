@@ -0,0 +1,142 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.junit.Test;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * StripedTableGeneratorTest - Test to check the striped table generator and to compare its insert throughput
+ * with the enhanced-table generator, from 1 to 64 concurrent inserting threads
+ *
+ * @author Vlad Mihalcea
+ */
+public class StripedTableGeneratorTest extends AbstractTest {
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            TablePost.class,
+            StripedTablePost.class,
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.jdbc.batch_size", "10");
+        return properties;
+    }
+
+    @Override
+    protected boolean proxyDataSource() {
+        return false;
+    }
+
+    @Test
+    public void testStripedIdentifiers() {
+        int rowCount = insert(StripedTablePost::new, 8, 800);
+        doInTransaction(session -> {
+            assertEquals(rowCount, ((Number) session.createSQLQuery(
+                "SELECT COUNT(DISTINCT id) FROM StripedTablePost").uniqueResult()).intValue());
+            assertEquals(16, ((Number) session.createSQLQuery(
+                "SELECT COUNT(*) FROM striped_sequences WHERE sequence_name LIKE 'StripedTablePost#%'")
+                .uniqueResult()).intValue());
+            assertEquals(rowCount, ((Number) session.createSQLQuery(
+                "SELECT SUM(next_val) FROM striped_sequences").uniqueResult()).intValue());
+        });
+        assertEquals(rowCount / 10, generator().getReservationCount());
+    }
+
+    @Test
+    public void testInsertThroughput() {
+        for (Supplier<?> entitySupplier : entitySuppliers().values()) {
+            insert(entitySupplier, threadCounts()[threadCounts().length - 1], insertCount());
+        }
+        for (int threadCount : threadCounts()) {
+            for (Map.Entry<Class<?>, Supplier<?>> entitySupplier : entitySuppliers().entrySet()) {
+                Class<?> entityClass = entitySupplier.getKey();
+                long startNanos = System.nanoTime();
+                int rowCount = insert(entitySupplier.getValue(), threadCount, insertCount());
+                long elapsedNanos = System.nanoTime() - startNanos;
+                LOGGER.info("{} threads, {}: {} inserts/second",
+                    threadCount, entityClass.getSimpleName(),
+                    rowCount * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+            }
+        }
+        LOGGER.info("StripedTablePost: {} segments reserved from {} stripes",
+            generator().getReservationCount(), generator().getStripeCount());
+    }
+
+    protected int[] threadCounts() {
+        return new int[] {1, 2, 4, 8, 16, 32, 64};
+    }
+
+    protected int insertCount() {
+        return 6400;
+    }
+
+    protected int batchSize() {
+        return 10;
+    }
+
+    private int insert(Supplier<?> entitySupplier, int threadCount, int insertCount) {
+        return executeConcurrentInserts(getSessionFactory(), entitySupplier, threadCount,
+            insertCount / threadCount / batchSize(), batchSize());
+    }
+
+    private Map<Class<?>, Supplier<?>> entitySuppliers() {
+        Map<Class<?>, Supplier<?>> entitySuppliers = new LinkedHashMap<>();
+        entitySuppliers.put(TablePost.class, TablePost::new);
+        entitySuppliers.put(StripedTablePost.class, StripedTablePost::new);
+        return entitySuppliers;
+    }
+
+    private StripedTableGenerator generator() {
+        return (StripedTableGenerator) ((SessionFactoryImplementor) getSessionFactory())
+            .getIdentifierGenerator(StripedTablePost.class.getName());
+    }
+
+    @Entity(name = "TablePost")
+    public static class TablePost {
+
+        @Id
+        @GenericGenerator(name = "table", strategy = "enhanced-table",
+            parameters = {
+                @Parameter(name = "table_name", value = "sequence_table"),
+                @Parameter(name = "increment_size", value = "10"),
+                @Parameter(name = "optimizer", value = "pooled-lo"),
+            }
+        )
+        @GeneratedValue(generator = "table")
+        private Long id;
+    }
+
+    @Entity(name = "StripedTablePost")
+    public static class StripedTablePost {
+
+        @Id
+        @GenericGenerator(name = "striped_table",
+            strategy = "com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator.StripedTableGenerator",
+            parameters = {
+                @Parameter(name = "segment_value", value = "StripedTablePost"),
+                @Parameter(name = "stripe_count", value = "16"),
+                @Parameter(name = "increment_size", value = "10"),
+            }
+        )
+        @GeneratedValue(generator = "striped_table")
+        private Long id;
+    }
+}
@@ -0,0 +1,95 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator;
+
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.UUIDGenerationStrategy;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * TimeOrderedUUIDGenerationStrategy - uuid2 generation strategy producing version 7 UUIDs, whose most significant
+ * 48 bits are the Unix epoch milliseconds, so that consecutive identifiers are appended to the right-most
+ * B-tree index page instead of being scattered across the whole index like the random version 4 UUIDs.
+ *
+ * The 12 bits following the version are a per-thread counter, randomly seeded every millisecond, so the UUIDs
+ * generated by the same thread are strictly increasing. The remaining 62 bits come from {@link ThreadLocalRandom},
+ * which avoids the SecureRandom contention of {@link UUID#randomUUID()}, but the UUIDs are not meant to be
+ * unguessable.
+ *
+ * Use it with <code>@GenericGenerator(strategy = "uuid2")</code> and the <code>uuid_gen_strategy_class</code>
+ * parameter, and store the UUID as BINARY(16), since the byte order is the time order.
+ *
+ * @author Vlad Mihalcea
+ */
+public class TimeOrderedUUIDGenerationStrategy implements UUIDGenerationStrategy {
+
+    public static final TimeOrderedUUIDGenerationStrategy INSTANCE = new TimeOrderedUUIDGenerationStrategy();
+
+    private static final int COUNTER_BITS = 12;
+
+    private static final int MAX_COUNTER = (1 << COUNTER_BITS) - 1;
+
+    private static final ThreadLocal<Clock> CLOCKS = ThreadLocal.withInitial(Clock::new);
+
+    @Override
+    public int getGeneratedVersion() {
+        return 7;
+    }
+
+    @Override
+    public UUID generateUUID(SessionImplementor session) {
+        return generateUUID();
+    }
+
+    public UUID generateUUID() {
+        Clock clock = CLOCKS.get();
+        clock.tick(System.currentTimeMillis());
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSignificantBits = (clock.timestamp << 16) | (0x7L << 12) | clock.counter;
+        long leastSignificantBits = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+
+    /**
+     * Get the Unix epoch milliseconds of a version 7 UUID
+     *
+     * @param uuid version 7 UUID
+     * @return epoch milliseconds
+     */
+    public static long timestamp(UUID uuid) {
+        return uuid.getMostSignificantBits() >>> 16;
+    }
+
+    /**
+     * Compare two UUIDs by their BINARY(16) byte order, unlike {@link UUID#compareTo(UUID)} which uses signed longs
+     */
+    public static int compare(UUID first, UUID second) {
+        int result = Long.compareUnsigned(first.getMostSignificantBits(), second.getMostSignificantBits());
+        return result != 0 ? result :
+            Long.compareUnsigned(first.getLeastSignificantBits(), second.getLeastSignificantBits());
+    }
+
+    private static class Clock {
+
+        private long timestamp;
+
+        private int counter;
+
+        /**
+         * A new millisecond reseeds the counter in its lower half, leaving room for the following increments.
+         * If the counter overflows, or the system clock goes backwards, the timestamp is advanced by one
+         * millisecond, to keep the thread UUIDs increasing.
+         */
+        private void tick(long currentTimeMillis) {
+            if (currentTimeMillis > timestamp) {
+                timestamp = currentTimeMillis;
+                counter = ThreadLocalRandom.current().nextInt(MAX_COUNTER >> 1);
+            } else if (counter < MAX_COUNTER) {
+                counter++;
+            } else {
+                timestamp++;
+                counter = ThreadLocalRandom.current().nextInt(MAX_COUNTER >> 1);
+            }
+        }
+    }
+}
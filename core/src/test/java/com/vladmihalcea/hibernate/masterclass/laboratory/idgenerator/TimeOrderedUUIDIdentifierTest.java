@@ -0,0 +1,214 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.junit.Test;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * TimeOrderedUUIDIdentifierTest - Test to check the time-ordered UUID identifiers and to compare their bulk insert
+ * throughput and index locality with the random uuid2 and the sequence identifiers
+ *
+ * @author Vlad Mihalcea
+ */
+public class TimeOrderedUUIDIdentifierTest extends AbstractTest {
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            SequencePost.class,
+            UUID2Post.class,
+            TimeOrderedUUIDPost.class,
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.id.new_generator_mappings", "true");
+        properties.put("hibernate.jdbc.batch_size", "50");
+        return properties;
+    }
+
+    @Override
+    protected boolean proxyDataSource() {
+        return false;
+    }
+
+    @Test
+    public void testTimeOrderedLayout() {
+        long startMillis = System.currentTimeMillis();
+        UUID uuid = TimeOrderedUUIDGenerationStrategy.INSTANCE.generateUUID();
+        assertEquals(7, uuid.version());
+        assertEquals(2, uuid.variant());
+        long timestamp = TimeOrderedUUIDGenerationStrategy.timestamp(uuid);
+        assertTrue(timestamp >= startMillis && timestamp <= System.currentTimeMillis());
+    }
+
+    @Test
+    public void testConcurrentGenerationIsUniqueAndOrderedPerThread() throws Exception {
+        int threadCount = 8;
+        int uuidCount = 100_000;
+        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Future<List<UUID>>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executorService.submit(() -> {
+                    awaitOnLatch(startLatch);
+                    List<UUID> uuids = new ArrayList<>(uuidCount);
+                    for (int j = 0; j < uuidCount; j++) {
+                        uuids.add(TimeOrderedUUIDGenerationStrategy.INSTANCE.generateUUID());
+                    }
+                    return uuids;
+                }));
+            }
+            startLatch.countDown();
+            Set<UUID> allUuids = new HashSet<>();
+            for (Future<List<UUID>> future : futures) {
+                List<UUID> uuids = future.get();
+                for (int i = 1; i < uuids.size(); i++) {
+                    assertTrue(TimeOrderedUUIDGenerationStrategy.compare(uuids.get(i - 1), uuids.get(i)) < 0);
+                }
+                allUuids.addAll(uuids);
+            }
+            assertEquals(threadCount * uuidCount, allUuids.size());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBinaryOrderIsInsertionOrder() {
+        List<UUID> insertedUuids = new ArrayList<>();
+        doInTransaction(session -> {
+            for (int i = 0; i < 100; i++) {
+                TimeOrderedUUIDPost post = new TimeOrderedUUIDPost();
+                session.persist(post);
+                insertedUuids.add(post.id);
+            }
+        });
+        doInTransaction(session -> {
+            List<UUID> sortedUuids = session.createQuery(
+                "select p.id from TimeOrderedUUIDPost p order by p.id").list();
+            assertEquals(insertedUuids, sortedUuids);
+        });
+    }
+
+    @Test
+    public void testBulkInsert() {
+        for (int i = 0; i < 2; i++) {
+            boolean warmUp = i == 0;
+            assertEquals(100, bulkInsert(SequencePost.class, SequencePost::new, post -> post.id,
+                Long::compare, warmUp));
+            assertTrue(bulkInsert(UUID2Post.class, UUID2Post::new, post -> post.id,
+                TimeOrderedUUIDGenerationStrategy::compare, warmUp) < 50);
+            assertEquals(100, bulkInsert(TimeOrderedUUIDPost.class, TimeOrderedUUIDPost::new, post -> post.id,
+                TimeOrderedUUIDGenerationStrategy::compare, warmUp));
+        }
+    }
+
+    protected int rowCount() {
+        return 20_000;
+    }
+
+    protected int transactionSize() {
+        return 1000;
+    }
+
+    /**
+     * The append ratio is the percentage of keys greater than all the previously inserted ones, which go to
+     * the right-most index page, the others causing random page accesses and splits.
+     */
+    private <T, K> int bulkInsert(Class<T> entityClass, Supplier<T> entitySupplier, Function<T, K> idFunction,
+                                  Comparator<K> keyOrder, boolean warmUp) {
+        List<K> ids = new ArrayList<>(rowCount());
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < rowCount(); i += transactionSize()) {
+            doInTransaction(session -> {
+                for (int j = 0; j < transactionSize(); j++) {
+                    T post = entitySupplier.get();
+                    session.persist(post);
+                    ids.add(idFunction.apply(post));
+                }
+            });
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        K maxId = null;
+        int appendCount = 0;
+        for (K id : ids) {
+            if (maxId == null || keyOrder.compare(id, maxId) > 0) {
+                maxId = id;
+                appendCount++;
+            }
+        }
+        int appendRatio = appendCount * 100 / rowCount();
+        if (!warmUp) {
+            LOGGER.info("{}: {} inserts/second, {}% of the keys appended to the right-most index page",
+                entityClass.getSimpleName(),
+                rowCount() * TimeUnit.SECONDS.toNanos(1) / elapsedNanos,
+                appendRatio);
+        }
+        return appendRatio;
+    }
+
+    @Entity(name = "SequencePost")
+    public static class SequencePost {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.SEQUENCE)
+        private Long id;
+
+        private String title = "High-Performance Java Persistence";
+    }
+
+    @Entity(name = "UUID2Post")
+    public static class UUID2Post {
+
+        @Id
+        @GeneratedValue(generator = "uuid2")
+        @GenericGenerator(name = "uuid2", strategy = "uuid2")
+        @Column(columnDefinition = "BINARY(16)")
+        private UUID id;
+
+        private String title = "High-Performance Java Persistence";
+    }
+
+    @Entity(name = "TimeOrderedUUIDPost")
+    public static class TimeOrderedUUIDPost {
+
+        @Id
+        @GeneratedValue(generator = "time_ordered_uuid")
+        @GenericGenerator(name = "time_ordered_uuid", strategy = "uuid2",
+            parameters = @Parameter(name = "uuid_gen_strategy_class",
+                value = "com.vladmihalcea.hibernate.masterclass.laboratory.idgenerator.TimeOrderedUUIDGenerationStrategy")
+        )
+        @Column(columnDefinition = "BINARY(16)")
+        private UUID id;
+
+        private String title = "High-Performance Java Persistence";
+    }
+}
@@ -0,0 +1,228 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.jpa;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.DtoGraphResultTransformer;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.providers.BlogEntityProvider;
+import org.hibernate.Session;
+import org.hibernate.type.LongType;
+import org.hibernate.type.StringType;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.vladmihalcea.hibernate.masterclass.laboratory.util.providers.BlogEntityProvider.Post;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * DtoProjectionTest - Test to check the mapping of HQL and native SQL projections into DTO graphs, and to compare
+ * the throughput and allocation rate with the entity queries
+ *
+ * @author Vlad Mihalcea
+ */
+public class DtoProjectionTest extends AbstractTest {
+
+    private BlogEntityProvider entityProvider = new BlogEntityProvider();
+
+    @Override
+    protected Class<?>[] entities() {
+        return entityProvider.entities();
+    }
+
+    @Override
+    protected boolean proxyDataSource() {
+        return false;
+    }
+
+    @Override
+    public void init() {
+        super.init();
+        doInJDBC(connection -> {
+            try (
+                PreparedStatement postStatement = connection.prepareStatement(EntityGraphMapperTest.INSERT_POST);
+                PreparedStatement postCommentStatement = connection.prepareStatement(EntityGraphMapperTest.INSERT_POST_COMMENT);
+            ) {
+                for (int i = 0; i < getPostCount(); i++) {
+                    postStatement.setString(1, String.format("Post no. %1$d", i));
+                    postStatement.setInt(2, 0);
+                    postStatement.setLong(3, i);
+                    postStatement.addBatch();
+                }
+                postStatement.executeBatch();
+                //the last post has no comments
+                for (int i = 0; i < getPostCount() - 1; i++) {
+                    for (int j = 0; j < getPostCommentCount(); j++) {
+                        postCommentStatement.setLong(1, i);
+                        postCommentStatement.setString(2, String.format("Post comment %1$d:%2$d", i, j));
+                        postCommentStatement.setInt(3, 0);
+                        postCommentStatement.setLong(4, (getPostCommentCount() * i) + j);
+                        postCommentStatement.addBatch();
+                    }
+                    postCommentStatement.executeBatch();
+                }
+            }
+        });
+    }
+
+    @Test
+    public void testHqlProjection() {
+        doInTransaction(session -> {
+            List<PostDto> posts = hqlPostDtos(session);
+            assertEquals(getPostCount() - 1, posts.size());
+            for (int i = 0; i < posts.size(); i++) {
+                PostDto post = posts.get(i);
+                assertEquals(Long.valueOf(i), post.getId());
+                assertEquals(String.format("Post no. %1$d", i), post.getTitle());
+                assertEquals(getPostCommentCount(), post.getComments().size());
+                assertEquals(String.format("Post comment %1$d:%2$d", i, 0), post.getComments().get(0).getReview());
+            }
+            assertEquals(0, session.getStatistics().getEntityCount());
+        });
+    }
+
+    @Test
+    public void testNativeProjection() {
+        doInTransaction(session -> {
+            List<PostDto> posts = nativePostDtos(session);
+            assertEquals(getPostCount(), posts.size());
+            assertEquals(getPostCommentCount(), posts.get(0).getComments().size());
+            assertTrue(posts.get(getPostCount() - 1).getComments().isEmpty());
+            assertEquals(0, session.getStatistics().getEntityCount());
+        });
+    }
+
+    @Test
+    public void testDtoVersusEntityQueries() {
+        for (int i = 0; i < 2; i++) {
+            boolean warmUp = i == 0;
+            long[] entity = measure(session -> new ArrayList<>(new LinkedHashSet<Post>(session.createQuery(
+                "select p " +
+                "from Post p " +
+                "join fetch p.comments " +
+                "order by p.id").list())));
+            long[] hql = measure(this::hqlPostDtos);
+            long[] nativeSql = measure(this::nativePostDtos);
+            if (!warmUp) {
+                LOGGER.info("Entity query: {} queries/s, {} KB allocated per query", entity[0], entity[1] / 1024);
+                LOGGER.info("HQL DTO projection: {} queries/s, {} KB allocated per query", hql[0], hql[1] / 1024);
+                LOGGER.info("Native DTO projection: {} queries/s, {} KB allocated per query", nativeSql[0], nativeSql[1] / 1024);
+            }
+        }
+    }
+
+    /**
+     * Run the query in a read-only transaction and return the throughput and the bytes allocated per query
+     */
+    private long[] measure(Function<Session, List<?>> query) {
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long startBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < getIterations(); i++) {
+            doInTransaction(session -> {
+                query.apply(session);
+            });
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - startBytes;
+        return new long[] {
+            getIterations() * TimeUnit.SECONDS.toNanos(1) / elapsedNanos,
+            allocatedBytes / getIterations()
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<PostDto> hqlPostDtos(Session session) {
+        return session.createQuery(
+            "select p.id, p.title, c.id, c.review " +
+            "from PostComment c " +
+            "join c.post p " +
+            "order by p.id, c.id")
+            .setResultTransformer(new DtoGraphResultTransformer<>(PostDto.class, 2, CommentDto.class, PostDto::addComment))
+            .list();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<PostDto> nativePostDtos(Session session) {
+        return session.createSQLQuery(
+            "SELECT p.id AS post_id, p.title AS post_title, pc.id AS comment_id, pc.review AS comment_review " +
+            "FROM post p " +
+            "LEFT JOIN post_comment pc ON p.id = pc.post_id " +
+            "ORDER BY p.id, pc.id")
+            .addScalar("post_id", LongType.INSTANCE)
+            .addScalar("post_title", StringType.INSTANCE)
+            .addScalar("comment_id", LongType.INSTANCE)
+            .addScalar("comment_review", StringType.INSTANCE)
+            .setResultTransformer(new DtoGraphResultTransformer<>(PostDto.class, 2, CommentDto.class, PostDto::addComment))
+            .list();
+    }
+
+    protected int getPostCount() {
+        return 100;
+    }
+
+    protected int getPostCommentCount() {
+        return 10;
+    }
+
+    protected int getIterations() {
+        return 100;
+    }
+
+    public static class PostDto {
+
+        private final Long id;
+
+        private final String title;
+
+        private final List<CommentDto> comments = new ArrayList<>();
+
+        public PostDto(Long id, String title) {
+            this.id = id;
+            this.title = title;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public List<CommentDto> getComments() {
+            return comments;
+        }
+
+        public void addComment(CommentDto comment) {
+            comments.add(comment);
+        }
+    }
+
+    public static class CommentDto {
+
+        private final Long id;
+
+        private final String review;
+
+        public CommentDto(Long id, String review) {
+            this.id = id;
+            this.review = review;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getReview() {
+            return review;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.mapping;
+
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.AbstractTest;
+import com.vladmihalcea.hibernate.masterclass.laboratory.util.MinimalDiffListPersister;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.hibernate.Hibernate;
+import org.hibernate.annotations.Persister;
+import org.junit.Test;
+
+import javax.persistence.*;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ElementCollectionMinimalDiffTest - Test to check the minimal difference written by the MinimalDiffListPersister
+ * for an ordered element collection, and to compare the statements issued with the default persister for edits
+ * at the head, in the middle and at the tail of the list
+ *
+ * @author Vlad Mihalcea
+ */
+public class ElementCollectionMinimalDiffTest extends AbstractTest {
+
+    private final AtomicLong statementCount = new AtomicLong();
+
+    private final AtomicLong executionCount = new AtomicLong();
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Patch.class,
+            MinimalDiffPatch.class
+        };
+    }
+
+    @Override
+    protected Properties getProperties() {
+        Properties properties = super.getProperties();
+        properties.put("hibernate.jdbc.batch_size", "50");
+        return properties;
+    }
+
+    /**
+     * Count the statements, each batched statement included, and the JDBC executions, each batch counting once
+     */
+    @Override
+    protected DataSource newDataSource() {
+        return ProxyDataSourceBuilder
+            .create(getDataSourceProvider().dataSource())
+            .name(getClass().getName())
+            .listener(new QueryExecutionListener() {
+                @Override
+                public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                }
+
+                @Override
+                public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+                    statementCount.addAndGet(execInfo.isBatch() ? execInfo.getBatchSize() : 1);
+                    executionCount.incrementAndGet();
+                }
+            })
+            .build();
+    }
+
+    @Test
+    public void testEdits() {
+        List<Consumer<List<Change>>> edits = new ArrayList<>();
+        edits.add(changes -> changes.add(0, new Change("head.txt", "0a1")));
+        edits.add(changes -> changes.add(changes.size() / 2, new Change("middle.txt", "5a6")));
+        edits.add(changes -> changes.add(new Change("tail.txt", "9a10")));
+        edits.add(changes -> changes.remove(0));
+        edits.add(changes -> changes.remove(changes.size() / 2));
+        edits.add(changes -> changes.remove(changes.size() - 1));
+        edits.add(changes -> changes.set(3, new Change("web.xml", "17c17")));
+        edits.add(changes -> {
+            changes.remove(2);
+            changes.remove(2);
+            changes.add(5, new Change("pom.xml", "3d2"));
+        });
+        edits.add(changes -> {
+            changes.add(1, new Change("a.txt", "1a2"));
+            changes.add(1, new Change("b.txt", "1a2"));
+            changes.remove(changes.size() - 3);
+        });
+        edits.add(List::clear);
+        for (Consumer<List<Change>> edit : edits) {
+            Long patchId = insertPatch(new MinimalDiffPatch(), 10);
+            List<Change> expected = edit(MinimalDiffPatch.class, patchId, edit);
+            doInTransaction(session -> {
+                MinimalDiffPatch patch = (MinimalDiffPatch) session.get(MinimalDiffPatch.class, patchId);
+                assertEquals(expected.size(), patch.getChanges().size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i).getPath(), patch.getChanges().get(i).getPath());
+                    assertEquals(expected.get(i).getDiff(), patch.getChanges().get(i).getDiff());
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testMinimalDiffVersusDefaultPersister() {
+        int size = listSize();
+        String[] names = {"head", "middle", "tail"};
+        for (int position = 0; position < names.length; position++) {
+            int index = position == 0 ? 0 : position == 1 ? size / 2 : size;
+            Consumer<List<Change>> add = changes -> changes.add(index, new Change("added.txt", "1a2"));
+            Consumer<List<Change>> remove = changes -> changes.remove(Math.min(index, changes.size() - 1));
+
+            long[] defaultAdd = measure(Patch.class, insertPatch(new Patch(), size), add);
+            long[] minimalDiffAdd = measure(MinimalDiffPatch.class, insertPatch(new MinimalDiffPatch(), size), add);
+            long[] defaultRemove = measure(Patch.class, insertPatch(new Patch(), size), remove);
+            long[] minimalDiffRemove = measure(MinimalDiffPatch.class, insertPatch(new MinimalDiffPatch(), size), remove);
+
+            LOGGER.info("Add at {} of {} elements: default persister {} statements in {} executions and {} ms, " +
+                "minimal diff persister {} statements in {} executions and {} ms",
+                names[position], size, defaultAdd[0], defaultAdd[1], defaultAdd[2],
+                minimalDiffAdd[0], minimalDiffAdd[1], minimalDiffAdd[2]);
+            LOGGER.info("Remove at {} of {} elements: default persister {} statements in {} executions and {} ms, " +
+                "minimal diff persister {} statements in {} executions and {} ms",
+                names[position], size, defaultRemove[0], defaultRemove[1], defaultRemove[2],
+                minimalDiffRemove[0], minimalDiffRemove[1], minimalDiffRemove[2]);
+            assertTrue(minimalDiffAdd[0] <= 3);
+            assertTrue(minimalDiffRemove[0] <= 3);
+        }
+    }
+
+    protected int listSize() {
+        return 10 * 1000;
+    }
+
+    /**
+     * Edit the changes and return the number of statements, the JDBC executions and the millis taken by the flush
+     */
+    private long[] measure(Class<? extends AbstractPatch> patchClass, Long patchId, Consumer<List<Change>> edit) {
+        long[] startNanos = new long[1];
+        edit(patchClass, patchId, changes -> {
+            edit.accept(changes);
+            statementCount.set(0);
+            executionCount.set(0);
+            startNanos[0] = System.nanoTime();
+        });
+        return new long[] {
+            statementCount.get(),
+            executionCount.get(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos[0])
+        };
+    }
+
+    private List<Change> edit(Class<? extends AbstractPatch> patchClass, Long patchId, Consumer<List<Change>> edit) {
+        return doInTransaction(session -> {
+            AbstractPatch patch = (AbstractPatch) session.get(patchClass, patchId);
+            Hibernate.initialize(patch.getChanges());
+            edit.accept(patch.getChanges());
+            return new ArrayList<>(patch.getChanges());
+        });
+    }
+
+    private Long insertPatch(AbstractPatch patch, int size) {
+        return doInTransaction(session -> {
+            for (int i = 0; i < size; i++) {
+                patch.getChanges().add(new Change(String.format("file_%d.txt", i), String.format("%da%d", i, i + 1)));
+            }
+            session.persist(patch);
+            return patch.getId();
+        });
+    }
+
+    @MappedSuperclass
+    public static abstract class AbstractPatch {
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.AUTO)
+        private Long id;
+
+        public Long getId() {
+            return id;
+        }
+
+        public abstract List<Change> getChanges();
+    }
+
+    @Entity(name = "Patch")
+    public static class Patch extends AbstractPatch {
+
+        @ElementCollection
+        @CollectionTable(
+                name="patch_change",
+                joinColumns=@JoinColumn(name="patch_id")
+        )
+        @OrderColumn(name = "index_id")
+        private List<Change> changes = new ArrayList<>();
+
+        public List<Change> getChanges() {
+            return changes;
+        }
+    }
+
+    @Entity(name = "MinimalDiffPatch")
+    public static class MinimalDiffPatch extends AbstractPatch {
+
+        @ElementCollection
+        @CollectionTable(
+                name="minimal_diff_patch_change",
+                joinColumns=@JoinColumn(name="patch_id")
+        )
+        @OrderColumn(name = "index_id")
+        @Persister(impl = MinimalDiffListPersister.class)
+        private List<Change> changes = new ArrayList<>();
+
+        public List<Change> getChanges() {
+            return changes;
+        }
+    }
+
+    @Embeddable
+    public static class Change {
+
+        @Column(name = "path", nullable = false)
+        private String path;
+
+        @Column(name = "diff", nullable = false)
+        private String diff;
+
+        public Change() {
+        }
+
+        public Change(String path, String diff) {
+            this.path = path;
+            this.diff = diff;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getDiff() {
+            return diff;
+        }
+    }
+}
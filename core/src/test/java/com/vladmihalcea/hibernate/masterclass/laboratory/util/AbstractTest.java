@@ -5,6 +5,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -23,6 +24,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
@@ -33,6 +35,7 @@ import javax.sql.DataSource;
 import org.hibernate.Interceptor;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
 import org.hibernate.Transaction;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
 import org.hibernate.cfg.Configuration;
@@ -528,8 +531,18 @@ public abstract class AbstractTest {
         return null;
     }
 
+    protected SessionFactoryObserver sessionFactoryObserver() {
+        return null;
+    }
+
+    protected void configure(Configuration configuration) {
+    }
+
     private SessionFactory newSessionFactory() {
-        Properties properties = getProperties();
+        return newSessionFactory(getProperties());
+    }
+
+    protected SessionFactory newSessionFactory(Properties properties) {
         Configuration configuration = new Configuration().addProperties(properties);
         for(Class<?> entityClass : entities()) {
             configuration.addAnnotatedClass(entityClass);
@@ -544,6 +557,11 @@ public abstract class AbstractTest {
         if(interceptor != null) {
             configuration.setInterceptor(interceptor);
         }
+        SessionFactoryObserver sessionFactoryObserver = sessionFactoryObserver();
+        if(sessionFactoryObserver != null) {
+            configuration.setSessionFactoryObserver(sessionFactoryObserver);
+        }
+        configure(configuration);
         return configuration.buildSessionFactory(
                 new StandardServiceRegistryBuilder()
                         .applySettings(properties)
@@ -604,11 +622,19 @@ public abstract class AbstractTest {
     }
 
     protected <T> T doInTransaction(HibernateTransactionFunction<T> callable) {
+        return doInTransaction(getSessionFactory(), callable);
+    }
+
+    protected void doInTransaction(HibernateTransactionConsumer callable) {
+        doInTransaction(getSessionFactory(), callable);
+    }
+
+    protected <T> T doInTransaction(SessionFactory sessionFactory, HibernateTransactionFunction<T> callable) {
         T result = null;
         Session session = null;
         Transaction txn = null;
         try {
-            session = getSessionFactory().openSession();
+            session = sessionFactory.openSession();
             callable.beforeTransactionCompletion();
             txn = session.beginTransaction();
 
@@ -626,11 +652,11 @@ public abstract class AbstractTest {
         return result;
     }
 
-    protected void doInTransaction(HibernateTransactionConsumer callable) {
+    protected void doInTransaction(SessionFactory sessionFactory, HibernateTransactionConsumer callable) {
         Session session = null;
         Transaction txn = null;
         try {
-            session = getSessionFactory().openSession();
+            session = sessionFactory.openSession();
             callable.beforeTransactionCompletion();
             txn = session.beginTransaction();
 
@@ -746,6 +772,42 @@ public abstract class AbstractTest {
         }
     }
 
+    /**
+     * Start the given number of threads at once, each one persisting the entities created by the given supplier
+     * in several transactions, and wait for all of them to complete
+     *
+     * @return number of entities persisted
+     */
+    protected int executeConcurrentInserts(SessionFactory sessionFactory, Supplier<?> entitySupplier, int threadCount,
+                                           int transactionCount, int insertsPerTransaction) {
+        ExecutorService insertExecutorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            CountDownLatch startLatch = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(insertExecutorService.submit(() -> {
+                    awaitOnLatch(startLatch);
+                    for (int j = 0; j < transactionCount; j++) {
+                        doInTransaction(sessionFactory, session -> {
+                            for (int k = 0; k < insertsPerTransaction; k++) {
+                                session.persist(entitySupplier.get());
+                            }
+                        });
+                    }
+                }));
+            }
+            startLatch.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            insertExecutorService.shutdownNow();
+        }
+        return threadCount * transactionCount * insertsPerTransaction;
+    }
+
     protected <T> void executeAsync(Runnable callable, final Runnable completionCallback) {
         final Future future = executorService.submit(callable);
         new Thread(() -> {
@@ -0,0 +1,236 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util;
+
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.FlushMode;
+import org.hibernate.LockMode;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.internal.DefaultLoadEventListener;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.LoadEvent;
+import org.hibernate.event.spi.LoadEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <code>AdaptiveBatchFetchLoadEventListener</code> - Load event listener batch fetching the uninitialized proxies
+ * with a batch size adjusted at runtime, according to how many proxies of each entity the previous Sessions
+ * initialized.
+ *
+ * When a proxy initialization has to hit the database, the other pending proxies of the same entity are loaded
+ * along with it, with one query, taking at most the current batch size identifiers from the Session
+ * <code>BatchFetchQueue</code>. Every Session counts the proxies it initializes, and, once closed, the batch size
+ * of each entity moves halfway towards that count, within the <code>[minBatchSize, maxBatchSize]</code> bounds.
+ * The batch loaded proxies count as initialized even if the application never accesses them, so the batch size
+ * only shrinks when fewer proxies are pending.
+ *
+ * Hibernate only queues the proxies of batch loadable entities, so the entities must have a
+ * <code>@BatchSize</code>, or <code>hibernate.default_batch_fetch_size</code> must be greater than 1.
+ *
+ * @author Vlad Mihalcea
+ */
+public class AdaptiveBatchFetchLoadEventListener extends DefaultLoadEventListener implements SessionFactoryObserver {
+
+    private final int minBatchSize;
+
+    private final int maxBatchSize;
+
+    private final ConcurrentMap<String, EntityBatchFetchStatistics> entityStatistics = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<SessionImplementor, Map<String, AtomicInteger>> sessionInitializations =
+        new ConcurrentHashMap<>();
+
+    public AdaptiveBatchFetchLoadEventListener(int minBatchSize, int maxBatchSize) {
+        if (minBatchSize < 1 || maxBatchSize < minBatchSize) {
+            throw new IllegalArgumentException(
+                "Invalid batch size bounds [" + minBatchSize + ", " + maxBatchSize + "]"
+            );
+        }
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public AdaptiveBatchFetchLoadEventListener integrate(SessionFactory sessionFactory) {
+        EventListenerRegistry eventListenerRegistry = ((SessionFactoryImplementor) sessionFactory).getServiceRegistry()
+            .getService(EventListenerRegistry.class);
+        eventListenerRegistry.setListeners(EventType.LOAD, this);
+        return this;
+    }
+
+    @Override
+    public void sessionFactoryCreated(SessionFactory factory) {
+        integrate(factory);
+    }
+
+    @Override
+    public void sessionFactoryClosed(SessionFactory factory) {
+    }
+
+    @Override
+    protected Object loadFromDatasource(LoadEvent event, EntityPersister persister, EntityKey keyToLoad,
+            LoadEventListener.LoadType options) {
+        if (options != LoadEventListener.IMMEDIATE_LOAD || !persister.isBatchLoadable() ||
+            event.getInstanceToLoad() != null || event.getLockMode() != LockMode.NONE) {
+            return super.loadFromDatasource(event, persister, keyToLoad, options);
+        }
+        EntityBatchFetchStatistics statistics = statistics(persister.getEntityName());
+        EventSource session = event.getSession();
+        Serializable[] batch = session.getPersistenceContext().getBatchFetchQueue().getEntityBatch(
+            persister, event.getEntityId(), statistics.batchSize.get(), persister.getEntityMode()
+        );
+        List<Serializable> ids = new ArrayList<>(batch.length);
+        for (Serializable id : batch) {
+            if (id != null) {
+                ids.add(id);
+            }
+        }
+        session.createQuery(
+            "select e from " + persister.getEntityName() + " e " +
+            "where e." + persister.getIdentifierPropertyName() + " in (:ids)")
+            .setParameterList("ids", ids)
+            .setFlushMode(FlushMode.MANUAL)
+            .list();
+        statistics.queryCount.incrementAndGet();
+        statistics.initializedProxyCount.addAndGet(ids.size());
+        initializations(session).computeIfAbsent(
+            persister.getEntityName(), entityName -> new AtomicInteger()
+        ).addAndGet(ids.size());
+        Object entity = session.getPersistenceContext().getEntity(keyToLoad);
+        if (entity == null) {
+            return super.loadFromDatasource(event, persister, keyToLoad, options);
+        }
+        return entity;
+    }
+
+    private Map<String, AtomicInteger> initializations(EventSource session) {
+        Map<String, AtomicInteger> initializations = sessionInitializations.get(session);
+        if (initializations == null) {
+            initializations = new ConcurrentHashMap<>();
+            sessionInitializations.put(session, initializations);
+            session.addEventListeners(new BaseSessionEventListener() {
+                @Override
+                public void end() {
+                    adjustBatchSizes(sessionInitializations.remove(session));
+                }
+            });
+        }
+        return initializations;
+    }
+
+    private void adjustBatchSizes(Map<String, AtomicInteger> initializations) {
+        if (initializations == null) {
+            return;
+        }
+        for (Map.Entry<String, AtomicInteger> initialization : initializations.entrySet()) {
+            int proxyCount = initialization.getValue().get();
+            statistics(initialization.getKey()).batchSize.updateAndGet(batchSize -> Math.max(
+                minBatchSize, Math.min(maxBatchSize, (batchSize + proxyCount + 1) / 2)
+            ));
+        }
+    }
+
+    private EntityBatchFetchStatistics statistics(String entityName) {
+        return entityStatistics.computeIfAbsent(entityName, name -> new EntityBatchFetchStatistics(minBatchSize));
+    }
+
+    /**
+     * Get the batch fetch statistics of the given entity
+     *
+     * @param entityName entity name
+     * @return batch fetch statistics
+     */
+    public EntityBatchFetchStatistics getStatistics(String entityName) {
+        return statistics(entityName);
+    }
+
+    /**
+     * Get the batch fetch statistics of all the entities whose proxies were initialized
+     *
+     * @return batch fetch statistics by entity name
+     */
+    public Map<String, EntityBatchFetchStatistics> getStatistics() {
+        return Collections.unmodifiableMap(new TreeMap<>(entityStatistics));
+    }
+
+    public void clearStatistics() {
+        for (EntityBatchFetchStatistics statistics : entityStatistics.values()) {
+            statistics.initializedProxyCount.set(0);
+            statistics.queryCount.set(0);
+        }
+    }
+
+    /**
+     * Report the N+1 queries avoided by batch fetching, for every entity
+     *
+     * @return report lines
+     */
+    public List<String> report() {
+        List<String> report = new ArrayList<>();
+        for (Map.Entry<String, EntityBatchFetchStatistics> entry : getStatistics().entrySet()) {
+            EntityBatchFetchStatistics statistics = entry.getValue();
+            report.add(String.format(
+                "%s: %d proxies initialized with %d queries, %d N+1 queries avoided, batch size %d",
+                entry.getKey(),
+                statistics.getInitializedProxyCount(),
+                statistics.getQueryCount(),
+                statistics.getAvoidedQueryCount(),
+                statistics.getBatchSize()
+            ));
+        }
+        return report;
+    }
+
+    public static class EntityBatchFetchStatistics {
+
+        private final AtomicInteger batchSize;
+
+        private final AtomicLong initializedProxyCount = new AtomicLong();
+
+        private final AtomicLong queryCount = new AtomicLong();
+
+        private EntityBatchFetchStatistics(int batchSize) {
+            this.batchSize = new AtomicInteger(batchSize);
+        }
+
+        /**
+         * Current batch size, used by the next proxy initialization hitting the database
+         */
+        public int getBatchSize() {
+            return batchSize.get();
+        }
+
+        /**
+         * Number of proxies initialized by the batch fetching queries, each one requiring a query without
+         * batch fetching
+         */
+        public long getInitializedProxyCount() {
+            return initializedProxyCount.get();
+        }
+
+        /**
+         * Number of batch fetching queries
+         */
+        public long getQueryCount() {
+            return queryCount.get();
+        }
+
+        public long getAvoidedQueryCount() {
+            return initializedProxyCount.get() - queryCount.get();
+        }
+    }
+}
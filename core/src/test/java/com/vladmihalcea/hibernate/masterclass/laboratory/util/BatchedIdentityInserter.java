@@ -0,0 +1,218 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util;
+
+import org.hibernate.HibernateException;
+import org.hibernate.LockOptions;
+import org.hibernate.Session;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+import org.hibernate.engine.internal.Versioning;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.id.IdentityGenerator;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.SingleTableEntityPersister;
+import org.hibernate.stat.spi.StatisticsImplementor;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <code>BatchedIdentityInserter</code> - Opt-in bulk persist of IDENTITY entities, which Hibernate otherwise inserts
+ * one by one, right when they are persisted, to learn their identifiers.
+ *
+ * The entities are inserted with JDBC batching, their identifiers are read from the batched statement generated keys,
+ * and then they are associated with the Session, so they are managed as if they were persisted. The entity query
+ * spaces are invalidated in the query cache, both right away and after the transaction completes, and the
+ * inserts are recorded in the Statistics, as for regular inserts.
+ *
+ * Many drivers support batching and generated keys, but return only the last generated key of a batch, so the
+ * batched path is only taken for the drivers known to return the keys of every batched statement, which can be
+ * changed by overriding {@link #supportsBatchedGeneratedKeys(Connection)}. Otherwise, or if JDBC batching is
+ * disabled, the entities are simply persisted.
+ *
+ * Only the basic and the to-one properties of single-table, non-polymorphic entities are inserted, so the entities
+ * mapping a collection are rejected: an owned collection, like an element collection, is stored outside the entity
+ * table and would be lost, while an inverse one could not be wrapped when the entity is associated with the Session.
+ * Unlike {@link Session#persist(Object)}, there is no cascading and no interceptor or entity listener invocation.
+ * The inserted entities are not put in the second-level cache either, so they are cached when first loaded.
+ *
+ * @author Vlad Mihalcea
+ */
+public class BatchedIdentityInserter<T> {
+
+    /**
+     * Name prefixes of the drivers returning the generated keys of every batched statement
+     */
+    private static final List<String> BATCHED_GENERATED_KEYS_DRIVERS = Arrays.asList(
+        "HSQL Database Engine",
+        "MySQL Connector",
+        "PostgreSQL"
+    );
+
+    private final Class<T> entityClass;
+
+    public BatchedIdentityInserter(Class<T> entityClass) {
+        this.entityClass = entityClass;
+    }
+
+    /**
+     * Insert all entities and make them managed by the given Session
+     *
+     * @param session current Session
+     * @param entities transient entities
+     * @return true if the entities were inserted in batches, false if they were persisted one by one
+     */
+    public boolean persistAll(Session session, Collection<T> entities) {
+        SessionImplementor sessionImplementor = (SessionImplementor) session;
+        SingleTableEntityPersister persister = persister(sessionImplementor);
+        int batchSize = sessionImplementor.getFactory().getSettings().getJdbcBatchSize();
+        if (batchSize < 2 || !session.doReturningWork(this::supportsBatchedGeneratedKeys)) {
+            for (T entity : entities) {
+                session.persist(entity);
+            }
+            return false;
+        }
+        session.flush();
+        List<T> batch = new ArrayList<>(batchSize);
+        for (T entity : entities) {
+            batch.add(entity);
+            if (batch.size() == batchSize) {
+                insert(sessionImplementor, persister, batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            insert(sessionImplementor, persister, batch);
+        }
+        for (T entity : entities) {
+            session.buildLockRequest(LockOptions.NONE).lock(entity);
+        }
+        invalidateQuerySpaces(sessionImplementor, persister);
+        StatisticsImplementor statistics = sessionImplementor.getFactory().getStatisticsImplementor();
+        if (sessionImplementor.getFactory().getStatistics().isStatisticsEnabled()) {
+            for (int i = 0; i < entities.size(); i++) {
+                statistics.insertEntity(persister.getEntityName());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if the driver returns the generated keys of every batched statement
+     *
+     * @param connection JDBC connection
+     * @return true if the entities can be inserted in batches
+     */
+    protected boolean supportsBatchedGeneratedKeys(Connection connection) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        if (!metaData.supportsBatchUpdates() || !metaData.supportsGetGeneratedKeys()) {
+            return false;
+        }
+        String driverName = metaData.getDriverName();
+        for (String driver : BATCHED_GENERATED_KEYS_DRIVERS) {
+            if (driverName != null && driverName.startsWith(driver)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void invalidateQuerySpaces(SessionImplementor session, EntityPersister persister) {
+        if (!session.getFactory().getSettings().isQueryCacheEnabled()) {
+            return;
+        }
+        Serializable[] querySpaces = persister.getQuerySpaces();
+        UpdateTimestampsCache updateTimestampsCache = session.getFactory().getUpdateTimestampsCache();
+        updateTimestampsCache.preInvalidate(querySpaces, session);
+        ((EventSource) session).getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, sessionImplementor) ->
+            updateTimestampsCache.invalidate(querySpaces, sessionImplementor)
+        );
+    }
+
+    private SingleTableEntityPersister persister(SessionImplementor session) {
+        if (session.getFactory().getClassMetadata(entityClass) == null) {
+            throw new IllegalArgumentException(entityClass + " is not an entity");
+        }
+        Object persister = session.getFactory().getEntityPersister(entityClass.getName());
+        if (!(persister instanceof SingleTableEntityPersister) ||
+            ((SingleTableEntityPersister) persister).getTableSpan() != 1 ||
+            ((SingleTableEntityPersister) persister).getEntityMetamodel().isPolymorphic()) {
+            throw new IllegalArgumentException(entityClass + " is not a single-table, non-polymorphic entity");
+        }
+        if (!(session.getFactory().getIdentifierGenerator(entityClass.getName()) instanceof IdentityGenerator)) {
+            throw new IllegalArgumentException(entityClass + " does not use an IDENTITY identifier");
+        }
+        EntityPersister entityPersister = (EntityPersister) persister;
+        Type[] propertyTypes = entityPersister.getPropertyTypes();
+        for (int i = 0; i < propertyTypes.length; i++) {
+            if (propertyTypes[i].isCollectionType()) {
+                throw new IllegalArgumentException(
+                    entityClass + " maps the " + entityPersister.getPropertyNames()[i] + " collection"
+                );
+            }
+        }
+        return (SingleTableEntityPersister) persister;
+    }
+
+    private void insert(SessionImplementor session, SingleTableEntityPersister persister, List<T> batch) {
+        boolean[] insertability = persister.getPropertyInsertability();
+        Type[] propertyTypes = persister.getPropertyTypes();
+        List<String> columns = new ArrayList<>();
+        for (int i = 0; i < propertyTypes.length; i++) {
+            if (insertability[i]) {
+                Collections.addAll(columns, persister.getPropertyColumnNames(i));
+            }
+        }
+        String sql = "insert into " + persister.getTableName() + " (" + String.join(", ", columns) + ") " +
+            "values (" + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+        String identifierColumn = persister.getIdentifierColumnNames()[0];
+        ((Session) session).doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                for (T entity : batch) {
+                    Object[] state = persister.getPropertyValuesToInsert(entity, null, session);
+                    if (persister.isVersioned() && Versioning.seedVersion(
+                            state, persister.getVersionProperty(), persister.getVersionType(), session)) {
+                        persister.setPropertyValues(entity, state);
+                    }
+                    int index = 1;
+                    for (int i = 0; i < propertyTypes.length; i++) {
+                        if (insertability[i]) {
+                            boolean[] settable = new boolean[propertyTypes[i].getColumnSpan(session.getFactory())];
+                            Arrays.fill(settable, true);
+                            propertyTypes[i].nullSafeSet(statement, state[i], index, settable, session);
+                            index += settable.length;
+                        }
+                    }
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                int keyCount = 0;
+                try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                    while (generatedKeys.next() && keyCount < batch.size()) {
+                        Serializable id = IdentifierGeneratorHelper.get(
+                            generatedKeys, identifierColumn, persister.getIdentifierType()
+                        );
+                        persister.setIdentifier(batch.get(keyCount++), id, session);
+                    }
+                }
+                if (keyCount != batch.size()) {
+                    throw new HibernateException(
+                        "The driver returned " + keyCount + " generated keys for " + batch.size() + " batched inserts"
+                    );
+                }
+            }
+        });
+    }
+}
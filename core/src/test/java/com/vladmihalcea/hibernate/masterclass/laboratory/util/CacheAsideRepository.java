@@ -0,0 +1,171 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.hibernate.LockMode;
+import org.hibernate.Session;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.cache.spi.entry.StandardCacheEntryImpl;
+import org.hibernate.engine.internal.TwoPhaseLoad;
+import org.hibernate.engine.internal.Versioning;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.Status;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.type.TypeHelper;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <code>CacheAsideRepository</code> - Cache-aside repository which resolves a batch of identifiers
+ * with one cache multi-get and loads all the cache misses with a single IN query.
+ *
+ * The cache holds the disassembled loaded state of the entities, as Hibernate's second-level cache does, so the
+ * cache entries are immutable and never shared with a Session. A cache hit is assembled into a new entity instance
+ * managed by the current Session, its associations and collections being resolved in that Session, unless the
+ * Session already manages the entity, in which case that instance is returned. The cache misses are put in the
+ * cache only after the current transaction commits, so a rolled back transaction leaves the cache untouched.
+ *
+ * @author Vlad Mihalcea
+ */
+public class CacheAsideRepository<T, ID extends Serializable> {
+
+    private final Class<T> entityClass;
+
+    private final Ehcache cache;
+
+    public CacheAsideRepository(Class<T> entityClass, Ehcache cache) {
+        this.entityClass = entityClass;
+        this.cache = cache;
+    }
+
+    public T get(Session session, ID id) {
+        return getAll(session, Collections.singleton(id)).get(id);
+    }
+
+    /**
+     * Get all entities matching the given identifiers, in the identifier iteration order.
+     * Missing identifiers are not part of the result.
+     *
+     * @param session current Session
+     * @param ids entity identifiers
+     * @return entities mapped by identifier
+     */
+    @SuppressWarnings("unchecked")
+    public Map<ID, T> getAll(Session session, Collection<ID> ids) {
+        Set<ID> keys = new LinkedHashSet<>(ids);
+        Map<ID, T> entities = new LinkedHashMap<>();
+        if (keys.isEmpty()) {
+            return entities;
+        }
+        EventSource eventSource = (EventSource) session;
+        EntityPersister persister = getPersister(eventSource);
+        Map<Object, Element> hits = cache.getAll(keys);
+        List<ID> misses = new ArrayList<>();
+        for (ID id : keys) {
+            Element element = hits.get(id);
+            if (element != null) {
+                entities.put(id, (T) assemble(eventSource, persister, id, (StandardCacheEntryImpl) element.getObjectValue()));
+            } else {
+                entities.put(id, null);
+                misses.add(id);
+            }
+        }
+        if (!misses.isEmpty()) {
+            List<Element> elements = new ArrayList<>(misses.size());
+            PersistenceContext persistenceContext = eventSource.getPersistenceContext();
+            for (T entity : load(session, misses)) {
+                //a proxy already associated with the Session is returned in place of the loaded entity
+                Object implementation = entity instanceof HibernateProxy ?
+                    ((HibernateProxy) entity).getHibernateLazyInitializer().getImplementation() :
+                    entity;
+                EntityEntry entry = persistenceContext.getEntry(implementation);
+                ID id = (ID) entry.getId();
+                entities.put(id, entity);
+                elements.add(new Element(id, new StandardCacheEntryImpl(
+                    entry.getLoadedState(), persister, false, entry.getVersion(), eventSource, implementation
+                )));
+            }
+            eventSource.getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, s) -> {
+                if (success) {
+                    cache.putAll(elements);
+                }
+            });
+        }
+        entities.values().removeIf(entity -> entity == null);
+        return entities;
+    }
+
+    public void evict(ID id) {
+        cache.remove(id);
+    }
+
+    public void evictAll(Collection<ID> ids) {
+        cache.removeAll(ids);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected List<T> load(Session session, List<ID> ids) {
+        EntityPersister persister = getPersister((EventSource) session);
+        return (List<T>) session.createQuery(
+            "select e " +
+            "from " + persister.getEntityName() + " e " +
+            "where e." + persister.getIdentifierPropertyName() + " in (:ids)")
+        .setParameterList("ids", ids)
+        .list();
+    }
+
+    /**
+     * Turn the cache entry into an entity managed by the given Session, the way Hibernate does for
+     * second-level cache hits
+     */
+    private Object assemble(EventSource session, EntityPersister persister, ID id, StandardCacheEntryImpl cacheEntry) {
+        PersistenceContext persistenceContext = session.getPersistenceContext();
+        EntityKey entityKey = session.generateEntityKey(id, persister);
+        Object entity = persistenceContext.getEntity(entityKey);
+        if (entity != null) {
+            return entity;
+        }
+        entity = session.instantiate(persister, id);
+        TwoPhaseLoad.addUninitializedCachedEntity(
+            entityKey, entity, persister, LockMode.NONE, false, cacheEntry.getVersion(), session
+        );
+        Object[] values = cacheEntry.assemble(entity, id, persister, session.getInterceptor(), session);
+        if (cacheEntry.isDeepCopyNeeded()) {
+            TypeHelper.deepCopy(values, persister.getPropertyTypes(), persister.getPropertyUpdateability(), values, session);
+        }
+        persistenceContext.addEntry(
+            entity,
+            session.isDefaultReadOnly() ? Status.READ_ONLY : Status.MANAGED,
+            values,
+            null,
+            id,
+            Versioning.getVersion(values, persister),
+            LockMode.NONE,
+            true,
+            persister,
+            false,
+            false
+        );
+        persister.afterInitialize(entity, false, session);
+        persistenceContext.initializeNonLazyCollections();
+        return entity;
+    }
+
+    private EntityPersister getPersister(EventSource session) {
+        return session.getFactory().getEntityPersister(
+            session.getFactory().getClassMetadata(entityClass).getEntityName()
+        );
+    }
+}
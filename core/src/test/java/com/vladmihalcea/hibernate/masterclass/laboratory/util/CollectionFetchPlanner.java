@@ -0,0 +1,288 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.type.AssociationType;
+import org.hibernate.type.BagType;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <code>CollectionFetchPlanner</code> - Fetches an entity graph without the Cartesian product of joining
+ * several collections in a single query.
+ *
+ * The graph is given as association property paths, like <code>images.versions</code>, relative to the root entity.
+ * The roots are loaded with one query, and then every association is initialized with one query per graph level,
+ * join fetching it for all its owners previously loaded, which are passed in IN clauses of at most
+ * <code>batchSize</code> identifiers. The graph is assembled by the Persistence Context, so the returned roots
+ * have all the associations along the given paths initialized.
+ *
+ * Each query transfers only the rows of a single collection, so the result set size grows with the sum,
+ * and not the product, of the collection sizes. The queries can be issued for bags too, since no more than
+ * one collection is fetched at a time.
+ *
+ * The {@link FetchPlan} walks its graph with this planner too, letting every query join fetch, along with the
+ * association it is issued for, all the to-one associations and one chain of nested collections below it.
+ * The chain ends at its first bag, since a bag joined with its own collections would get duplicate elements,
+ * and Hibernate cannot join fetch several bags at once.
+ *
+ * @author Vlad Mihalcea
+ */
+public class CollectionFetchPlanner {
+
+    private final int batchSize;
+
+    private final boolean joinFetchChains;
+
+    public CollectionFetchPlanner(int batchSize) {
+        this(batchSize, false);
+    }
+
+    /**
+     * @param batchSize maximum number of identifiers passed in an IN clause
+     * @param joinFetchChains whether a query join fetches all the to-one associations and one chain of nested
+     * collections, instead of only the association it is issued for
+     */
+    CollectionFetchPlanner(int batchSize, boolean joinFetchChains) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be greater than 0");
+        }
+        this.batchSize = batchSize;
+        this.joinFetchChains = joinFetchChains;
+    }
+
+    /**
+     * Fetch the root entities and their associations along the given paths
+     *
+     * @param session current Session
+     * @param rootClass root entity class
+     * @param ids root entity identifiers
+     * @param paths association property paths, relative to the root entity
+     * @return root entities
+     */
+    public <T> List<T> fetch(Session session, Class<T> rootClass, Collection<? extends Serializable> ids,
+                             String... paths) {
+        FetchNode root = graph(session.getSessionFactory(), rootClass, Arrays.asList(paths));
+        List<Object> roots = query(session, root, Collections.<FetchNode>emptyList(), new ArrayList<>(ids));
+        fetchAssociations(session, root, roots, Collections.<FetchNode>emptySet(), root.children());
+        List<T> result = new ArrayList<>(roots.size());
+        for (Object entity : roots) {
+            result.add(rootClass.cast(entity));
+        }
+        return result;
+    }
+
+    /**
+     * Build the graph of the given association paths
+     */
+    static FetchNode graph(SessionFactory sessionFactory, Class<?> rootClass, Collection<String> paths) {
+        SessionFactoryImplementor factory = (SessionFactoryImplementor) sessionFactory;
+        ClassMetadata rootMetadata = factory.getClassMetadata(rootClass);
+        if (rootMetadata == null) {
+            throw new IllegalArgumentException(rootClass + " is not an entity");
+        }
+        FetchNode root = new FetchNode(null, null, rootMetadata.getEntityName(), null);
+        for (String path : paths) {
+            root.add(factory, path.split("\\."), 0);
+        }
+        return root;
+    }
+
+    /**
+     * Load the entities with the given identifiers, join fetching the given associations of the node,
+     * as far as {@link #joins(Collection)} allows, with one query per batch of identifiers, and then fetch the
+     * associations the query could not join
+     */
+    List<Object> query(Session session, FetchNode node, Collection<FetchNode> children, List<Serializable> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Set<FetchNode> joins = joins(children);
+        ClassMetadata metadata = session.getSessionFactory().getClassMetadata(node.entityName);
+        StringBuilder hql = new StringBuilder("select e0 from ").append(node.entityName).append(" e0");
+        int[] aliasCount = {1};
+        for (FetchNode child : children) {
+            join(hql, "e0", child, joins, aliasCount);
+        }
+        hql.append(" where e0.").append(metadata.getIdentifierPropertyName()).append(" in (:ids)");
+        Set<Object> entities = new LinkedHashSet<>();
+        for (int i = 0; i < ids.size(); i += batchSize) {
+            List<?> batch = session.createQuery(hql.toString())
+                .setParameterList("ids", ids.subList(i, Math.min(i + batchSize, ids.size())))
+                .list();
+            entities.addAll(batch);
+        }
+        List<Object> result = new ArrayList<>(entities);
+        fetchAssociations(session, node, result, joins, children);
+        return result;
+    }
+
+    private void join(StringBuilder hql, String parentAlias, FetchNode node, Set<FetchNode> joins, int[] aliasCount) {
+        if (!joins.contains(node)) {
+            return;
+        }
+        String alias = "e" + aliasCount[0]++;
+        hql.append(" left join fetch ").append(parentAlias).append('.').append(node.property).append(' ').append(alias);
+        for (FetchNode child : node.children.values()) {
+            join(hql, alias, child, joins, aliasCount);
+        }
+    }
+
+    /**
+     * Select the associations a single query join fetches: only the given ones, or, when join fetching chains,
+     * all the to-one associations, but only one chain of nested collections, since joining sibling collections
+     * multiplies their rows, and the chain ends at its first bag
+     */
+    Set<FetchNode> joins(Collection<FetchNode> children) {
+        if (!joinFetchChains) {
+            return new LinkedHashSet<>(children);
+        }
+        Set<FetchNode> joins = new LinkedHashSet<>();
+        FetchNode[] collectionChainTip = {null};
+        for (FetchNode child : children) {
+            addJoins(child, joins, collectionChainTip);
+        }
+        return joins;
+    }
+
+    private static void addJoins(FetchNode node, Set<FetchNode> joins, FetchNode[] collectionChainTip) {
+        if (node.collection) {
+            if (collectionChainTip[0] != null &&
+                (collectionChainTip[0].bag || !node.isOwnedBy(collectionChainTip[0]))) {
+                return;
+            }
+            collectionChainTip[0] = node;
+        }
+        joins.add(node);
+        for (FetchNode child : node.children.values()) {
+            addJoins(child, joins, collectionChainTip);
+        }
+    }
+
+    /**
+     * Descend into the associations already joined, and fetch the other ones with one additional query each,
+     * for all their owners
+     */
+    void fetchAssociations(Session session, FetchNode node, Collection<Object> entities, Set<FetchNode> joins,
+                           Collection<FetchNode> children) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        List<Serializable> ids = null;
+        for (FetchNode child : children) {
+            if (joins.contains(child)) {
+                fetchAssociations(session, child, values(session, entities, child.property), joins,
+                    child.children.values());
+            } else {
+                if (ids == null) {
+                    ids = new ArrayList<>(entities.size());
+                    for (Object entity : entities) {
+                        ids.add(session.getIdentifier(entity));
+                    }
+                }
+                query(session, node, Collections.singletonList(child), ids);
+            }
+        }
+    }
+
+    private Collection<Object> values(Session session, Collection<Object> entities, String property) {
+        Set<Object> values = new LinkedHashSet<>();
+        for (Object entity : entities) {
+            if (entity instanceof HibernateProxy) {
+                entity = ((HibernateProxy) entity).getHibernateLazyInitializer().getImplementation();
+            }
+            Object value = ((SessionImplementor) session).getEntityPersister(null, entity)
+                .getPropertyValue(entity, property);
+            if (value instanceof Collection) {
+                values.addAll((Collection<?>) value);
+            } else if (value != null) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    static class FetchNode {
+
+        private final FetchNode parent;
+
+        private final String property;
+
+        private final String entityName;
+
+        private final boolean collection;
+
+        private final boolean bag;
+
+        private final Map<String, FetchNode> children = new LinkedHashMap<>();
+
+        private FetchNode(FetchNode parent, String property, String entityName, Type type) {
+            this.parent = parent;
+            this.property = property;
+            this.entityName = entityName;
+            this.collection = type != null && type.isCollectionType();
+            this.bag = type instanceof BagType;
+        }
+
+        Collection<FetchNode> children() {
+            return children.values();
+        }
+
+        private void add(SessionFactoryImplementor sessionFactory, String[] path, int index) {
+            if (index == path.length) {
+                return;
+            }
+            String childProperty = path[index];
+            FetchNode child = children.get(childProperty);
+            if (child == null) {
+                Type type = sessionFactory.getClassMetadata(entityName).getPropertyType(childProperty);
+                if (!type.isAssociationType()) {
+                    throw new IllegalArgumentException(entityName + "." + childProperty + " is not an association");
+                }
+                String associatedEntityName = ((AssociationType) type).getAssociatedEntityName(sessionFactory);
+                if (type.isCollectionType() &&
+                    !(((CollectionType) type).getElementType(sessionFactory) instanceof EntityType)) {
+                    throw new IllegalArgumentException(entityName + "." + childProperty + " is not an entity collection");
+                }
+                child = new FetchNode(this, childProperty, associatedEntityName, type);
+                children.put(childProperty, child);
+            }
+            child.add(sessionFactory, path, index + 1);
+        }
+
+        /**
+         * Is this node reached from the given collection through to-one associations only
+         */
+        private boolean isOwnedBy(FetchNode collectionNode) {
+            for (FetchNode owner = parent; owner != null; owner = owner.parent) {
+                if (owner == collectionNode) {
+                    return true;
+                }
+                if (owner.collection) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
+        String path() {
+            return parent.property == null ? property : parent.path() + "." + property;
+        }
+    }
+}
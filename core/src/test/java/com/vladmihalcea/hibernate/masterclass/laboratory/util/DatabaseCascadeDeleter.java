@@ -0,0 +1,283 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util;
+
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+import org.hibernate.engine.internal.StatefulPersistenceContext;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.ForeignKeyDirection;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <code>DatabaseCascadeDeleter</code> - Deletes a set of root entities with a set-based DELETE statement, leaving
+ * the removal of their children to the <code>ON DELETE CASCADE</code> foreign keys generated by
+ * <code>@OnDelete(action = OnDeleteAction.CASCADE)</code>, instead of loading and deleting every child entity,
+ * which issues one DELETE per row.
+ *
+ * Since the database removes the children behind Hibernate's back, the children are then evicted from the
+ * Persistence Context and the second-level cache. The children are the entities having a many-to-one (or a constrained
+ * one-to-one) association to the root entity, and their foreign keys are expected to cascade the delete.
+ * The Session is flushed first, so the pending changes are written before the bulk delete, and the roots and the
+ * children belonging to the deleted roots are evicted from the Persistence Context afterwards. The identifiers of
+ * the cached children, and of the children having an uninitialized proxy in the Session, are selected prior to
+ * deleting the roots, so only their proxies and second-level cache entries are evicted, together with the cached
+ * collections owned by the roots and by the children. These entries are evicted once more
+ * after the transaction completes, since a concurrent transaction might have cached them again in the meantime.
+ * The root entity region is evicted by Hibernate itself, as for any bulk HQL statement, while the query spaces of the
+ * children are invalidated right away, and again after the transaction completes, like Hibernate does for the roots.
+ *
+ * Only direct children are handled, and the identifiers are passed in IN clauses of at most
+ * <code>IN_CLAUSE_SIZE</code> parameters.
+ *
+ * @author Vlad Mihalcea
+ */
+public class DatabaseCascadeDeleter {
+
+    public static final int IN_CLAUSE_SIZE = 1000;
+
+    private final EntityPersister rootPersister;
+
+    private final String deleteHql;
+
+    private final List<ChildAssociation> children = new ArrayList<>();
+
+    private final List<CollectionPersister> rootCollectionPersisters = new ArrayList<>();
+
+    private final Serializable[] childQuerySpaces;
+
+    /**
+     * @param sessionFactory SessionFactory
+     * @param rootClass the root entity, referenced by the children foreign keys
+     */
+    public DatabaseCascadeDeleter(SessionFactory sessionFactory, Class<?> rootClass) {
+        SessionFactoryImplementor factory = (SessionFactoryImplementor) sessionFactory;
+        rootPersister = factory.getEntityPersister(factory.getClassMetadata(rootClass).getEntityName());
+        String rootEntityName = rootPersister.getEntityName();
+        deleteHql = "delete from " + rootEntityName + " where " + rootPersister.getIdentifierPropertyName() + " in (:ids)";
+        for (Object classMetadata : factory.getAllClassMetadata().values()) {
+            EntityPersister persister = (EntityPersister) classMetadata;
+            String[] propertyNames = persister.getPropertyNames();
+            Type[] propertyTypes = persister.getPropertyTypes();
+            for (int i = 0; i < propertyTypes.length; i++) {
+                //many-to-one and constrained one-to-one associations hold the foreign key to the root
+                if (propertyTypes[i] instanceof EntityType &&
+                    ((EntityType) propertyTypes[i]).getForeignKeyDirection() == ForeignKeyDirection.FOREIGN_KEY_FROM_PARENT &&
+                    rootEntityName.equals(((EntityType) propertyTypes[i]).getAssociatedEntityName())) {
+                    children.add(new ChildAssociation(persister, propertyNames[i]));
+                }
+            }
+        }
+        for (Object collectionMetadata : factory.getAllCollectionMetadata().values()) {
+            CollectionPersister persister = (CollectionPersister) collectionMetadata;
+            if (!persister.hasCache()) {
+                continue;
+            }
+            if (persister.getOwnerEntityPersister() == rootPersister) {
+                rootCollectionPersisters.add(persister);
+            }
+            for (ChildAssociation child : children) {
+                if (persister.getOwnerEntityPersister() == child.persister) {
+                    child.collectionPersisters.add(persister);
+                }
+            }
+        }
+        Set<Serializable> querySpaces = new LinkedHashSet<>();
+        for (ChildAssociation child : children) {
+            querySpaces.addAll(Arrays.asList(child.persister.getQuerySpaces()));
+        }
+        childQuerySpaces = querySpaces.toArray(new Serializable[querySpaces.size()]);
+        for (ChildAssociation child : children) {
+            child.selectIdsHql = "select c." + child.persister.getIdentifierPropertyName() +
+                " from " + child.persister.getEntityName() + " c" +
+                " where c." + child.propertyName + "." + rootPersister.getIdentifierPropertyName() + " in (:ids)";
+        }
+    }
+
+    /**
+     * Delete the given roots along with their children
+     *
+     * @param session current Session
+     * @param rootIds root entity identifiers
+     * @return number of root rows deleted
+     */
+    public int delete(Session session, Collection<? extends Serializable> rootIds) {
+        if (rootIds.isEmpty()) {
+            return 0;
+        }
+        session.flush();
+        SessionImplementor sessionImplementor = (SessionImplementor) session;
+        List<Serializable> idList = new ArrayList<>(rootIds);
+        Set<Serializable> idSet = new HashSet<>(rootIds);
+        Map<ChildAssociation, Set<Serializable>> childIds = new HashMap<>();
+        for (ChildAssociation child : children) {
+            if (child.persister.hasCache() || !child.collectionPersisters.isEmpty() ||
+                hasProxies(sessionImplementor, child.persister)) {
+                childIds.put(child, selectChildIds(session, child, idList));
+            }
+        }
+        int rowCount = 0;
+        for (int i = 0; i < idList.size(); i += IN_CLAUSE_SIZE) {
+            rowCount += session.createQuery(deleteHql)
+                .setParameterList("ids", idList.subList(i, Math.min(i + IN_CLAUSE_SIZE, idList.size())))
+                .executeUpdate();
+        }
+        evictPersistenceContext(sessionImplementor, idSet, childIds);
+        Cache cache = session.getSessionFactory().getCache();
+        evictCache(cache, idSet, childIds);
+        ((EventSource) session).getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, s) ->
+            evictCache(cache, idSet, childIds)
+        );
+        invalidateChildQuerySpaces(sessionImplementor);
+        return rowCount;
+    }
+
+    private void invalidateChildQuerySpaces(SessionImplementor session) {
+        if (childQuerySpaces.length == 0 || !session.getFactory().getSettings().isQueryCacheEnabled()) {
+            return;
+        }
+        UpdateTimestampsCache updateTimestampsCache = session.getFactory().getUpdateTimestampsCache();
+        updateTimestampsCache.preInvalidate(childQuerySpaces, session);
+        ((EventSource) session).getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, sessionImplementor) ->
+            updateTimestampsCache.invalidate(childQuerySpaces, sessionImplementor)
+        );
+    }
+
+    /**
+     * The foreign key of an uninitialized proxy is unknown, so the child identifiers must be selected
+     * whenever the Session holds a proxy of the child entity
+     */
+    private boolean hasProxies(SessionImplementor session, EntityPersister persister) {
+        PersistenceContext persistenceContext = session.getPersistenceContext();
+        if (!(persistenceContext instanceof StatefulPersistenceContext)) {
+            return true;
+        }
+        for (Object key : ((StatefulPersistenceContext) persistenceContext).getProxiesByKey().keySet()) {
+            if (session.getFactory().getEntityPersister(((EntityKey) key).getEntityName()) == persister) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Set<Serializable> selectChildIds(Session session, ChildAssociation child, List<Serializable> rootIds) {
+        Set<Serializable> childIds = new HashSet<>();
+        for (int i = 0; i < rootIds.size(); i += IN_CLAUSE_SIZE) {
+            for (Object childId : session.createQuery(child.selectIdsHql)
+                .setParameterList("ids", rootIds.subList(i, Math.min(i + IN_CLAUSE_SIZE, rootIds.size())))
+                .list()) {
+                childIds.add((Serializable) childId);
+            }
+        }
+        return childIds;
+    }
+
+    private void evictPersistenceContext(SessionImplementor session, Set<Serializable> rootIds,
+                                         Map<ChildAssociation, Set<Serializable>> childIds) {
+        PersistenceContext persistenceContext = session.getPersistenceContext();
+        List<Object> evictions = new ArrayList<>();
+        for (Object entry : persistenceContext.getEntitiesByKey().entrySet()) {
+            EntityKey key = (EntityKey) ((Map.Entry) entry).getKey();
+            Object entity = ((Map.Entry) entry).getValue();
+            EntityPersister persister = session.getFactory().getEntityPersister(key.getEntityName());
+            if (persister == rootPersister) {
+                if (rootIds.contains(key.getIdentifier())) {
+                    evictions.add(entity);
+                }
+                continue;
+            }
+            for (ChildAssociation child : children) {
+                if (persister == child.persister) {
+                    Object root = persister.getPropertyValue(entity, child.propertyName);
+                    if (root != null && rootIds.contains(identifier(session, root))) {
+                        evictions.add(entity);
+                        break;
+                    }
+                }
+            }
+        }
+        //uninitialized proxies are not part of the entities map
+        for (Serializable rootId : rootIds) {
+            addProxy(persistenceContext, session.generateEntityKey(rootId, rootPersister), evictions);
+        }
+        for (Map.Entry<ChildAssociation, Set<Serializable>> entry : childIds.entrySet()) {
+            for (Serializable childId : entry.getValue()) {
+                addProxy(persistenceContext, session.generateEntityKey(childId, entry.getKey().persister), evictions);
+            }
+        }
+        Session eventSource = (Session) session;
+        for (Object eviction : evictions) {
+            if (eventSource.contains(eviction)) {
+                eventSource.evict(eviction);
+            }
+        }
+    }
+
+    private void addProxy(PersistenceContext persistenceContext, EntityKey key, List<Object> evictions) {
+        Object proxy = persistenceContext.getProxy(key);
+        if (proxy != null) {
+            evictions.add(proxy);
+        }
+    }
+
+    private void evictCache(Cache cache, Set<Serializable> rootIds, Map<ChildAssociation, Set<Serializable>> childIds) {
+        for (CollectionPersister persister : rootCollectionPersisters) {
+            for (Serializable rootId : rootIds) {
+                cache.evictCollection(persister.getRole(), rootId);
+            }
+        }
+        for (Map.Entry<ChildAssociation, Set<Serializable>> entry : childIds.entrySet()) {
+            ChildAssociation child = entry.getKey();
+            for (Serializable childId : entry.getValue()) {
+                if (child.persister.hasCache()) {
+                    cache.evictEntity(child.persister.getEntityName(), childId);
+                }
+                for (CollectionPersister persister : child.collectionPersisters) {
+                    cache.evictCollection(persister.getRole(), childId);
+                }
+            }
+        }
+    }
+
+    private Serializable identifier(SessionImplementor session, Object root) {
+        return root instanceof HibernateProxy ?
+            ((HibernateProxy) root).getHibernateLazyInitializer().getIdentifier() :
+            rootPersister.getIdentifier(root, session);
+    }
+
+    private static class ChildAssociation {
+
+        private final EntityPersister persister;
+
+        private final String propertyName;
+
+        private final List<CollectionPersister> collectionPersisters = new ArrayList<>();
+
+        private String selectIdsHql;
+
+        private ChildAssociation(EntityPersister persister, String propertyName) {
+            this.persister = persister;
+            this.propertyName = propertyName;
+        }
+    }
+}
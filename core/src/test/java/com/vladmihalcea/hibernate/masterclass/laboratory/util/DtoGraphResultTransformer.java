@@ -0,0 +1,147 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util;
+
+import org.hibernate.HibernateException;
+import org.hibernate.transform.ResultTransformer;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * <code>DtoGraphResultTransformer</code> - Maps the tuples of an HQL or native SQL projection into a graph
+ * of DTOs, each root DTO holding the list of its child DTOs, so read-only views skip the entity hydration,
+ * the Persistence Context registration and the dirty checking snapshots.
+ *
+ * Every tuple holds the root columns followed by the child columns, the first root column being the root
+ * identifier. The DTOs are built through the constructor whose parameters match the columns, like an HQL
+ * <code>select new</code> expression, and the tuples of the same root identifier share the same root DTO.
+ * The child DTO is skipped when all its columns are null, as produced by a left join of a root without children.
+ *
+ * The transformer groups the tuples of a single query, so every query needs its own instance.
+ *
+ * @author Vlad Mihalcea
+ */
+public class DtoGraphResultTransformer<R, C> implements ResultTransformer {
+
+    private final Class<R> rootClass;
+
+    private final int rootColumnCount;
+
+    private final Class<C> childClass;
+
+    private final BiConsumer<R, C> childAdder;
+
+    private final Map<Object, R> rootsById = new LinkedHashMap<>();
+
+    private Constructor<R> rootConstructor;
+
+    private Constructor<C> childConstructor;
+
+    public DtoGraphResultTransformer(Class<R> rootClass, int rootColumnCount, Class<C> childClass,
+                                     BiConsumer<R, C> childAdder) {
+        if (rootColumnCount < 1) {
+            throw new IllegalArgumentException("The root DTO requires at least the identifier column");
+        }
+        this.rootClass = rootClass;
+        this.rootColumnCount = rootColumnCount;
+        this.childClass = childClass;
+        this.childAdder = childAdder;
+    }
+
+    @Override
+    public Object transformTuple(Object[] tuple, String[] aliases) {
+        Object rootId = tuple[0];
+        if (rootId == null) {
+            throw new HibernateException("The root identifier column is null");
+        }
+        R root = rootsById.get(rootId);
+        if (root == null) {
+            Object[] rootArgs = Arrays.copyOfRange(tuple, 0, rootColumnCount);
+            if (rootConstructor == null) {
+                rootConstructor = constructor(rootClass, rootArgs);
+            }
+            root = newInstance(rootConstructor, rootArgs);
+            rootsById.put(rootId, root);
+        }
+        Object[] childArgs = Arrays.copyOfRange(tuple, rootColumnCount, tuple.length);
+        if (!isNull(childArgs)) {
+            if (childConstructor == null) {
+                childConstructor = constructor(childClass, childArgs);
+            }
+            childAdder.accept(root, newInstance(childConstructor, childArgs));
+        }
+        return root;
+    }
+
+    @Override
+    public List transformList(List collection) {
+        List<R> roots = new ArrayList<>(rootsById.values());
+        rootsById.clear();
+        return roots;
+    }
+
+    private boolean isNull(Object[] args) {
+        for (Object arg : args) {
+            if (arg != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Constructor<T> constructor(Class<T> dtoClass, Object[] args) {
+        for (Constructor<?> constructor : dtoClass.getDeclaredConstructors()) {
+            Class<?>[] parameterTypes = constructor.getParameterTypes();
+            if (parameterTypes.length != args.length) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < args.length && matches; i++) {
+                matches = args[i] == null ? !parameterTypes[i].isPrimitive() : wrap(parameterTypes[i]).isInstance(args[i]);
+            }
+            if (matches) {
+                constructor.setAccessible(true);
+                return (Constructor<T>) constructor;
+            }
+        }
+        throw new HibernateException(
+            dtoClass + " has no constructor matching the " + Arrays.toString(args) + " projection columns"
+        );
+    }
+
+    private static Class<?> wrap(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == double.class) {
+            return Double.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        }
+        return Character.class;
+    }
+
+    private <T> T newInstance(Constructor<T> constructor, Object[] args) {
+        try {
+            return constructor.newInstance(args);
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new HibernateException("Could not instantiate " + constructor.getDeclaringClass(), e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util;
+
+import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.CriteriaSpecification;
+
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.NamedEntityGraphs;
+import javax.persistence.NamedSubgraph;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <code>FetchPlan</code> - Declarative fetch plan for the native Session and Criteria APIs, built either from
+ * association paths or from a JPA {@link NamedEntityGraph} declared on the root entity.
+ *
+ * The plan is executed with as few SQL statements as possible without generating a Cartesian product:
+ * the root query join fetches all the to-one associations, but only one chain of nested collections, ending at its
+ * first bag, since joining sibling collections multiplies their rows. Every other collection is join fetched by one
+ * secondary query for all its owners, following the same rule for its own associations. The graph is walked by the
+ * {@link CollectionFetchPlanner}, so the identifiers are passed in IN clauses of at most
+ * <code>IN_CLAUSE_SIZE</code> parameters.
+ *
+ * @author Vlad Mihalcea
+ */
+public class FetchPlan<T> {
+
+    public static final int IN_CLAUSE_SIZE = 1000;
+
+    private final CollectionFetchPlanner planner = new CollectionFetchPlanner(IN_CLAUSE_SIZE, true);
+
+    private final Class<T> rootClass;
+
+    private final CollectionFetchPlanner.FetchNode root;
+
+    public FetchPlan(SessionFactory sessionFactory, Class<T> rootClass, String... paths) {
+        this(sessionFactory, rootClass, Arrays.asList(paths));
+    }
+
+    private FetchPlan(SessionFactory sessionFactory, Class<T> rootClass, List<String> paths) {
+        this.rootClass = rootClass;
+        this.root = CollectionFetchPlanner.graph(sessionFactory, rootClass, paths);
+    }
+
+    /**
+     * Build the fetch plan of a {@link NamedEntityGraph} declared on the root entity
+     *
+     * @param sessionFactory SessionFactory
+     * @param rootClass root entity class
+     * @param graphName entity graph name
+     * @return fetch plan
+     */
+    public static <T> FetchPlan<T> fromEntityGraph(SessionFactory sessionFactory, Class<T> rootClass,
+                                                   String graphName) {
+        List<NamedEntityGraph> graphs = new ArrayList<>();
+        NamedEntityGraphs namedEntityGraphs = rootClass.getAnnotation(NamedEntityGraphs.class);
+        if (namedEntityGraphs != null) {
+            graphs.addAll(Arrays.asList(namedEntityGraphs.value()));
+        }
+        NamedEntityGraph namedEntityGraph = rootClass.getAnnotation(NamedEntityGraph.class);
+        if (namedEntityGraph != null) {
+            graphs.add(namedEntityGraph);
+        }
+        for (NamedEntityGraph graph : graphs) {
+            if (graphName.equals(graph.name())) {
+                List<String> paths = new ArrayList<>();
+                addPaths(graph, graph.attributeNodes(), "", paths);
+                return new FetchPlan<>(sessionFactory, rootClass, paths);
+            }
+        }
+        throw new IllegalArgumentException(rootClass + " declares no " + graphName + " entity graph");
+    }
+
+    private static void addPaths(NamedEntityGraph graph, NamedAttributeNode[] attributeNodes, String prefix,
+                                 List<String> paths) {
+        for (NamedAttributeNode attributeNode : attributeNodes) {
+            String path = prefix + attributeNode.value();
+            paths.add(path);
+            if (!attributeNode.subgraph().isEmpty()) {
+                NamedSubgraph subgraph = null;
+                for (NamedSubgraph namedSubgraph : graph.subgraphs()) {
+                    if (namedSubgraph.name().equals(attributeNode.subgraph())) {
+                        subgraph = namedSubgraph;
+                    }
+                }
+                if (subgraph == null) {
+                    throw new IllegalArgumentException(
+                        "The " + graph.name() + " entity graph declares no " + attributeNode.subgraph() + " subgraph"
+                    );
+                }
+                addPaths(graph, subgraph.attributeNodes(), path + ".", paths);
+            }
+        }
+    }
+
+    /**
+     * Load the root entity with the given identifier and all the associations of this plan
+     *
+     * @param session current Session
+     * @param id root entity identifier
+     * @return root entity or null, if not found
+     */
+    public T find(Session session, Serializable id) {
+        List<T> entities = list(session, Collections.singletonList(id));
+        return entities.isEmpty() ? null : entities.get(0);
+    }
+
+    /**
+     * Load the root entities with the given identifiers and all the associations of this plan
+     *
+     * @param session current Session
+     * @param ids root entity identifiers
+     * @return root entities
+     */
+    public List<T> list(Session session, Collection<? extends Serializable> ids) {
+        List<Object> entities = planner.query(session, root, root.children(), new ArrayList<>(ids));
+        List<T> result = new ArrayList<>(entities.size());
+        for (Object entity : entities) {
+            result.add(rootClass.cast(entity));
+        }
+        return result;
+    }
+
+    /**
+     * Join fetch the associations of this plan which are fetched by the root query
+     *
+     * @param criteria root entity Criteria
+     * @return the given Criteria
+     */
+    public Criteria apply(Criteria criteria) {
+        for (CollectionFetchPlanner.FetchNode node : planner.joins(root.children())) {
+            criteria.setFetchMode(node.path(), FetchMode.JOIN);
+        }
+        return criteria.setResultTransformer(CriteriaSpecification.DISTINCT_ROOT_ENTITY);
+    }
+
+    /**
+     * List the root entities of the given Criteria, and load all the associations of this plan
+     *
+     * @param session current Session
+     * @param criteria root entity Criteria
+     * @return root entities
+     */
+    public List<T> list(Session session, Criteria criteria) {
+        List<?> entities = apply(criteria).list();
+        planner.fetchAssociations(session, root, new ArrayList<>(entities), planner.joins(root.children()),
+            root.children());
+        List<T> result = new ArrayList<>(entities.size());
+        for (Object entity : entities) {
+            result.add(rootClass.cast(entity));
+        }
+        return result;
+    }
+}
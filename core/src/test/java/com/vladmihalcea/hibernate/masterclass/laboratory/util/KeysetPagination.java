@@ -0,0 +1,179 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.metadata.ClassMetadata;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <code>KeysetPagination</code> - Keyset (seek method) pagination of an entity, ordered by a sort property
+ * and the entity identifier, which breaks the ties between entities sharing the same sort value.
+ *
+ * Instead of skipping the previous pages with an OFFSET, which the database has to scan and discard, every page
+ * query seeks right after the <code>(sortValue, id)</code> cursor of the previous page, so, given an index
+ * on the sort and identifier columns, the cost of fetching a page does not depend on its depth.
+ * Jumping to an arbitrary page number is not supported, only moving to the next page.
+ *
+ * @author Vlad Mihalcea
+ */
+public class KeysetPagination<T> {
+
+    private final Class<T> entityClass;
+
+    private final ClassMetadata metadata;
+
+    private final String sortProperty;
+
+    private final boolean descending;
+
+    private final String firstPageQuery;
+
+    private final String nextPageQuery;
+
+    public KeysetPagination(SessionFactory sessionFactory, Class<T> entityClass, String sortProperty,
+                            boolean descending) {
+        this.entityClass = entityClass;
+        this.metadata = sessionFactory.getClassMetadata(entityClass);
+        if (metadata == null) {
+            throw new IllegalArgumentException(entityClass + " is not an entity");
+        }
+        metadata.getPropertyType(sortProperty);
+        this.sortProperty = sortProperty;
+        this.descending = descending;
+        String idProperty = metadata.getIdentifierPropertyName();
+        String direction = descending ? " desc" : " asc";
+        String comparison = descending ? " < " : " > ";
+        String select = "select e from " + metadata.getEntityName() + " e ";
+        String orderBy = "order by e." + sortProperty + direction + ", e." + idProperty + direction;
+        this.firstPageQuery = select + orderBy;
+        //the redundant range predicate lets the database seek the sort index, which the disjunction alone prevents
+        this.nextPageQuery = select +
+            "where e." + sortProperty + comparison.trim() + "= :sortValue " +
+            "and (e." + sortProperty + comparison + ":sortValue " +
+            "or (e." + sortProperty + " = :sortValue and e." + idProperty + comparison + ":id)) " +
+            orderBy;
+    }
+
+    /**
+     * Fetch the first page
+     *
+     * @param session current Session
+     * @param pageSize page size
+     * @return first page
+     */
+    public Page<T> first(Session session, int pageSize) {
+        return page(session, session.createQuery(firstPageQuery), pageSize);
+    }
+
+    /**
+     * Fetch the page following the given cursor
+     *
+     * @param session current Session
+     * @param cursor the cursor of the previous page, or null for the first page
+     * @param pageSize page size
+     * @return next page
+     */
+    public Page<T> next(Session session, Cursor cursor, int pageSize) {
+        if (cursor == null) {
+            return first(session, pageSize);
+        }
+        return page(session, session.createQuery(nextPageQuery)
+            .setParameter("sortValue", cursor.getSortValue())
+            .setParameter("id", cursor.getId()), pageSize);
+    }
+
+    /**
+     * Get the cursor pointing right after the given entity
+     *
+     * @param entity entity
+     * @return cursor
+     */
+    public Cursor cursor(T entity) {
+        return new Cursor(
+            metadata.getPropertyValue(entity, sortProperty),
+            metadata.getIdentifier(entity, null)
+        );
+    }
+
+    /**
+     * Select one more entity than the page size, to know whether there is a next page without
+     * issuing a count query
+     */
+    private Page<T> page(Session session, Query query, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("The page size must be positive");
+        }
+        List<?> entities = query.setMaxResults(pageSize + 1).list();
+        boolean hasNext = entities.size() > pageSize;
+        List<T> content = new ArrayList<>(Math.min(entities.size(), pageSize));
+        for (int i = 0; i < entities.size() && i < pageSize; i++) {
+            content.add(entityClass.cast(entities.get(i)));
+        }
+        Cursor nextCursor = hasNext ? cursor(content.get(content.size() - 1)) : null;
+        return new Page<>(content, nextCursor);
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public static class Page<T> {
+
+        private final List<T> content;
+
+        private final Cursor nextCursor;
+
+        private Page(List<T> content, Cursor nextCursor) {
+            this.content = Collections.unmodifiableList(content);
+            this.nextCursor = nextCursor;
+        }
+
+        public List<T> getContent() {
+            return content;
+        }
+
+        /**
+         * The cursor of the next page, or null if this is the last page
+         */
+        public Cursor getNextCursor() {
+            return nextCursor;
+        }
+
+        public boolean hasNext() {
+            return nextCursor != null;
+        }
+    }
+
+    public static class Cursor implements Serializable {
+
+        private final Object sortValue;
+
+        private final Serializable id;
+
+        public Cursor(Object sortValue, Serializable id) {
+            if (sortValue == null || id == null) {
+                throw new IllegalArgumentException("The cursor requires both the sort value and the identifier");
+            }
+            this.sortValue = sortValue;
+            this.id = id;
+        }
+
+        public Object getSortValue() {
+            return sortValue;
+        }
+
+        public Serializable getId() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + sortValue + ", " + id + ")";
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util;
+
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.spi.CollectionEntry;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.collection.QueryableCollection;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <code>ManyToManyDissociator</code> - Removes all the links of a set of entities from a many-to-many join table
+ * with one set-based DELETE, instead of removing the entities from the association collections one by one,
+ * which issues one DELETE per link row, or deletes and re-inserts the whole collection in case of bags.
+ *
+ * The links can be removed either for a set of owners, the entities owning the association, or for a set of
+ * elements, the entities on the other side. The Session is flushed first, so the pending collection changes
+ * are written before the bulk delete, and the initialized collections of the Persistence Context, on both sides
+ * of the association, are then updated in memory and re-snapshotted, so the next flush does not issue any
+ * statement for them. The second-level cache entries of the collections keyed by the given identifiers are evicted,
+ * and so are the whole regions of the collections on the other side of the association, whose affected keys
+ * are unknown. The evictions are repeated after the transaction completes, as Hibernate does for bulk statements,
+ * since a concurrent transaction might have cached the previous links in the meantime.
+ *
+ * Only single column foreign keys are supported, and the identifiers are passed in IN clauses of at most
+ * <code>IN_CLAUSE_SIZE</code> parameters.
+ *
+ * @author Vlad Mihalcea
+ */
+public class ManyToManyDissociator {
+
+    public static final int IN_CLAUSE_SIZE = 1000;
+
+    private final QueryableCollection ownerPersister;
+
+    private final List<CollectionPersister> inversePersisters = new ArrayList<>();
+
+    private final String deleteByOwnerSql;
+
+    private final String deleteByElementSql;
+
+    /**
+     * @param sessionFactory SessionFactory
+     * @param ownerClass the entity owning the association
+     * @param collectionProperty the association collection property
+     */
+    public ManyToManyDissociator(SessionFactory sessionFactory, Class<?> ownerClass, String collectionProperty) {
+        SessionFactoryImplementor factory = (SessionFactoryImplementor) sessionFactory;
+        String role = factory.getClassMetadata(ownerClass).getEntityName() + "." + collectionProperty;
+        CollectionPersister persister = factory.getCollectionPersister(role);
+        if (!persister.isManyToMany() || persister.isInverse()) {
+            throw new IllegalArgumentException(role + " is not the owning side of a many-to-many association");
+        }
+        ownerPersister = (QueryableCollection) persister;
+        if (ownerPersister.getKeyColumnNames().length != 1 || ownerPersister.getElementColumnNames().length != 1) {
+            throw new IllegalArgumentException(role + " has composite foreign keys");
+        }
+        String table = ownerPersister.getTableName();
+        for (Object collectionMetadata : factory.getAllCollectionMetadata().values()) {
+            CollectionPersister inversePersister = (CollectionPersister) collectionMetadata;
+            if (inversePersister.isInverse() && inversePersister.isManyToMany() &&
+                table.equals(((QueryableCollection) inversePersister).getTableName())) {
+                inversePersisters.add(inversePersister);
+            }
+        }
+        deleteByOwnerSql = "delete from " + table + " where " + ownerPersister.getKeyColumnNames()[0] + " in (:ids)";
+        deleteByElementSql = "delete from " + table + " where " + ownerPersister.getElementColumnNames()[0] + " in (:ids)";
+    }
+
+    /**
+     * Remove all the links of the given owners
+     *
+     * @param session current Session
+     * @param ownerIds owner entity identifiers
+     * @return number of link rows deleted
+     */
+    public int dissociateOwners(Session session, Collection<? extends Serializable> ownerIds) {
+        return dissociate(session, ownerIds, true);
+    }
+
+    /**
+     * Remove all the links of the given elements
+     *
+     * @param session current Session
+     * @param elementIds element entity identifiers
+     * @return number of link rows deleted
+     */
+    public int dissociateElements(Session session, Collection<? extends Serializable> elementIds) {
+        return dissociate(session, elementIds, false);
+    }
+
+    private int dissociate(Session session, Collection<? extends Serializable> ids, boolean byOwner) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        session.flush();
+        List<Serializable> idList = new ArrayList<>(ids);
+        int rowCount = 0;
+        for (int i = 0; i < idList.size(); i += IN_CLAUSE_SIZE) {
+            rowCount += session.createSQLQuery(byOwner ? deleteByOwnerSql : deleteByElementSql)
+                .addSynchronizedQuerySpace(ownerPersister.getTableName())
+                .setParameterList("ids", idList.subList(i, Math.min(i + IN_CLAUSE_SIZE, idList.size())))
+                .executeUpdate();
+        }
+        Set<Serializable> idSet = new HashSet<>(ids);
+        evictCollectionCache(session, idSet, byOwner);
+        SessionImplementor sessionImplementor = (SessionImplementor) session;
+        PersistenceContext persistenceContext = sessionImplementor.getPersistenceContext();
+        for (Object entry : persistenceContext.getCollectionEntries().entrySet()) {
+            PersistentCollection collection = (PersistentCollection) ((Map.Entry) entry).getKey();
+            CollectionEntry collectionEntry = (CollectionEntry) ((Map.Entry) entry).getValue();
+            CollectionPersister persister = collectionEntry.getLoadedPersister();
+            if (persister == null || !collection.wasInitialized() || !(collection instanceof Collection)) {
+                continue;
+            }
+            boolean inverse = inversePersisters.contains(persister);
+            if (persister != ownerPersister && !inverse) {
+                continue;
+            }
+            //the owner collections are keyed by the owners, the inverse ones by the elements
+            boolean keyedByIds = byOwner != inverse;
+            if (keyedByIds) {
+                if (idSet.contains(collectionEntry.getLoadedKey())) {
+                    ((Collection<?>) collection).clear();
+                }
+            } else {
+                removeElements(sessionImplementor, (Collection<?>) collection,
+                    ((QueryableCollection) persister).getElementPersister(), idSet);
+            }
+            if (collection.isDirty()) {
+                collectionEntry.postInitialize(collection);
+                collection.postAction();
+            }
+        }
+        return rowCount;
+    }
+
+    private void evictCollectionCache(Session session, Set<Serializable> ids, boolean byOwner) {
+        Cache cache = session.getSessionFactory().getCache();
+        evictCollectionCache(cache, ids, byOwner);
+        ((EventSource) session).getActionQueue().registerProcess((AfterTransactionCompletionProcess) (success, s) ->
+            evictCollectionCache(cache, ids, byOwner)
+        );
+    }
+
+    private void evictCollectionCache(Cache cache, Set<Serializable> ids, boolean byOwner) {
+        List<CollectionPersister> persisters = new ArrayList<>(inversePersisters);
+        persisters.add(ownerPersister);
+        for (CollectionPersister persister : persisters) {
+            if (!persister.hasCache()) {
+                continue;
+            }
+            boolean keyedByIds = byOwner == (persister == ownerPersister);
+            if (keyedByIds) {
+                for (Serializable id : ids) {
+                    cache.evictCollection(persister.getRole(), id);
+                }
+            } else {
+                cache.evictCollectionRegion(persister.getRole());
+            }
+        }
+    }
+
+    private void removeElements(SessionImplementor session, Collection<?> collection,
+                                EntityPersister elementPersister, Set<Serializable> ids) {
+        for (Iterator<?> iterator = collection.iterator(); iterator.hasNext(); ) {
+            Object element = iterator.next();
+            Serializable id = element instanceof HibernateProxy ?
+                ((HibernateProxy) element).getHibernateLazyInitializer().getIdentifier() :
+                elementPersister.getIdentifier(element, session);
+            if (ids.contains(id)) {
+                iterator.remove();
+            }
+        }
+    }
+}
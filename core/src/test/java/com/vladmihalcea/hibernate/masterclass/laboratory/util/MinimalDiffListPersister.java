@@ -0,0 +1,233 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util;
+
+import org.hibernate.HibernateException;
+import org.hibernate.StaleStateException;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.collection.internal.PersistentList;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.jdbc.batch.internal.BasicBatchKey;
+import org.hibernate.engine.jdbc.spi.JdbcCoordinator;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.Expectation;
+import org.hibernate.jdbc.Expectations;
+import org.hibernate.mapping.Collection;
+import org.hibernate.persister.collection.BasicCollectionPersister;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * <code>MinimalDiffListPersister</code> - Collection persister for ordered element collections which writes only
+ * the minimal difference between the loaded snapshot and the current list.
+ *
+ * Hibernate compares the list elements index by index, so adding or removing an element at the head or in the middle
+ * of the list updates every following row, since all of them have shifted. This persister skips the common prefix
+ * and suffix of the snapshot and the current list instead, and moves the common suffix rows with two set-based
+ * UPDATE statements shifting the order column, first to negative values, so the shifted rows never collide with
+ * the (key, index) primary key of the rows still in place. Only the rows between the prefix and the suffix are
+ * then deleted, updated or inserted, with the update and insert statements being JDBC batched.
+ *
+ * The persister is enabled with <code>@Persister(impl = MinimalDiffListPersister.class)</code> on a
+ * <code>@OrderColumn</code> element collection. Lists holding null elements are handled by the default
+ * Hibernate algorithm.
+ *
+ * @author Vlad Mihalcea
+ */
+public class MinimalDiffListPersister extends BasicCollectionPersister {
+
+    private final String deleteRangeString;
+
+    private final String shiftToNegativeString;
+
+    private final String shiftFromNegativeString;
+
+    private BasicBatchKey updateBatchKey;
+
+    private BasicBatchKey insertBatchKey;
+
+    public MinimalDiffListPersister(Collection collection, CollectionRegionAccessStrategy cacheAccessStrategy,
+                                    Configuration cfg, SessionFactoryImplementor factory) throws CacheException {
+        super(collection, cacheAccessStrategy, cfg, factory);
+        if (!isMinimalDiffEnabled()) {
+            deleteRangeString = null;
+            shiftToNegativeString = null;
+            shiftFromNegativeString = null;
+            return;
+        }
+        String keyRestriction = String.join(" = ? and ", getKeyColumnNames()) + " = ?";
+        String index = getIndexColumnNames()[0];
+        deleteRangeString = "delete from " + getTableName() +
+            " where " + keyRestriction + " and " + index + " >= ? and " + index + " < ?";
+        shiftToNegativeString = "update " + getTableName() +
+            " set " + index + " = ? - " + index +
+            " where " + keyRestriction + " and " + index + " >= ?";
+        shiftFromNegativeString = "update " + getTableName() +
+            " set " + index + " = -1 - " + index +
+            " where " + keyRestriction + " and " + index + " < 0";
+    }
+
+    private boolean isMinimalDiffEnabled() {
+        return hasIndex && !hasIdentifier && !isInverse && !indexContainsFormula && getIndexColumnNames().length == 1;
+    }
+
+    private boolean isMinimalDiffApplicable(PersistentCollection collection) {
+        if (!isMinimalDiffEnabled() || !(collection instanceof PersistentList)) {
+            return false;
+        }
+        for (Object element : (List<?>) collection) {
+            if (element == null) {
+                return false;
+            }
+        }
+        return !((List<?>) collection.getStoredSnapshot()).contains(null);
+    }
+
+    @Override
+    public void deleteRows(PersistentCollection collection, Serializable id, SessionImplementor session)
+            throws HibernateException {
+        if (!isMinimalDiffApplicable(collection)) {
+            super.deleteRows(collection, id, session);
+            return;
+        }
+        try {
+            writeDiff((List<?>) collection.getStoredSnapshot(), (List<?>) collection, id, session);
+        } catch (SQLException e) {
+            throw sqlExceptionHelper.convert(e, "could not write the " + getRole() + " collection difference");
+        }
+    }
+
+    @Override
+    public void updateRows(PersistentCollection collection, Serializable id, SessionImplementor session)
+            throws HibernateException {
+        if (!isMinimalDiffApplicable(collection)) {
+            super.updateRows(collection, id, session);
+        }
+    }
+
+    @Override
+    public void insertRows(PersistentCollection collection, Serializable id, SessionImplementor session)
+            throws HibernateException {
+        if (!isMinimalDiffApplicable(collection)) {
+            super.insertRows(collection, id, session);
+        }
+    }
+
+    private void writeDiff(List<?> snapshot, List<?> current, Serializable id, SessionImplementor session)
+            throws SQLException {
+        int snapshotSize = snapshot.size();
+        int currentSize = current.size();
+        int prefix = 0;
+        while (prefix < snapshotSize && prefix < currentSize &&
+               isSame(snapshot.get(prefix), current.get(prefix), session)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < Math.min(snapshotSize, currentSize) - prefix &&
+               isSame(snapshot.get(snapshotSize - 1 - suffix), current.get(currentSize - 1 - suffix), session)) {
+            suffix++;
+        }
+        int removedEnd = snapshotSize - suffix;
+        int addedEnd = currentSize - suffix;
+        int shift = addedEnd - removedEnd;
+        if (shift < 0) {
+            deleteRange(id, addedEnd, removedEnd, session);
+        }
+        if (shift != 0 && suffix > 0) {
+            shiftRows(id, removedEnd, shift, suffix, session);
+        }
+        for (int i = prefix; i < Math.min(removedEnd, addedEnd); i++) {
+            if (!isSame(snapshot.get(i), current.get(i), session)) {
+                updateRow(id, i, current.get(i), session);
+            }
+        }
+        for (int i = removedEnd; i < addedEnd; i++) {
+            insertRow(id, i, current.get(i), session);
+        }
+    }
+
+    private boolean isSame(Object snapshotElement, Object element, SessionImplementor session) {
+        return !getElementType().isDirty(snapshotElement, element, session);
+    }
+
+    private void deleteRange(Serializable id, int start, int end, SessionImplementor session) throws SQLException {
+        JdbcCoordinator jdbcCoordinator = session.getTransactionCoordinator().getJdbcCoordinator();
+        PreparedStatement st = jdbcCoordinator.getStatementPreparer().prepareStatement(deleteRangeString);
+        try {
+            int offset = writeKey(st, id, 1, session);
+            offset = writeIndexToWhere(st, start, offset, session);
+            writeIndexToWhere(st, end, offset, session);
+            verifyRowCount(jdbcCoordinator.getResultSetReturn().executeUpdate(st), end - start, deleteRangeString);
+        } finally {
+            jdbcCoordinator.release(st);
+        }
+    }
+
+    /**
+     * Move the rows starting at the given index by the given shift, going through negative indexes
+     */
+    private void shiftRows(Serializable id, int start, int shift, int rowCount, SessionImplementor session)
+            throws SQLException {
+        JdbcCoordinator jdbcCoordinator = session.getTransactionCoordinator().getJdbcCoordinator();
+        PreparedStatement st = jdbcCoordinator.getStatementPreparer().prepareStatement(shiftToNegativeString);
+        try {
+            st.setInt(1, -1 - shift);
+            int offset = writeKey(st, id, 2, session);
+            writeIndexToWhere(st, start, offset, session);
+            verifyRowCount(jdbcCoordinator.getResultSetReturn().executeUpdate(st), rowCount, shiftToNegativeString);
+        } finally {
+            jdbcCoordinator.release(st);
+        }
+        st = jdbcCoordinator.getStatementPreparer().prepareStatement(shiftFromNegativeString);
+        try {
+            writeKey(st, id, 1, session);
+            verifyRowCount(jdbcCoordinator.getResultSetReturn().executeUpdate(st), rowCount, shiftFromNegativeString);
+        } finally {
+            jdbcCoordinator.release(st);
+        }
+    }
+
+    private void updateRow(Serializable id, int index, Object element, SessionImplementor session)
+            throws SQLException {
+        Expectation expectation = Expectations.appropriateExpectation(getUpdateCheckStyle());
+        if (updateBatchKey == null) {
+            updateBatchKey = new BasicBatchKey(getRole() + "#MINIMAL_DIFF_UPDATE", expectation);
+        }
+        PreparedStatement st = session.getTransactionCoordinator().getJdbcCoordinator()
+            .getBatch(updateBatchKey)
+            .getBatchStatement(getSQLUpdateRowString(), isUpdateCallable());
+        int offset = 1 + expectation.prepare(st);
+        offset = writeElement(st, element, offset, session);
+        offset = writeKey(st, id, offset, session);
+        writeIndexToWhere(st, index, offset, session);
+        session.getTransactionCoordinator().getJdbcCoordinator().getBatch(updateBatchKey).addToBatch();
+    }
+
+    private void insertRow(Serializable id, int index, Object element, SessionImplementor session)
+            throws SQLException {
+        Expectation expectation = Expectations.appropriateExpectation(getInsertCheckStyle());
+        if (insertBatchKey == null) {
+            insertBatchKey = new BasicBatchKey(getRole() + "#MINIMAL_DIFF_INSERT", expectation);
+        }
+        PreparedStatement st = session.getTransactionCoordinator().getJdbcCoordinator()
+            .getBatch(insertBatchKey)
+            .getBatchStatement(getSQLInsertRowString(), isInsertCallable());
+        int offset = 1 + expectation.prepare(st);
+        offset = writeKey(st, id, offset, session);
+        offset = writeIndex(st, index, offset, session);
+        writeElement(st, element, offset, session);
+        session.getTransactionCoordinator().getJdbcCoordinator().getBatch(insertBatchKey).addToBatch();
+    }
+
+    private void verifyRowCount(int rowCount, int expectedRowCount, String sql) {
+        if (rowCount != expectedRowCount) {
+            throw new StaleStateException(
+                "Expected " + expectedRowCount + " rows but " + rowCount + " were affected by: " + sql
+            );
+        }
+    }
+}
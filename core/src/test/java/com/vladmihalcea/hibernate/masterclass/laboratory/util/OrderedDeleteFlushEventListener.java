@@ -0,0 +1,195 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util;
+
+import org.hibernate.HibernateException;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.action.internal.EntityAction;
+import org.hibernate.engine.spi.ActionQueue;
+import org.hibernate.engine.spi.ExecutableList;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.internal.DefaultFlushEventListener;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.CompositeType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.ForeignKeyDirection;
+import org.hibernate.type.Type;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <code>OrderedDeleteFlushEventListener</code> - Flush event listener grouping the entity deletes of a flush
+ * per table, so they are executed as JDBC batches.
+ *
+ * Hibernate executes the deletes in the order they were scheduled, and, since the children are deleted before
+ * their parent, either by cascading or by removing the orphans of the parent collections, the delete statements
+ * of different tables interleave, and every change of table executes the current JDBC batch. Unlike the inserts
+ * and the updates, which can be ordered with <code>hibernate.order_inserts</code> and
+ * <code>hibernate.order_updates</code>, Hibernate offers no setting to order the deletes, so this listener sorts
+ * the orphan removal and the delete action queues prior to executing them. The deletes of an entity
+ * referencing another entity through a many-to-one or a constrained one-to-one association go first, so the
+ * children of all the flushed parents are deleted before the parents themselves, and the deletes of every entity
+ * are ordered by identifier, unless the entity references itself, in which case the scheduled order is kept.
+ * Should the entity associations form a cycle, the deletes are not reordered at all.
+ *
+ * Only the explicit and the commit time flushes are handled, and the deletes are batched only if
+ * <code>hibernate.jdbc.batch_size</code> is set, and, for versioned entities,
+ * <code>hibernate.jdbc.batch_versioned_data</code> is enabled too.
+ *
+ * @author Vlad Mihalcea
+ */
+public class OrderedDeleteFlushEventListener extends DefaultFlushEventListener implements SessionFactoryObserver {
+
+    private static final Field ORPHAN_REMOVALS = actionQueueField("orphanRemovals");
+
+    private static final Field DELETIONS = actionQueueField("deletions");
+
+    private Map<String, Integer> entityLevels;
+
+    private Set<String> selfReferencingEntities;
+
+    public OrderedDeleteFlushEventListener integrate(SessionFactory sessionFactory) {
+        SessionFactoryImplementor factory = (SessionFactoryImplementor) sessionFactory;
+        resolveEntityLevels(factory);
+        EventListenerRegistry eventListenerRegistry = factory.getServiceRegistry()
+            .getService(EventListenerRegistry.class);
+        eventListenerRegistry.setListeners(EventType.FLUSH, this);
+        return this;
+    }
+
+    @Override
+    public void sessionFactoryCreated(SessionFactory factory) {
+        integrate(factory);
+    }
+
+    @Override
+    public void sessionFactoryClosed(SessionFactory factory) {
+    }
+
+    @Override
+    protected void performExecutions(EventSource session) {
+        if (entityLevels != null) {
+            ActionQueue actionQueue = session.getActionQueue();
+            sort(actionList(actionQueue, ORPHAN_REMOVALS));
+            sort(actionList(actionQueue, DELETIONS));
+        }
+        super.performExecutions(session);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E extends EntityAction> void sort(ExecutableList<E> actions) {
+        if (actions.size() < 2) {
+            return;
+        }
+        List<E> sortedActions = new ArrayList<>(actions.size());
+        for (E action : actions) {
+            sortedActions.add(action);
+        }
+        Comparator<EntityAction> comparator = Comparator.comparing(
+            (EntityAction action) -> entityLevels.getOrDefault(action.getEntityName(), 0)
+        ).reversed().thenComparing(EntityAction::getEntityName);
+        sortedActions.sort(comparator.thenComparing((first, second) -> {
+            EntityPersister persister = first.getPersister();
+            if (selfReferencingEntities.contains(first.getEntityName())) {
+                return 0;
+            }
+            return persister.getIdentifierType().compare(first.getId(), second.getId());
+        }));
+        actions.clear();
+        for (E action : sortedActions) {
+            actions.add(action);
+        }
+    }
+
+    /**
+     * The level of an entity is zero if it references no other entity, or one more than the highest level
+     * of the entities it references otherwise, so the deletes are executed in descending level order
+     */
+    private void resolveEntityLevels(SessionFactoryImplementor factory) {
+        Map<String, Set<String>> references = new HashMap<>();
+        Set<String> selfReferences = new HashSet<>();
+        for (Object classMetadata : factory.getAllClassMetadata().values()) {
+            EntityPersister persister = (EntityPersister) classMetadata;
+            Set<String> referencedEntities = new HashSet<>();
+            addReferencedEntities(factory, persister.getPropertyTypes(), referencedEntities);
+            if (referencedEntities.remove(persister.getEntityName())) {
+                selfReferences.add(persister.getEntityName());
+            }
+            references.put(persister.getEntityName(), referencedEntities);
+        }
+        Map<String, Integer> levels = new HashMap<>();
+        for (String entityName : references.keySet()) {
+            if (resolveEntityLevel(entityName, references, levels, new HashSet<>()) < 0) {
+                entityLevels = null;
+                selfReferencingEntities = Collections.emptySet();
+                return;
+            }
+        }
+        entityLevels = levels;
+        selfReferencingEntities = selfReferences;
+    }
+
+    private int resolveEntityLevel(String entityName, Map<String, Set<String>> references,
+                                   Map<String, Integer> levels, Set<String> path) {
+        Integer level = levels.get(entityName);
+        if (level != null) {
+            return level;
+        }
+        if (!path.add(entityName)) {
+            return -1;
+        }
+        int entityLevel = 0;
+        for (String referencedEntity : references.getOrDefault(entityName, Collections.emptySet())) {
+            int referencedLevel = resolveEntityLevel(referencedEntity, references, levels, path);
+            if (referencedLevel < 0) {
+                return -1;
+            }
+            entityLevel = Math.max(entityLevel, referencedLevel + 1);
+        }
+        path.remove(entityName);
+        levels.put(entityName, entityLevel);
+        return entityLevel;
+    }
+
+    private void addReferencedEntities(SessionFactoryImplementor factory, Type[] types, Set<String> referencedEntities) {
+        for (Type type : types) {
+            if (type instanceof EntityType) {
+                EntityType entityType = (EntityType) type;
+                if (entityType.getForeignKeyDirection() == ForeignKeyDirection.FOREIGN_KEY_FROM_PARENT) {
+                    referencedEntities.add(entityType.getAssociatedEntityName(factory));
+                }
+            } else if (type instanceof CompositeType) {
+                addReferencedEntities(factory, ((CompositeType) type).getSubtypes(), referencedEntities);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends EntityAction> ExecutableList<E> actionList(ActionQueue actionQueue, Field field) {
+        try {
+            return (ExecutableList<E>) field.get(actionQueue);
+        } catch (IllegalAccessException e) {
+            throw new HibernateException(e);
+        }
+    }
+
+    private static Field actionQueueField(String name) {
+        try {
+            Field field = ActionQueue.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("The ActionQueue has no " + name + " field", e);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util;
+
+import org.hibernate.Criteria;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.criterion.Projections;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <code>PagedGraphQuery</code> - Paginates root entities whose collections are join fetched, without the
+ * in-memory pagination Hibernate falls back to when a collection fetch query is given a first or max result,
+ * which loads the whole result set and only then selects the requested page.
+ *
+ * The page is fetched in two phases: the first query selects only the identifiers of the page roots, so the
+ * database applies the pagination, and then the {@link FetchPlan} loads those roots and their associations.
+ * The rows transferred and the entities loaded are therefore bounded by the page size, and the roots are returned
+ * in the order of the identifier query.
+ *
+ * @author Vlad Mihalcea
+ */
+public class PagedGraphQuery<T> {
+
+    private final FetchPlan<T> fetchPlan;
+
+    public PagedGraphQuery(FetchPlan<T> fetchPlan) {
+        this.fetchPlan = fetchPlan;
+    }
+
+    /**
+     * Fetch a page of the roots selected by the given identifier query
+     *
+     * @param session current Session
+     * @param idQuery HQL query selecting the root identifiers, in the page order
+     * @param firstResult page first result
+     * @param maxResults page size
+     * @return page roots
+     */
+    public List<T> list(Session session, Query idQuery, int firstResult, int maxResults) {
+        return page(session, idQuery
+            .setFirstResult(firstResult)
+            .setMaxResults(maxResults)
+            .list());
+    }
+
+    /**
+     * Fetch a page of the roots matching the given Criteria. The Criteria projection is replaced with the
+     * root identifier.
+     *
+     * @param session current Session
+     * @param criteria root entity Criteria
+     * @param firstResult page first result
+     * @param maxResults page size
+     * @return page roots
+     */
+    public List<T> list(Session session, Criteria criteria, int firstResult, int maxResults) {
+        return page(session, criteria
+            .setProjection(Projections.id())
+            .setFirstResult(firstResult)
+            .setMaxResults(maxResults)
+            .list());
+    }
+
+    private List<T> page(Session session, List<?> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Serializable, T> entitiesById = new LinkedHashMap<>();
+        for (Object id : ids) {
+            entitiesById.put((Serializable) id, null);
+        }
+        for (T entity : fetchPlan.list(session, entitiesById.keySet())) {
+            entitiesById.put(session.getIdentifier(entity), entity);
+        }
+        List<T> entities = new ArrayList<>(entitiesById.size());
+        for (T entity : entitiesById.values()) {
+            if (entity != null) {
+                entities.add(entity);
+            }
+        }
+        return entities;
+    }
+}
@@ -0,0 +1,471 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.internal.ForeignKeys;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * <code>PartitionedQueryCache</code> - Opt-in query result cache whose invalidation is keyed by
+ * (table, partition key) instead of by table only, like the Hibernate UpdateTimestampsCache does.
+ *
+ * Entity writes are intercepted at flush time to pre-invalidate the affected partitions and the
+ * partitions are invalidated once more after the transaction completes. Bulk HQL or native
+ * updates are not intercepted, so they must call {@link #invalidate(Class)} explicitly.
+ *
+ * Like the Hibernate StandardQueryCache, only the entity identifiers are cached, and a cached result is
+ * resolved into a new list of entities managed by the caller Session, so no entity instance is shared between
+ * Sessions. Scalar values are cached as they are, so they must be immutable.
+ *
+ * Once there are more than <code>maxPartitionTimestamps</code> partition invalidation timestamps, and at most
+ * once every <code>maxPartitionTimestamps</code> partition invalidations, the invalidated results are removed,
+ * and the partition timestamps older than both the oldest cached result and the oldest query being loaded are
+ * purged, since they can no longer invalidate anything.
+ *
+ * @author Vlad Mihalcea
+ */
+public class PartitionedQueryCache {
+
+    private static final long PRE_INVALIDATED = Long.MAX_VALUE;
+
+    public static final int DEFAULT_MAX_PARTITION_TIMESTAMPS = 1000;
+
+    /**
+     * <code>Partition</code> - A query result dependency, either a table partition or the whole table
+     */
+    public static final class Partition implements Serializable {
+
+        private final String table;
+
+        private final Object key;
+
+        private Partition(String table, Object key) {
+            this.table = table;
+            this.key = key;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public boolean isWholeTable() {
+            return key == null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Partition partition = (Partition) o;
+            return table.equals(partition.table) && Objects.equals(key, partition.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(table, key);
+        }
+
+        @Override
+        public String toString() {
+            return table + (isWholeTable() ? "" : "[" + key + "]");
+        }
+    }
+
+    private static class CachedResult implements Serializable {
+
+        private final long timestamp;
+
+        private final Set<Partition> partitions;
+
+        private final List<Serializable> result;
+
+        private CachedResult(long timestamp, Set<Partition> partitions, List<Serializable> result) {
+            this.timestamp = timestamp;
+            this.partitions = partitions;
+            this.result = result;
+        }
+    }
+
+    private static class EntityReference implements Serializable {
+
+        private final String entityName;
+
+        private final Serializable id;
+
+        private EntityReference(String entityName, Serializable id) {
+            this.entityName = entityName;
+            this.id = id;
+        }
+    }
+
+    private final Ehcache resultsCache;
+
+    private final int maxPartitionTimestamps;
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final Map<Partition, Long> partitionTimestamps = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> tableWriteTimestamps = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> tableInvalidationTimestamps = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> partitionPropertyIndexes = new ConcurrentHashMap<>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final Set<Long> loadTimestamps = new ConcurrentSkipListSet<>();
+
+    private final Object purgeLock = new Object();
+
+    private final AtomicInteger invalidationsSincePurge = new AtomicInteger();
+
+    private SessionFactoryImplementor sessionFactory;
+
+    public PartitionedQueryCache(Ehcache resultsCache) {
+        this(resultsCache, DEFAULT_MAX_PARTITION_TIMESTAMPS);
+    }
+
+    public PartitionedQueryCache(Ehcache resultsCache, int maxPartitionTimestamps) {
+        this.resultsCache = resultsCache;
+        this.maxPartitionTimestamps = maxPartitionTimestamps;
+    }
+
+    /**
+     * Register the entity write listeners against the given SessionFactory
+     *
+     * @param sessionFactory SessionFactory
+     * @return this cache
+     */
+    public PartitionedQueryCache integrate(SessionFactory sessionFactory) {
+        this.sessionFactory = (SessionFactoryImplementor) sessionFactory;
+        InvalidationListener listener = new InvalidationListener();
+        EventListenerRegistry eventListenerRegistry = this.sessionFactory.getServiceRegistry()
+            .getService(EventListenerRegistry.class);
+        eventListenerRegistry.appendListeners(EventType.POST_INSERT, listener);
+        eventListenerRegistry.appendListeners(EventType.POST_UPDATE, listener);
+        eventListenerRegistry.appendListeners(EventType.POST_DELETE, listener);
+        return this;
+    }
+
+    /**
+     * Partition the given entity table by the given property. For associations,
+     * the partition key is the associated entity identifier.
+     *
+     * @param entityClass entity class
+     * @param propertyName partition property
+     * @return this cache
+     */
+    public PartitionedQueryCache partitionBy(Class<?> entityClass, String propertyName) {
+        AbstractEntityPersister persister = getPersister(entityClass);
+        partitionPropertyIndexes.put(persister.getEntityName(), persister.getPropertyIndex(propertyName));
+        return this;
+    }
+
+    public Partition partition(Class<?> entityClass, Object key) {
+        return new Partition(getPersister(entityClass).getTableName(), key);
+    }
+
+    public Partition table(Class<?> entityClass) {
+        return partition(entityClass, null);
+    }
+
+    /**
+     * Get the cached query result or load and cache it if the result is either
+     * missing or it was invalidated by a write in any of the given partitions.
+     * The entities of a cached result are resolved in the given Session.
+     *
+     * @param session current Session
+     * @param queryKey query and parameter values identifying the result
+     * @param loader query result loader
+     * @param partitions result dependencies
+     * @param <T> result element type
+     * @return query result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> list(Session session, String queryKey, Supplier<List<T>> loader, Partition... partitions) {
+        Element element = resultsCache.get(queryKey);
+        if (element != null) {
+            CachedResult cachedResult = (CachedResult) element.getObjectValue();
+            if (isUpToDate(cachedResult.timestamp, cachedResult.partitions)) {
+                List<T> result = (List<T>) resolve(session, cachedResult.result);
+                if (result != null) {
+                    hitCount.incrementAndGet();
+                    return result;
+                }
+            }
+        }
+        missCount.incrementAndGet();
+        long timestamp;
+        synchronized (purgeLock) {
+            timestamp = clock.incrementAndGet();
+            loadTimestamps.add(timestamp);
+        }
+        try {
+            List<T> result = loader.get();
+            Set<Partition> dependencies = new LinkedHashSet<>(Arrays.asList(partitions));
+            if (isUpToDate(timestamp, dependencies)) {
+                resultsCache.put(new Element(queryKey, new CachedResult(timestamp, dependencies, disassemble(session, result))));
+            }
+            return result;
+        } finally {
+            loadTimestamps.remove(timestamp);
+        }
+    }
+
+    /**
+     * Invalidate all partitions of the given entity table, e.g. after a bulk update
+     *
+     * @param entityClass entity class
+     */
+    public void invalidate(Class<?> entityClass) {
+        invalidateTables(getPersister(entityClass), clock.incrementAndGet());
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public void clearStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+    }
+
+    public int getPartitionTimestampCount() {
+        return partitionTimestamps.size();
+    }
+
+    private List<Serializable> disassemble(Session session, List<?> result) {
+        List<Serializable> values = new ArrayList<>(result.size());
+        for (Object row : result) {
+            if (row instanceof Object[]) {
+                Object[] tuple = (Object[]) row;
+                Serializable[] disassembledTuple = new Serializable[tuple.length];
+                for (int i = 0; i < tuple.length; i++) {
+                    disassembledTuple[i] = disassemble(session, tuple[i]);
+                }
+                values.add(disassembledTuple);
+            } else {
+                values.add(disassemble(session, row));
+            }
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    private Serializable disassemble(Session session, Object value) {
+        if (value != null && session.contains(value)) {
+            return new EntityReference(session.getEntityName(value), session.getIdentifier(value));
+        }
+        return (Serializable) value;
+    }
+
+    /**
+     * Resolve the cached values into a new result, or return null if any cached entity no longer exists
+     */
+    private List<?> resolve(Session session, List<Serializable> values) {
+        List<Object> result = new ArrayList<>(values.size());
+        for (Serializable value : values) {
+            if (value instanceof Serializable[]) {
+                Serializable[] disassembledTuple = (Serializable[]) value;
+                Object[] tuple = new Object[disassembledTuple.length];
+                for (int i = 0; i < tuple.length; i++) {
+                    if (disassembledTuple[i] != null && (tuple[i] = resolve(session, disassembledTuple[i])) == null) {
+                        return null;
+                    }
+                }
+                result.add(tuple);
+            } else {
+                Object row = resolve(session, value);
+                if (value != null && row == null) {
+                    return null;
+                }
+                result.add(row);
+            }
+        }
+        return result;
+    }
+
+    private Object resolve(Session session, Serializable value) {
+        if (value instanceof EntityReference) {
+            EntityReference reference = (EntityReference) value;
+            return session.get(reference.entityName, reference.id);
+        }
+        return value;
+    }
+
+    private boolean isUpToDate(long timestamp, Collection<Partition> partitions) {
+        for (Partition partition : partitions) {
+            if (partition.isWholeTable()) {
+                if (timestamp <= tableWriteTimestamps.getOrDefault(partition.getTable(), 0L)) {
+                    return false;
+                }
+            } else {
+                if (timestamp <= tableInvalidationTimestamps.getOrDefault(partition.getTable(), 0L) ||
+                    timestamp <= partitionTimestamps.getOrDefault(partition, 0L)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void onWrite(EntityPersister persister, Object[] state, Object[] oldState, boolean update, EventSource session) {
+        Integer propertyIndex = partitionPropertyIndexes.get(persister.getEntityName());
+        if (propertyIndex == null || (update && oldState == null)) {
+            invalidateTables(persister, PRE_INVALIDATED);
+            session.getActionQueue().registerProcess(
+                (success, sessionImplementor) -> invalidateTables(persister, clock.incrementAndGet())
+            );
+            return;
+        }
+        String table = ((AbstractEntityPersister) persister).getTableName();
+        Set<Partition> partitions = new LinkedHashSet<>();
+        partitions.add(new Partition(table, partitionKey(persister, propertyIndex, state, session)));
+        if (oldState != null) {
+            partitions.add(new Partition(table, partitionKey(persister, propertyIndex, oldState, session)));
+        }
+        invalidatePartitions(partitions, PRE_INVALIDATED);
+        session.getActionQueue().registerProcess(
+            (success, sessionImplementor) -> invalidatePartitions(partitions, clock.incrementAndGet())
+        );
+    }
+
+    private Object partitionKey(EntityPersister persister, int propertyIndex, Object[] state, SessionImplementor session) {
+        Object value = state[propertyIndex];
+        Type type = persister.getPropertyTypes()[propertyIndex];
+        if (value != null && type.isEntityType()) {
+            return ForeignKeys.getEntityIdentifierIfNotUnsaved(
+                ((EntityType) type).getAssociatedEntityName(), value, session
+            );
+        }
+        return value;
+    }
+
+    private void invalidatePartitions(Set<Partition> partitions, long timestamp) {
+        for (Partition partition : partitions) {
+            partitionTimestamps.put(partition, timestamp);
+            tableWriteTimestamps.put(partition.getTable(), timestamp);
+        }
+        //the pre-invalidated partitions cannot be purged until the transaction completes
+        if (timestamp != PRE_INVALIDATED &&
+            invalidationsSincePurge.incrementAndGet() >= maxPartitionTimestamps &&
+            partitionTimestamps.size() > maxPartitionTimestamps) {
+            invalidationsSincePurge.set(0);
+            purgePartitionTimestamps();
+        }
+    }
+
+    /**
+     * Remove the invalidated results, and the partition timestamps which are older than every remaining cached
+     * result and every query being loaded, since a missing partition timestamp leaves these results up-to-date as well
+     */
+    private void purgePartitionTimestamps() {
+        long oldestTimestamp;
+        //a query being loaded is either registered here or its timestamp is newer than the clock
+        synchronized (purgeLock) {
+            oldestTimestamp = clock.get() + 1;
+            for (Long loadTimestamp : loadTimestamps) {
+                oldestTimestamp = Math.min(oldestTimestamp, loadTimestamp);
+            }
+        }
+        for (Object key : resultsCache.getKeys()) {
+            Element element = resultsCache.getQuiet(key);
+            if (element == null) {
+                continue;
+            }
+            CachedResult cachedResult = (CachedResult) element.getObjectValue();
+            if (isUpToDate(cachedResult.timestamp, cachedResult.partitions)) {
+                oldestTimestamp = Math.min(oldestTimestamp, cachedResult.timestamp);
+            } else {
+                resultsCache.removeElement(element);
+            }
+        }
+        long purgeBefore = oldestTimestamp;
+        partitionTimestamps.entrySet().removeIf(entry -> entry.getValue() < purgeBefore);
+    }
+
+    private void invalidateTables(EntityPersister persister, long timestamp) {
+        for (Serializable space : persister.getPropertySpaces()) {
+            tableWriteTimestamps.put((String) space, timestamp);
+            tableInvalidationTimestamps.put((String) space, timestamp);
+        }
+    }
+
+    private AbstractEntityPersister getPersister(Class<?> entityClass) {
+        if (sessionFactory == null) {
+            throw new IllegalStateException("The PartitionedQueryCache is not integrated with a SessionFactory!");
+        }
+        return (AbstractEntityPersister) sessionFactory.getEntityPersister(entityClass.getName());
+    }
+
+    private class InvalidationListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            onWrite(event.getPersister(), event.getState(), null, false, event.getSession());
+        }
+
+        @Override
+        public void onPostUpdate(PostUpdateEvent event) {
+            onWrite(event.getPersister(), event.getState(), event.getOldState(), true, event.getSession());
+        }
+
+        @Override
+        public void onPostDelete(PostDeleteEvent event) {
+            onWrite(event.getPersister(), event.getDeletedState(), null, false, event.getSession());
+        }
+
+        @Override
+        public boolean requiresPostCommitHanding(EntityPersister persister) {
+            return false;
+        }
+    }
+}
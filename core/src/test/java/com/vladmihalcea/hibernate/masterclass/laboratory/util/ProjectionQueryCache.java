@@ -0,0 +1,192 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cache.spi.UpdateTimestampsCache;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.query.spi.HQLQueryPlan;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.AutoFlushEvent;
+import org.hibernate.event.spi.AutoFlushEventListener;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.transform.ResultTransformer;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <code>ProjectionQueryCache</code> - Query cache for scalar projections, which stores the fully
+ * materialized rows instead of entity identifiers, so a cache hit requires no additional
+ * second-level cache lookup or SQL select.
+ *
+ * Cached results are validated against the Hibernate UpdateTimestampsCache, so the query cache
+ * must be enabled through the <code>hibernate.cache.use_query_cache</code> setting. As with Hibernate's own
+ * query cache, the query spaces are auto-flushed prior to the cache lookup, and the rows are cached in their
+ * disassembled form, so every hit returns its own copy of the column values.
+ *
+ * @author Vlad Mihalcea
+ */
+public class ProjectionQueryCache {
+
+    private static class CachedRows implements Serializable {
+
+        private final long timestamp;
+
+        private final String[] aliases;
+
+        private final Object[][] rows;
+
+        private CachedRows(long timestamp, String[] aliases, Object[][] rows) {
+            this.timestamp = timestamp;
+            this.aliases = aliases;
+            this.rows = rows;
+        }
+    }
+
+    private final SessionFactoryImplementor sessionFactory;
+
+    private final UpdateTimestampsCache updateTimestampsCache;
+
+    private final Ehcache resultsCache;
+
+    public ProjectionQueryCache(SessionFactory sessionFactory, Ehcache resultsCache) {
+        this.sessionFactory = (SessionFactoryImplementor) sessionFactory;
+        this.updateTimestampsCache = this.sessionFactory.getUpdateTimestampsCache();
+        if (updateTimestampsCache == null) {
+            throw new IllegalStateException("The ProjectionQueryCache requires the query cache to be enabled!");
+        }
+        this.resultsCache = resultsCache;
+    }
+
+    public <T> List<T> list(Session session, String hql, ResultTransformer transformer) {
+        return list(session, hql, Collections.<String, Object>emptyMap(), 0, 0, transformer);
+    }
+
+    public <T> List<T> list(Session session, String hql, Map<String, Object> parameters, int maxResults, ResultTransformer transformer) {
+        return list(session, hql, parameters, 0, maxResults, transformer);
+    }
+
+    /**
+     * Get the projection rows from the cache, or execute the query and cache the rows
+     * if the result is missing or any of the query spaces was updated in the meantime.
+     *
+     * @param session current Session
+     * @param hql scalar projection query
+     * @param parameters named parameters
+     * @param firstResult first row offset
+     * @param maxResults max rows, 0 meaning no limit
+     * @param transformer transforms every row into a DTO
+     * @param <T> DTO type
+     * @return DTO list
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> list(Session session, String hql, Map<String, Object> parameters, int firstResult, int maxResults, ResultTransformer transformer) {
+        SessionImplementor sessionImplementor = (SessionImplementor) session;
+        HQLQueryPlan queryPlan = sessionFactory.getQueryPlanCache()
+            .getHQLQueryPlan(hql, false, Collections.emptyMap());
+        Set<Serializable> querySpaces = queryPlan.getQuerySpaces();
+        Type[] returnTypes = queryPlan.getReturnMetadata().getReturnTypes();
+        Serializable key = (Serializable) Arrays.asList(hql, new TreeMap<>(parameters), firstResult, maxResults);
+
+        //the pending changes must invalidate the cached rows, like they do for Hibernate's own query cache
+        autoFlush(sessionImplementor, querySpaces);
+        Element element = resultsCache.get(key);
+        if (element != null) {
+            CachedRows cachedRows = (CachedRows) element.getObjectValue();
+            if (updateTimestampsCache.isUpToDate(querySpaces, cachedRows.timestamp, sessionImplementor)) {
+                return transform(assemble(cachedRows.rows, returnTypes, sessionImplementor), cachedRows.aliases, transformer);
+            }
+        }
+
+        long timestamp = sessionFactory.getSettings().getRegionFactory().nextTimestamp();
+        Query query = session.createQuery(hql);
+        for (Type returnType : query.getReturnTypes()) {
+            if (returnType.isAssociationType()) {
+                throw new IllegalArgumentException("Only scalar projections can be cached, but the query returns " + returnType.getName());
+            }
+        }
+        for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+            if (parameter.getValue() instanceof Collection) {
+                query.setParameterList(parameter.getKey(), (Collection) parameter.getValue());
+            } else {
+                query.setParameter(parameter.getKey(), parameter.getValue());
+            }
+        }
+        if (firstResult > 0) {
+            query.setFirstResult(firstResult);
+        }
+        if (maxResults > 0) {
+            query.setMaxResults(maxResults);
+        }
+        String[] aliases = query.getReturnAliases();
+        List<?> results = query.list();
+        Object[][] rows = new Object[results.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            Object result = results.get(i);
+            rows[i] = result instanceof Object[] ? (Object[]) result : new Object[]{result};
+        }
+        resultsCache.put(new Element(key, new CachedRows(timestamp, aliases, disassemble(rows, returnTypes, sessionImplementor))));
+        return transform(rows, aliases, transformer);
+    }
+
+    private void autoFlush(SessionImplementor session, Set<Serializable> querySpaces) {
+        if (!session.isTransactionInProgress()) {
+            return;
+        }
+        AutoFlushEvent event = new AutoFlushEvent(querySpaces, (EventSource) session);
+        for (AutoFlushEventListener listener : sessionFactory.getServiceRegistry()
+            .getService(EventListenerRegistry.class)
+            .getEventListenerGroup(EventType.AUTO_FLUSH)
+            .listeners()) {
+            listener.onAutoFlush(event);
+        }
+    }
+
+    /**
+     * Copy the column values, so the cached rows share no mutable value, like a <code>Date</code>,
+     * with the returned DTOs
+     */
+    private Object[][] disassemble(Object[][] rows, Type[] returnTypes, SessionImplementor session) {
+        Object[][] disassembledRows = new Object[rows.length][];
+        for (int i = 0; i < rows.length; i++) {
+            disassembledRows[i] = new Object[rows[i].length];
+            for (int j = 0; j < rows[i].length; j++) {
+                disassembledRows[i][j] = returnTypes[j].disassemble(rows[i][j], session, null);
+            }
+        }
+        return disassembledRows;
+    }
+
+    private Object[][] assemble(Object[][] cachedRows, Type[] returnTypes, SessionImplementor session) {
+        Object[][] rows = new Object[cachedRows.length][];
+        for (int i = 0; i < cachedRows.length; i++) {
+            rows[i] = new Object[cachedRows[i].length];
+            for (int j = 0; j < cachedRows[i].length; j++) {
+                rows[i][j] = returnTypes[j].assemble((Serializable) cachedRows[i][j], session, null);
+            }
+        }
+        return rows;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> List<T> transform(Object[][] rows, String[] aliases, ResultTransformer transformer) {
+        List<Object> dtos = new ArrayList<>(rows.length);
+        for (Object[] row : rows) {
+            dtos.add(transformer.transformTuple(row, aliases));
+        }
+        return (List<T>) transformer.transformList(dtos);
+    }
+}
@@ -0,0 +1,245 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.MemoryUnit;
+import net.sf.ehcache.config.PersistenceConfiguration;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.annotations.Cache;
+import org.hibernate.cache.CacheException;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import java.beans.Introspector;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * <code>CacheRegionSettings</code> - Programmatic sizing and expiry settings of the second-level cache regions,
+ * applied by the {@link SizedEhCacheRegionFactory} without any <code>ehcache.xml</code> file.
+ *
+ * The settings are passed to the region factory through the {@link #SETTINGS} configuration property.
+ * The invalid settings are rejected when the region factory is started, and, when registered as a
+ * {@link SessionFactoryObserver}, the settings of regions unknown to the SessionFactory are rejected
+ * once all regions are built.
+ *
+ * @author Vlad Mihalcea
+ */
+public class CacheRegionSettings implements SessionFactoryObserver {
+
+    public static final String SETTINGS = "hibernate.cache.region_settings";
+
+    private final Map<String, RegionSizing> regions = new LinkedHashMap<>();
+
+    /**
+     * Get the sizing of the given region, creating it if not already declared
+     *
+     * @param regionName region name, without the region prefix
+     * @return region sizing
+     */
+    public RegionSizing region(String regionName) {
+        return regions.computeIfAbsent(regionName, RegionSizing::new);
+    }
+
+    /**
+     * Declare the sizing of every {@link CacheRegionSizing} annotation found on the given entities
+     * and on their collections
+     */
+    public CacheRegionSettings annotated(Class<?>... entityClasses) {
+        for (Class<?> entityClass : entityClasses) {
+            annotated(entityClass, entityClass.getName());
+            for (Class<?> clazz = entityClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+                for (Field field : clazz.getDeclaredFields()) {
+                    annotated(field, entityClass.getName() + "." + field.getName());
+                }
+                for (Method method : clazz.getDeclaredMethods()) {
+                    String methodName = method.getName();
+                    if (methodName.startsWith("get") && methodName.length() > 3) {
+                        annotated(method, entityClass.getName() + "." + Introspector.decapitalize(methodName.substring(3)));
+                    }
+                }
+            }
+        }
+        return this;
+    }
+
+    private void annotated(AnnotatedElement element, String defaultRegionName) {
+        CacheRegionSizing sizing = element.getAnnotation(CacheRegionSizing.class);
+        if (sizing == null) {
+            return;
+        }
+        Cache cache = element.getAnnotation(Cache.class);
+        if (cache == null) {
+            throw new IllegalArgumentException(
+                "The @CacheRegionSizing of " + element + " requires a @org.hibernate.annotations.Cache annotation"
+            );
+        }
+        RegionSizing regionSizing = region(cache.region().isEmpty() ? defaultRegionName : cache.region());
+        if (sizing.maxEntriesLocalHeap() != 0) {
+            regionSizing.maxEntriesLocalHeap(sizing.maxEntriesLocalHeap());
+        }
+        if (!sizing.maxBytesLocalHeap().isEmpty()) {
+            regionSizing.maxBytesLocalHeap(sizing.maxBytesLocalHeap());
+        }
+        if (sizing.timeToLiveSeconds() != 0) {
+            regionSizing.timeToLiveSeconds(sizing.timeToLiveSeconds());
+        }
+        if (sizing.timeToIdleSeconds() != 0) {
+            regionSizing.timeToIdleSeconds(sizing.timeToIdleSeconds());
+        }
+    }
+
+    public Map<String, RegionSizing> getRegions() {
+        return Collections.unmodifiableMap(regions);
+    }
+
+    /**
+     * @throws CacheException if any region sizing is invalid
+     */
+    public void validate() {
+        for (RegionSizing regionSizing : regions.values()) {
+            regionSizing.validate();
+        }
+    }
+
+    @Override
+    public void sessionFactoryCreated(SessionFactory factory) {
+        SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) factory;
+        String regionPrefix = sessionFactory.getSettings().getCacheRegionPrefix();
+        Set<String> unknownRegions = new TreeSet<>();
+        for (String regionName : regions.keySet()) {
+            if (!sessionFactory.getAllSecondLevelCacheRegions().containsKey(qualify(regionPrefix, regionName))) {
+                unknownRegions.add(regionName);
+            }
+        }
+        if (!unknownRegions.isEmpty()) {
+            factory.close();
+            throw new CacheException("Sizing declared for regions not used by any cached entity or collection: " + unknownRegions);
+        }
+    }
+
+    @Override
+    public void sessionFactoryClosed(SessionFactory factory) {
+    }
+
+    static String qualify(String regionPrefix, String regionName) {
+        return regionPrefix == null ? regionName : regionPrefix + "." + regionName;
+    }
+
+    /**
+     * <code>RegionSizing</code> - Sizing and expiry settings of a single region, the unset ones
+     * keeping the Ehcache defaults
+     */
+    public static class RegionSizing {
+
+        private final String regionName;
+
+        private Long maxEntriesLocalHeap;
+
+        private String maxBytesLocalHeap;
+
+        private Long timeToLiveSeconds;
+
+        private Long timeToIdleSeconds;
+
+        RegionSizing(String regionName) {
+            this.regionName = regionName;
+        }
+
+        public RegionSizing maxEntriesLocalHeap(long maxEntriesLocalHeap) {
+            this.maxEntriesLocalHeap = maxEntriesLocalHeap;
+            return this;
+        }
+
+        public RegionSizing maxBytesLocalHeap(String maxBytesLocalHeap) {
+            this.maxBytesLocalHeap = maxBytesLocalHeap;
+            return this;
+        }
+
+        public RegionSizing timeToLiveSeconds(long timeToLiveSeconds) {
+            this.timeToLiveSeconds = timeToLiveSeconds;
+            return this;
+        }
+
+        public RegionSizing timeToIdleSeconds(long timeToIdleSeconds) {
+            this.timeToIdleSeconds = timeToIdleSeconds;
+            return this;
+        }
+
+        public String getRegionName() {
+            return regionName;
+        }
+
+        void validate() {
+            if (maxEntriesLocalHeap == null && maxBytesLocalHeap == null &&
+                timeToLiveSeconds == null && timeToIdleSeconds == null) {
+                throw invalid("no setting is declared");
+            }
+            if (maxEntriesLocalHeap != null && (maxEntriesLocalHeap <= 0 || maxEntriesLocalHeap > Integer.MAX_VALUE)) {
+                throw invalid("maxEntriesLocalHeap must be between 1 and " + Integer.MAX_VALUE);
+            }
+            if (maxBytesLocalHeap != null) {
+                if (maxEntriesLocalHeap != null) {
+                    throw invalid("maxEntriesLocalHeap and maxBytesLocalHeap are mutually exclusive");
+                }
+                long maxBytes;
+                try {
+                    maxBytes = MemoryUnit.parseSizeInBytes(maxBytesLocalHeap);
+                } catch (IllegalArgumentException e) {
+                    throw invalid("maxBytesLocalHeap " + maxBytesLocalHeap + " is not a size, e.g. 512k or 10M");
+                }
+                if (maxBytes <= 0) {
+                    throw invalid("maxBytesLocalHeap must be positive");
+                }
+            }
+            if (timeToLiveSeconds != null && timeToLiveSeconds <= 0) {
+                throw invalid("timeToLiveSeconds must be positive");
+            }
+            if (timeToIdleSeconds != null && timeToIdleSeconds <= 0) {
+                throw invalid("timeToIdleSeconds must be positive");
+            }
+            if (timeToLiveSeconds != null && timeToIdleSeconds != null && timeToIdleSeconds > timeToLiveSeconds) {
+                throw invalid("timeToIdleSeconds cannot exceed timeToLiveSeconds");
+            }
+        }
+
+        /**
+         * Sized regions are kept on heap only, so the evicted entries are released instead of overflowing to disk
+         */
+        void apply(CacheConfiguration cacheConfiguration) {
+            cacheConfiguration.persistence(new PersistenceConfiguration().strategy(PersistenceConfiguration.Strategy.NONE));
+            if (maxEntriesLocalHeap != null) {
+                cacheConfiguration.maxEntriesLocalHeap(maxEntriesLocalHeap.intValue());
+            }
+            if (maxBytesLocalHeap != null) {
+                cacheConfiguration.maxEntriesLocalHeap(0);
+                cacheConfiguration.setMaxBytesLocalHeap(maxBytesLocalHeap);
+            }
+            if (timeToLiveSeconds != null || timeToIdleSeconds != null) {
+                cacheConfiguration.eternal(false);
+                cacheConfiguration.timeToLiveSeconds(timeToLiveSeconds != null ? timeToLiveSeconds : 0);
+                cacheConfiguration.timeToIdleSeconds(timeToIdleSeconds != null ? timeToIdleSeconds : 0);
+            }
+        }
+
+        private CacheException invalid(String message) {
+            return new CacheException("Invalid sizing of cache region " + regionName + ": " + message);
+        }
+
+        @Override
+        public String toString() {
+            return "RegionSizing{" +
+                "regionName='" + regionName + '\'' +
+                ", maxEntriesLocalHeap=" + maxEntriesLocalHeap +
+                ", maxBytesLocalHeap='" + maxBytesLocalHeap + '\'' +
+                ", timeToLiveSeconds=" + timeToLiveSeconds +
+                ", timeToIdleSeconds=" + timeToIdleSeconds +
+                '}';
+        }
+    }
+}
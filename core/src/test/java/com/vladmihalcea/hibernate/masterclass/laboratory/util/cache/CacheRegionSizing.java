@@ -0,0 +1,34 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <code>CacheRegionSizing</code> - Sizing and expiry settings of the second-level cache region declared by the
+ * {@link org.hibernate.annotations.Cache} annotation it is placed next to, on an entity or a collection.
+ *
+ * Unset attributes keep the Ehcache default region settings. The annotations are collected by
+ * {@link CacheRegionSettings#annotated(Class[])}.
+ *
+ * @author Vlad Mihalcea
+ */
+@Target({ElementType.TYPE, ElementType.METHOD, ElementType.FIELD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CacheRegionSizing {
+
+    /**
+     * Maximum number of entries kept on heap
+     */
+    long maxEntriesLocalHeap() default 0;
+
+    /**
+     * Maximum heap size of the region entries, e.g. 512k or 10M
+     */
+    String maxBytesLocalHeap() default "";
+
+    long timeToLiveSeconds() default 0;
+
+    long timeToIdleSeconds() default 0;
+}
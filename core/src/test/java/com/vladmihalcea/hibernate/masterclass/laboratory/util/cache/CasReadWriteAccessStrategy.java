@@ -0,0 +1,455 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.ehcache.internal.regions.EhcacheTransactionalDataRegion;
+import org.hibernate.cache.spi.access.SoftLock;
+
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * <code>CasReadWriteAccessStrategy</code> - READ_WRITE access strategy replacing the per-key
+ * write locks with compare-and-swap updates of immutable cache entries.
+ *
+ * Unlike the default Ehcache READ_WRITE strategy, a released soft lock keeps the release timestamp,
+ * so any transaction started afterwards can cache the entry again. After a rollback the entry
+ * no longer stays uncacheable until the lock timeout expires.
+ *
+ * @author Vlad Mihalcea
+ */
+public abstract class CasReadWriteAccessStrategy {
+
+    private final EhcacheTransactionalDataRegion region;
+
+    private final SoftLockStatistics statistics;
+
+    private final Comparator versionComparator;
+
+    private final boolean minimalPutsEnabled;
+
+    private final UUID uuid = UUID.randomUUID();
+
+    private final AtomicLong nextStamp = new AtomicLong();
+
+    protected CasReadWriteAccessStrategy(EhcacheTransactionalDataRegion region, SoftLockStatistics statistics) {
+        this.region = region;
+        this.statistics = statistics;
+        this.versionComparator = region.getCacheDataDescription().getVersionComparator();
+        this.minimalPutsEnabled = region.getSettings().isMinimalPutsEnabled();
+    }
+
+    protected EhcacheTransactionalDataRegion region() {
+        return region;
+    }
+
+    public Object get(Object key, long txTimestamp) throws CacheException {
+        Element element = cache().get(key);
+        if (element == null) {
+            return null;
+        }
+        Object entry = element.getObjectValue();
+        if (entry instanceof Item) {
+            Item item = (Item) entry;
+            return item.isReadable(txTimestamp) ? item.value : null;
+        }
+        statistics.lockedRead();
+        return null;
+    }
+
+    public boolean putFromLoad(Object key, Object value, long txTimestamp, Object version) throws CacheException {
+        return putFromLoad(key, value, txTimestamp, version, minimalPutsEnabled);
+    }
+
+    public boolean putFromLoad(Object key, Object value, long txTimestamp, Object version, boolean minimalPutOverride) throws CacheException {
+        Element newElement = new Element(key, newItem(value, version));
+        for (;;) {
+            Element element = cache().get(key);
+            if (element == null) {
+                if (cache().putIfAbsent(newElement) == null) {
+                    return true;
+                }
+            } else {
+                Object entry = element.getObjectValue();
+                if (entry instanceof Item) {
+                    if (minimalPutOverride || !((Item) entry).isWriteable(version, versionComparator)) {
+                        return false;
+                    }
+                } else {
+                    Lock lock = (Lock) entry;
+                    if (lock.isExpired(txTimestamp)) {
+                        statistics.expired();
+                    } else if (!lock.isWriteable(txTimestamp, version, versionComparator)) {
+                        return false;
+                    }
+                }
+                if (cache().replace(element, newElement)) {
+                    return true;
+                }
+            }
+            statistics.casRetry();
+        }
+    }
+
+    public SoftLock lockItem(Object key, Object version) throws CacheException {
+        for (;;) {
+            long timeout = region.nextTimestamp() + region.getTimeout();
+            Element element = cache().get(key);
+            if (element == null) {
+                Lock lock = newLock(timeout, version, null);
+                if (cache().putIfAbsent(new Element(key, lock)) == null) {
+                    statistics.locked();
+                    return lock;
+                }
+            } else {
+                Object entry = element.getObjectValue();
+                Lock lock;
+                if (entry instanceof Item) {
+                    Item item = (Item) entry;
+                    lock = newLock(timeout, item.version, retainsPreviousItem() ? item : null);
+                } else {
+                    Lock currentLock = (Lock) entry;
+                    lock = currentLock.isActive() && !currentLock.isExpired(region.nextTimestamp()) ?
+                        currentLock.acquire(newStamp(), timeout) :
+                        newLock(timeout, currentLock.version, null);
+                }
+                if (cache().replace(element, new Element(key, lock))) {
+                    statistics.locked();
+                    return lock;
+                }
+            }
+            statistics.casRetry();
+        }
+    }
+
+    public void unlockItem(Object key, SoftLock softLock) throws CacheException {
+        for (;;) {
+            Element element = cache().get(key);
+            Lock lock = lockOf(element, softLock);
+            if (lock == null) {
+                handleLockExpiry(key);
+                return;
+            }
+            Lock releasedLock = lock.release(newStamp(), region.nextTimestamp());
+            if (cache().replace(element, new Element(key, releasedLock))) {
+                if (!releasedLock.isActive()) {
+                    statistics.released(System.nanoTime() - lock.lockedAtNanos);
+                }
+                return;
+            }
+            statistics.casRetry();
+        }
+    }
+
+    public SoftLock lockRegion() throws CacheException {
+        return null;
+    }
+
+    public void unlockRegion(SoftLock lock) throws CacheException {
+        cache().removeAll();
+    }
+
+    public void remove(Object key) throws CacheException {
+    }
+
+    public void removeAll() throws CacheException {
+        cache().removeAll();
+    }
+
+    public void evict(Object key) throws CacheException {
+        cache().remove(key);
+    }
+
+    public void evictAll() throws CacheException {
+        cache().removeAll();
+    }
+
+    /**
+     * Replace the soft lock with the committed entry, unless another transaction has locked it concurrently
+     *
+     * @return if the entry was cached
+     */
+    protected boolean afterUpdate(Object key, Object value, Object version, SoftLock softLock) {
+        for (;;) {
+            Element element = cache().get(key);
+            Lock lock = lockOf(element, softLock);
+            if (lock == null) {
+                handleLockExpiry(key);
+                return false;
+            }
+            if (lock.concurrent) {
+                unlockItem(key, softLock);
+                return false;
+            }
+            if (cache().replace(element, new Element(key, newItem(value, version)))) {
+                statistics.released(System.nanoTime() - lock.lockedAtNanos);
+                return true;
+            }
+            statistics.casRetry();
+        }
+    }
+
+    /**
+     * Get the identifier of the soft lock currently held on the given entry
+     *
+     * @return the soft lock identifier or <code>null</code> if the entry is not locked
+     */
+    protected Object activeLockId(Object key) {
+        Element element = cache().get(key);
+        if (element != null && element.getObjectValue() instanceof Lock) {
+            Lock lock = (Lock) element.getObjectValue();
+            if (lock.isActive()) {
+                return lock.lockId;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replace a released soft lock with an entry derived from the value cached before locking it.
+     * This only works when {@link #retainsPreviousItem()} is enabled and the soft lock was acquired
+     * exactly the given number of times, so no other transaction has locked the entry concurrently.
+     *
+     * @param lockId identifier of the released soft lock
+     * @param acquisitions number of times the soft lock was acquired by the transaction that released it
+     * @param update computes the new value from the previous one, or returns <code>null</code> if it cannot
+     * @return if the entry was cached, otherwise the released lock is left in place
+     */
+    protected boolean replaceReleasedLock(Object key, Object lockId, int acquisitions, UnaryOperator<Object> update) {
+        for (;;) {
+            Element element = cache().get(key);
+            if (element == null || !(element.getObjectValue() instanceof Lock)) {
+                return false;
+            }
+            Lock lock = (Lock) element.getObjectValue();
+            if (lock.isActive() || !lock.lockId.equals(lockId) || lock.acquisitions != acquisitions ||
+                lock.previous == null) {
+                return false;
+            }
+            Object value = update.apply(lock.previous.value);
+            if (value == null) {
+                return false;
+            }
+            if (cache().replace(element, new Element(key, newItem(value, lock.previous.version)))) {
+                return true;
+            }
+            statistics.casRetry();
+        }
+    }
+
+    /**
+     * Keep the cached value inside the soft lock, so it can be updated once the lock is released
+     */
+    protected boolean retainsPreviousItem() {
+        return false;
+    }
+
+    protected boolean afterInsert(Object key, Object value, Object version) {
+        return cache().putIfAbsent(new Element(key, newItem(value, version))) == null;
+    }
+
+    /**
+     * The soft lock timed out, so a concurrent transaction might have cached a stale entry.
+     * Only transactions starting from now on are allowed to cache it again.
+     */
+    private void handleLockExpiry(Object key) {
+        statistics.expired();
+        long timestamp = region.nextTimestamp();
+        cache().put(new Element(key, newLock(timestamp, null, null).release(newStamp(), timestamp)));
+    }
+
+    private Lock lockOf(Element element, SoftLock softLock) {
+        if (element != null && element.getObjectValue() instanceof Lock) {
+            Lock lock = (Lock) element.getObjectValue();
+            if (lock.isSameLock(softLock) && lock.isActive()) {
+                return lock;
+            }
+        }
+        return null;
+    }
+
+    private Item newItem(Object value, Object version) {
+        return new Item(newStamp(), value, version, region.nextTimestamp());
+    }
+
+    private Lock newLock(long timeout, Object version, Item previous) {
+        return new Lock(newStamp(), newStamp(), version, previous, timeout, 1, 1, false, 0, System.nanoTime());
+    }
+
+    private Stamp newStamp() {
+        return new Stamp(uuid, nextStamp.incrementAndGet());
+    }
+
+    private Ehcache cache() {
+        return region.getEhcache();
+    }
+
+    /**
+     * <code>Stamp</code> - Identifies a cache entry instance.
+     *
+     * The disk tier hands out deserialized copies, so the compare-and-swap operations
+     * can only rely on the entry equality, not on its reference.
+     */
+    static final class Stamp implements Serializable {
+
+        private final UUID sourceUuid;
+
+        private final long id;
+
+        Stamp(UUID sourceUuid, long id) {
+            this.sourceUuid = sourceUuid;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Stamp)) return false;
+            Stamp that = (Stamp) o;
+            return id == that.id && sourceUuid.equals(that.sourceUuid);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * sourceUuid.hashCode() + (int) (id ^ (id >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return sourceUuid + ":" + id;
+        }
+    }
+
+    /**
+     * <code>Entry</code> - Immutable cache entry, every change producing a new instance
+     * that is swapped into the cache
+     */
+    abstract static class Entry implements Serializable {
+
+        private final Stamp stamp;
+
+        Entry(Stamp stamp) {
+            this.stamp = stamp;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof Entry && stamp.equals(((Entry) o).stamp));
+        }
+
+        @Override
+        public int hashCode() {
+            return stamp.hashCode();
+        }
+    }
+
+    /**
+     * <code>Item</code> - Cached entry value
+     */
+    static final class Item extends Entry {
+
+        private final Object value;
+
+        private final Object version;
+
+        private final long timestamp;
+
+        Item(Stamp stamp, Object value, Object version, long timestamp) {
+            super(stamp);
+            this.value = value;
+            this.version = version;
+            this.timestamp = timestamp;
+        }
+
+        boolean isReadable(long txTimestamp) {
+            return txTimestamp > timestamp;
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean isWriteable(Object newVersion, Comparator versionComparator) {
+            return version != null && versionComparator.compare(version, newVersion) < 0;
+        }
+    }
+
+    /**
+     * <code>Lock</code> - Soft lock entry
+     */
+    static final class Lock extends Entry implements SoftLock {
+
+        private final Stamp lockId;
+
+        private final Object version;
+
+        private final Item previous;
+
+        private final long timeout;
+
+        private final int multiplicity;
+
+        private final int acquisitions;
+
+        private final boolean concurrent;
+
+        private final long releaseTimestamp;
+
+        private final long lockedAtNanos;
+
+        Lock(Stamp stamp, Stamp lockId, Object version, Item previous, long timeout, int multiplicity,
+             int acquisitions, boolean concurrent, long releaseTimestamp, long lockedAtNanos) {
+            super(stamp);
+            this.lockId = lockId;
+            this.version = version;
+            this.previous = previous;
+            this.timeout = timeout;
+            this.multiplicity = multiplicity;
+            this.acquisitions = acquisitions;
+            this.concurrent = concurrent;
+            this.releaseTimestamp = releaseTimestamp;
+            this.lockedAtNanos = lockedAtNanos;
+        }
+
+        boolean isActive() {
+            return multiplicity > 0;
+        }
+
+        boolean isExpired(long txTimestamp) {
+            return txTimestamp > timeout;
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean isWriteable(long txTimestamp, Object newVersion, Comparator versionComparator) {
+            if (isActive()) {
+                return false;
+            }
+            return txTimestamp > releaseTimestamp ||
+                (version != null && versionComparator.compare(version, newVersion) < 0);
+        }
+
+        boolean isSameLock(SoftLock softLock) {
+            if (!(softLock instanceof Lock)) {
+                return false;
+            }
+            Lock other = (Lock) softLock;
+            return lockId.equals(other.lockId);
+        }
+
+        Lock acquire(Stamp stamp, long newTimeout) {
+            return new Lock(stamp, lockId, version, previous, newTimeout, multiplicity + 1, acquisitions + 1,
+                true, 0, lockedAtNanos);
+        }
+
+        Lock release(Stamp stamp, long timestamp) {
+            return new Lock(stamp, lockId, version, previous, timeout, multiplicity - 1, acquisitions,
+                concurrent, timestamp, lockedAtNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "Lock Lock-ID:" + lockId + " Multiplicity:" + multiplicity;
+        }
+    }
+}
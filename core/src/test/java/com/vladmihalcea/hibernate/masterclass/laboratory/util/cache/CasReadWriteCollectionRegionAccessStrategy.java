@@ -0,0 +1,22 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import org.hibernate.cache.ehcache.internal.regions.EhcacheCollectionRegion;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+
+/**
+ * <code>CasReadWriteCollectionRegionAccessStrategy</code> - CAS-based READ_WRITE collection region access strategy
+ *
+ * @author Vlad Mihalcea
+ */
+public class CasReadWriteCollectionRegionAccessStrategy extends CasReadWriteAccessStrategy implements CollectionRegionAccessStrategy {
+
+    public CasReadWriteCollectionRegionAccessStrategy(EhcacheCollectionRegion region, SoftLockStatistics statistics) {
+        super(region, statistics);
+    }
+
+    @Override
+    public CollectionRegion getRegion() {
+        return (CollectionRegion) region();
+    }
+}
@@ -0,0 +1,44 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.ehcache.internal.regions.EhcacheEntityRegion;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+
+/**
+ * <code>CasReadWriteEntityRegionAccessStrategy</code> - CAS-based READ_WRITE entity region access strategy
+ *
+ * @author Vlad Mihalcea
+ */
+public class CasReadWriteEntityRegionAccessStrategy extends CasReadWriteAccessStrategy implements EntityRegionAccessStrategy {
+
+    public CasReadWriteEntityRegionAccessStrategy(EhcacheEntityRegion region, SoftLockStatistics statistics) {
+        super(region, statistics);
+    }
+
+    @Override
+    public EntityRegion getRegion() {
+        return (EntityRegion) region();
+    }
+
+    @Override
+    public boolean insert(Object key, Object value, Object version) throws CacheException {
+        return false;
+    }
+
+    @Override
+    public boolean afterInsert(Object key, Object value, Object version) throws CacheException {
+        return super.afterInsert(key, value, version);
+    }
+
+    @Override
+    public boolean update(Object key, Object value, Object currentVersion, Object previousVersion) throws CacheException {
+        return false;
+    }
+
+    @Override
+    public boolean afterUpdate(Object key, Object value, Object currentVersion, Object previousVersion, SoftLock lock) throws CacheException {
+        return super.afterUpdate(key, value, currentVersion, lock);
+    }
+}
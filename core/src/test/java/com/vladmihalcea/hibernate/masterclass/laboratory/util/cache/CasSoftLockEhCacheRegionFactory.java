@@ -0,0 +1,100 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import net.sf.ehcache.Ehcache;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.ehcache.EhCacheRegionFactory;
+import org.hibernate.cache.ehcache.internal.regions.EhcacheCollectionRegion;
+import org.hibernate.cache.ehcache.internal.regions.EhcacheEntityRegion;
+import org.hibernate.cache.ehcache.internal.strategy.EhcacheAccessStrategyFactory;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cfg.Settings;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <code>CasSoftLockEhCacheRegionFactory</code> - EhCacheRegionFactory using the CAS-based soft lock
+ * strategies for the READ_WRITE entity and collection regions, while all the other access types
+ * are handled by the default Ehcache strategies.
+ *
+ * @author Vlad Mihalcea
+ */
+public class CasSoftLockEhCacheRegionFactory extends EhCacheRegionFactory {
+
+    private final Map<String, SoftLockStatistics> statistics = new ConcurrentHashMap<>();
+
+    public CasSoftLockEhCacheRegionFactory() {
+    }
+
+    public CasSoftLockEhCacheRegionFactory(Properties properties) {
+        super(properties);
+    }
+
+    @Override
+    public EntityRegion buildEntityRegion(String regionName, Properties properties, CacheDataDescription metadata) throws CacheException {
+        EhcacheEntityRegion region = (EhcacheEntityRegion) super.buildEntityRegion(regionName, properties, metadata);
+        return new SoftLockEntityRegion(
+            accessStrategyFactory, region.getEhcache(), settings, metadata, properties, getSoftLockStatistics(regionName)
+        );
+    }
+
+    @Override
+    public CollectionRegion buildCollectionRegion(String regionName, Properties properties, CacheDataDescription metadata) throws CacheException {
+        EhcacheCollectionRegion region = (EhcacheCollectionRegion) super.buildCollectionRegion(regionName, properties, metadata);
+        return new SoftLockCollectionRegion(
+            accessStrategyFactory, region.getEhcache(), settings, metadata, properties, getSoftLockStatistics(regionName)
+        );
+    }
+
+    public SoftLockStatistics getSoftLockStatistics(String regionName) {
+        return statistics.computeIfAbsent(regionName, name -> new SoftLockStatistics());
+    }
+
+    protected CollectionRegionAccessStrategy buildReadWriteAccessStrategy(EhcacheCollectionRegion region, SoftLockStatistics statistics) {
+        return new CasReadWriteCollectionRegionAccessStrategy(region, statistics);
+    }
+
+    private static class SoftLockEntityRegion extends EhcacheEntityRegion {
+
+        private final SoftLockStatistics statistics;
+
+        SoftLockEntityRegion(EhcacheAccessStrategyFactory accessStrategyFactory, Ehcache underlyingCache, Settings settings,
+                             CacheDataDescription metadata, Properties properties, SoftLockStatistics statistics) {
+            super(accessStrategyFactory, underlyingCache, settings, metadata, properties);
+            this.statistics = statistics;
+        }
+
+        @Override
+        public EntityRegionAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
+            if (accessType == AccessType.READ_WRITE) {
+                return new CasReadWriteEntityRegionAccessStrategy(this, statistics);
+            }
+            return super.buildAccessStrategy(accessType);
+        }
+    }
+
+    private class SoftLockCollectionRegion extends EhcacheCollectionRegion {
+
+        private final SoftLockStatistics statistics;
+
+        SoftLockCollectionRegion(EhcacheAccessStrategyFactory accessStrategyFactory, Ehcache underlyingCache, Settings settings,
+                                 CacheDataDescription metadata, Properties properties, SoftLockStatistics statistics) {
+            super(accessStrategyFactory, underlyingCache, settings, metadata, properties);
+            this.statistics = statistics;
+        }
+
+        @Override
+        public CollectionRegionAccessStrategy buildAccessStrategy(AccessType accessType) throws CacheException {
+            if (accessType == AccessType.READ_WRITE) {
+                return buildReadWriteAccessStrategy(this, statistics);
+            }
+            return super.buildAccessStrategy(accessType);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.cache.spi.CacheKey;
+import org.hibernate.collection.internal.PersistentBag;
+import org.hibernate.collection.internal.PersistentSet;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.spi.CollectionEntry;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PreCollectionUpdateEvent;
+import org.hibernate.event.spi.PreCollectionUpdateEventListener;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <code>CollectionCacheDeltaListener</code> - Captures the elements added to and removed from the
+ * collections cached by a {@link DeltaCollectionRegionAccessStrategy} and hands them over
+ * once the transaction is committed.
+ *
+ * The deltas are kept per Session, along with the soft lock every collection action acquired, until the
+ * transaction completes. A rollback discards them, while a commit applies them once all the collection
+ * actions have released their soft locks. The deltas of a collection changed by several flushes are merged.
+ *
+ * Only non-indexed, unordered bags and sets of entities or basic values are supported.
+ * For all other collections no delta is recorded, so their cache entries are invalidated.
+ *
+ * @author Vlad Mihalcea
+ */
+public class CollectionCacheDeltaListener implements PreCollectionUpdateEventListener, SessionFactoryObserver {
+
+    private volatile boolean enabled = true;
+
+    private final Map<SessionImplementor, Map<CacheKey, PendingDelta>> sessionDeltas = new ConcurrentHashMap<>();
+
+    public CollectionCacheDeltaListener integrate(SessionFactory sessionFactory) {
+        EventListenerRegistry eventListenerRegistry = ((SessionFactoryImplementor) sessionFactory).getServiceRegistry()
+            .getService(EventListenerRegistry.class);
+        eventListenerRegistry.appendListeners(EventType.PRE_COLLECTION_UPDATE, this);
+        return this;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void sessionFactoryCreated(SessionFactory factory) {
+        integrate(factory);
+    }
+
+    @Override
+    public void sessionFactoryClosed(SessionFactory factory) {
+    }
+
+    @Override
+    public void onPreUpdateCollection(PreCollectionUpdateEvent event) {
+        if (!enabled) {
+            return;
+        }
+        PersistentCollection collection = event.getCollection();
+        EventSource session = event.getSession();
+        CollectionEntry collectionEntry = session.getPersistenceContext().getCollectionEntry(collection);
+        CollectionPersister persister = collectionEntry.getLoadedPersister();
+        if (persister == null || !(persister.getCacheAccessStrategy() instanceof DeltaCollectionRegionAccessStrategy)) {
+            return;
+        }
+        DeltaCollectionRegionAccessStrategy.CollectionDelta delta = delta(collection, persister, session);
+        DeltaCollectionRegionAccessStrategy strategy = (DeltaCollectionRegionAccessStrategy) persister.getCacheAccessStrategy();
+        CacheKey cacheKey = session.generateCacheKey(
+            collectionEntry.getLoadedKey(),
+            persister.getKeyType(),
+            persister.getRole()
+        );
+        Map<CacheKey, PendingDelta> pendingDeltas = sessionDeltas.get(session);
+        if (pendingDeltas == null) {
+            if (delta == null) {
+                return;
+            }
+            pendingDeltas = new HashMap<>();
+            sessionDeltas.put(session, pendingDeltas);
+            session.getActionQueue().registerProcess(this::afterTransactionCompletion);
+        }
+        //the update action locks the entry, and so does the queued operation action of an uninitialized collection
+        int acquisitions = !collection.wasInitialized() && collection.hasQueuedOperations() ? 2 : 1;
+        Object lockId = strategy.getLockId(cacheKey);
+        PendingDelta pendingDelta = pendingDeltas.get(cacheKey);
+        if (pendingDelta == null) {
+            if (delta != null) {
+                pendingDeltas.put(cacheKey, new PendingDelta(strategy, lockId, acquisitions, delta));
+            }
+        } else {
+            pendingDelta.merge(lockId, acquisitions, delta);
+        }
+    }
+
+    private void afterTransactionCompletion(boolean success, SessionImplementor session) {
+        Map<CacheKey, PendingDelta> pendingDeltas = sessionDeltas.remove(session);
+        if (success && pendingDeltas != null) {
+            //the collection actions release their soft locks in the completion processes registered after this one
+            ((EventSource) session).getActionQueue().registerProcess((completed, sessionImplementor) -> {
+                for (Map.Entry<CacheKey, PendingDelta> entry : pendingDeltas.entrySet()) {
+                    entry.getValue().apply(entry.getKey());
+                }
+            });
+        }
+    }
+
+    private DeltaCollectionRegionAccessStrategy.CollectionDelta delta(PersistentCollection collection,
+            CollectionPersister persister, EventSource session) {
+        if (persister.hasIndex() || persister.hasOrdering() || persister.getElementType().isComponentType()) {
+            return null;
+        }
+        boolean unique = collection instanceof PersistentSet;
+        if (!unique && !(collection instanceof PersistentBag)) {
+            return null;
+        }
+        if (!collection.wasInitialized()) {
+            List<Serializable> added = new ArrayList<>();
+            for (Iterator iterator = collection.queuedAdditionIterator(); iterator.hasNext(); ) {
+                Object element = iterator.next();
+                if (element == null) {
+                    return null;
+                }
+                added.add(disassemble(element, persister, session));
+            }
+            return new DeltaCollectionRegionAccessStrategy.CollectionDelta(added, Collections.emptyList(), unique);
+        }
+        Serializable snapshot = collection.getStoredSnapshot();
+        if (snapshot == null) {
+            return null;
+        }
+        Collection<?> previousElements = unique ? ((Map<?, ?>) snapshot).keySet() : (Collection<?>) snapshot;
+        Map<Serializable, Integer> previousCounts = new HashMap<>();
+        for (Object element : previousElements) {
+            previousCounts.merge(disassemble(element, persister, session), 1, Integer::sum);
+        }
+        List<Serializable> added = new ArrayList<>();
+        for (Iterator iterator = collection.entries(persister); iterator.hasNext(); ) {
+            Serializable element = disassemble(iterator.next(), persister, session);
+            if (previousCounts.merge(element, -1, Integer::sum) < 0) {
+                previousCounts.remove(element);
+                added.add(element);
+            }
+        }
+        List<Serializable> removed = new ArrayList<>();
+        for (Map.Entry<Serializable, Integer> previousCount : previousCounts.entrySet()) {
+            for (int i = 0; i < previousCount.getValue(); i++) {
+                removed.add(previousCount.getKey());
+            }
+        }
+        return new DeltaCollectionRegionAccessStrategy.CollectionDelta(added, removed, unique);
+    }
+
+    private Serializable disassemble(Object element, CollectionPersister persister, EventSource session) {
+        Type elementType = persister.getElementType();
+        return elementType.disassemble(element, session, null);
+    }
+
+    /**
+     * <code>PendingDelta</code> - Delta of a collection changed by the current transaction,
+     * and the soft lock the transaction acquired for it
+     */
+    private static class PendingDelta {
+
+        private final DeltaCollectionRegionAccessStrategy strategy;
+
+        private final Object lockId;
+
+        private int acquisitions;
+
+        private DeltaCollectionRegionAccessStrategy.CollectionDelta delta;
+
+        private PendingDelta(DeltaCollectionRegionAccessStrategy strategy, Object lockId, int acquisitions,
+                             DeltaCollectionRegionAccessStrategy.CollectionDelta delta) {
+            this.strategy = strategy;
+            this.lockId = lockId;
+            this.acquisitions = acquisitions;
+            this.delta = delta;
+        }
+
+        /**
+         * A change without a delta, or locked by another soft lock, leaves the entry invalidated
+         */
+        private void merge(Object nextLockId, int nextAcquisitions, DeltaCollectionRegionAccessStrategy.CollectionDelta next) {
+            acquisitions += nextAcquisitions;
+            delta = delta != null && next != null && Objects.equals(lockId, nextLockId) ? delta.merge(next) : null;
+        }
+
+        private void apply(CacheKey cacheKey) {
+            if (lockId != null && delta != null) {
+                strategy.applyDelta(cacheKey, lockId, acquisitions, delta);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import org.hibernate.cache.ehcache.internal.regions.EhcacheCollectionRegion;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+
+import java.util.Properties;
+
+/**
+ * <code>DeltaCollectionEhCacheRegionFactory</code> - CasSoftLockEhCacheRegionFactory whose READ_WRITE
+ * collection regions apply the committed element changes to the cached collection state.
+ *
+ * Requires the {@link CollectionCacheDeltaListener} to be registered with the SessionFactory,
+ * otherwise the collection entries are invalidated just like with the default strategy.
+ *
+ * @author Vlad Mihalcea
+ */
+public class DeltaCollectionEhCacheRegionFactory extends CasSoftLockEhCacheRegionFactory {
+
+    public DeltaCollectionEhCacheRegionFactory() {
+    }
+
+    public DeltaCollectionEhCacheRegionFactory(Properties properties) {
+        super(properties);
+    }
+
+    @Override
+    protected CollectionRegionAccessStrategy buildReadWriteAccessStrategy(EhcacheCollectionRegion region, SoftLockStatistics statistics) {
+        return new DeltaCollectionRegionAccessStrategy(region, statistics);
+    }
+}
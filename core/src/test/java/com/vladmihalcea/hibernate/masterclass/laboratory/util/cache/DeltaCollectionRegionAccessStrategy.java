@@ -0,0 +1,144 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import org.hibernate.cache.ehcache.internal.regions.EhcacheCollectionRegion;
+import org.hibernate.cache.spi.entry.CollectionCacheEntry;
+import org.hibernate.cache.spi.entry.StructuredCollectionCacheEntry;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <code>DeltaCollectionRegionAccessStrategy</code> - CAS-based READ_WRITE collection region access strategy
+ * that applies the committed element additions and removals to the cached collection state,
+ * instead of invalidating the whole collection entry.
+ *
+ * The deltas are collected by the {@link CollectionCacheDeltaListener}, per Session, and applied once the
+ * committed transaction has released all its soft locks of the collection entry. Whenever a delta cannot be applied
+ * (the entry was locked by another transaction too, the lock expired, unknown cache entry format, element missing
+ * from the cached state), the released soft lock stays in place and the collection gets reloaded on the next access.
+ *
+ * @author Vlad Mihalcea
+ */
+public class DeltaCollectionRegionAccessStrategy extends CasReadWriteCollectionRegionAccessStrategy {
+
+    private final AtomicLong appliedDeltaCount = new AtomicLong();
+
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    public DeltaCollectionRegionAccessStrategy(EhcacheCollectionRegion region, SoftLockStatistics statistics) {
+        super(region, statistics);
+    }
+
+    /**
+     * Get the identifier of the soft lock currently held on the given collection entry
+     *
+     * @return the soft lock identifier or <code>null</code> if the entry is not locked
+     */
+    public Object getLockId(Object key) {
+        return activeLockId(key);
+    }
+
+    /**
+     * Apply the delta of a committed transaction after it released its soft locks of the collection entry
+     *
+     * @param key collection entry key
+     * @param lockId identifier of the soft lock acquired by the committed transaction
+     * @param acquisitions number of times the committed transaction acquired the soft lock
+     * @param delta committed collection delta
+     * @return if the delta was applied, otherwise the collection entry stays invalidated
+     */
+    public boolean applyDelta(Object key, Object lockId, int acquisitions, CollectionDelta delta) {
+        if (replaceReleasedLock(key, lockId, acquisitions, value -> apply(value, delta))) {
+            appliedDeltaCount.incrementAndGet();
+            return true;
+        }
+        invalidationCount.incrementAndGet();
+        return false;
+    }
+
+    @Override
+    protected boolean retainsPreviousItem() {
+        return true;
+    }
+
+    public long getAppliedDeltaCount() {
+        return appliedDeltaCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public void clearStatistics() {
+        appliedDeltaCount.set(0);
+        invalidationCount.set(0);
+    }
+
+    private Object apply(Object value, CollectionDelta delta) {
+        if (!(value instanceof CollectionCacheEntry)) {
+            return null;
+        }
+        List<Serializable> state = new ArrayList<>(Arrays.asList(((CollectionCacheEntry) value).getState()));
+        for (Serializable removed : delta.removed) {
+            if (!state.remove(removed)) {
+                return null;
+            }
+        }
+        if (delta.unique && !delta.added.isEmpty()) {
+            Set<Serializable> elements = new HashSet<>(state);
+            for (Serializable added : delta.added) {
+                if (!elements.add(added)) {
+                    return null;
+                }
+            }
+        }
+        state.addAll(delta.added);
+        return StructuredCollectionCacheEntry.INSTANCE.destructure(state, null);
+    }
+
+    /**
+     * <code>CollectionDelta</code> - Disassembled elements added to and removed from a collection
+     */
+    public static class CollectionDelta {
+
+        private final List<Serializable> added;
+
+        private final List<Serializable> removed;
+
+        private final boolean unique;
+
+        public CollectionDelta(List<Serializable> added, List<Serializable> removed, boolean unique) {
+            this.added = added;
+            this.removed = removed;
+            this.unique = unique;
+        }
+
+        public List<Serializable> getAdded() {
+            return added;
+        }
+
+        public List<Serializable> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Combine this delta with the delta of a subsequent change of the same collection
+         */
+        public CollectionDelta merge(CollectionDelta next) {
+            List<Serializable> mergedAdded = new ArrayList<>(added);
+            List<Serializable> mergedRemoved = new ArrayList<>(removed);
+            for (Serializable element : next.removed) {
+                if (!mergedAdded.remove(element)) {
+                    mergedRemoved.add(element);
+                }
+            }
+            mergedAdded.addAll(next.added);
+            return new CollectionDelta(mergedAdded, mergedRemoved, unique);
+        }
+    }
+}
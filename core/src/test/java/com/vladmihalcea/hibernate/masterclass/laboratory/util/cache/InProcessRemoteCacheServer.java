@@ -0,0 +1,112 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import org.hibernate.internal.util.SerializationHelper;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <code>InProcessRemoteCacheServer</code> - In-process stand-in for a remote cache server.
+ *
+ * Values are stored in their serialized form, so every node gets its own copy like it would
+ * over the network, and invalidations are delivered asynchronously after a configurable delay
+ * to emulate the messaging latency.
+ *
+ * @author Vlad Mihalcea
+ */
+public class InProcessRemoteCacheServer implements RemoteCacheTransport {
+
+    private final ConcurrentMap<String, ConcurrentMap<Object, byte[]>> regions = new ConcurrentHashMap<>();
+
+    private final Map<String, InvalidationListener> listeners = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService invalidationExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "InvalidationChannel");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong roundTripCount = new AtomicLong();
+
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    private volatile long invalidationDelayMillis;
+
+    public void setInvalidationDelayMillis(long invalidationDelayMillis) {
+        this.invalidationDelayMillis = invalidationDelayMillis;
+    }
+
+    public long getRoundTripCount() {
+        return roundTripCount.get();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    public int size(String region) {
+        return getRegion(region).size();
+    }
+
+    @Override
+    public Object get(String region, Object key) {
+        roundTripCount.incrementAndGet();
+        byte[] value = getRegion(region).get(key);
+        return value != null ? SerializationHelper.deserialize(value) : null;
+    }
+
+    @Override
+    public void put(String region, Object key, Object value) {
+        roundTripCount.incrementAndGet();
+        getRegion(region).put(key, SerializationHelper.serialize((Serializable) value));
+    }
+
+    @Override
+    public void remove(String region, Object key) {
+        roundTripCount.incrementAndGet();
+        getRegion(region).remove(key);
+    }
+
+    @Override
+    public void clear(String region) {
+        roundTripCount.incrementAndGet();
+        getRegion(region).clear();
+    }
+
+    @Override
+    public void publish(String node, String region, Object key) {
+        for (Map.Entry<String, InvalidationListener> listenerEntry : listeners.entrySet()) {
+            if (!listenerEntry.getKey().equals(node)) {
+                InvalidationListener listener = listenerEntry.getValue();
+                invalidationExecutor.schedule(() -> {
+                    invalidationCount.incrementAndGet();
+                    listener.onInvalidation(region, key);
+                }, invalidationDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(String node, InvalidationListener listener) {
+        listeners.put(node, listener);
+    }
+
+    @Override
+    public void unsubscribe(String node) {
+        listeners.remove(node);
+    }
+
+    public void shutdown() {
+        invalidationExecutor.shutdownNow();
+    }
+
+    private ConcurrentMap<Object, byte[]> getRegion(String region) {
+        return regions.computeIfAbsent(region, name -> new ConcurrentHashMap<>());
+    }
+}
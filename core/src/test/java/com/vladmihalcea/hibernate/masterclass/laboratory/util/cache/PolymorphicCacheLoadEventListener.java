@@ -0,0 +1,223 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import org.hibernate.LockMode;
+import org.hibernate.MappingException;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.cache.spi.CacheKey;
+import org.hibernate.cache.spi.entry.CacheEntry;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.internal.CacheHelper;
+import org.hibernate.engine.spi.EntityKey;
+import org.hibernate.engine.spi.PersistenceContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.internal.DefaultLoadEventListener;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.LoadEvent;
+import org.hibernate.event.spi.LoadEventListener;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.RootClass;
+import org.hibernate.persister.entity.EntityPersister;
+
+import javax.persistence.Cacheable;
+import javax.persistence.SharedCacheMode;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <code>PolymorphicCacheLoadEventListener</code> - Load event listener resolving the entities of an inheritance
+ * hierarchy from the second-level cache region of the hierarchy root, where the entries are indexed by the
+ * root class identifier, even if the requested class is a super class or a sibling of the cached one.
+ *
+ * When the cached entry is of the requested class or one of its subclasses, the concrete entity is returned
+ * instead of a base class proxy. When the cached entry belongs to a different subclass, a
+ * <code>Session#get</code> returns <code>null</code> without issuing a discriminator-filtered SELECT.
+ *
+ * Hibernate only caches an entity hierarchy at the root class level, so {@link #cacheHierarchies(Configuration)}
+ * moves the cache settings of the <code>@Cacheable</code> subclasses to their hierarchy root.
+ *
+ * @author Vlad Mihalcea
+ */
+public class PolymorphicCacheLoadEventListener extends DefaultLoadEventListener implements SessionFactoryObserver {
+
+    private static final String SHARED_CACHE_MODE = "javax.persistence.sharedCache.mode";
+
+    private final AtomicLong resolvedSubclassCount = new AtomicLong();
+
+    private final AtomicLong subclassMismatchCount = new AtomicLong();
+
+    private volatile boolean enabled = true;
+
+    /**
+     * Cache every hierarchy having no root cache settings, but at least one cacheable subclass, according to the
+     * subclass {@link Cache} annotation or to the <code>@Cacheable</code> annotation and the shared cache mode
+     *
+     * @param configuration configuration containing all the entity mappings
+     * @return the cache concurrency strategy of every hierarchy which got cached, by root entity name
+     */
+    public static Map<String, String> cacheHierarchies(Configuration configuration) {
+        configuration.buildMappings();
+        Object sharedCacheMode = configuration.getProperties().get(SHARED_CACHE_MODE);
+        SharedCacheMode mode = sharedCacheMode == null ? SharedCacheMode.UNSPECIFIED :
+            SharedCacheMode.valueOf(sharedCacheMode.toString());
+        String defaultUsage = configuration.getProperty(Environment.DEFAULT_CACHE_CONCURRENCY_STRATEGY);
+        Map<String, String> hierarchyUsages = new HashMap<>();
+        for (Iterator<PersistentClass> iterator = configuration.getClassMappings(); iterator.hasNext(); ) {
+            PersistentClass persistentClass = iterator.next();
+            RootClass rootClass = persistentClass.getRootClass();
+            if (persistentClass == rootClass || rootClass.getCacheConcurrencyStrategy() != null) {
+                continue;
+            }
+            String usage = usage(persistentClass.getMappedClass(), mode, defaultUsage);
+            if (usage == null) {
+                continue;
+            }
+            String previousUsage = hierarchyUsages.put(rootClass.getEntityName(), usage);
+            if (previousUsage != null && !previousUsage.equals(usage)) {
+                throw new MappingException(
+                    "The subclasses of " + rootClass.getEntityName() + " use different cache concurrency strategies: " +
+                    previousUsage + " and " + usage
+                );
+            }
+        }
+        for (Map.Entry<String, String> hierarchyUsage : hierarchyUsages.entrySet()) {
+            configuration.setCacheConcurrencyStrategy(hierarchyUsage.getKey(), hierarchyUsage.getValue());
+        }
+        return hierarchyUsages;
+    }
+
+    private static String usage(Class<?> mappedClass, SharedCacheMode mode, String defaultUsage) {
+        Cache cache = mappedClass.getAnnotation(Cache.class);
+        if (cache != null) {
+            return cache.usage() == CacheConcurrencyStrategy.NONE ? null : cache.usage().toAccessType().getExternalName();
+        }
+        Cacheable cacheable = mappedClass.getAnnotation(Cacheable.class);
+        boolean cached;
+        switch (mode) {
+            case ALL:
+                cached = true;
+                break;
+            case ENABLE_SELECTIVE:
+                cached = cacheable != null && cacheable.value();
+                break;
+            case DISABLE_SELECTIVE:
+                cached = cacheable == null || cacheable.value();
+                break;
+            default:
+                cached = false;
+        }
+        if (!cached) {
+            return null;
+        }
+        if (defaultUsage == null) {
+            throw new MappingException(
+                "No cache concurrency strategy for " + mappedClass.getName() + ", either add a @Cache annotation or set " +
+                Environment.DEFAULT_CACHE_CONCURRENCY_STRATEGY
+            );
+        }
+        return defaultUsage;
+    }
+
+    public PolymorphicCacheLoadEventListener integrate(SessionFactory sessionFactory) {
+        EventListenerRegistry eventListenerRegistry = ((SessionFactoryImplementor) sessionFactory).getServiceRegistry()
+            .getService(EventListenerRegistry.class);
+        eventListenerRegistry.setListeners(EventType.LOAD, this);
+        return this;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void sessionFactoryCreated(SessionFactory factory) {
+        integrate(factory);
+    }
+
+    @Override
+    public void sessionFactoryClosed(SessionFactory factory) {
+    }
+
+    /**
+     * Number of polymorphic loads resolved to the cached subclass entity instead of a base class proxy
+     */
+    public long getResolvedSubclassCount() {
+        return resolvedSubclassCount.get();
+    }
+
+    /**
+     * Number of loads answered from the cached entry subclass, without the discriminator-filtered SELECT
+     */
+    public long getSubclassMismatchCount() {
+        return subclassMismatchCount.get();
+    }
+
+    public void clearStatistics() {
+        resolvedSubclassCount.set(0);
+        subclassMismatchCount.set(0);
+    }
+
+    @Override
+    protected Object proxyOrLoad(LoadEvent event, EntityPersister persister, EntityKey keyToLoad,
+            LoadEventListener.LoadType options) {
+        if (options.isAllowProxyCreation() && persister.hasProxy() && !isManaged(event, keyToLoad)) {
+            String cachedEntityName = cachedEntityName(event, persister);
+            if (cachedEntityName != null && !cachedEntityName.equals(persister.getEntityName()) &&
+                persister.isSubclassEntityName(cachedEntityName)) {
+                resolvedSubclassCount.incrementAndGet();
+                return load(event, persister, keyToLoad, options);
+            }
+        }
+        return super.proxyOrLoad(event, persister, keyToLoad, options);
+    }
+
+    @Override
+    protected Object doLoad(LoadEvent event, EntityPersister persister, EntityKey keyToLoad,
+            LoadEventListener.LoadType options) {
+        if (!isManaged(event, keyToLoad)) {
+            String cachedEntityName = cachedEntityName(event, persister);
+            if (cachedEntityName != null && !persister.isSubclassEntityName(cachedEntityName)) {
+                subclassMismatchCount.incrementAndGet();
+                return null;
+            }
+        }
+        return super.doLoad(event, persister, keyToLoad, options);
+    }
+
+    private boolean isManaged(LoadEvent event, EntityKey keyToLoad) {
+        PersistenceContext persistenceContext = event.getSession().getPersistenceContext();
+        return persistenceContext.getEntity(keyToLoad) != null || persistenceContext.getProxy(keyToLoad) != null;
+    }
+
+    /**
+     * Peek at the root class cache entry, without affecting the cache statistics
+     *
+     * @return the cached entity name or <code>null</code> if the entity is not cached
+     */
+    private String cachedEntityName(LoadEvent event, EntityPersister persister) {
+        SessionImplementor session = event.getSession();
+        if (!enabled || !persister.hasCache() || !persister.getEntityMetamodel().isPolymorphic() || event.getInstanceToLoad() != null ||
+            !session.getCacheMode().isGetEnabled() || !event.getLockMode().lessThan(LockMode.READ)) {
+            return null;
+        }
+        CacheKey cacheKey = session.generateCacheKey(
+            event.getEntityId(),
+            persister.getIdentifierType(),
+            persister.getRootEntityName()
+        );
+        Serializable cachedValue = CacheHelper.fromSharedCache(session, cacheKey, persister.getCacheAccessStrategy());
+        if (cachedValue == null) {
+            return null;
+        }
+        CacheEntry cacheEntry = (CacheEntry) persister.getCacheEntryStructure().destructure(cachedValue, session.getFactory());
+        return cacheEntry.isReferenceEntry() ? null : cacheEntry.getSubclass();
+    }
+}
@@ -0,0 +1,46 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+/**
+ * <code>RemoteCacheTransport</code> - Transport to the shared remote cache tier
+ * and to the invalidation channel connecting all cache nodes.
+ *
+ * @author Vlad Mihalcea
+ */
+public interface RemoteCacheTransport {
+
+    /**
+     * <code>InvalidationListener</code> - Receives the invalidations published by the other nodes
+     */
+    @FunctionalInterface
+    interface InvalidationListener {
+
+        /**
+         * Invalidate a region entry
+         *
+         * @param region region name
+         * @param key entry key or <code>null</code> if the whole region is invalidated
+         */
+        void onInvalidation(String region, Object key);
+    }
+
+    Object get(String region, Object key);
+
+    void put(String region, Object key, Object value);
+
+    void remove(String region, Object key);
+
+    void clear(String region);
+
+    /**
+     * Notify all the other nodes that a region entry has changed
+     *
+     * @param node publishing node
+     * @param region region name
+     * @param key entry key or <code>null</code> if the whole region is invalidated
+     */
+    void publish(String node, String region, Object key);
+
+    void subscribe(String node, InvalidationListener listener);
+
+    void unsubscribe(String node);
+}
@@ -0,0 +1,247 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.Transaction;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.cache.CacheException;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <code>SecondLevelCachePreloader</code> - Warms up the READ_ONLY entity and collection regions
+ * right after the SessionFactory is built, so the first requests don't all miss the cache.
+ *
+ * Every entity and collection is streamed with a forward-only scroll on its own thread, even when several of them
+ * share a region, and the loaded entries are put through the regular second-level cache put-from-load path.
+ *
+ * @author Vlad Mihalcea
+ */
+public class SecondLevelCachePreloader implements SessionFactoryObserver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SecondLevelCachePreloader.class);
+
+    private final List<Class<?>> entityClasses = new ArrayList<>();
+
+    private final List<String> collectionRoles = new ArrayList<>();
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private int fetchSize = 100;
+
+    private volatile PreloadReport lastReport;
+
+    public SecondLevelCachePreloader entity(Class<?> entityClass) {
+        if (!isReadOnly(entityClass)) {
+            throw new IllegalArgumentException("Entity " + entityClass.getName() + " is not mapped to a READ_ONLY cache region!");
+        }
+        entityClasses.add(entityClass);
+        return this;
+    }
+
+    public SecondLevelCachePreloader collection(Class<?> ownerClass, String propertyName) {
+        if (!isReadOnly(property(ownerClass, propertyName))) {
+            throw new IllegalArgumentException("Collection " + ownerClass.getName() + "." + propertyName + " is not mapped to a READ_ONLY cache region!");
+        }
+        collectionRoles.add(ownerClass.getName() + "." + propertyName);
+        return this;
+    }
+
+    public SecondLevelCachePreloader parallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public SecondLevelCachePreloader fetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    public PreloadReport getLastReport() {
+        return lastReport;
+    }
+
+    @Override
+    public void sessionFactoryCreated(SessionFactory factory) {
+        preload(factory);
+    }
+
+    @Override
+    public void sessionFactoryClosed(SessionFactory factory) {
+    }
+
+    /**
+     * Load all configured regions in parallel
+     *
+     * @param factory session factory
+     * @return the number of entries loaded per entity name and collection role along with the warm-up duration
+     */
+    public PreloadReport preload(SessionFactory factory) {
+        SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) factory;
+        Map<String, Callable<Long>> tasks = new LinkedHashMap<>();
+        for (Class<?> entityClass : entityClasses) {
+            EntityPersister persister = sessionFactory.getEntityPersister(entityClass.getName());
+            if (!persister.hasCache()) {
+                throw new CacheException("Entity " + persister.getEntityName() + " has no second-level cache region!");
+            }
+            tasks.put(persister.getEntityName(), () -> preloadEntities(sessionFactory, persister));
+        }
+        for (String role : collectionRoles) {
+            CollectionPersister persister = sessionFactory.getCollectionPersister(role);
+            if (!persister.hasCache()) {
+                throw new CacheException("Collection " + role + " has no second-level cache region!");
+            }
+            tasks.put(role, () -> preloadCollections(sessionFactory, persister));
+        }
+        long startNanos = System.nanoTime();
+        Map<String, Long> entryCounts = new LinkedHashMap<>();
+        if (!tasks.isEmpty()) {
+            AtomicInteger threadCount = new AtomicInteger();
+            ExecutorService executorService = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(parallelism, tasks.size())),
+                r -> new Thread(r, "CachePreloader-" + threadCount.incrementAndGet())
+            );
+            try {
+                Map<String, Future<Long>> futures = new LinkedHashMap<>();
+                for (Map.Entry<String, Callable<Long>> task : tasks.entrySet()) {
+                    futures.put(task.getKey(), executorService.submit(task.getValue()));
+                }
+                for (Map.Entry<String, Future<Long>> future : futures.entrySet()) {
+                    entryCounts.put(future.getKey(), future.getValue().get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CacheException(e);
+            } catch (ExecutionException e) {
+                throw new CacheException("Cache preload failed", e.getCause());
+            } finally {
+                executorService.shutdownNow();
+            }
+        }
+        PreloadReport report = new PreloadReport(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), entryCounts);
+        LOGGER.info("Cache preload took {} millis, entries loaded per entity and collection: {}", report.getDurationMillis(), report.getEntryCounts());
+        lastReport = report;
+        return report;
+    }
+
+    private long preloadEntities(SessionFactoryImplementor sessionFactory, EntityPersister persister) {
+        return scroll(sessionFactory, String.format("select e from %s e", persister.getEntityName()));
+    }
+
+    private long preloadCollections(SessionFactoryImplementor sessionFactory, CollectionPersister persister) {
+        String ownerEntityName = persister.getOwnerEntityPersister().getEntityName();
+        String identifierName = persister.getOwnerEntityPersister().getIdentifierPropertyName();
+        String propertyName = persister.getRole().substring(ownerEntityName.length() + 1);
+        return scroll(sessionFactory, String.format(
+            "select o from %1$s o left join fetch o.%2$s order by o.%3$s",
+            ownerEntityName, propertyName, identifierName
+        ));
+    }
+
+    /**
+     * Stream the query results, letting the loader put every entity and collection it builds
+     * into the second-level cache
+     *
+     * @return the number of root entities that were loaded
+     */
+    private long scroll(SessionFactoryImplementor sessionFactory, String hql) {
+        Session session = sessionFactory.openSession();
+        session.setCacheMode(CacheMode.REFRESH);
+        session.setDefaultReadOnly(true);
+        Transaction txn = session.beginTransaction();
+        try {
+            long count = 0;
+            ScrollableResults results = session.createQuery(hql)
+                .setFetchSize(fetchSize)
+                .scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (results.next()) {
+                    if (++count % fetchSize == 0) {
+                        session.clear();
+                    }
+                }
+            } finally {
+                results.close();
+            }
+            txn.commit();
+            return count;
+        } catch (RuntimeException e) {
+            if (txn.isActive()) txn.rollback();
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+
+    private static boolean isReadOnly(AnnotatedElement element) {
+        Cache cache = element.getAnnotation(Cache.class);
+        return cache != null && cache.usage() == CacheConcurrencyStrategy.READ_ONLY;
+    }
+
+    private static AnnotatedElement property(Class<?> ownerClass, String propertyName) {
+        for (Class<?> clazz = ownerClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass()) {
+            try {
+                return clazz.getDeclaredField(propertyName);
+            } catch (NoSuchFieldException ignore) {
+            }
+            String getterName = "get" + Character.toUpperCase(propertyName.charAt(0)) + propertyName.substring(1);
+            for (Method method : clazz.getDeclaredMethods()) {
+                if (method.getName().equals(getterName) && method.getParameterCount() == 0) {
+                    return method;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Property " + propertyName + " not found in " + ownerClass.getName());
+    }
+
+    /**
+     * <code>PreloadReport</code> - Warm-up duration and the number of entries loaded per entity name and collection role
+     */
+    public static class PreloadReport {
+
+        private final long durationMillis;
+
+        private final Map<String, Long> entryCounts;
+
+        PreloadReport(long durationMillis, Map<String, Long> entryCounts) {
+            this.durationMillis = durationMillis;
+            this.entryCounts = Collections.unmodifiableMap(entryCounts);
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public Map<String, Long> getEntryCounts() {
+            return entryCounts;
+        }
+
+        public long getEntryCount(String name) {
+            Long entryCount = entryCounts.get(name);
+            return entryCount != null ? entryCount : 0;
+        }
+    }
+}
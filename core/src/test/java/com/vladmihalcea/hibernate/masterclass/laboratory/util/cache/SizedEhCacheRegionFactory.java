@@ -0,0 +1,59 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.ConfigurationFactory;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.ehcache.EhCacheRegionFactory;
+import org.hibernate.cfg.Settings;
+
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * <code>SizedEhCacheRegionFactory</code> - EhCacheRegionFactory creating the regions declared by the
+ * {@link CacheRegionSettings#SETTINGS} configuration property with their own sizing and expiry settings,
+ * while all the other regions use the Ehcache defaults.
+ *
+ * Every factory uses its own CacheManager, so multiple SessionFactory instances can be built in the same JVM.
+ *
+ * @author Vlad Mihalcea
+ */
+public class SizedEhCacheRegionFactory extends EhCacheRegionFactory {
+
+    private CacheRegionSettings regionSettings;
+
+    public SizedEhCacheRegionFactory() {
+    }
+
+    public SizedEhCacheRegionFactory(Properties properties) {
+    }
+
+    @Override
+    public void start(Settings settings, Properties properties) throws CacheException {
+        this.settings = settings;
+        regionSettings = (CacheRegionSettings) properties.get(CacheRegionSettings.SETTINGS);
+        if (regionSettings == null) {
+            regionSettings = new CacheRegionSettings();
+        }
+        regionSettings.validate();
+        try {
+            manager = new CacheManager(
+                ConfigurationFactory.parseConfiguration().name(getClass().getSimpleName() + "-" + UUID.randomUUID())
+            );
+            for (CacheRegionSettings.RegionSizing regionSizing : regionSettings.getRegions().values()) {
+                CacheConfiguration cacheConfiguration = manager.getConfiguration().getDefaultCacheConfiguration().clone()
+                    .name(CacheRegionSettings.qualify(settings.getCacheRegionPrefix(), regionSizing.getRegionName()));
+                regionSizing.apply(cacheConfiguration);
+                manager.addCache(new Cache(cacheConfiguration));
+            }
+        } catch (net.sf.ehcache.CacheException e) {
+            throw new CacheException(e);
+        }
+    }
+
+    public CacheManager getCacheManager() {
+        return manager;
+    }
+}
@@ -0,0 +1,100 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * <code>SoftLockStatistics</code> - Soft lock counters and lifetime metrics of a READ_WRITE region.
+ *
+ * The lifetime spans from acquiring the soft lock until it no longer prevents the entry
+ * from being cached, so it is the window during which all reads go to the database.
+ *
+ * @author Vlad Mihalcea
+ */
+public class SoftLockStatistics {
+
+    private final AtomicLong lockCount = new AtomicLong();
+
+    private final AtomicLong releaseCount = new AtomicLong();
+
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    private final AtomicLong lockedReadCount = new AtomicLong();
+
+    private final AtomicLong casRetryCount = new AtomicLong();
+
+    private final AtomicLong totalLifetimeNanos = new AtomicLong();
+
+    private final LongAccumulator maxLifetimeNanos = new LongAccumulator(Math::max, 0);
+
+    void locked() {
+        lockCount.incrementAndGet();
+    }
+
+    void released(long lifetimeNanos) {
+        releaseCount.incrementAndGet();
+        totalLifetimeNanos.addAndGet(lifetimeNanos);
+        maxLifetimeNanos.accumulate(lifetimeNanos);
+    }
+
+    void expired() {
+        expiredCount.incrementAndGet();
+    }
+
+    void lockedRead() {
+        lockedReadCount.incrementAndGet();
+    }
+
+    void casRetry() {
+        casRetryCount.incrementAndGet();
+    }
+
+    public long getLockCount() {
+        return lockCount.get();
+    }
+
+    public long getReleaseCount() {
+        return releaseCount.get();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    public long getLockedReadCount() {
+        return lockedReadCount.get();
+    }
+
+    public long getCasRetryCount() {
+        return casRetryCount.get();
+    }
+
+    public long getMaxLifetimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLifetimeNanos.get());
+    }
+
+    public double getAverageLifetimeMillis() {
+        long releases = releaseCount.get();
+        return releases == 0 ? 0 : (double) totalLifetimeNanos.get() / releases / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public void clear() {
+        lockCount.set(0);
+        releaseCount.set(0);
+        expiredCount.set(0);
+        lockedReadCount.set(0);
+        casRetryCount.set(0);
+        totalLifetimeNanos.set(0);
+        maxLifetimeNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "locks=%d, releases=%d, expired=%d, lockedReads=%d, casRetries=%d, avgLifetime=%.3fms, maxLifetime=%dms",
+            getLockCount(), getReleaseCount(), getExpiredCount(), getLockedReadCount(), getCasRetryCount(),
+            getAverageLifetimeMillis(), getMaxLifetimeMillis()
+        );
+    }
+}
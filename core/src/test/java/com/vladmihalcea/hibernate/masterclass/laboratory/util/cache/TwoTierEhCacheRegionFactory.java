@@ -0,0 +1,129 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.config.ConfigurationFactory;
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.ehcache.EhCacheRegionFactory;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.NaturalIdRegion;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.TimestampsRegion;
+import org.hibernate.cfg.Settings;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <code>TwoTierEhCacheRegionFactory</code> - EhCacheRegionFactory backing every region by a local
+ * near-cache and a shared remote tier, so multiple SessionFactory instances can share the
+ * second-level cache.
+ *
+ * The remote tier is supplied as a {@link RemoteCacheTransport} instance through the
+ * {@link #TRANSPORT} configuration property.
+ *
+ * @author Vlad Mihalcea
+ */
+public class TwoTierEhCacheRegionFactory extends EhCacheRegionFactory {
+
+    public static final String TRANSPORT = "hibernate.cache.two_tier.transport";
+
+    public static final String NODE_NAME = "hibernate.cache.two_tier.node_name";
+
+    private final Map<String, TwoTierEhcache> caches = new ConcurrentHashMap<>();
+
+    private RemoteCacheTransport transport;
+
+    private String nodeName;
+
+    public TwoTierEhCacheRegionFactory() {
+    }
+
+    public TwoTierEhCacheRegionFactory(Properties properties) {
+    }
+
+    @Override
+    public void start(Settings settings, Properties properties) throws CacheException {
+        this.settings = settings;
+        transport = (RemoteCacheTransport) properties.get(TRANSPORT);
+        if (transport == null) {
+            throw new CacheException("The " + TRANSPORT + " property is required!");
+        }
+        nodeName = properties.getProperty(NODE_NAME, UUID.randomUUID().toString());
+        try {
+            manager = new CacheManager(ConfigurationFactory.parseConfiguration().name(nodeName));
+        } catch (net.sf.ehcache.CacheException e) {
+            throw new CacheException(e);
+        }
+        transport.subscribe(nodeName, (region, key) -> {
+            TwoTierEhcache cache = caches.get(region);
+            if (cache != null) {
+                cache.invalidateLocal(key);
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        if (transport != null) {
+            transport.unsubscribe(nodeName);
+        }
+        caches.clear();
+        super.stop();
+    }
+
+    @Override
+    public EntityRegion buildEntityRegion(String regionName, Properties properties, CacheDataDescription metadata) throws CacheException {
+        decorate(regionName);
+        return super.buildEntityRegion(regionName, properties, metadata);
+    }
+
+    @Override
+    public NaturalIdRegion buildNaturalIdRegion(String regionName, Properties properties, CacheDataDescription metadata) throws CacheException {
+        decorate(regionName);
+        return super.buildNaturalIdRegion(regionName, properties, metadata);
+    }
+
+    @Override
+    public CollectionRegion buildCollectionRegion(String regionName, Properties properties, CacheDataDescription metadata) throws CacheException {
+        decorate(regionName);
+        return super.buildCollectionRegion(regionName, properties, metadata);
+    }
+
+    @Override
+    public QueryResultsRegion buildQueryResultsRegion(String regionName, Properties properties) throws CacheException {
+        decorate(regionName);
+        return super.buildQueryResultsRegion(regionName, properties);
+    }
+
+    @Override
+    public TimestampsRegion buildTimestampsRegion(String regionName, Properties properties) throws CacheException {
+        decorate(regionName);
+        return super.buildTimestampsRegion(regionName, properties);
+    }
+
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    public TwoTierEhcache getCache(String regionName) {
+        return caches.get(regionName);
+    }
+
+    private void decorate(String regionName) {
+        if (caches.containsKey(regionName)) {
+            return;
+        }
+        if (manager.getEhcache(regionName) == null) {
+            manager.addCache(regionName);
+        }
+        Ehcache nearCache = manager.getEhcache(regionName);
+        TwoTierEhcache cache = new TwoTierEhcache(nearCache, transport, nodeName);
+        manager.replaceCacheWithDecoratedCache(nearCache, cache);
+        caches.put(regionName, cache);
+    }
+}
@@ -0,0 +1,308 @@
+package com.vladmihalcea.hibernate.masterclass.laboratory.util.cache;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+import net.sf.ehcache.constructs.EhcacheDecoratorAdapter;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <code>TwoTierEhcache</code> - Ehcache decorator using the decorated cache as a local near-cache
+ * in front of the shared remote tier.
+ *
+ * Reads go to the remote tier only on a near-cache miss, while writes go through both tiers
+ * and notify the other nodes to drop their near-cache copy.
+ *
+ * An invalidation, or a local write, may happen while a near-cache miss is being read from the remote tier, so
+ * every invalidation and every local write increments the sequence number of the stripe its key hashes to before
+ * changing the near-cache, and the remote value is kept in the near-cache only if the stripe sequence is unchanged
+ * once the value is put, otherwise the value is returned without being cached locally.
+ *
+ * The quiet and the bulk operations go through both tiers too, while the compare-and-set and the cache writer
+ * operations throw an <code>UnsupportedOperationException</code>, since the remote tier has no atomic operations.
+ *
+ * @author Vlad Mihalcea
+ */
+public class TwoTierEhcache extends EhcacheDecoratorAdapter {
+
+    private static final int INVALIDATION_STRIPES = 64;
+
+    private final RemoteCacheTransport transport;
+
+    private final String node;
+
+    private final AtomicLong nearHitCount = new AtomicLong();
+
+    private final AtomicLong remoteHitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLongArray invalidationSequences = new AtomicLongArray(INVALIDATION_STRIPES);
+
+    public TwoTierEhcache(Ehcache nearCache, RemoteCacheTransport transport, String node) {
+        super(nearCache);
+        this.transport = transport;
+        this.node = node;
+    }
+
+    @Override
+    public Element get(Object key) {
+        return get(key, false);
+    }
+
+    @Override
+    public Element get(Serializable key) {
+        return get((Object) key, false);
+    }
+
+    @Override
+    public Element getQuiet(Object key) {
+        return get(key, true);
+    }
+
+    @Override
+    public Element getQuiet(Serializable key) {
+        return get((Object) key, true);
+    }
+
+    @Override
+    public Map<Object, Element> getAll(Collection<?> keys) {
+        Map<Object, Element> elements = new HashMap<>(keys.size());
+        for (Object key : keys) {
+            elements.put(key, get(key, false));
+        }
+        return elements;
+    }
+
+    private Element get(Object key, boolean quiet) {
+        Element element = quiet ? underlyingCache.getQuiet(key) : underlyingCache.get(key);
+        if (element != null) {
+            if (!quiet) {
+                nearHitCount.incrementAndGet();
+            }
+            return element;
+        }
+        int stripe = stripe(key);
+        long invalidationSequence = invalidationSequences.get(stripe);
+        Object value = transport.get(getName(), key);
+        if (value == null) {
+            if (!quiet) {
+                missCount.incrementAndGet();
+            }
+            return null;
+        }
+        if (!quiet) {
+            remoteHitCount.incrementAndGet();
+        }
+        element = new Element(key, value);
+        if (invalidationSequences.get(stripe) == invalidationSequence) {
+            underlyingCache.putQuiet(element);
+            //an invalidation or a local write arriving during the put must not be lost
+            if (invalidationSequences.get(stripe) != invalidationSequence) {
+                underlyingCache.removeQuiet(key);
+            }
+        }
+        return element;
+    }
+
+    @Override
+    public void put(Element element) {
+        put(element, false);
+    }
+
+    @Override
+    public void put(Element element, boolean doNotNotifyCacheReplicators) {
+        invalidationSequences.incrementAndGet(stripe(element.getObjectKey()));
+        underlyingCache.put(element, doNotNotifyCacheReplicators);
+        putRemote(element);
+    }
+
+    @Override
+    public void putQuiet(Element element) {
+        invalidationSequences.incrementAndGet(stripe(element.getObjectKey()));
+        underlyingCache.putQuiet(element);
+        putRemote(element);
+    }
+
+    @Override
+    public void putAll(Collection<Element> elements) {
+        for (Element element : elements) {
+            put(element, false);
+        }
+    }
+
+    private void putRemote(Element element) {
+        transport.put(getName(), element.getObjectKey(), element.getObjectValue());
+        transport.publish(node, getName(), element.getObjectKey());
+    }
+
+    @Override
+    public boolean remove(Object key) {
+        return remove(key, false);
+    }
+
+    @Override
+    public boolean remove(Serializable key) {
+        return remove((Object) key, false);
+    }
+
+    @Override
+    public boolean remove(Serializable key, boolean doNotNotifyCacheReplicators) {
+        return remove((Object) key, doNotNotifyCacheReplicators);
+    }
+
+    @Override
+    public boolean remove(Object key, boolean doNotNotifyCacheReplicators) {
+        invalidationSequences.incrementAndGet(stripe(key));
+        boolean removed = underlyingCache.remove(key, doNotNotifyCacheReplicators);
+        removeRemote(key);
+        return removed;
+    }
+
+    @Override
+    public boolean removeQuiet(Object key) {
+        invalidationSequences.incrementAndGet(stripe(key));
+        boolean removed = underlyingCache.removeQuiet(key);
+        removeRemote(key);
+        return removed;
+    }
+
+    @Override
+    public boolean removeQuiet(Serializable key) {
+        return removeQuiet((Object) key);
+    }
+
+    @Override
+    public void removeAll(Collection<?> keys) {
+        removeAll(keys, false);
+    }
+
+    @Override
+    public void removeAll(Collection<?> keys, boolean doNotNotifyCacheReplicators) {
+        for (Object key : keys) {
+            remove(key, doNotNotifyCacheReplicators);
+        }
+    }
+
+    private void removeRemote(Object key) {
+        transport.remove(getName(), key);
+        transport.publish(node, getName(), key);
+    }
+
+    @Override
+    public void removeAll() {
+        removeAll(false);
+    }
+
+    @Override
+    public void removeAll(boolean doNotNotifyCacheReplicators) {
+        incrementAllInvalidationSequences();
+        underlyingCache.removeAll(doNotNotifyCacheReplicators);
+        transport.clear(getName());
+        transport.publish(node, getName(), null);
+    }
+
+    @Override
+    public Element putIfAbsent(Element element) {
+        throw unsupported("putIfAbsent");
+    }
+
+    @Override
+    public Element putIfAbsent(Element element, boolean doNotNotifyCacheReplicators) {
+        throw unsupported("putIfAbsent");
+    }
+
+    @Override
+    public Element replace(Element element) {
+        throw unsupported("replace");
+    }
+
+    @Override
+    public boolean replace(Element old, Element element) {
+        throw unsupported("replace");
+    }
+
+    @Override
+    public boolean removeElement(Element element) {
+        throw unsupported("removeElement");
+    }
+
+    @Override
+    public Element removeAndReturnElement(Object key) {
+        throw unsupported("removeAndReturnElement");
+    }
+
+    @Override
+    public void putWithWriter(Element element) {
+        throw unsupported("putWithWriter");
+    }
+
+    @Override
+    public boolean removeWithWriter(Object key) {
+        throw unsupported("removeWithWriter");
+    }
+
+    private UnsupportedOperationException unsupported(String operation) {
+        return new UnsupportedOperationException(
+            "The two-tier cache " + getName() + " does not support " + operation
+        );
+    }
+
+    /**
+     * Drop the near-cache copy after another node has changed the entry
+     *
+     * @param key entry key or <code>null</code> for the whole region
+     */
+    public void invalidateLocal(Object key) {
+        if (key != null) {
+            invalidationSequences.incrementAndGet(stripe(key));
+            underlyingCache.remove(key);
+        } else {
+            incrementAllInvalidationSequences();
+            underlyingCache.removeAll();
+        }
+    }
+
+    private void incrementAllInvalidationSequences() {
+        for (int i = 0; i < INVALIDATION_STRIPES; i++) {
+            invalidationSequences.incrementAndGet(i);
+        }
+    }
+
+    private int stripe(Object key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % INVALIDATION_STRIPES;
+    }
+
+    public Ehcache getNearCache() {
+        return underlyingCache;
+    }
+
+    public long getNearHitCount() {
+        return nearHitCount.get();
+    }
+
+    public long getRemoteHitCount() {
+        return remoteHitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public void clearStatistics() {
+        nearHitCount.set(0);
+        remoteHitCount.set(0);
+        missCount.set(0);
+    }
+
+    public double getHitRatio() {
+        long hits = nearHitCount.get() + remoteHitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}